@@ -1,28 +1,35 @@
 package org.atlasapi;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import java.net.UnknownHostException;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.atlasapi.content.Content;
-import org.atlasapi.content.ContentHasher;
 import org.atlasapi.content.ContentStore;
 import org.atlasapi.content.EquivalentContentStore;
 import org.atlasapi.content.EsContentIndex;
 import org.atlasapi.content.EsContentTitleSearcher;
+import org.atlasapi.content.ProtobufContentHasher;
+import org.atlasapi.equivalence.EquivalenceGraphCache;
 import org.atlasapi.equivalence.EquivalenceGraphStore;
+import org.atlasapi.equivalence.EquivalenceGraphUpdateMessage;
 import org.atlasapi.media.channel.CachingChannelStore;
 import org.atlasapi.media.channel.ChannelGroupStore;
 import org.atlasapi.media.channel.ChannelStore;
 import org.atlasapi.media.channel.MongoChannelGroupStore;
 import org.atlasapi.media.channel.MongoChannelStore;
+import org.atlasapi.messaging.EquivalenceGraphCacheInvalidationWorker;
+import org.atlasapi.messaging.JacksonMessageSerializer;
 import org.atlasapi.messaging.KafkaMessagingModule;
-import org.atlasapi.messaging.MessagingModule;
 import org.atlasapi.persistence.ids.MongoSequentialIdGenerator;
 import org.atlasapi.schedule.EquivalentScheduleStore;
 import org.atlasapi.schedule.ScheduleStore;
+import org.atlasapi.system.MetricsProbe;
 import org.atlasapi.topic.EsPopularTopicIndex;
 import org.atlasapi.topic.EsTopicIndex;
 import org.atlasapi.topic.TopicStore;
@@ -30,11 +37,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Primary;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.metabroadcast.common.health.HealthProbe;
@@ -44,6 +55,8 @@ import com.metabroadcast.common.persistence.mongo.DatabasedMongo;
 import com.metabroadcast.common.persistence.mongo.health.MongoConnectionPoolProbe;
 import com.metabroadcast.common.properties.Configurer;
 import com.metabroadcast.common.properties.Parameter;
+import com.metabroadcast.common.queue.Worker;
+import com.metabroadcast.common.queue.kafka.KafkaConsumer;
 import com.mongodb.Mongo;
 import com.mongodb.MongoClient;
 import com.mongodb.ReadPreference;
@@ -65,40 +78,105 @@ public class AtlasPersistenceModule {
     private final String cassandraPort = Configurer.get("cassandra.port").get();
     private final String cassandraConnectionTimeout = Configurer.get("cassandra.connectionTimeout").get();
     private final String cassandraClientThreads = Configurer.get("cassandra.clientThreads").get();
+    private final Boolean cassandraNativeStores = Configurer.get("cassandra.nativeStores").toBoolean();
+    private final Boolean equivalenceGraphCacheEnabled = Configurer.get("cassandra.equivalence.cache").toBoolean();
+    private final Integer equivalenceGraphCacheMaxResources = Configurer.get("cassandra.equivalence.cache.maxResources").toInt();
+    private final String contentEquivalenceGraphChanges = Configurer.get("messaging.destination.equivalence.content.graph.changes").get();
+    private final String localHostName = Configurer.get("local.host.name").get();
  
     private final String esSeeds = Configurer.get("elasticsearch.seeds").get();
     private final String esCluster = Configurer.get("elasticsearch.cluster").get();
     private final String esRequestTimeout = Configurer.get("elasticsearch.requestTimeout").get();
     private final Parameter processingConfig = Configurer.get("processing.config");
 
-    @Autowired MessagingModule messaging;
-
-    @PostConstruct
-    public void init() {
-        persistenceModule().startAsync().awaitRunning();
-    }
+    @Autowired KafkaMessagingModule messaging;
 
     @Bean
-    public CassandraPersistenceModule persistenceModule() {
+    public PersistenceModule persistenceModule() {
         Iterable<String> seeds = Splitter.on(",").split(cassandraSeeds);
+        DatastaxCassandraService cassandraService = new DatastaxCassandraService(seeds);
+        cassandraService.startAsync().awaitRunning();
+        Optional<EquivalenceGraphCache> equivalenceGraphCache = equivalenceGraphCacheEnabled
+            ? Optional.of(contentEquivalenceGraphCache())
+            : Optional.<EquivalenceGraphCache>absent();
+        if (cassandraNativeStores) {
+            DatastaxPersistenceModule persistenceModule = new DatastaxPersistenceModule(
+                    messaging.messageSenderFactory(), cassandraService, cassandraKeyspace,
+                    idGeneratorBuilder(), new ProtobufContentHasher(), equivalenceGraphCache,
+                    persistenceMetrics());
+            persistenceModule.startAsync().awaitRunning();
+            return persistenceModule;
+        }
         ConfiguredAstyanaxContext contextSupplier = new ConfiguredAstyanaxContext(cassandraCluster, cassandraKeyspace, 
                 seeds, Integer.parseInt(cassandraPort), 
                 Integer.parseInt(cassandraClientThreads), Integer.parseInt(cassandraConnectionTimeout));
         AstyanaxContext<Keyspace> context = contextSupplier.get();
         context.start();
-        DatastaxCassandraService cassandraService = new DatastaxCassandraService(seeds);
-        cassandraService.startAsync().awaitRunning();
         
-        return new CassandraPersistenceModule(messaging.messageSenderFactory(),
+        CassandraPersistenceModule persistenceModule = new CassandraPersistenceModule(messaging.messageSenderFactory(),
                 context,
                 cassandraService,
                 cassandraKeyspace,
-                idGeneratorBuilder(), new ContentHasher() {
-                    @Override
-                    public String hash(Content content) {
-                        return UUID.randomUUID().toString();
-                    }
-                });
+                idGeneratorBuilder(), new ProtobufContentHasher(), equivalenceGraphCache,
+                persistenceMetrics());
+        persistenceModule.startAsync().awaitRunning();
+        return persistenceModule;
+    }
+
+    @Bean
+    public MetricRegistry persistenceMetrics() {
+        return new MetricRegistry();
+    }
+
+    @Bean
+    HealthProbe persistenceMetricsProbe() {
+        return new MetricsProbe("Persistence", "persistence-metrics", persistenceMetrics());
+    }
+
+    /**
+     * Only used by the persistence module if enabled, in which case it must be
+     * invalidated by the equivalence graph changes of every process.
+     */
+    @Bean
+    public EquivalenceGraphCache contentEquivalenceGraphCache() {
+        return EquivalenceGraphCache.builder()
+            .withMaximumResources(equivalenceGraphCacheMaxResources)
+            .withMetrics(persistenceMetrics(), "equivalence-graph-cache")
+            .build();
+    }
+
+    @Bean
+    @Lazy(true)
+    public Worker<EquivalenceGraphUpdateMessage> equivalenceGraphCacheInvalidationWorker() {
+        return new EquivalenceGraphCacheInvalidationWorker(contentEquivalenceGraphCache());
+    }
+
+    @Bean
+    @Lazy(true)
+    public KafkaConsumer equivalenceGraphCacheInvalidationListener() {
+        // a group per process, as every process's cache sees every change
+        checkState(!Strings.nullToEmpty(localHostName).trim().isEmpty(),
+            "local.host.name must be set when cassandra.equivalence.cache is enabled");
+        return messaging.messageConsumerFactory().createConsumer(equivalenceGraphCacheInvalidationWorker(),
+                JacksonMessageSerializer.forType(EquivalenceGraphUpdateMessage.class),
+                contentEquivalenceGraphChanges, "EquivalenceGraphCache-" + localHostName.trim())
+                .withDefaultConsumers(1)
+                .withMaxConsumers(1)
+                .build();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (equivalenceGraphCacheEnabled) {
+            equivalenceGraphCacheInvalidationListener().startAsync().awaitRunning();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws TimeoutException {
+        if (equivalenceGraphCacheEnabled) {
+            equivalenceGraphCacheInvalidationListener().stopAsync().awaitTerminated(1, TimeUnit.MINUTES);
+        }
     }
     
     @Bean
@@ -0,0 +1,23 @@
+package org.atlasapi.messaging;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.atlasapi.equivalence.EquivalenceGraphCache;
+import org.atlasapi.equivalence.EquivalenceGraphUpdateMessage;
+
+import com.metabroadcast.common.queue.Worker;
+
+public class EquivalenceGraphCacheInvalidationWorker implements Worker<EquivalenceGraphUpdateMessage> {
+
+    private final EquivalenceGraphCache cache;
+
+    public EquivalenceGraphCacheInvalidationWorker(EquivalenceGraphCache cache) {
+        this.cache = checkNotNull(cache);
+    }
+
+    @Override
+    public void process(EquivalenceGraphUpdateMessage message) {
+        cache.invalidate(message.getGraphUpdate());
+    }
+
+}
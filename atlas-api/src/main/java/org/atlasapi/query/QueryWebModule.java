@@ -231,7 +231,9 @@ public class QueryWebModule {
 
     @Bean
     SearchController searchController() {
-        return new SearchController(v4SearchResolver, configFetcher, new ContentQueryResultWriter(contentListWriter()));
+        return new SearchController(v4SearchResolver, configFetcher,
+            new IndexAnnotationsExtractor(contentAnnotationIndex()),
+            new ContentQueryResultWriter(contentListWriter()));
     }
     
     @Bean
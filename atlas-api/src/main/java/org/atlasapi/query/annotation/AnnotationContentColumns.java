@@ -0,0 +1,103 @@
+package org.atlasapi.query.annotation;
+
+import static org.atlasapi.annotation.Annotation.AVAILABLE_LOCATIONS;
+import static org.atlasapi.annotation.Annotation.BRAND_REFERENCE;
+import static org.atlasapi.annotation.Annotation.BRAND_SUMMARY;
+import static org.atlasapi.annotation.Annotation.BROADCASTS;
+import static org.atlasapi.annotation.Annotation.CHANNELS;
+import static org.atlasapi.annotation.Annotation.CLIPS;
+import static org.atlasapi.annotation.Annotation.CONTENT_DETAIL;
+import static org.atlasapi.annotation.Annotation.CONTENT_GROUPS;
+import static org.atlasapi.annotation.Annotation.CONTENT_SUMMARY;
+import static org.atlasapi.annotation.Annotation.DESCRIPTION;
+import static org.atlasapi.annotation.Annotation.EXTENDED_DESCRIPTION;
+import static org.atlasapi.annotation.Annotation.EXTENDED_ID;
+import static org.atlasapi.annotation.Annotation.FIRST_BROADCASTS;
+import static org.atlasapi.annotation.Annotation.ID;
+import static org.atlasapi.annotation.Annotation.ID_SUMMARY;
+import static org.atlasapi.annotation.Annotation.IMAGES;
+import static org.atlasapi.annotation.Annotation.KEY_PHRASES;
+import static org.atlasapi.annotation.Annotation.LICENSE;
+import static org.atlasapi.annotation.Annotation.LOCATIONS;
+import static org.atlasapi.annotation.Annotation.NEXT_BROADCASTS;
+import static org.atlasapi.annotation.Annotation.PEOPLE;
+import static org.atlasapi.annotation.Annotation.PUBLISHER;
+import static org.atlasapi.annotation.Annotation.RELATED_LINKS;
+import static org.atlasapi.annotation.Annotation.SEGMENT_EVENTS;
+import static org.atlasapi.annotation.Annotation.SERIES_REFERENCE;
+import static org.atlasapi.annotation.Annotation.SERIES_SUMMARY;
+import static org.atlasapi.annotation.Annotation.SUB_ITEMS;
+import static org.atlasapi.annotation.Annotation.TOPICS;
+
+import java.util.Set;
+
+import org.atlasapi.annotation.Annotation;
+import org.atlasapi.content.ContentColumn;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Maps the active output {@link Annotation}s of a content query to the
+ * {@link ContentColumn}s which must be resolved to write them. Annotations
+ * which imply others are mapped to the columns of everything they imply. If any
+ * annotation isn't known to be covered by a set of columns then all columns
+ * are required.
+ */
+public final class AnnotationContentColumns {
+
+    private static final ImmutableSet<ContentColumn> ALL_COLUMNS
+        = ImmutableSet.copyOf(ContentColumn.values());
+
+    private static final ImmutableSetMultimap<Annotation, ContentColumn> COLUMNS
+        = ImmutableSetMultimap.<Annotation, ContentColumn>builder()
+            .putAll(BRAND_SUMMARY, ContentColumn.DESCRIPTION)
+            .putAll(SERIES_SUMMARY, ContentColumn.DESCRIPTION)
+            .putAll(DESCRIPTION, ContentColumn.DESCRIPTION)
+            .putAll(EXTENDED_DESCRIPTION, ContentColumn.DESCRIPTION)
+            .putAll(IMAGES, ContentColumn.DESCRIPTION)
+            .putAll(SUB_ITEMS, ContentColumn.CHILDREN, ContentColumn.SECONDARY)
+            .putAll(CLIPS, ContentColumn.CLIPS)
+            .putAll(PEOPLE, ContentColumn.PEOPLE)
+            .putAll(TOPICS, ContentColumn.TOPICS)
+            .putAll(CONTENT_GROUPS, ContentColumn.GROUPS)
+            .putAll(SEGMENT_EVENTS, ContentColumn.SEGMENTS)
+            .putAll(RELATED_LINKS, ContentColumn.LINKS)
+            .putAll(KEY_PHRASES, ContentColumn.KEYPHRASES)
+            .putAll(BROADCASTS, ContentColumn.BROADCASTS)
+            .putAll(FIRST_BROADCASTS, ContentColumn.BROADCASTS)
+            .putAll(NEXT_BROADCASTS, ContentColumn.BROADCASTS)
+            .putAll(CHANNELS, ContentColumn.BROADCASTS)
+            .putAll(LOCATIONS, ContentColumn.LOCATIONS)
+            .putAll(AVAILABLE_LOCATIONS, ContentColumn.LOCATIONS)
+            .putAll(CONTENT_SUMMARY, ContentColumn.DESCRIPTION,
+                ContentColumn.BROADCASTS, ContentColumn.LOCATIONS)
+            .putAll(CONTENT_DETAIL, ContentColumn.DESCRIPTION,
+                ContentColumn.CHILDREN, ContentColumn.SECONDARY, ContentColumn.CLIPS,
+                ContentColumn.PEOPLE, ContentColumn.BROADCASTS, ContentColumn.LOCATIONS,
+                ContentColumn.KEYPHRASES, ContentColumn.LINKS)
+            .build();
+
+    // annotations which need no columns beyond the identifying ones.
+    private static final ImmutableSet<Annotation> IDENTIFYING = ImmutableSet.of(
+        LICENSE, ID_SUMMARY, ID, EXTENDED_ID, PUBLISHER, BRAND_REFERENCE, SERIES_REFERENCE
+    );
+
+    /**
+     * @return the columns needed to write content with the given annotations.
+     */
+    public static ImmutableSet<ContentColumn> forAnnotations(Set<Annotation> annotations) {
+        ImmutableSet.Builder<ContentColumn> columns = ImmutableSet.builder();
+        for (Annotation annotation : annotations) {
+            Set<ContentColumn> annotationColumns = COLUMNS.get(annotation);
+            if (annotationColumns.isEmpty() && !IDENTIFYING.contains(annotation)) {
+                return ALL_COLUMNS;
+            }
+            columns.addAll(annotationColumns);
+        }
+        return columns.build();
+    }
+
+    private AnnotationContentColumns() { }
+
+}
@@ -20,6 +20,7 @@ import org.atlasapi.output.JsonResponseWriter;
 import org.atlasapi.output.QueryResultWriter;
 import org.atlasapi.output.ResponseWriter;
 import org.atlasapi.output.ResponseWriterFactory;
+import org.atlasapi.query.annotation.AnnotationsExtractor;
 import org.atlasapi.query.common.QueryContext;
 import org.atlasapi.query.common.QueryResult;
 import org.atlasapi.query.v2.ParameterChecker;
@@ -65,6 +66,7 @@ public class SearchController {
     
     private final SearchResolver searcher;
     private final ApplicationSourcesFetcher sourcesFetcher;
+    private final AnnotationsExtractor annotationsExtractor;
     private final QueryResultWriter<Content> resultWriter;
 
     private final ResponseWriterFactory writerResolver = new ResponseWriterFactory();
@@ -86,9 +88,11 @@ public class SearchController {
             PRIORITY_CHANNEL_WEIGHTING
     ));
 
-    public SearchController(SearchResolver searcher, ApplicationSourcesFetcher configFetcher, QueryResultWriter<Content> resultWriter) {
+    public SearchController(SearchResolver searcher, ApplicationSourcesFetcher configFetcher, 
+            AnnotationsExtractor annotationsExtractor, QueryResultWriter<Content> resultWriter) {
         this.searcher = searcher;
         this.sourcesFetcher = configFetcher;
+        this.annotationsExtractor = annotationsExtractor;
         this.resultWriter = resultWriter;
     }
 
@@ -126,6 +130,8 @@ public class SearchController {
             ApplicationSources appSources = sourcesFetcher.sourcesFor(request).or(ApplicationSources.defaults());
             Set<Specialization> specializations = specializations(specialization);
             Set<Publisher> publishers = publishers(publisher, appSources);
+            QueryContext context = new QueryContext(appSources, 
+                    annotationsExtractor.extractFromListRequest(request), selection);
             List<Identified> content = searcher.search(SearchQuery.builder(q)
                     .withSelection(selection)
                     .withSpecializations(specializations)
@@ -137,8 +143,8 @@ public class SearchController {
                     .withType(type)
                     .isTopLevelOnly(!Strings.isNullOrEmpty(topLevel) ? Boolean.valueOf(topLevel) : null)
                     .withCurrentBroadcastsOnly(!Strings.isNullOrEmpty(currentBroadcastsOnly) ? Boolean.valueOf(currentBroadcastsOnly) : null)
-                    .build(), appSources);
-            resultWriter.write(QueryResult.listResult(Iterables.filter(content, Content.class), QueryContext.standard()), writer);
+                    .build(), appSources, context.getAnnotations().all());
+            resultWriter.write(QueryResult.listResult(Iterables.filter(content, Content.class), context), writer);
         } catch (Exception e) {
             log.error("Request exception " + request.getRequestURI(), e);
             ErrorSummary summary = ErrorSummary.forException(e);
@@ -3,14 +3,18 @@ package org.atlasapi.query.v4.search.support;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.atlasapi.annotation.Annotation;
 import org.atlasapi.application.ApplicationSources;
 import org.atlasapi.content.Content;
+import org.atlasapi.content.ContentColumn;
 import org.atlasapi.content.ContentResolver;
 import org.atlasapi.content.ContentTitleSearcher;
 import org.atlasapi.content.Identified;
 import org.atlasapi.entity.util.Resolved;
+import org.atlasapi.query.annotation.AnnotationContentColumns;
 import org.atlasapi.search.SearchQuery;
 import org.atlasapi.search.SearchResolver;
 import org.atlasapi.search.SearchResults;
@@ -34,7 +38,8 @@ public class ContentResolvingSearcher implements SearchResolver {
     }
 
     @Override
-    public List<Identified> search(SearchQuery query, ApplicationSources sources) {
+    public List<Identified> search(SearchQuery query, ApplicationSources sources, Set<Annotation> annotations) {
+        final Set<ContentColumn> columns = AnnotationContentColumns.forAnnotations(annotations);
         try {
             
             return Futures.transform(Futures.transform(searcher.search(query), 
@@ -44,7 +49,7 @@ public class ContentResolvingSearcher implements SearchResolver {
                         if (input.getIds().isEmpty()) {
                             return Futures.immediateFuture(Resolved.<Content>empty());
                         }
-                        return contentResolver.resolveIds(input.getIds());
+                        return contentResolver.resolveIds(input.getIds(), columns);
                     }
             }), new Function<Resolved<Content>, List<Identified>>() {
                     @Override
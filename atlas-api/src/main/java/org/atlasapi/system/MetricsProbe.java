@@ -0,0 +1,71 @@
+package org.atlasapi.system;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.text.DecimalFormat;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.metabroadcast.common.health.HealthProbe;
+import com.metabroadcast.common.health.ProbeResult;
+
+/**
+ * Reports the metrics of a {@link MetricRegistry}, such as those of the
+ * persistence caches.
+ */
+public class MetricsProbe implements HealthProbe {
+
+    private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String title;
+    private final String slug;
+    private final MetricRegistry metrics;
+
+    public MetricsProbe(String title, String slug, MetricRegistry metrics) {
+        this.title = checkNotNull(title);
+        this.slug = checkNotNull(slug);
+        this.metrics = checkNotNull(metrics);
+    }
+
+    @Override
+    public ProbeResult probe() throws Exception {
+        DecimalFormat dpsFormat = new DecimalFormat("0.00");
+        ProbeResult result = new ProbeResult(title);
+        for (Entry<String, Counter> entry : metrics.getCounters().entrySet()) {
+            result.addInfo(entry.getKey(), Long.toString(entry.getValue().getCount()));
+        }
+        for (Entry<String, Gauge> entry : metrics.getGauges().entrySet()) {
+            result.addInfo(entry.getKey(), String.valueOf(entry.getValue().getValue()));
+        }
+        for (Entry<String, Histogram> entry : metrics.getHistograms().entrySet()) {
+            Snapshot snapshot = entry.getValue().getSnapshot();
+            result.addInfo(entry.getKey() + "-mean", dpsFormat.format(snapshot.getMean()));
+            result.addInfo(entry.getKey() + "-max", Long.toString(snapshot.getMax()));
+            result.addInfo(entry.getKey() + "-99th", dpsFormat.format(snapshot.get99thPercentile()));
+        }
+        for (Entry<String, Timer> entry : metrics.getTimers().entrySet()) {
+            Snapshot snapshot = entry.getValue().getSnapshot();
+            result.addInfo(entry.getKey() + "-count", Long.toString(entry.getValue().getCount()));
+            result.addInfo(entry.getKey() + "-mean-ms", dpsFormat.format(snapshot.getMean() / MILLIS));
+            result.addInfo(entry.getKey() + "-99th-ms", dpsFormat.format(snapshot.get99thPercentile() / MILLIS));
+        }
+        return result;
+    }
+
+    @Override
+    public String title() {
+        return title;
+    }
+
+    @Override
+    public String slug() {
+        return slug;
+    }
+
+}
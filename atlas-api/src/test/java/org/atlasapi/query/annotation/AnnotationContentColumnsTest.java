@@ -0,0 +1,36 @@
+package org.atlasapi.query.annotation;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.atlasapi.annotation.Annotation;
+import org.atlasapi.content.ContentColumn;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class AnnotationContentColumnsTest {
+
+    @Test
+    public void testStandardAnnotationsNeedOnlyIdentifyingColumns() {
+        assertThat(AnnotationContentColumns.forAnnotations(Annotation.standard()),
+            is(ImmutableSet.<ContentColumn>of()));
+    }
+
+    @Test
+    public void testSummaryAnnotationsSkipUnrequestedColumns() {
+        ImmutableSet<ContentColumn> columns = AnnotationContentColumns.forAnnotations(
+            ImmutableSet.of(Annotation.ID, Annotation.DESCRIPTION, Annotation.BROADCASTS));
+
+        assertThat(columns, is(ImmutableSet.of(ContentColumn.DESCRIPTION, ContentColumn.BROADCASTS)));
+    }
+
+    @Test
+    public void testUnmappedAnnotationRequiresAllColumns() {
+        ImmutableSet<ContentColumn> columns = AnnotationContentColumns.forAnnotations(
+            ImmutableSet.of(Annotation.ID, Annotation.UPCOMING));
+
+        assertThat(columns, is(ImmutableSet.copyOf(ContentColumn.values())));
+    }
+
+}
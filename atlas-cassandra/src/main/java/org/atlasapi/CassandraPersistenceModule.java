@@ -1,12 +1,21 @@
 package org.atlasapi;
 
+import java.util.concurrent.TimeUnit;
+
 import org.atlasapi.content.CassandraContentStore;
 import org.atlasapi.content.CassandraEquivalentContentStore;
+import org.atlasapi.content.ContainerSummaryCache;
+import org.atlasapi.content.ContentHashCache;
 import org.atlasapi.content.ContentHasher;
 import org.atlasapi.content.EquivalentContentStore;
+import org.atlasapi.entity.AliasBloomFilter;
 import org.atlasapi.equivalence.CassandraEquivalenceGraphStore;
+import org.atlasapi.equivalence.DeferredEquivalenceRecomputer;
+import org.atlasapi.equivalence.EquivalenceGraphCache;
 import org.atlasapi.equivalence.EquivalenceGraphStore;
 import org.atlasapi.equivalence.EquivalenceGraphUpdateMessage;
+import org.atlasapi.equivalence.GraphSizePolicy;
+import org.atlasapi.equivalence.OptimisticRetry;
 import org.atlasapi.messaging.JacksonMessageSerializer;
 import org.atlasapi.messaging.ResourceUpdatedMessage;
 import org.atlasapi.schedule.CassandraEquivalentScheduleStore;
@@ -15,10 +24,13 @@ import org.atlasapi.schedule.EquivalentScheduleStore;
 import org.atlasapi.schedule.ScheduleUpdateMessage;
 import org.atlasapi.topic.CassandraTopicStore;
 import org.atlasapi.topic.Topic;
+import org.atlasapi.util.FanOut;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.Session;
 import com.google.common.base.Equivalence;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.metabroadcast.common.ids.IdGeneratorBuilder;
 import com.metabroadcast.common.properties.Configurer;
@@ -39,6 +51,20 @@ public class CassandraPersistenceModule extends AbstractIdleService implements P
     private String scheduleChanges = Configurer.get("messaging.destination.schedule.changes").get();
     
     private Boolean processing = Objects.firstNonNull(Configurer.get("processing.config"), Parameter.valueOf("false")).toBoolean();
+    private Boolean fanOutPerPartition = Objects.firstNonNull(Configurer.get("cassandra.fanOut.perPartition"), Parameter.valueOf("true")).toBoolean();
+    private Integer fanOutMaxInFlight = Objects.firstNonNull(Configurer.get("cassandra.fanOut.maxInFlight"), Parameter.valueOf(String.valueOf(FanOut.DEFAULT_MAX_IN_FLIGHT))).toInt();
+    private Boolean optimisticEquivalence = Objects.firstNonNull(Configurer.get("cassandra.equivalence.optimistic"), Parameter.valueOf("false")).toBoolean();
+    private Integer optimisticMaxAttempts = Objects.firstNonNull(Configurer.get("cassandra.equivalence.optimistic.maxAttempts"), Parameter.valueOf(String.valueOf(OptimisticRetry.DEFAULT_MAX_ATTEMPTS))).toInt();
+    private Integer equivalenceMaxSetSize = Objects.firstNonNull(Configurer.get("cassandra.equivalence.maxSetSize"), Parameter.valueOf(String.valueOf(GraphSizePolicy.DEFAULT_LIMIT))).toInt();
+    private String equivalenceSourceMaxSetSizes = Objects.firstNonNull(Configurer.get("cassandra.equivalence.maxSetSize.sources"), Parameter.valueOf("")).get();
+    private Boolean deferOversizeEquivalence = Objects.firstNonNull(Configurer.get("cassandra.equivalence.oversize.defer"), Parameter.valueOf("false")).toBoolean();
+    private Integer deferredMaxSetSize = Objects.firstNonNull(Configurer.get("cassandra.equivalence.oversize.deferredMaxSetSize"), Parameter.valueOf("500")).toInt();
+    private Boolean contentHashCache = Objects.firstNonNull(Configurer.get("cassandra.content.hashCache"), Parameter.valueOf("false")).toBoolean();
+    private Integer contentHashCacheMegabytes = Objects.firstNonNull(Configurer.get("cassandra.content.hashCache.megabytes"), Parameter.valueOf("64")).toInt();
+    private Integer childRefWriteBehindMillis = Objects.firstNonNull(Configurer.get("cassandra.content.childRefWriteBehind.millis"), Parameter.valueOf("0")).toInt();
+    private Boolean contentAliasFilter = Objects.firstNonNull(Configurer.get("cassandra.content.aliasFilter"), Parameter.valueOf("false")).toBoolean();
+    private Integer contentAliasFilterExpectedAliases = Objects.firstNonNull(Configurer.get("cassandra.content.aliasFilter.expectedAliases"), Parameter.valueOf("1000000")).toInt();
+    private Integer contentAliasFilterRebuildMinutes = Objects.firstNonNull(Configurer.get("cassandra.content.aliasFilter.rebuild.minutes"), Parameter.valueOf("60")).toInt();
     
     private final String keyspace;
 
@@ -49,23 +75,49 @@ public class CassandraPersistenceModule extends AbstractIdleService implements P
     private final DatastaxCassandraService dataStaxService;
 
     private CassandraEquivalenceGraphStore contentEquivalenceGraphStore;
+    private DeferredEquivalenceRecomputer deferredEquivalenceRecomputer;
     private CassandraEquivalentContentStore equivalentContentStore;
     private CassandraEquivalentScheduleStore equivalentScheduleStore;
 
     private MessageSenderFactory messageSenderFactory;
+    private final Optional<EquivalenceGraphCache> equivalenceGraphCache;
+    private final MetricRegistry metrics;
     
     public CassandraPersistenceModule(MessageSenderFactory messageSenderFactory, 
             AstyanaxContext<Keyspace> context, DatastaxCassandraService datastaxCassandraService, 
             String keyspace, IdGeneratorBuilder idGeneratorBuilder, ContentHasher hasher) {
+        this(messageSenderFactory, context, datastaxCassandraService, keyspace, idGeneratorBuilder,
+            hasher, Optional.<EquivalenceGraphCache>absent(), new MetricRegistry());
+    }
+    
+    public CassandraPersistenceModule(MessageSenderFactory messageSenderFactory, 
+            AstyanaxContext<Keyspace> context, DatastaxCassandraService datastaxCassandraService, 
+            String keyspace, IdGeneratorBuilder idGeneratorBuilder, ContentHasher hasher,
+            Optional<EquivalenceGraphCache> equivalenceGraphCache, MetricRegistry metrics) {
         this.messageSenderFactory = messageSenderFactory;
+        this.equivalenceGraphCache = equivalenceGraphCache;
+        this.metrics = metrics;
         this.keyspace = keyspace;
         this.context = context;
         ConsistencyLevel readConsistency = processing ? ConsistencyLevel.CL_QUORUM : ConsistencyLevel.CL_ONE;
-        this.contentStore = CassandraContentStore.builder(context, "content", 
+        CassandraContentStore.Builder contentStoreBuilder = CassandraContentStore.builder(context, "content", 
             hasher, sender(contentChanges, ResourceUpdatedMessage.class), idGeneratorBuilder.generator("content"))
             .withReadConsistency(readConsistency)
-            .withWriteConsistency(ConsistencyLevel.CL_QUORUM)
-            .build();
+            .withWriteConsistency(ConsistencyLevel.CL_QUORUM);
+        if (contentHashCache) {
+            contentStoreBuilder.withHashCache(contentHashCache());
+        }
+        if (processing) {
+            // ingest writes many children of the same containers in quick succession
+            contentStoreBuilder.withContainerSummaryCache(containerSummaryCache());
+        }
+        if (processing && childRefWriteBehindMillis > 0) {
+            contentStoreBuilder.withChildRefWriteBehind(childRefWriteBehindMillis, TimeUnit.MILLISECONDS);
+        }
+        if (contentAliasFilter) {
+            contentStoreBuilder.withAliasFilter(contentAliasFilter(), contentAliasFilterRebuildMinutes, TimeUnit.MINUTES);
+        }
+        this.contentStore = contentStoreBuilder.build();
         this.topicStore = CassandraTopicStore.builder(context, "topics", 
             topicEquivalence(), sender(topicChanges, ResourceUpdatedMessage.class), idGeneratorBuilder.generator("topic"))
             .withReadConsistency(readConsistency)
@@ -85,17 +137,60 @@ public class CassandraPersistenceModule extends AbstractIdleService implements P
         com.datastax.driver.core.ConsistencyLevel read = processing ? com.datastax.driver.core.ConsistencyLevel.QUORUM
                                                                     : com.datastax.driver.core.ConsistencyLevel.ONE;
         com.datastax.driver.core.ConsistencyLevel write = com.datastax.driver.core.ConsistencyLevel.QUORUM;
-        this.contentEquivalenceGraphStore = new CassandraEquivalenceGraphStore(sender(contentEquivalenceGraphChanges, EquivalenceGraphUpdateMessage.class), session, read, write);
-        this.equivalentContentStore = new CassandraEquivalentContentStore(contentStore, contentEquivalenceGraphStore, session, read, write);
+        FanOut fanOut = FanOut.valueOf(fanOutPerPartition, fanOutMaxInFlight);
+        Optional<OptimisticRetry> optimistic = optimisticEquivalence
+            ? Optional.of(OptimisticRetry.of(optimisticMaxAttempts, OptimisticRetry.DEFAULT_INITIAL_BACKOFF_MILLIS))
+            : Optional.<OptimisticRetry>absent();
+        this.contentEquivalenceGraphStore = new CassandraEquivalenceGraphStore(sender(contentEquivalenceGraphChanges, EquivalenceGraphUpdateMessage.class), session, read, write, fanOut, optimistic, graphSizePolicy(), equivalenceGraphCache);
+        if (deferOversizeEquivalence) {
+            this.deferredEquivalenceRecomputer = new DeferredEquivalenceRecomputer(contentEquivalenceGraphStore, 100, 1, TimeUnit.MINUTES);
+            deferredEquivalenceRecomputer.startAsync();
+        }
+        this.equivalentContentStore = new CassandraEquivalentContentStore(contentStore, contentEquivalenceGraphStore, session, read, write, fanOut);
         this.equivalentScheduleStore = new CassandraEquivalentScheduleStore(contentEquivalenceGraphStore, contentStore, session, read, write, new SystemClock());
     }
 
+    private ContentHashCache contentHashCache() {
+        return ContentHashCache.builder()
+            .withMaximumBytes(contentHashCacheMegabytes * 1024L * 1024L)
+            .withMetrics(metrics, "content-hash-cache")
+            .build();
+    }
+
+    private AliasBloomFilter contentAliasFilter() {
+        return AliasBloomFilter.builder()
+            .withExpectedAliases(contentAliasFilterExpectedAliases)
+            .withMetrics(metrics, "content-alias-filter")
+            .build();
+    }
+
+    private ContainerSummaryCache containerSummaryCache() {
+        return ContainerSummaryCache.builder()
+            .withMetrics(metrics, "container-summary-cache")
+            .build();
+    }
+
+    private GraphSizePolicy graphSizePolicy() {
+        GraphSizePolicy.Builder policy = GraphSizePolicy.builder()
+            .withMetrics(metrics, "equivalence-graph-store")
+            .withDefaultLimit(equivalenceMaxSetSize)
+            .withLimits(equivalenceSourceMaxSetSizes);
+        if (deferOversizeEquivalence) {
+            policy.deferringOversize(deferredMaxSetSize);
+        }
+        return policy.build();
+    }
+
     private <M extends Message> MessageSender<M> sender(String dest, Class<M> type) {
         return messageSenderFactory.makeMessageSender(dest, JacksonMessageSerializer.forType(type));
     }
 
     @Override
     protected void shutDown() throws Exception {
+        if (deferredEquivalenceRecomputer != null) {
+            deferredEquivalenceRecomputer.stopAsync().awaitTerminated();
+        }
+        contentStore.shutdown();
         context.shutdown();
     }
     
@@ -11,6 +11,8 @@ import com.datastax.driver.core.Host;
 import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.ProtocolOptions.Compression;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.google.common.base.Joiner;
 import com.google.common.collect.FluentIterable;
 import com.google.common.util.concurrent.AbstractIdleService;
@@ -26,10 +28,15 @@ public final class DatastaxCassandraService extends AbstractIdleService {
         this.clusterBuilder = checkNotNull(clusterBuilder);
     }
 
+    /**
+     * Connect to the given nodes, routing each query which has a routing key,
+     * such as a bound prepared statement, to a replica of its partition.
+     */
     public DatastaxCassandraService(Iterable<String> nodes) {
         this.clusterBuilder = Cluster.builder()
                 .addContactPoints(FluentIterable.from(nodes).toArray(String.class))
-                .withCompression(Compression.SNAPPY);
+                .withCompression(Compression.SNAPPY)
+                .withLoadBalancingPolicy(new TokenAwarePolicy(new RoundRobinPolicy()));
     }
 
     @Override
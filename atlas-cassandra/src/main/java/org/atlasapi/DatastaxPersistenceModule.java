@@ -0,0 +1,223 @@
+package org.atlasapi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.content.CassandraEquivalentContentStore;
+import org.atlasapi.content.ContainerSummaryCache;
+import org.atlasapi.content.ContentHashCache;
+import org.atlasapi.content.ContentHasher;
+import org.atlasapi.content.DatastaxContentStore;
+import org.atlasapi.content.EquivalentContentStore;
+import org.atlasapi.equivalence.CassandraEquivalenceGraphStore;
+import org.atlasapi.equivalence.DeferredEquivalenceRecomputer;
+import org.atlasapi.equivalence.EquivalenceGraphCache;
+import org.atlasapi.equivalence.EquivalenceGraphStore;
+import org.atlasapi.equivalence.EquivalenceGraphUpdateMessage;
+import org.atlasapi.equivalence.GraphSizePolicy;
+import org.atlasapi.equivalence.OptimisticRetry;
+import org.atlasapi.messaging.JacksonMessageSerializer;
+import org.atlasapi.messaging.ResourceUpdatedMessage;
+import org.atlasapi.schedule.CassandraEquivalentScheduleStore;
+import org.atlasapi.schedule.DatastaxScheduleStore;
+import org.atlasapi.schedule.EquivalentScheduleStore;
+import org.atlasapi.schedule.ScheduleUpdateMessage;
+import org.atlasapi.topic.DatastaxTopicStore;
+import org.atlasapi.topic.Topic;
+import org.atlasapi.util.FanOut;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Equivalence;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.metabroadcast.common.ids.IdGeneratorBuilder;
+import com.metabroadcast.common.properties.Configurer;
+import com.metabroadcast.common.properties.Parameter;
+import com.metabroadcast.common.queue.Message;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.queue.MessageSenderFactory;
+import com.metabroadcast.common.time.SystemClock;
+
+/**
+ * A {@link PersistenceModule} whose stores all read and write through a single
+ * {@link Session} of a {@link DatastaxCassandraService}, so that there is one
+ * connection pool, and no Thrift connections, per node.
+ */
+public class DatastaxPersistenceModule extends AbstractIdleService implements PersistenceModule {
+
+    private String contentEquivalenceGraphChanges = Configurer.get("messaging.destination.equivalence.content.graph.changes").get();
+    private String contentChanges = Configurer.get("messaging.destination.content.changes").get();
+    private String topicChanges = Configurer.get("messaging.destination.topics.changes").get();
+    private String scheduleChanges = Configurer.get("messaging.destination.schedule.changes").get();
+
+    private Boolean processing = Objects.firstNonNull(Configurer.get("processing.config"), Parameter.valueOf("false")).toBoolean();
+    private Boolean fanOutPerPartition = Objects.firstNonNull(Configurer.get("cassandra.fanOut.perPartition"), Parameter.valueOf("true")).toBoolean();
+    private Integer fanOutMaxInFlight = Objects.firstNonNull(Configurer.get("cassandra.fanOut.maxInFlight"), Parameter.valueOf(String.valueOf(FanOut.DEFAULT_MAX_IN_FLIGHT))).toInt();
+    private Boolean optimisticEquivalence = Objects.firstNonNull(Configurer.get("cassandra.equivalence.optimistic"), Parameter.valueOf("false")).toBoolean();
+    private Integer optimisticMaxAttempts = Objects.firstNonNull(Configurer.get("cassandra.equivalence.optimistic.maxAttempts"), Parameter.valueOf(String.valueOf(OptimisticRetry.DEFAULT_MAX_ATTEMPTS))).toInt();
+    private Integer equivalenceMaxSetSize = Objects.firstNonNull(Configurer.get("cassandra.equivalence.maxSetSize"), Parameter.valueOf(String.valueOf(GraphSizePolicy.DEFAULT_LIMIT))).toInt();
+    private String equivalenceSourceMaxSetSizes = Objects.firstNonNull(Configurer.get("cassandra.equivalence.maxSetSize.sources"), Parameter.valueOf("")).get();
+    private Boolean deferOversizeEquivalence = Objects.firstNonNull(Configurer.get("cassandra.equivalence.oversize.defer"), Parameter.valueOf("false")).toBoolean();
+    private Integer deferredMaxSetSize = Objects.firstNonNull(Configurer.get("cassandra.equivalence.oversize.deferredMaxSetSize"), Parameter.valueOf("500")).toInt();
+    private Boolean contentHashCache = Objects.firstNonNull(Configurer.get("cassandra.content.hashCache"), Parameter.valueOf("false")).toBoolean();
+    private Integer contentHashCacheMegabytes = Objects.firstNonNull(Configurer.get("cassandra.content.hashCache.megabytes"), Parameter.valueOf("64")).toInt();
+
+    private final MessageSenderFactory messageSenderFactory;
+    private final DatastaxCassandraService dataStaxService;
+    private final String keyspace;
+    private final IdGeneratorBuilder idGeneratorBuilder;
+    private final ContentHasher hasher;
+    private final Optional<EquivalenceGraphCache> equivalenceGraphCache;
+    private final MetricRegistry metrics;
+
+    private DatastaxContentStore contentStore;
+    private DatastaxTopicStore topicStore;
+    private DatastaxScheduleStore scheduleStore;
+    private CassandraEquivalenceGraphStore contentEquivalenceGraphStore;
+    private DeferredEquivalenceRecomputer deferredEquivalenceRecomputer;
+    private CassandraEquivalentContentStore equivalentContentStore;
+    private CassandraEquivalentScheduleStore equivalentScheduleStore;
+
+    public DatastaxPersistenceModule(MessageSenderFactory messageSenderFactory,
+            DatastaxCassandraService datastaxCassandraService, String keyspace,
+            IdGeneratorBuilder idGeneratorBuilder, ContentHasher hasher) {
+        this(messageSenderFactory, datastaxCassandraService, keyspace, idGeneratorBuilder, hasher,
+            Optional.<EquivalenceGraphCache>absent(), new MetricRegistry());
+    }
+
+    public DatastaxPersistenceModule(MessageSenderFactory messageSenderFactory,
+            DatastaxCassandraService datastaxCassandraService, String keyspace,
+            IdGeneratorBuilder idGeneratorBuilder, ContentHasher hasher,
+            Optional<EquivalenceGraphCache> equivalenceGraphCache, MetricRegistry metrics) {
+        this.messageSenderFactory = messageSenderFactory;
+        this.dataStaxService = datastaxCassandraService;
+        this.keyspace = keyspace;
+        this.idGeneratorBuilder = idGeneratorBuilder;
+        this.hasher = hasher;
+        this.equivalenceGraphCache = equivalenceGraphCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        dataStaxService.awaitRunning();
+        Session session = dataStaxService.getSession(keyspace);
+        ConsistencyLevel read = processing ? ConsistencyLevel.QUORUM : ConsistencyLevel.ONE;
+        ConsistencyLevel write = ConsistencyLevel.QUORUM;
+        DatastaxContentStore.Builder contentStoreBuilder = DatastaxContentStore.builder(session, "content",
+            hasher, sender(contentChanges, ResourceUpdatedMessage.class), idGeneratorBuilder.generator("content"))
+            .withReadConsistency(read)
+            .withWriteConsistency(write);
+        if (contentHashCache) {
+            contentStoreBuilder.withHashCache(contentHashCache());
+        }
+        if (processing) {
+            // ingest writes many children of the same containers in quick succession
+            contentStoreBuilder.withContainerSummaryCache(containerSummaryCache());
+        }
+        this.contentStore = contentStoreBuilder.build();
+        this.topicStore = DatastaxTopicStore.builder(session, "topics",
+            topicEquivalence(), sender(topicChanges, ResourceUpdatedMessage.class), idGeneratorBuilder.generator("topic"))
+            .withReadConsistency(read)
+            .withWriteConsistency(write)
+            .build();
+        this.scheduleStore = DatastaxScheduleStore.builder(session, "schedule", contentStore, sender(scheduleChanges, ScheduleUpdateMessage.class))
+            .withReadConsistency(read)
+            .withWriteConsistency(write)
+            .build();
+        FanOut fanOut = FanOut.valueOf(fanOutPerPartition, fanOutMaxInFlight);
+        Optional<OptimisticRetry> optimistic = optimisticEquivalence
+            ? Optional.of(OptimisticRetry.of(optimisticMaxAttempts, OptimisticRetry.DEFAULT_INITIAL_BACKOFF_MILLIS))
+            : Optional.<OptimisticRetry>absent();
+        this.contentEquivalenceGraphStore = new CassandraEquivalenceGraphStore(sender(contentEquivalenceGraphChanges, EquivalenceGraphUpdateMessage.class), session, read, write, fanOut, optimistic, graphSizePolicy(), equivalenceGraphCache);
+        if (deferOversizeEquivalence) {
+            this.deferredEquivalenceRecomputer = new DeferredEquivalenceRecomputer(contentEquivalenceGraphStore, 100, 1, TimeUnit.MINUTES);
+            deferredEquivalenceRecomputer.startAsync();
+        }
+        this.equivalentContentStore = new CassandraEquivalentContentStore(contentStore, contentEquivalenceGraphStore, session, read, write, fanOut);
+        this.equivalentScheduleStore = new CassandraEquivalentScheduleStore(contentEquivalenceGraphStore, contentStore, session, read, write, new SystemClock());
+    }
+
+    private ContentHashCache contentHashCache() {
+        return ContentHashCache.builder()
+            .withMaximumBytes(contentHashCacheMegabytes * 1024L * 1024L)
+            .withMetrics(metrics, "content-hash-cache")
+            .build();
+    }
+
+    private ContainerSummaryCache containerSummaryCache() {
+        return ContainerSummaryCache.builder()
+            .withMetrics(metrics, "container-summary-cache")
+            .build();
+    }
+
+    private GraphSizePolicy graphSizePolicy() {
+        GraphSizePolicy.Builder policy = GraphSizePolicy.builder()
+            .withMetrics(metrics, "equivalence-graph-store")
+            .withDefaultLimit(equivalenceMaxSetSize)
+            .withLimits(equivalenceSourceMaxSetSizes);
+        if (deferOversizeEquivalence) {
+            policy.deferringOversize(deferredMaxSetSize);
+        }
+        return policy.build();
+    }
+
+    private <M extends Message> MessageSender<M> sender(String dest, Class<M> type) {
+        return messageSenderFactory.makeMessageSender(dest, JacksonMessageSerializer.forType(type));
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        if (deferredEquivalenceRecomputer != null) {
+            deferredEquivalenceRecomputer.stopAsync().awaitTerminated();
+        }
+    }
+
+    @Override
+    public DatastaxContentStore contentStore() {
+        return contentStore;
+    }
+
+    @Override
+    public DatastaxTopicStore topicStore() {
+        return topicStore;
+    }
+
+    @Override
+    public DatastaxScheduleStore scheduleStore() {
+        return scheduleStore;
+    }
+
+    private Equivalence<? super Topic> topicEquivalence() {
+        return new Equivalence<Topic>(){
+
+            @Override
+            protected boolean doEquivalent(Topic a, Topic b) {
+                return false;
+            }
+
+            @Override
+            protected int doHash(Topic t) {
+                return 0;
+            }
+        };
+    }
+
+    @Override
+    public EquivalenceGraphStore contentEquivalenceGraphStore() {
+        return this.contentEquivalenceGraphStore;
+    }
+
+    @Override
+    public EquivalentContentStore equivalentContentStore() {
+        return this.equivalentContentStore;
+    }
+
+    @Override
+    public EquivalentScheduleStore equivalentScheduleStore() {
+        return this.equivalentScheduleStore;
+    }
+
+}
@@ -1,17 +1,31 @@
 package org.atlasapi.content;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.atlasapi.content.ContentColumn.CHILDREN;
 import static org.atlasapi.content.ContentColumn.DESCRIPTION;
+import static org.atlasapi.content.ContentColumn.HASH;
 import static org.atlasapi.content.ContentColumn.IDENTIFICATION;
+import static org.atlasapi.content.ContentColumn.SECONDARY;
 import static org.atlasapi.content.ContentColumn.SOURCE;
 import static org.atlasapi.content.ContentColumn.TYPE;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.AliasBloomFilter;
 import org.atlasapi.entity.AliasIndex;
 import org.atlasapi.entity.Id;
 import org.atlasapi.entity.util.Resolved;
@@ -29,12 +43,20 @@ import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.metabroadcast.common.collect.ImmutableOptionalMap;
 import com.metabroadcast.common.collect.OptionalMap;
 import com.metabroadcast.common.ids.IdGenerator;
@@ -45,19 +67,36 @@ import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.ConsistencyLevel;
 import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.RowQuery;
+import com.netflix.astyanax.query.RowSliceQuery;
 import com.netflix.astyanax.serializers.LongSerializer;
 import com.netflix.astyanax.serializers.StringSerializer;
 
 public final class CassandraContentStore extends AbstractContentStore {
     
     protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final Set<ContentColumn> REQUIRED_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION);
+    // the columns read to summarize a container for its children.
+    private static final Set<ContentColumn> SUMMARY_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION, DESCRIPTION);
+    // the columns read to compare a previous version by its persisted hash.
+    private static final Set<ContentColumn> PREVIOUS_HASH_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION, HASH);
+    // child ref columns are named by the child's id, so sort before all other
+    // columns, which are named by upper case ContentColumn names.
+    private static final String CHILD_REF_RANGE_START = "";
+    private static final String CHILD_REF_RANGE_END = ":";
+    private static final int CHILD_REF_MAX_ATTEMPTS = 10;
+    // TODO: move timeout to config
+    private static final int RESOLVE_TIMEOUT = 10;
+    private static final TimeUnit RESOLVE_TIMEOUT_UNITS = TimeUnit.SECONDS;
 	
     public static final Builder builder(AstyanaxContext<Keyspace> context, 
             String name, ContentHasher hasher, MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
@@ -75,6 +114,13 @@ public final class CassandraContentStore extends AbstractContentStore {
         private ConsistencyLevel readCl = ConsistencyLevel.CL_QUORUM;
         private ConsistencyLevel writeCl = ConsistencyLevel.CL_QUORUM;
         private Clock clock = new SystemClock();
+        private Optional<ContentHashCache> hashCache = Optional.absent();
+        private Optional<ContainerSummaryCache> summaryCache = Optional.absent();
+        private long childRefWindowMillis = 0;
+        private Optional<AliasBloomFilter> aliasFilter = Optional.absent();
+        private long aliasFilterRebuildMillis = 0;
+        private AliasIndex.KeyFormat aliasKeyFormat = AliasIndex.KeyFormat.LEGACY;
+        private Optional<ExecutorService> asyncExecutor = Optional.absent();
 
         public Builder(AstyanaxContext<Keyspace> context, String name, 
                        ContentHasher hasher, MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
@@ -100,9 +146,64 @@ public final class CassandraContentStore extends AbstractContentStore {
             return this;
         }
         
+        public Builder withHashCache(ContentHashCache hashCache) {
+            this.hashCache = Optional.of(hashCache);
+            return this;
+        }
+        
+        public Builder withContainerSummaryCache(ContainerSummaryCache summaryCache) {
+            this.summaryCache = Optional.of(summaryCache);
+            return this;
+        }
+        
+        /**
+         * Hold child ref appends made by single writes for up to the given
+         * window so that appends to the same container are written together.
+         * Refs appended by a write may not be visible in the container until
+         * the window has passed, and the write's update message is only sent
+         * once they have been written.
+         */
+        public Builder withChildRefWriteBehind(long window, TimeUnit unit) {
+            checkArgument(window > 0, "window must be positive");
+            this.childRefWindowMillis = unit.toMillis(window);
+            return this;
+        }
+        
+        /**
+         * Guard alias resolution with the given filter, which is built from
+         * the index when the store is created and rebuilt at the given
+         * interval. Writes always read the index, so a missed alias can't
+         * cause content to be written with a new id.
+         */
+        public Builder withAliasFilter(AliasBloomFilter aliasFilter, long rebuildInterval, TimeUnit unit) {
+            checkArgument(rebuildInterval > 0, "rebuildInterval must be positive");
+            this.aliasFilter = Optional.of(aliasFilter);
+            this.aliasFilterRebuildMillis = unit.toMillis(rebuildInterval);
+            return this;
+        }
+        
+        /**
+         * Set the row keys the alias index is read and written with.
+         */
+        public Builder withAliasKeyFormat(AliasIndex.KeyFormat aliasKeyFormat) {
+            this.aliasKeyFormat = checkNotNull(aliasKeyFormat);
+            return this;
+        }
+        
+        /**
+         * Handle the reads of asynchronous writes, and continue the writes,
+         * on the given executor rather than the client's callback threads. By
+         * default the store creates its own.
+         */
+        public Builder withAsyncExecutor(ExecutorService asyncExecutor) {
+            this.asyncExecutor = Optional.of(asyncExecutor);
+            return this;
+        }
+        
         public CassandraContentStore build() {
             return new CassandraContentStore(context, name, readCl, writeCl, 
-                hasher, idGenerator, sender, clock);
+                hasher, idGenerator, sender, clock, hashCache, summaryCache, childRefWindowMillis,
+                aliasFilter, aliasFilterRebuildMillis, aliasKeyFormat, asyncExecutor);
         }
         
     }
@@ -112,6 +213,11 @@ public final class CassandraContentStore extends AbstractContentStore {
     private final ConsistencyLevel writeConsistency;
     private final ColumnFamily<Long, String> mainCf;
     private final AliasIndex<Content> aliasIndex;
+    private final Optional<ChildRefWriteBehind> childRefWriteBehind;
+    private final Optional<ScheduledExecutorService> maintenanceExecutor;
+    private final ExecutorService asyncExecutor;
+    // whether the async executor was created by, so is shut down by, the store
+    private final boolean ownsAsyncExecutor;
     
     private final ContentMarshaller marshaller = new ProtobufContentMarshaller();
     private final Function<Row<Long, String>, Content> rowToContent =
@@ -134,14 +240,97 @@ public final class CassandraContentStore extends AbstractContentStore {
 
     public CassandraContentStore(AstyanaxContext<Keyspace> context,
         String cfName, ConsistencyLevel readConsistency, ConsistencyLevel writeConsistency, 
-        ContentHasher hasher, IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock) {
-        super(hasher, idGenerator, sender, clock);
+        ContentHasher hasher, IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock,
+        Optional<ContentHashCache> hashCache, Optional<ContainerSummaryCache> summaryCache,
+        long childRefWindowMillis, Optional<AliasBloomFilter> aliasFilter, long aliasFilterRebuildMillis,
+        AliasIndex.KeyFormat aliasKeyFormat, Optional<ExecutorService> asyncExecutor) {
+        super(hasher, idGenerator, sender, clock, hashCache, summaryCache);
         this.keyspace = checkNotNull(context.getClient());
         this.readConsistency = checkNotNull(readConsistency);
         this.writeConsistency = checkNotNull(writeConsistency);
         this.mainCf = ColumnFamily.newColumnFamily(checkNotNull(cfName),
             LongSerializer.get(), StringSerializer.get());
-        this.aliasIndex = AliasIndex.create(keyspace,cfName+"_aliases");
+        this.aliasIndex = AliasIndex.<Content>create(keyspace, cfName+"_aliases", 
+            aliasKeyFormat, aliasFilter);
+        this.ownsAsyncExecutor = !asyncExecutor.isPresent();
+        this.asyncExecutor = asyncExecutor.isPresent() ? asyncExecutor.get()
+            : Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat(cfName + "-store-async-%d").build());
+        if (childRefWindowMillis > 0 || aliasFilter.isPresent()) {
+            this.maintenanceExecutor = Optional.of(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat(cfName + "-store-maintenance-%d").build()));
+        } else {
+            this.maintenanceExecutor = Optional.absent();
+        }
+        if (childRefWindowMillis > 0) {
+            this.childRefWriteBehind = Optional.of(new ChildRefWriteBehind(
+                new ChildRefWriteBehind.Writer() {
+                    @Override
+                    public void write(ChildRefAppends appends) throws ConnectionException {
+                        MutationBatch batch = prepareMutationBatch();
+                        mutateChildRefs(batch, appends);
+                        batch.execute();
+                    }
+                }, CHILD_REF_MAX_ATTEMPTS));
+            this.maintenanceExecutor.get().scheduleWithFixedDelay(childRefWriteBehind.get(), 
+                childRefWindowMillis, childRefWindowMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.childRefWriteBehind = Optional.absent();
+        }
+        if (aliasFilter.isPresent()) {
+            this.maintenanceExecutor.get().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildAliasFilter();
+                }
+            }, 0, aliasFilterRebuildMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the child ref write-behind and alias filter rebuilds, if enabled,
+     * and the async executor, if the store created it, then write any pending
+     * refs.
+     * 
+     * @throws CassandraPersistenceException
+     *             if the pending refs can't be written.
+     */
+    public void shutdown() throws InterruptedException {
+        if (maintenanceExecutor.isPresent()) {
+            maintenanceExecutor.get().shutdown();
+            if (!maintenanceExecutor.get().awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Store maintenance didn't stop within a minute");
+            }
+        }
+        if (ownsAsyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        if (childRefWriteBehind.isPresent()) {
+            childRefWriteBehind.get().flushFinally();
+        }
+    }
+
+    @Override
+    protected Executor asyncExecutor() {
+        return asyncExecutor;
+    }
+
+    @Override
+    protected void whenPersisted(Runnable persisted) {
+        if (childRefWriteBehind.isPresent()) {
+            childRefWriteBehind.get().whenFlushed(persisted);
+        } else {
+            persisted.run();
+        }
+    }
+
+    private void rebuildAliasFilter() {
+        try {
+            aliasIndex.rebuildFilter();
+        } catch (Exception e) {
+            log.error("Failed to rebuild alias filter", e);
+        }
     }
     
     @Override
@@ -154,6 +343,16 @@ public final class CassandraContentStore extends AbstractContentStore {
         }
     }
 
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns) {
+        try {
+            Iterable<Long> longIds = Iterables.transform(ids, Id.toLongValue());
+            return Futures.transform(resolveLongs(longIds, columns), toResolvedContent);
+        } catch (Exception e) {
+            throw new CassandraPersistenceException(Joiner.on(", ").join(ids), e);
+        }
+    }
+
     private ListenableFuture<Rows<Long, String>> resolveLongs(Iterable<Long> longIds) throws ConnectionException {
         return Futures.transform(keyspace
             .prepareQuery(mainCf)
@@ -161,17 +360,84 @@ public final class CassandraContentStore extends AbstractContentStore {
             .getKeySlice(longIds)
             .executeAsync(), CassandraUtil.<Rows<Long, String>>toResult());
     }
+
+    private ListenableFuture<Rows<Long, String>> resolveLongs(Iterable<Long> longIds, 
+            Set<ContentColumn> columns) throws ConnectionException {
+        // child refs are stored in a column per child so can't be sliced by name.
+        if (columns.contains(CHILDREN) || columns.contains(SECONDARY)) {
+            return resolveLongs(longIds);
+        }
+        Set<ContentColumn> projection = Sets.union(REQUIRED_COLUMNS, columns);
+        return Futures.transform(keyspace
+            .prepareQuery(mainCf)
+            .setConsistencyLevel(readConsistency)
+            .getKeySlice(longIds)
+            .withColumnSlice(Collections2.transform(projection, Functions.toStringFunction()))
+            .executeAsync(), CassandraUtil.<Rows<Long, String>>toResult());
+    }
     
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, 
+            @Nullable final String cursor, final int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        try {
+            // the range start is inclusive so when paging from a cursor fetch
+            // one more column, which is skipped. one more than needed is fetched
+            // to know whether there's a next page.
+            int count = cursor == null ? limit + 1 : limit + 2;
+            ListenableFuture<ColumnList<String>> columns = Futures.transform(keyspace
+                .prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKey(containerId.longValue())
+                .withColumnRange(cursor == null ? CHILD_REF_RANGE_START : cursor, 
+                    CHILD_REF_RANGE_END, false, count)
+                .executeAsync(), CassandraUtil.<ColumnList<String>>toResult());
+            return Futures.transform(columns, new Function<ColumnList<String>, ChildRefPage>() {
+                @Override
+                public ChildRefPage apply(ColumnList<String> input) {
+                    return toChildRefPage(input, cursor, limit);
+                }
+            });
+        } catch (Exception e) {
+            throw new CassandraPersistenceException(containerId.toString(), e);
+        }
+    }
+
+    private ChildRefPage toChildRefPage(ColumnList<String> columns, @Nullable String cursor, int limit) {
+        ImmutableList.Builder<ItemRef> itemRefs = ImmutableList.builder();
+        ImmutableList.Builder<SeriesRef> seriesRefs = ImmutableList.builder();
+        int added = 0;
+        String last = null;
+        for (int i = 0; i < columns.size(); i++) {
+            Column<String> column = columns.getColumnByIndex(i);
+            if (column.getName().equals(cursor)) {
+                continue;
+            }
+            if (added == limit) {
+                return new ChildRefPage(itemRefs.build(), seriesRefs.build(), last);
+            }
+            ContentRef ref = marshaller.unmarshallChildRef(column);
+            if (ref instanceof ItemRef) {
+                itemRefs.add((ItemRef) ref);
+            } else if (ref instanceof SeriesRef) {
+                seriesRefs.add((SeriesRef) ref);
+            }
+            last = column.getName();
+            added++;
+        }
+        return new ChildRefPage(itemRefs.build(), seriesRefs.build(), null);
+    }
+
     @Override
     public OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source) {
         try {
             Set<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
-            Set<Long> ids = aliasIndex.readAliases(source, uniqueAliases);
+            Set<Long> ids = ImmutableSet.copyOf(aliasIndex.resolveAliasIds(
+                ImmutableSet.of(source), uniqueAliases).values());
             if (ids.isEmpty()) {
                 return ImmutableOptionalMap.of();
             }
-            // TODO: move timeout to config
-            Rows<Long,String> resolved = resolveLongs(ids).get(10, TimeUnit.SECONDS);
+            Rows<Long,String> resolved = resolveLongs(ids).get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS);
             Iterable<Content> contents = Iterables.transform(resolved, rowToContent);
             ImmutableMap.Builder<Alias, Optional<Content>> aliasMap = ImmutableMap.builder();
             for (Content content : contents) {
@@ -188,40 +454,579 @@ public final class CassandraContentStore extends AbstractContentStore {
     }
 
     @Override
-    protected void doWriteContent(Content content, Content previous) {
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources) {
+        try {
+            Table<Alias, Publisher, Long> ids = aliasIndex.resolveAliasIds(sources, aliases);
+            if (ids.isEmpty()) {
+                return ImmutableTable.of();
+            }
+            Rows<Long,String> resolved = resolveLongs(ImmutableSet.copyOf(ids.values()))
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS);
+            Map<Long, Content> contents = Maps.newHashMapWithExpectedSize(resolved.size());
+            for (Row<Long, String> row : resolved) {
+                Content content = rowToContent.apply(row);
+                if (content != null) {
+                    contents.put(row.getKey(), content);
+                }
+            }
+            ImmutableTable.Builder<Alias, Publisher, Content> aliasTable = ImmutableTable.builder();
+            for (Table.Cell<Alias, Publisher, Long> cell : ids.cellSet()) {
+                Content content = contents.get(cell.getValue());
+                if (content != null && content.getAliases().contains(cell.getRowKey())) {
+                    aliasTable.put(cell.getRowKey(), cell.getColumnKey(), content);
+                }
+            }
+            return aliasTable.build();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    protected void doWriteContent(Content content, Content previous, String hash,
+            Map<ContentColumn, String> previousDigests) {
         try {
             long id = content.getId().longValue();
-            MutationBatch batch = keyspace.prepareMutationBatch();
-            batch.setConsistencyLevel(writeConsistency);
-            marshaller.marshallInto(batch.withRow(mainCf, id), content);
-            batch.mergeShallow(aliasIndex.mutateAliases(content, previous));
+            MutationBatch batch = prepareMutationBatch();
+            ColumnListMutation<String> mutation = batch.withRow(mainCf, id);
+            mutateContent(batch, mutation, content, previous, hash, previousDigests);
             batch.execute();
+            aliasIndex.indexed(content);
             log.trace("Written content id " + id);
         } catch (Exception e) {
             throw new CassandraPersistenceException(content.toString(), e);
         }
     }
-    
-    @Override
-    protected @Nullable
-    Content resolvePrevious(@Nullable Id id, Publisher source, Set<Alias> aliases) {
-        Content previous = null;
-        if (id != null) {
-            previous = resolve(id.longValue(), null);
+
+    private MutationBatch prepareMutationBatch() {
+        MutationBatch batch = keyspace.prepareMutationBatch();
+        batch.setConsistencyLevel(writeConsistency);
+        return batch;
+    }
+
+    /**
+     * Only the columns which changed since the previous version are written if
+     * its column digests were read. Rows without digests still have their
+     * emptied columns deleted.
+     */
+    private void mutateContent(MutationBatch batch, ColumnListMutation<String> mutation,
+            Content content, Content previous, String hash, 
+            @Nullable Map<ContentColumn, String> previousDigests) {
+        if (previousDigests != null) {
+            marshaller.marshallChangedInto(mutation, content, previousDigests);
         } else {
+            marshaller.marshallInto(mutation, content, previous);
+        }
+        if (hash != null) {
+            mutation.putColumn(HASH.name(), hash);
+        }
+        batch.mergeShallow(aliasIndex.mutateAliases(content, previous));
+    }
+
+    @Override
+    protected WriteBatch startBatch(List<Content> contents) {
+        try {
+            SetMultimap<Publisher, Alias> unidentified = HashMultimap.create();
+            for (Content content : contents) {
+                if (content.getId() == null) {
+                    unidentified.putAll(content.getPublisher(), content.getAliases());
+                }
+            }
+            Map<Publisher, Map<Alias, Long>> aliasIds = Maps.newHashMap();
+            for (Entry<Publisher, Collection<Alias>> sourceAliases : unidentified.asMap().entrySet()) {
+                Map<Alias, Long> sourceIds = aliasIndex.readAliasIds(sourceAliases.getKey(), sourceAliases.getValue());
+                aliasIds.put(sourceAliases.getKey(), Maps.newHashMap(sourceIds));
+            }
+            return new CassandraWriteBatch(aliasIds);
+        } catch (ConnectionException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * The alias index, previous version and container summaries needed to
+     * write the content are all read with {@code executeAsync}, their results
+     * handled on the {@link #asyncExecutor()}. A read which can't be started
+     * fails the future rather than being thrown.
+     */
+    @Override
+    protected ListenableFuture<WriteBatch> startAsyncBatch(final Content content, 
+            final @Nullable String hash) {
+        try {
+            final Map<Publisher, Map<Alias, Long>> aliasIds = Maps.newHashMap();
+            final CassandraWriteBatch batch = new CassandraWriteBatch(aliasIds);
+            ListenableFuture<Long> previousId;
+            if (content.getId() != null) {
+                previousId = Futures.immediateFuture(content.getId().longValue());
+            } else {
+                previousId = Futures.transform(
+                    aliasIndex.readAliasIdsAsync(content.getPublisher(), content.getAliases()), 
+                    new Function<Map<Alias, Long>, Long>() {
+                        @Override
+                        public Long apply(Map<Alias, Long> ids) {
+                            aliasIds.put(content.getPublisher(), Maps.newHashMap(ids));
+                            return Iterables.getFirst(ids.values(), null);
+                        }
+                    }, asyncExecutor);
+            }
+            ListenableFuture<Void> previous = Futures.transform(previousId, 
+                new AsyncFunction<Long, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(Long id) throws ConnectionException {
+                        if (id == null) {
+                            return Futures.immediateFuture(null);
+                        }
+                        return batch.prefetchAsync(id, hash);
+                    }
+                }, asyncExecutor);
+            ListenableFuture<Void> summaries = batch.prefetchSummariesAsync(containerRefs(content));
+            return Futures.transform(Futures.allAsList(previous, summaries), 
+                Functions.<WriteBatch>constant(batch));
+        } catch (ConnectionException e) {
+            return Futures.immediateFailedFuture(new CassandraPersistenceException(content.toString(), e));
+        }
+    }
+
+    private Set<ContainerRef> containerRefs(Content content) {
+        Set<ContainerRef> refs = Sets.newHashSet();
+        if (content instanceof Item && ((Item) content).getContainerRef() != null) {
+            refs.add(((Item) content).getContainerRef());
+        }
+        if (content instanceof Episode && ((Episode) content).getSeriesRef() != null) {
+            refs.add(((Episode) content).getSeriesRef());
+        }
+        if (content instanceof Series && ((Series) content).getBrandRef() != null) {
+            refs.add(((Series) content).getBrandRef());
+        }
+        // summaries which are cached won't be asked of the batch
+        for (Iterator<ContainerRef> it = refs.iterator(); it.hasNext();) {
+            if (isSummaryCached(it.next())) {
+                it.remove();
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Accumulates the content rows, alias index entries and parent refs of a
+     * number of writes into a single {@link MutationBatch}. Content written
+     * through the batch is visible to subsequent previous-version and
+     * container summary lookups before it is executed. Previous versions are
+     * read along with their persisted hashes.
+     */
+    private final class CassandraWriteBatch implements WriteBatch {
+
+        private final MutationBatch batch = prepareMutationBatch();
+        private final Map<Publisher, Map<Alias, Long>> aliasIds;
+        private final Map<Long, Content> resolved = Maps.newHashMap();
+        private final Map<Long, String> hashes = Maps.newHashMap();
+        private final Map<Long, Map<ContentColumn, String>> digests = Maps.newHashMap();
+        private final Set<Long> fetched = Sets.newHashSet();
+        // previous versions read only by their hash columns and child refs
+        private final Set<Long> partial = Sets.newHashSet();
+        private final Map<Long, Content> written = Maps.newHashMap();
+        private final Map<Long, Item.ContainerSummary> summaries = Maps.newHashMap();
+        private final ChildRefAppends childRefs = new ChildRefAppends();
+
+        public CassandraWriteBatch(Map<Publisher, Map<Alias, Long>> aliasIds) {
+            this.aliasIds = aliasIds;
+        }
+
+        /**
+         * The hashes of all the previous versions are read together, then the
+         * full rows of those whose hash is missing or differs, and the child
+         * refs of unchanged containers.
+         */
+        @Override
+        public void prefetchPrevious(List<Content> contents, List<String> hashes) {
+            Map<Long, String> writing = Maps.newHashMap();
+            for (int i = 0; i < contents.size(); i++) {
+                Long id = previousId(contents.get(i));
+                if (id != null && !fetched.contains(id)) {
+                    writing.put(id, hashes.get(i));
+                }
+            }
+            if (writing.isEmpty()) {
+                return;
+            }
             try {
-                Set<Long> ids = aliasIndex.readAliases(source, aliases);
-                Long aliasId = Iterables.getFirst(ids, null);
-                if (aliasId != null) {
-                    previous = resolve(aliasId, null);
+                Rows<Long, String> hashRows = readPreviousHashes(writing.keySet()).execute().getResult();
+                Set<Long> changed = Sets.newHashSet();
+                Map<Long, Content> containers = Maps.newHashMap();
+                for (Entry<Long, String> write : writing.entrySet()) {
+                    Row<Long, String> row = hashRows.getRow(write.getKey());
+                    ColumnList<String> cols = row != null ? row.getColumns() : null;
+                    if (cols == null || !hashUnchanged(cols, write.getValue())) {
+                        changed.add(write.getKey());
+                        continue;
+                    }
+                    Content previous = marshaller.unmarshallCols(cols);
+                    if (previous instanceof Container) {
+                        containers.put(write.getKey(), previous);
+                    } else {
+                        putUnchanged(write.getKey(), previous, write.getValue(), null);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    Rows<Long, String> rows = keyspace.prepareQuery(mainCf)
+                        .setConsistencyLevel(readConsistency)
+                        .getKeySlice(changed)
+                        .execute().getResult();
+                    for (Row<Long, String> row : rows) {
+                        putPrevious(row.getKey(), row.getColumns());
+                    }
+                }
+                if (!containers.isEmpty()) {
+                    Rows<Long, String> refRows = readChildRefs(containers.keySet()).execute().getResult();
+                    for (Entry<Long, Content> container : containers.entrySet()) {
+                        Row<Long, String> refs = refRows.getRow(container.getKey());
+                        putUnchanged(container.getKey(), container.getValue(), 
+                            writing.get(container.getKey()), refs != null ? refs.getColumns() : null);
+                    }
                 }
+                fetched.addAll(writing.keySet());
             } catch (ConnectionException e) {
                 throw Throwables.propagate(e);
             }
         }
-        
+
+        private void putUnchanged(long id, Content previous, String hash, 
+                @Nullable ColumnList<String> childRefs) {
+            resolved.put(id, withChildRefs(previous, childRefs));
+            hashes.put(id, hash);
+            partial.add(id);
+        }
+
+        private void putPrevious(long id, ColumnList<String> cols) {
+            partial.remove(id);
+            if (cols.isEmpty()) {
+                return;
+            }
+            resolved.put(id, marshaller.unmarshallCols(cols));
+            Column<String> hash = cols.getColumnByName(HASH.name());
+            hashes.put(id, hash != null ? hash.getStringValue() : null);
+            Map<ContentColumn, String> rowDigests = marshaller.unmarshallDigests(cols);
+            if (rowDigests != null) {
+                digests.put(id, rowDigests);
+            }
+        }
+
+        /**
+         * Asynchronously read the hash of the previous version of some
+         * content, then its full row only if the hash is missing or differs
+         * from that of the content being written.
+         */
+        public ListenableFuture<Void> prefetchAsync(final long id, final @Nullable String hash) 
+                throws ConnectionException {
+            ListenableFuture<ColumnList<String>> hashCols = Futures.transform(keyspace
+                .prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKey(id)
+                .withColumnSlice(Collections2.transform(PREVIOUS_HASH_COLUMNS, Functions.toStringFunction()))
+                .executeAsync(), CassandraUtil.<ColumnList<String>>toResult());
+            return Futures.transform(hashCols, new AsyncFunction<ColumnList<String>, Void>() {
+                @Override
+                public ListenableFuture<Void> apply(ColumnList<String> cols) throws ConnectionException {
+                    if (!hashUnchanged(cols, hash)) {
+                        return prefetchFullAsync(id);
+                    }
+                    final Content previous = marshaller.unmarshallCols(cols);
+                    if (!(previous instanceof Container)) {
+                        putUnchanged(id, previous, hash, null);
+                        fetched.add(id);
+                        return Futures.immediateFuture(null);
+                    }
+                    return Futures.transform(keyspace.prepareQuery(mainCf)
+                        .setConsistencyLevel(readConsistency)
+                        .getKey(id)
+                        .withColumnRange(CHILD_REF_RANGE_START, CHILD_REF_RANGE_END, false, Integer.MAX_VALUE)
+                        .executeAsync(), new Function<OperationResult<ColumnList<String>>, Void>() {
+                            @Override
+                            public Void apply(OperationResult<ColumnList<String>> refs) {
+                                putUnchanged(id, previous, hash, refs.getResult());
+                                fetched.add(id);
+                                return null;
+                            }
+                        }, asyncExecutor);
+                }
+            }, asyncExecutor);
+        }
+
+        private ListenableFuture<Void> prefetchFullAsync(final long id) throws ConnectionException {
+            return Futures.transform(keyspace.prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKey(id)
+                .executeAsync(), new Function<OperationResult<ColumnList<String>>, Void>() {
+                    @Override
+                    public Void apply(OperationResult<ColumnList<String>> input) {
+                        putPrevious(id, input.getResult());
+                        fetched.add(id);
+                        return null;
+                    }
+                }, asyncExecutor);
+        }
+
+        /**
+         * Asynchronously read the summaries of the given containers, recording
+         * those which don't exist.
+         */
+        public ListenableFuture<Void> prefetchSummariesAsync(final Set<ContainerRef> refs) 
+                throws ConnectionException {
+            if (refs.isEmpty()) {
+                return Futures.immediateFuture(null);
+            }
+            Set<Long> ids = Sets.newHashSet();
+            for (ContainerRef ref : refs) {
+                ids.add(ref.getId().longValue());
+            }
+            ListenableFuture<Rows<Long, String>> rows = Futures.transform(keyspace
+                .prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKeySlice(ids)
+                .withColumnSlice(Collections2.transform(SUMMARY_COLUMNS, Functions.toStringFunction()))
+                .executeAsync(), CassandraUtil.<Rows<Long, String>>toResult());
+            return Futures.transform(rows, new Function<Rows<Long, String>, Void>() {
+                @Override
+                public Void apply(Rows<Long, String> input) {
+                    for (ContainerRef ref : refs) {
+                        Row<Long, String> row = input.getRow(ref.getId().longValue());
+                        ColumnList<String> cols = row != null ? row.getColumns() : null;
+                        Content container = cols != null && !cols.isEmpty() ? marshaller.unmarshallCols(cols)
+                                                                            : null;
+                        summaries.put(ref.getId().longValue(), toSummary(ref, container));
+                    }
+                    return null;
+                }
+            }, asyncExecutor);
+        }
+
+        /**
+         * A previous version read only by its hash is read in full if the
+         * content resolving it has a different hash.
+         */
+        @Override
+        public PreviousVersion resolvePrevious(Content content, String hash) {
+            Long id = previousId(content);
+            if (id == null) {
+                return null;
+            }
+            boolean stale = partial.contains(id) && !written.containsKey(id)
+                && (hash == null || !hash.equals(hashes.get(id)));
+            if (!fetched.contains(id) || stale) {
+                try {
+                    putPrevious(id, keyspace.prepareQuery(mainCf)
+                        .setConsistencyLevel(readConsistency)
+                        .getKey(id)
+                        .execute().getResult());
+                } catch (ConnectionException e) {
+                    throw Throwables.propagate(e);
+                }
+                fetched.add(id);
+            }
+            // content written earlier in the batch replaces the resolved version,
+            // so only the first write of a row can use its persisted digests
+            if (written.containsKey(id)) {
+                return new PreviousVersion(written.get(id), hashes.get(id));
+            }
+            Content previous = resolved.get(id);
+            return previous != null ? new PreviousVersion(previous, hashes.get(id), digests.get(id))
+                                    : null;
+        }
+
+        private Long previousId(Content content) {
+            return content.getId() != null ? Long.valueOf(content.getId().longValue())
+                                           : aliasId(content);
+        }
+
+        private Long aliasId(Content content) {
+            Map<Alias, Long> sourceIds = aliasIds.get(content.getPublisher());
+            if (sourceIds == null) {
+                return null;
+            }
+            for (Alias alias : content.getAliases()) {
+                Long id = sourceIds.get(alias);
+                if (id != null) {
+                    return id;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Item.ContainerSummary summarize(ContainerRef primary) {
+            Long id = primary.getId().longValue();
+            Content pending = written.get(id);
+            if (pending instanceof Container) {
+                return CassandraContentStore.this.summarize((Container) pending);
+            }
+            // missing containers are recorded so they aren't read again
+            if (!summaries.containsKey(id)) {
+                summaries.put(id, CassandraContentStore.this.summarize(primary));
+            }
+            return summaries.get(id);
+        }
+
+        @Override
+        public void writeContent(Content content, Content previous, String hash,
+                Map<ContentColumn, String> previousDigests) {
+            ColumnListMutation<String> mutation = batch.withRow(mainCf, content.getId().longValue());
+            mutateContent(batch, mutation, content, previous, hash, previousDigests);
+            written.put(content.getId().longValue(), content);
+            if (hash != null) {
+                hashes.put(content.getId().longValue(), hash);
+            }
+            Map<Alias, Long> sourceIds = aliasIds.get(content.getPublisher());
+            if (sourceIds == null) {
+                sourceIds = Maps.newHashMap();
+                aliasIds.put(content.getPublisher(), sourceIds);
+            }
+            for (Alias alias : content.getAliases()) {
+                sourceIds.put(alias, content.getId().longValue());
+            }
+        }
+
+        @Override
+        public void writeSecondaryContainerRef(BrandRef primary, SeriesRef seriesRef) {
+            childRefs.addSeriesRef(primary, seriesRef);
+        }
+
+        @Override
+        public void writeItemRef(ContainerRef containerRef, ItemRef childRef) {
+            childRefs.addItemRef(containerRef, childRef);
+        }
+
+        @Override
+        public void execute() {
+            mutateChildRefs(batch, childRefs);
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                batch.execute();
+                indexed();
+                log.trace("Written content ids " + Joiner.on(", ").join(written.keySet()));
+            } catch (ConnectionException e) {
+                throw new CassandraPersistenceException(Joiner.on(", ").join(written.keySet()), e);
+            }
+        }
+
+        @Override
+        public ListenableFuture<Void> executeAsync() {
+            mutateChildRefs(batch, childRefs);
+            if (batch.isEmpty()) {
+                return Futures.immediateFuture(null);
+            }
+            try {
+                return Futures.transform(batch.executeAsync(), new Function<OperationResult<Void>, Void>() {
+                    @Override
+                    public Void apply(OperationResult<Void> input) {
+                        indexed();
+                        return null;
+                    }
+                }, asyncExecutor);
+            } catch (ConnectionException e) {
+                return Futures.immediateFailedFuture(
+                    new CassandraPersistenceException(Joiner.on(", ").join(written.keySet()), e));
+            }
+        }
+
+        private void indexed() {
+            for (Content content : written.values()) {
+                aliasIndex.indexed(content);
+            }
+        }
+
+    }
+
+    private RowSliceQuery<Long, String> readPreviousHashes(Collection<Long> ids) {
+        return keyspace.prepareQuery(mainCf)
+            .setConsistencyLevel(readConsistency)
+            .getKeySlice(ids)
+            .withColumnSlice(Collections2.transform(PREVIOUS_HASH_COLUMNS, Functions.toStringFunction()));
+    }
+
+    private RowSliceQuery<Long, String> readChildRefs(Collection<Long> ids) {
+        return keyspace.prepareQuery(mainCf)
+            .setConsistencyLevel(readConsistency)
+            .getKeySlice(ids)
+            .withColumnRange(CHILD_REF_RANGE_START, CHILD_REF_RANGE_END, false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return true if the hash persisted in the given columns matches that of
+     *         the content being written.
+     */
+    private static boolean hashUnchanged(ColumnList<String> cols, @Nullable String hash) {
+        Column<String> persisted = cols.getColumnByName(HASH.name());
+        return hash != null && persisted != null && hash.equals(persisted.getStringValue());
+    }
+
+    /**
+     * Sets the child refs read for an unchanged container on it, so they're
+     * carried into its write result.
+     */
+    private Content withChildRefs(Content previous, @Nullable ColumnList<String> childRefs) {
+        if (childRefs == null || !(previous instanceof Container)) {
+            return previous;
+        }
+        ChildRefPage refs = toChildRefPage(childRefs, null, childRefs.size());
+        ((Container) previous).setItemRefs(refs.getItemRefs());
+        if (previous instanceof Brand) {
+            ((Brand) previous).setSeriesRefs(refs.getSeriesRefs());
+        }
         return previous;
     }
+    
+    @Override
+    protected @Nullable
+    PreviousVersion resolvePrevious(@Nullable Id id, Publisher source, Set<Alias> aliases,
+            @Nullable String hash) {
+        Long previousId = previousId(id, source, aliases);
+        if (previousId == null) {
+            return null;
+        }
+        try {
+            ColumnList<String> hashCols = keyspace.prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKey(previousId)
+                .withColumnSlice(Collections2.transform(PREVIOUS_HASH_COLUMNS, Functions.toStringFunction()))
+                .execute().getResult();
+            if (hashUnchanged(hashCols, hash)) {
+                Content previous = marshaller.unmarshallCols(hashCols);
+                if (previous instanceof Container) {
+                    Row<Long, String> refs = readChildRefs(ImmutableSet.of(previousId))
+                        .execute().getResult().getRow(previousId);
+                    previous = withChildRefs(previous, refs != null ? refs.getColumns() : null);
+                }
+                return new PreviousVersion(previous, hash);
+            }
+            ColumnList<String> cols = keyspace.prepareQuery(mainCf)
+                .setConsistencyLevel(readConsistency)
+                .getKey(previousId)
+                .execute().getResult();
+            if (cols.isEmpty()) {
+                return null;
+            }
+            Column<String> persisted = cols.getColumnByName(HASH.name());
+            return new PreviousVersion(marshaller.unmarshallCols(cols),
+                    persisted != null ? persisted.getStringValue() : null,
+                    marshaller.unmarshallDigests(cols));
+        } catch (ConnectionException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private Long previousId(@Nullable Id id, Publisher source, Set<Alias> aliases) {
+        if (id != null) {
+            return id.longValue();
+        }
+        try {
+            Set<Long> ids = aliasIndex.readAliases(source, aliases);
+            return Iterables.getFirst(ids, null);
+        } catch (ConnectionException e) {
+            throw Throwables.propagate(e);
+        }
+    }
 
     private Content resolve(long longId, Set<ContentColumn> colNames) {
         try {
@@ -241,8 +1046,10 @@ public final class CassandraContentStore extends AbstractContentStore {
 
     @Override
     protected Item.ContainerSummary summarize(ContainerRef id) {
-        Content resolved = resolve(id.getId().longValue(), 
-            ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION, DESCRIPTION));
+        return toSummary(id, resolve(id.getId().longValue(), SUMMARY_COLUMNS));
+    }
+
+    private Item.ContainerSummary toSummary(ContainerRef id, @Nullable Content resolved) {
         if (resolved instanceof Container) {
             return summarize((Container)resolved);
         } else  if (resolved == null) {
@@ -278,39 +1085,41 @@ public final class CassandraContentStore extends AbstractContentStore {
 
     @Override
     protected void writeSecondaryContainerRef(BrandRef primary, SeriesRef seriesRef) {
-        try {
-            Long rowId = primary.getId().longValue();
-            Brand container = new Brand();
-            container.setSeriesRefs(ImmutableList.of(seriesRef));
-            container.setThisOrChildLastUpdated(seriesRef.getUpdated());
-            
-            MutationBatch batch = keyspace.prepareMutationBatch();
-            batch.setConsistencyLevel(writeConsistency);
-            ColumnListMutation<String> mutation = batch.withRow(mainCf, rowId);
-            marshaller.marshallInto(mutation, container);
-            batch.execute();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+        if (childRefWriteBehind.isPresent()) {
+            childRefWriteBehind.get().addSeriesRef(primary, seriesRef);
+            return;
         }
+        ChildRefAppends appends = new ChildRefAppends();
+        appends.addSeriesRef(primary, seriesRef);
+        writeChildRefs(appends);
     }
 
     @Override
     protected void writeItemRef(ContainerRef containerRef, ItemRef childRef) {
-        try {
+        if (childRefWriteBehind.isPresent()) {
+            childRefWriteBehind.get().addItemRef(containerRef, childRef);
+            return;
+        }
+        ChildRefAppends appends = new ChildRefAppends();
+        appends.addItemRef(containerRef, childRef);
+        writeChildRefs(appends);
+    }
 
-            Long rowId = containerRef.getId().longValue();
-            Container container = new Brand();
-            container.setItemRefs(ImmutableList.of(childRef));
-            container.setThisOrChildLastUpdated(childRef.getUpdated());
-            
-            MutationBatch batch = keyspace.prepareMutationBatch();
-            batch.setConsistencyLevel(writeConsistency);
-            ColumnListMutation<String> mutation = batch.withRow(mainCf, rowId);
-            marshaller.marshallInto(mutation, container);
+    private void writeChildRefs(ChildRefAppends appends) {
+        try {
+            MutationBatch batch = prepareMutationBatch();
+            mutateChildRefs(batch, appends);
             batch.execute();
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
     }
 
+    private void mutateChildRefs(MutationBatch batch, ChildRefAppends appends) {
+        for (Entry<Long, Container> container : appends.toContainers().entrySet()) {
+            ColumnListMutation<String> mutation = batch.withRow(mainCf, container.getKey());
+            marshaller.marshallInto(mutation, container.getValue());
+        }
+    }
+
 }
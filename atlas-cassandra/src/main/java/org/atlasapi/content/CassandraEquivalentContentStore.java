@@ -1,14 +1,12 @@
 package org.atlasapi.content;
 
-import static com.datastax.driver.core.querybuilder.QueryBuilder.asc;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.batch;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
@@ -25,20 +23,20 @@ import org.atlasapi.equivalence.EquivalenceGraphUpdate;
 import org.atlasapi.equivalence.ResolvedEquivalents;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.serialization.protobuf.ContentProtos;
+import org.atlasapi.util.FanOut;
+import org.atlasapi.util.PreparedStatements;
+import org.atlasapi.util.ProtoBuffers;
 import org.atlasapi.util.SecondaryIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.datastax.driver.core.ConsistencyLevel;
-import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -51,8 +49,6 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
-import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
 
 public class CassandraEquivalentContentStore extends AbstractEquivalentContentStore {
 
@@ -63,8 +59,15 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
     private static final String GRAPH_KEY = "graph";
     private static final String CONTENT_ID_KEY = "content_id";
     private static final String DATA_KEY = "data";
+
+    private static final String DELETE_SET = String.format("DELETE FROM %s WHERE %s = ?",
+        EQUIVALENT_CONTENT_TABLE, SET_ID_KEY);
+    private static final String UPDATE_DATA = String.format("UPDATE %s SET %s = ? WHERE %s = ? AND %s = ?",
+        EQUIVALENT_CONTENT_TABLE, DATA_KEY, SET_ID_KEY, CONTENT_ID_KEY);
     
     private final Session session;
+    private final PreparedStatements statements;
+    private final FanOut fanOut;
     private final ConsistencyLevel writeConsistency;
     private final ConsistencyLevel readConsistency;
 
@@ -77,11 +80,19 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
     public CassandraEquivalentContentStore(ContentResolver contentResolver,
             EquivalenceGraphStore graphStore, Session session, ConsistencyLevel read,
             ConsistencyLevel write) {
+        this(contentResolver, graphStore, session, read, write, FanOut.perPartition());
+    }
+
+    public CassandraEquivalentContentStore(ContentResolver contentResolver,
+            EquivalenceGraphStore graphStore, Session session, ConsistencyLevel read,
+            ConsistencyLevel write, FanOut fanOut) {
         super(contentResolver, graphStore);
         this.session = session;
+        this.statements = PreparedStatements.forSession(session);
         this.readConsistency = read;
         this.writeConsistency = write;
-        this.index = new SecondaryIndex(session, EQUIVALENT_CONTENT_INDEX, read);
+        this.fanOut = fanOut;
+        this.index = new SecondaryIndex(session, EQUIVALENT_CONTENT_INDEX, read, fanOut);
     }
 
     @Override
@@ -130,17 +141,17 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
             @Override
             public ListenableFuture<Optional<ResolvedEquivalents<Content>>> apply(Map<Long, Long> index)
                     throws Exception {
-                return Futures.transform(resultOf(selectSetsQuery(index.values()),readConsistency), 
+                return Futures.transform(selectSets(index.values(), readConsistency),
                         toEquivalentsSets(index, selectedSources));
             }
         };
     }
 
-    private Function<ResultSet, Optional<ResolvedEquivalents<Content>>> toEquivalentsSets(
+    private Function<List<ResultSet>, Optional<ResolvedEquivalents<Content>>> toEquivalentsSets(
             final Map<Long, Long> index, final Set<Publisher> selectedSources) {
-        return new Function<ResultSet, Optional<ResolvedEquivalents<Content>>>() {
+        return new Function<List<ResultSet>, Optional<ResolvedEquivalents<Content>>>() {
             @Override
-            public Optional<ResolvedEquivalents<Content>> apply(ResultSet setsRows) {
+            public Optional<ResolvedEquivalents<Content>> apply(List<ResultSet> setsRows) {
                 Multimap<Long, Content> sets = deserialize(index, setsRows, selectedSources);
                 if (sets == null) {
                     return Optional.absent();
@@ -155,10 +166,10 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
         };
     }
 
-    private Multimap<Long, Content> deserialize(Map<Long, Long> index, ResultSet setsRows, Set<Publisher> selectedSources) {
+    private Multimap<Long, Content> deserialize(Map<Long, Long> index, List<ResultSet> setsRows, Set<Publisher> selectedSources) {
         ImmutableSetMultimap.Builder<Long, Content> sets = ImmutableSetMultimap.builder();
         Map<Long, EquivalenceGraph> graphs = Maps.newHashMap();
-        for (Row row : setsRows) {
+        for (Row row : Iterables.concat(setsRows)) {
             long setId = row.getLong(SET_ID_KEY);
             if (!row.isNull(GRAPH_KEY)) {
                 graphs.put(setId, graphSerializer.deserialize(row.getBytes(GRAPH_KEY)));
@@ -187,10 +198,10 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
 
     private Content deserialize(Row row) {
         try {
-            ByteString bytes = ByteString.copyFrom(row.getBytes(DATA_KEY));
-            ContentProtos.Content buffer = ContentProtos.Content.parseFrom(bytes);
+            ContentProtos.Content buffer = ContentProtos.Content.parseFrom(
+                    ProtoBuffers.codedInputStream(row.getBytesUnsafe(DATA_KEY)));
             return contentSerializer.deserialize(buffer);
-        } catch (InvalidProtocolBufferException e) {
+        } catch (IOException e) {
             throw new RuntimeException(row.getLong(SET_ID_KEY)+":"+row.getLong(CONTENT_ID_KEY), e);
         }
     }
@@ -202,15 +213,11 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
             && equivalenceGraph.getEquivalenceSet().contains(content.getId());
     }
 
-    private ResultSetFuture resultOf(Query query, ConsistencyLevel readConsistency) {
-        return session.executeAsync(query.setConsistencyLevel(readConsistency));
-    }
-    
-    private Query selectSetsQuery(Iterable<Long> keys) {
-        return select().all()
-                .from(EQUIVALENT_CONTENT_TABLE)
-                .where(in(SET_ID_KEY, ImmutableSet.copyOf(keys).toArray()))
-                .orderBy(asc(CONTENT_ID_KEY));
+    /* The rows of each set are clustered by content id, so the graph row, keyed
+     * by the lowest id in the set, is read before the content it selects.
+     */
+    private ListenableFuture<List<ResultSet>> selectSets(Iterable<Long> keys, ConsistencyLevel readConsistency) {
+        return fanOut.select(session, readConsistency, EQUIVALENT_CONTENT_TABLE, SET_ID_KEY, keys);
     }
     
     @Override
@@ -248,11 +255,11 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
         if (deletedGraphs.isEmpty()) {
             return;
         }
-        Object[] ids = Collections2.transform(deletedGraphs, Id.toLongValue()).toArray();
-        session.execute(delete().all()
-                .from(EQUIVALENT_CONTENT_TABLE)
-                .where(in(SET_ID_KEY, ids))
-                .setConsistencyLevel(writeConsistency));
+        List<ListenableFuture<ResultSet>> deletes = Lists.newArrayListWithCapacity(deletedGraphs.size());
+        for (Id graphId : deletedGraphs) {
+            deletes.add(statements.executeAsync(DELETE_SET, writeConsistency, graphId.longValue()));
+        }
+        Futures.getUnchecked(Futures.allAsList(deletes));
     }
 
     private void updateDataRows(ImmutableSetMultimap<EquivalenceGraph, Content> graphsAndContent) {
@@ -297,7 +304,8 @@ public class CassandraEquivalentContentStore extends AbstractEquivalentContentSt
 
     @Override
     protected void updateInSet(EquivalenceGraph graph, Content content) {
-        session.execute(dataRowUpdateFor(graph, content).setConsistencyLevel(writeConsistency));
+        session.execute(statements.bind(UPDATE_DATA, writeConsistency,
+            serialize(content), graph.getId().longValue(), content.getId().longValue()));
     }
 
 }
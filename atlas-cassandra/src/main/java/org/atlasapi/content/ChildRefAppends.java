@@ -0,0 +1,82 @@
+package org.atlasapi.content;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.joda.time.DateTime;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+
+/**
+ * Child refs to be appended to container rows, grouped by container so that
+ * each container row is written with a single mutation however many children
+ * are added to it.
+ */
+final class ChildRefAppends {
+
+    private final ListMultimap<Long, ItemRef> itemRefs = ArrayListMultimap.create();
+    private final ListMultimap<Long, SeriesRef> seriesRefs = ArrayListMultimap.create();
+    private final Map<Long, DateTime> childUpdated = Maps.newLinkedHashMap();
+
+    public void addItemRef(ContainerRef container, ItemRef childRef) {
+        Long id = container.getId().longValue();
+        itemRefs.put(id, childRef);
+        updated(id, childRef.getUpdated());
+    }
+
+    public void addSeriesRef(BrandRef brand, SeriesRef seriesRef) {
+        Long id = brand.getId().longValue();
+        seriesRefs.put(id, seriesRef);
+        updated(id, seriesRef.getUpdated());
+    }
+
+    public void addAll(ChildRefAppends other) {
+        itemRefs.putAll(other.itemRefs);
+        seriesRefs.putAll(other.seriesRefs);
+        for (Entry<Long, DateTime> updated : other.childUpdated.entrySet()) {
+            updated(updated.getKey(), updated.getValue());
+        }
+    }
+
+    private void updated(Long id, DateTime updated) {
+        if (!childUpdated.containsKey(id)) {
+            childUpdated.put(id, updated);
+        } else if (updated != null) {
+            DateTime current = childUpdated.get(id);
+            if (current == null || updated.isAfter(current)) {
+                childUpdated.put(id, updated);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return childUpdated.isEmpty();
+    }
+
+    /**
+     * @return the number of refs to be appended.
+     */
+    public int size() {
+        return itemRefs.size() + seriesRefs.size();
+    }
+
+    /**
+     * @return a container per container row, keyed by row id, holding only the
+     *         refs to append and the latest child updated time.
+     */
+    public Map<Long, Container> toContainers() {
+        ImmutableMap.Builder<Long, Container> containers = ImmutableMap.builder();
+        for (Entry<Long, DateTime> updated : childUpdated.entrySet()) {
+            Brand container = new Brand();
+            container.setItemRefs(itemRefs.get(updated.getKey()));
+            container.setSeriesRefs(seriesRefs.get(updated.getKey()));
+            container.setThisOrChildLastUpdated(updated.getValue());
+            containers.put(updated.getKey(), container);
+        }
+        return containers.build();
+    }
+
+}
@@ -0,0 +1,212 @@
+package org.atlasapi.content;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Holds child ref appends made outside of a batch write, writing them
+ * periodically as a single mutation per container row.
+ * </p>
+ *
+ * <p>
+ * Callbacks registered with {@link #whenFlushed(Runnable)} while appends are
+ * pending, or being flushed, are run once those appends have been written, so
+ * that, for example, update messages aren't sent before the refs are
+ * persisted. Callbacks of a failed flush wait for its retry.
+ * </p>
+ *
+ * <p>
+ * A failed flush is retried by later runs, backing off exponentially by
+ * skipping runs. After {@code maxAttempts} consecutive failures the appends
+ * are dropped and their callbacks run, since the content they were appended
+ * for was written.
+ * </p>
+ */
+final class ChildRefWriteBehind implements Runnable {
+
+    interface Writer {
+
+        void write(ChildRefAppends appends) throws Exception;
+
+    }
+
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Writer writer;
+    private final int maxAttempts;
+    private final Object flushLock = new Object();
+
+    private ChildRefAppends pending = new ChildRefAppends();
+    private List<Runnable> callbacks = Lists.newArrayList();
+    // the callbacks of the flush in flight, or null if none is
+    private List<Runnable> flushing = null;
+    private int failures = 0;
+    private int runsToSkip = 0;
+
+    public ChildRefWriteBehind(Writer writer, int maxAttempts) {
+        checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        this.writer = checkNotNull(writer);
+        this.maxAttempts = maxAttempts;
+    }
+
+    public synchronized void addItemRef(ContainerRef containerRef, ItemRef childRef) {
+        pending.addItemRef(containerRef, childRef);
+    }
+
+    public synchronized void addSeriesRef(BrandRef primary, SeriesRef seriesRef) {
+        pending.addSeriesRef(primary, seriesRef);
+    }
+
+    /**
+     * Run the callback once the appends pending or being flushed now have been
+     * written, or immediately if there are none.
+     */
+    public void whenFlushed(Runnable callback) {
+        checkNotNull(callback);
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                callbacks.add(callback);
+                return;
+            }
+            if (flushing != null) {
+                flushing.add(callback);
+                return;
+            }
+        }
+        run(ImmutableList.of(callback));
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (runsToSkip > 0) {
+                runsToSkip--;
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write the pending appends, queueing them to be retried if the write
+     * fails.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            ChildRefAppends appends;
+            List<Runnable> flushed;
+            synchronized (this) {
+                appends = pending;
+                flushed = callbacks;
+                flushing = flushed;
+                pending = new ChildRefAppends();
+                callbacks = Lists.newArrayList();
+            }
+            try {
+                write(appends);
+            } catch (Exception e) {
+                if (!requeue(appends, flushed, e)) {
+                    run(flushed);
+                }
+                return;
+            }
+            landed();
+            run(flushed);
+        }
+    }
+
+    /**
+     * Write the pending appends without retrying, for use once nothing else
+     * is flushing, such as on shutdown.
+     *
+     * @throws CassandraPersistenceException
+     *             if the appends can't be written.
+     */
+    public void flushFinally() {
+        synchronized (flushLock) {
+            ChildRefAppends appends;
+            List<Runnable> flushed;
+            synchronized (this) {
+                appends = pending;
+                flushed = callbacks;
+                flushing = flushed;
+                pending = new ChildRefAppends();
+                callbacks = Lists.newArrayList();
+            }
+            try {
+                write(appends);
+            } catch (Exception e) {
+                throw new CassandraPersistenceException(
+                    "Failed to write " + appends.size() + " child refs", e);
+            } finally {
+                landed();
+                run(flushed);
+            }
+        }
+    }
+
+    private void write(ChildRefAppends appends) throws Exception {
+        if (appends.isEmpty()) {
+            return;
+        }
+        writer.write(appends);
+        synchronized (this) {
+            failures = 0;
+        }
+    }
+
+    /**
+     * No more callbacks are added to those of the flush once it's landed, so
+     * they can be run.
+     */
+    private synchronized void landed() {
+        flushing = null;
+    }
+
+    /**
+     * Callbacks added while the flush was in flight are requeued along with
+     * its own.
+     * 
+     * @return false if the appends have failed too many times and were
+     *         dropped.
+     */
+    private synchronized boolean requeue(ChildRefAppends appends, List<Runnable> flushed, Exception e) {
+        flushing = null;
+        failures++;
+        if (failures >= maxAttempts) {
+            log.error("Dropping " + appends.size() + " child refs after " + failures + " attempts", e);
+            failures = 0;
+            return false;
+        }
+        log.warn("Failed to write " + appends.size() + " child refs, will retry", e);
+        // appended since the failed flush, so written after the requeued refs
+        appends.addAll(pending);
+        pending = appends;
+        flushed.addAll(callbacks);
+        callbacks = flushed;
+        runsToSkip = (1 << Math.min(failures - 1, MAX_BACKOFF_SHIFT)) - 1;
+        return true;
+    }
+
+    private void run(List<Runnable> toRun) {
+        for (Runnable callback : toRun) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                log.error("Failed to run callback after writing child refs", e);
+            }
+        }
+    }
+
+}
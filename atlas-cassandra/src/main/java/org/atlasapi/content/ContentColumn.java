@@ -1,21 +0,0 @@
-package org.atlasapi.content;
-
-
-public enum ContentColumn {
-    TYPE,
-    SOURCE,
-    IDENTIFICATION,
-    DESCRIPTION,
-    BROADCASTS,
-    LOCATIONS,
-    CHILDREN,
-    CHILD_UPDATED,
-    SECONDARY,
-    PEOPLE,
-    CLIPS,
-    KEYPHRASES,
-    LINKS,
-    TOPICS,
-    GROUPS,
-    SEGMENTS
-}
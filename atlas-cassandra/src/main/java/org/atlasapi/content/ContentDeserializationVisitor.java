@@ -15,6 +15,7 @@ import org.atlasapi.serialization.protobuf.ContentProtos.Synopsis;
 import org.atlasapi.source.Sources;
 import org.joda.time.Duration;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.collect.Ordering;
@@ -128,11 +129,7 @@ final class ContentDeserializationVisitor implements ContentVisitor<Content> {
         }
         content.setCertificates(certificates.build());
 
-        ImmutableSet.Builder<CrewMember> crew = ImmutableSet.builder();
-        for (ContentProtos.CrewMember crewMember : msg.getCrewMembersList()) {
-            crew.add(crewMemberSerializer.deserialize(crewMember));
-        }
-        content.setPeople(crew.build().asList());
+        content.setPeople(getPeople());
         
         ImmutableSet.Builder<Clip> clips = ImmutableSet.builder();
         for (ContentProtos.Content clipPb : msg.getClipsList()) {
@@ -280,7 +277,15 @@ final class ContentDeserializationVisitor implements ContentVisitor<Content> {
         return item;
     }
     
-    private ImmutableSet<Broadcast> getBroadcasts() {
+    ImmutableList<CrewMember> getPeople() {
+        ImmutableSet.Builder<CrewMember> crew = ImmutableSet.builder();
+        for (ContentProtos.CrewMember crewMember : msg.getCrewMembersList()) {
+            crew.add(crewMemberSerializer.deserialize(crewMember));
+        }
+        return crew.build().asList();
+    }
+
+    ImmutableSet<Broadcast> getBroadcasts() {
         ImmutableSet.Builder<Broadcast> broadcasts = ImmutableSet.builder();
         for (int i = 0; i < msg.getBroadcastsCount(); i++) {
             ContentProtos.Broadcast broadcast = msg.getBroadcasts(i);
@@ -289,7 +294,7 @@ final class ContentDeserializationVisitor implements ContentVisitor<Content> {
         return broadcasts.build();
     }
 
-    private ImmutableSet<Encoding> getEncodings() {
+    ImmutableSet<Encoding> getEncodings() {
         ImmutableSet.Builder<Encoding> encodings = ImmutableSet.builder();
         for (int i = 0; i < msg.getEncodingsCount(); i++) {
             ContentProtos.Encoding encoding = msg.getEncodings(i);
@@ -1,12 +1,50 @@
 package org.atlasapi.content;
 
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
 import com.netflix.astyanax.ColumnListMutation;
+import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnList;
 
 public interface ContentMarshaller {
 
     void marshallInto(ColumnListMutation<String> mutation, Content content);
 
+    /**
+     * Marshall every column of the content along with its digest, deleting
+     * the columns the previous version had which the content doesn't.
+     */
+    void marshallInto(ColumnListMutation<String> mutation, Content content, @Nullable Content previous);
+
+    /**
+     * Marshall the columns of the content whose serialized form differs from
+     * that of the previous version, as recorded by the previous version's
+     * column digests, along with their digests. Columns the previous version
+     * had which the content doesn't are deleted.
+     * 
+     * @param previousDigests
+     *            - the column digests of the previous version, or
+     *            {@code null} to marshall every column.
+     */
+    void marshallChangedInto(ColumnListMutation<String> mutation, Content content,
+            @Nullable Map<ContentColumn, String> previousDigests);
+
     Content unmarshallCols(ColumnList<String> columns);
 
+    /**
+     * Unmarshall a single child ref column of a container.
+     * 
+     * @return the ref held in the column, or null if the column isn't a child
+     *         ref column.
+     */
+    ContentRef unmarshallChildRef(Column<String> column);
+
+    /**
+     * @return the column digests stored with content, or {@code null} if
+     *         there are none.
+     */
+    @Nullable Map<ContentColumn, String> unmarshallDigests(ColumnList<String> columns);
+
 }
\ No newline at end of file
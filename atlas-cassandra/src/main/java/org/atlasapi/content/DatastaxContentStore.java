@@ -0,0 +1,565 @@
+package org.atlasapi.content;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.atlasapi.content.ContentColumn.CHILDREN;
+import static org.atlasapi.content.ContentColumn.DESCRIPTION;
+import static org.atlasapi.content.ContentColumn.HASH;
+import static org.atlasapi.content.ContentColumn.IDENTIFICATION;
+import static org.atlasapi.content.ContentColumn.SECONDARY;
+import static org.atlasapi.content.ContentColumn.SOURCE;
+import static org.atlasapi.content.ContentColumn.TYPE;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.content.ProtobufContentMarshaller.ColumnWriter;
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.AliasIndex;
+import org.atlasapi.entity.DatastaxAliasIndex;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.util.Resolved;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.ResourceUpdatedMessage;
+import org.atlasapi.util.PagedRowReader;
+import org.atlasapi.util.RowMutation;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.collect.ImmutableOptionalMap;
+import com.metabroadcast.common.collect.OptionalMap;
+import com.metabroadcast.common.ids.IdGenerator;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+
+/**
+ * <p>
+ * A content store which reads and writes the same rows as
+ * {@link CassandraContentStore} through the native protocol, so that it can
+ * share a connection pool with the other stores on a {@link Session}.
+ * </p>
+ *
+ * <p>
+ * Every read is a {@link PreparedStatement}, prepared once when the store is
+ * created or, for column projections and child ref pages, when first used.
+ * Each row is read with its own query, rather than one query for all the rows,
+ * so that a token-aware session routes it straight to a replica. Whole rows are
+ * read in pages by a {@link PagedRowReader}.
+ * </p>
+ *
+ * <p>
+ * The columns written to a row are written as a single {@link RowMutation}, a
+ * prepared unlogged batch, so that a row is never left with only some of its
+ * columns.
+ * </p>
+ */
+public final class DatastaxContentStore extends AbstractContentStore {
+
+    private static final Set<ContentColumn> REQUIRED_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION);
+    private static final Set<ContentColumn> SUMMARY_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION, DESCRIPTION);
+    // the columns read to compare a previous version by its persisted hash.
+    private static final Set<ContentColumn> PREVIOUS_HASH_COLUMNS = ImmutableSet.of(TYPE, SOURCE, IDENTIFICATION, HASH);
+    // child ref columns are named by the child's id, so sort before all other
+    // columns, which are named by upper case ContentColumn names.
+    private static final String CHILD_REF_RANGE_START = "";
+    private static final String CHILD_REF_RANGE_END = ":";
+    // the driver doesn't bind limits so child ref page queries are prepared
+    // per page size
+    private static final int MAX_PREPARED_PAGE_SIZES = 64;
+    private static final int MAX_PREPARED_PROJECTIONS = 64;
+    private static final int ROW_PAGE_SIZE = 1000;
+    // TODO: move timeout to config
+    private static final int RESOLVE_TIMEOUT = 10;
+    private static final TimeUnit RESOLVE_TIMEOUT_UNITS = TimeUnit.SECONDS;
+
+    private static final String KEY = "key";
+    private static final String COLUMN = "column1";
+    private static final String VALUE = "value";
+
+    public static final Builder builder(Session session, String name, ContentHasher hasher,
+            MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
+        return new Builder(session, name, hasher, sender, idGenerator);
+    }
+
+    public static final class Builder {
+
+        private final Session session;
+        private final String name;
+        private final ContentHasher hasher;
+        private final MessageSender<ResourceUpdatedMessage> sender;
+        private final IdGenerator idGenerator;
+
+        private ConsistencyLevel readCl = ConsistencyLevel.QUORUM;
+        private ConsistencyLevel writeCl = ConsistencyLevel.QUORUM;
+        private Clock clock = new SystemClock();
+        private Optional<ContentHashCache> hashCache = Optional.absent();
+        private Optional<ContainerSummaryCache> summaryCache = Optional.absent();
+        private AliasIndex.KeyFormat aliasKeyFormat = AliasIndex.KeyFormat.LEGACY;
+
+        public Builder(Session session, String name, ContentHasher hasher,
+                MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
+            this.session = checkNotNull(session);
+            this.name = checkNotNull(name);
+            this.hasher = checkNotNull(hasher);
+            this.sender = checkNotNull(sender);
+            this.idGenerator = checkNotNull(idGenerator);
+        }
+
+        public Builder withReadConsistency(ConsistencyLevel readCl) {
+            this.readCl = checkNotNull(readCl);
+            return this;
+        }
+
+        public Builder withWriteConsistency(ConsistencyLevel writeCl) {
+            this.writeCl = checkNotNull(writeCl);
+            return this;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = checkNotNull(clock);
+            return this;
+        }
+
+        public Builder withHashCache(ContentHashCache hashCache) {
+            this.hashCache = Optional.of(hashCache);
+            return this;
+        }
+
+        public Builder withContainerSummaryCache(ContainerSummaryCache summaryCache) {
+            this.summaryCache = Optional.of(summaryCache);
+            return this;
+        }
+
+        /**
+         * Set the row keys the alias index is read and written with.
+         */
+        public Builder withAliasKeyFormat(AliasIndex.KeyFormat aliasKeyFormat) {
+            this.aliasKeyFormat = checkNotNull(aliasKeyFormat);
+            return this;
+        }
+
+        public DatastaxContentStore build() {
+            return new DatastaxContentStore(session, name, readCl, writeCl, hasher, idGenerator,
+                sender, clock, hashCache, summaryCache, aliasKeyFormat);
+        }
+
+    }
+
+    private final Session session;
+    private final String table;
+    private final ConsistencyLevel writeConsistency;
+    private final DatastaxAliasIndex<Content> aliasIndex;
+    private final ProtobufContentMarshaller marshaller = new ProtobufContentMarshaller();
+
+    private final PagedRowReader rows;
+    private final PreparedStatement selectSummary;
+    private final LoadingCache<Set<ContentColumn>, PreparedStatement> selectColumns;
+    private final LoadingCache<Integer, PreparedStatement> selectChildRefs;
+
+    private final Function<List<? extends Iterable<Row>>, Resolved<Content>> toResolvedContent =
+        new Function<List<? extends Iterable<Row>>, Resolved<Content>>() {
+            @Override
+            public Resolved<Content> apply(List<? extends Iterable<Row>> rows) {
+                return Resolved.valueOf(toContent(rows).values());
+            }
+        };
+
+    private DatastaxContentStore(Session session, String table, ConsistencyLevel read,
+            ConsistencyLevel write, ContentHasher hasher, IdGenerator idGenerator,
+            MessageSender<ResourceUpdatedMessage> sender, Clock clock,
+            Optional<ContentHashCache> hashCache, Optional<ContainerSummaryCache> summaryCache,
+            AliasIndex.KeyFormat aliasKeyFormat) {
+        super(hasher, idGenerator, sender, clock, hashCache, summaryCache);
+        this.session = checkNotNull(session);
+        this.table = checkNotNull(table);
+        this.writeConsistency = checkNotNull(write);
+        this.aliasIndex = new DatastaxAliasIndex<Content>(session, table + "_aliases",
+            aliasKeyFormat, read, write);
+        this.rows = new PagedRowReader(session, table, KEY, COLUMN, VALUE, ROW_PAGE_SIZE, read);
+        final String select = String.format("SELECT %s, %s FROM %s WHERE %s = ?", COLUMN, VALUE, table, KEY);
+        this.selectSummary = prepare(select + inColumns(SUMMARY_COLUMNS), read);
+        final String selectRange = select + String.format(" AND %s > ? AND %s < ? LIMIT ", COLUMN, COLUMN);
+        final ConsistencyLevel readConsistency = read;
+        this.selectColumns = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PREPARED_PROJECTIONS)
+            .build(new CacheLoader<Set<ContentColumn>, PreparedStatement>() {
+                @Override
+                public PreparedStatement load(Set<ContentColumn> columns) {
+                    return prepare(select + inColumns(columns), readConsistency);
+                }
+            });
+        this.selectChildRefs = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PREPARED_PAGE_SIZES)
+            .build(new CacheLoader<Integer, PreparedStatement>() {
+                @Override
+                public PreparedStatement load(Integer count) {
+                    return prepare(selectRange + count, readConsistency);
+                }
+            });
+    }
+
+    private PreparedStatement prepare(String cql, ConsistencyLevel level) {
+        return session.prepare(cql).setConsistencyLevel(level);
+    }
+
+    private static String inColumns(Set<ContentColumn> columns) {
+        return String.format(" AND %s IN ('%s')", COLUMN, Joiner.on("', '").join(columns));
+    }
+
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids) {
+        return Futures.transform(resolveRows(ids), toResolvedContent);
+    }
+
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns) {
+        // child refs are stored in a column per child so can't be selected by name.
+        if (columns.contains(CHILDREN) || columns.contains(SECONDARY)) {
+            return resolveIds(ids);
+        }
+        PreparedStatement statement = selectColumns.getUnchecked(
+            Sets.immutableEnumSet(Sets.union(REQUIRED_COLUMNS, columns)));
+        Set<Id> uniqueIds = ImmutableSet.copyOf(ids);
+        List<ListenableFuture<ResultSet>> rows = Lists.newArrayListWithCapacity(uniqueIds.size());
+        for (Id id : uniqueIds) {
+            rows.add(session.executeAsync(statement.bind(id.longValue())));
+        }
+        return Futures.transform(Futures.allAsList(rows), toResolvedContent);
+    }
+
+    private ListenableFuture<List<List<Row>>> resolveRows(Iterable<Id> ids) {
+        Set<Id> uniqueIds = ImmutableSet.copyOf(ids);
+        List<ListenableFuture<List<Row>>> resolved = Lists.newArrayListWithCapacity(uniqueIds.size());
+        for (Id id : uniqueIds) {
+            resolved.add(rows.read(id.longValue()));
+        }
+        return Futures.allAsList(resolved);
+    }
+
+    private Map<Long, Content> toContent(List<? extends Iterable<Row>> rows) {
+        Map<Long, Content> contents = Maps.newLinkedHashMap();
+        for (Iterable<Row> row : rows) {
+            Content content = toContent(row);
+            if (content != null) {
+                contents.put(content.getId().longValue(), content);
+            }
+        }
+        return contents;
+    }
+
+    private @Nullable Content toContent(Iterable<Row> row) {
+        Map<String, ByteBuffer> columns = toColumns(row);
+        return columns.isEmpty() ? null : marshaller.unmarshallCols(columns);
+    }
+
+    private static Map<String, ByteBuffer> toColumns(Iterable<Row> row) {
+        Map<String, ByteBuffer> columns = Maps.newLinkedHashMap();
+        for (Row column : row) {
+            columns.put(column.getString(COLUMN), column.getBytes(VALUE));
+        }
+        return columns;
+    }
+
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId,
+            @Nullable String cursor, final int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        // one more than needed is read to know whether there's a next page.
+        PreparedStatement statement = selectChildRefs.getUnchecked(limit + 1);
+        Query query = statement.bind(containerId.longValue(),
+            cursor == null ? CHILD_REF_RANGE_START : cursor, CHILD_REF_RANGE_END);
+        return Futures.transform(session.executeAsync(query), new Function<ResultSet, ChildRefPage>() {
+            @Override
+            public ChildRefPage apply(ResultSet input) {
+                return toChildRefPage(input, limit);
+            }
+        });
+    }
+
+    private ChildRefPage toChildRefPage(ResultSet columns, int limit) {
+        ImmutableList.Builder<ItemRef> itemRefs = ImmutableList.builder();
+        ImmutableList.Builder<SeriesRef> seriesRefs = ImmutableList.builder();
+        int added = 0;
+        String last = null;
+        for (Row column : columns) {
+            if (added == limit) {
+                return new ChildRefPage(itemRefs.build(), seriesRefs.build(), last);
+            }
+            ContentRef ref = marshaller.unmarshallChildRef(column.getBytes(VALUE));
+            if (ref instanceof ItemRef) {
+                itemRefs.add((ItemRef) ref);
+            } else if (ref instanceof SeriesRef) {
+                seriesRefs.add((SeriesRef) ref);
+            }
+            last = column.getString(COLUMN);
+            added++;
+        }
+        return new ChildRefPage(itemRefs.build(), seriesRefs.build(), null);
+    }
+
+    @Override
+    public OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source) {
+        try {
+            Set<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
+            Map<Alias, Long> ids = aliasIndex.readAliasIds(source, uniqueAliases)
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS);
+            if (ids.isEmpty()) {
+                return ImmutableOptionalMap.of();
+            }
+            Map<Long, Content> contents = toContent(resolveRows(
+                Iterables.transform(ids.values(), Id.fromLongValue()))
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS));
+            ImmutableMap.Builder<Alias, Optional<Content>> aliasMap = ImmutableMap.builder();
+            for (Content content : contents.values()) {
+                for (Alias alias : content.getAliases()) {
+                    if (uniqueAliases.contains(alias)) {
+                        aliasMap.put(alias, Optional.of(content));
+                    }
+                }
+            }
+            return ImmutableOptionalMap.copyOf(aliasMap.build());
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources) {
+        try {
+            Table<Alias, Publisher, Long> ids = aliasIndex.readAliasIds(sources, aliases)
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS);
+            if (ids.isEmpty()) {
+                return ImmutableTable.of();
+            }
+            Map<Long, Content> contents = toContent(resolveRows(
+                Iterables.transform(ids.values(), Id.fromLongValue()))
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS));
+            ImmutableTable.Builder<Alias, Publisher, Content> aliasTable = ImmutableTable.builder();
+            for (Table.Cell<Alias, Publisher, Long> cell : ids.cellSet()) {
+                Content content = contents.get(cell.getValue());
+                if (content != null && content.getAliases().contains(cell.getRowKey())) {
+                    aliasTable.put(cell.getRowKey(), cell.getColumnKey(), content);
+                }
+            }
+            return aliasTable.build();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    protected void doWriteContent(Content content, Content previous, @Nullable String hash,
+            @Nullable Map<ContentColumn, String> previousDigests) {
+        try {
+            long id = content.getId().longValue();
+            RowMutation row = rowMutation(id);
+            ColumnWriter writer = writerFor(row);
+            if (previousDigests != null) {
+                marshaller.marshallChangedInto(writer, content, previousDigests);
+            } else {
+                marshaller.marshallInto(writer, content, previous);
+            }
+            if (hash != null) {
+                writer.putColumn(HASH.name(), hash);
+            }
+            List<Query> mutations = Lists.newArrayList(aliasIndex.mutateAliases(content, previous));
+            mutations.add(row.bind(session, writeConsistency));
+            execute(mutations);
+            log.trace("Written content id " + id);
+        } catch (Exception e) {
+            throw new CassandraPersistenceException(content.toString(), e);
+        }
+    }
+
+    private RowMutation rowMutation(long id) {
+        return new RowMutation(table, KEY, COLUMN, VALUE, id);
+    }
+
+    private ColumnWriter writerFor(final RowMutation row) {
+        return new ColumnWriter() {
+
+            @Override
+            public void putColumn(String name, byte[] value) {
+                row.insert(name, ByteBuffer.wrap(value));
+            }
+
+            @Override
+            public void putColumn(String name, String value) {
+                putColumn(name, value.getBytes(Charsets.UTF_8));
+            }
+
+            @Override
+            public void deleteColumn(String name) {
+                row.delete(name);
+            }
+        };
+    }
+
+    /**
+     * Execute the queries concurrently, waiting for them all to complete. Each
+     * row is written by a single unlogged batch so that its columns are applied
+     * together.
+     */
+    private void execute(List<Query> mutations) {
+        List<ListenableFuture<ResultSet>> results = Lists.newArrayListWithCapacity(mutations.size());
+        for (Query mutation : mutations) {
+            results.add(session.executeAsync(mutation));
+        }
+        Futures.getUnchecked(Futures.allAsList(results));
+    }
+
+    /**
+     * The hash columns of the previous version are read first and the whole
+     * row only if its hash is missing or differs from that of the content
+     * being written.
+     */
+    @Override
+    protected @Nullable PreviousVersion resolvePrevious(@Nullable Id id, Publisher source,
+            Set<Alias> aliases, @Nullable String hash) {
+        Long previousId = previousId(id, source, aliases);
+        if (previousId == null) {
+            return null;
+        }
+        Map<String, ByteBuffer> hashColumns = toColumns(session.execute(selectColumns
+            .getUnchecked(Sets.immutableEnumSet(PREVIOUS_HASH_COLUMNS)).bind(previousId)));
+        if (hash != null && hash.equals(hashOf(hashColumns))) {
+            Content previous = marshaller.unmarshallCols(hashColumns);
+            if (previous instanceof Container) {
+                setChildRefs((Container) previous);
+            }
+            return new PreviousVersion(previous, hash);
+        }
+        Map<String, ByteBuffer> columns = toColumns(Futures.getUnchecked(rows.read(previousId)));
+        if (columns.isEmpty()) {
+            return null;
+        }
+        return new PreviousVersion(marshaller.unmarshallCols(columns), hashOf(columns),
+            marshaller.unmarshallDigests(columns));
+    }
+
+    private static @Nullable String hashOf(Map<String, ByteBuffer> columns) {
+        ByteBuffer hash = columns.get(HASH.name());
+        return hash != null ? Charsets.UTF_8.decode(hash.duplicate()).toString() : null;
+    }
+
+    /**
+     * Sets every child ref of an unchanged container on it, read a page at a
+     * time, so they're carried into its write result.
+     */
+    private void setChildRefs(Container container) {
+        ImmutableList.Builder<ItemRef> itemRefs = ImmutableList.builder();
+        ImmutableList.Builder<SeriesRef> seriesRefs = ImmutableList.builder();
+        String cursor = null;
+        do {
+            ChildRefPage page = Futures.getUnchecked(
+                resolveChildRefs(container.getId(), cursor, ROW_PAGE_SIZE));
+            itemRefs.addAll(page.getItemRefs());
+            seriesRefs.addAll(page.getSeriesRefs());
+            cursor = page.getNextCursor().orNull();
+        } while (cursor != null);
+        container.setItemRefs(itemRefs.build());
+        if (container instanceof Brand) {
+            ((Brand) container).setSeriesRefs(seriesRefs.build());
+        }
+    }
+
+    private @Nullable Long previousId(@Nullable Id id, Publisher source, Set<Alias> aliases) {
+        if (id != null) {
+            return id.longValue();
+        }
+        try {
+            Map<Alias, Long> ids = aliasIndex.readAliasIds(source, aliases)
+                .get(RESOLVE_TIMEOUT, RESOLVE_TIMEOUT_UNITS);
+            return Iterables.getFirst(ids.values(), null);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    protected Item.ContainerSummary summarize(ContainerRef id) {
+        Content resolved = toContent(session.execute(selectSummary.bind(id.getId().longValue())));
+        if (resolved instanceof Container) {
+            return summarize((Container) resolved);
+        } else if (resolved == null) {
+            return null;
+        } else {
+            throw new IllegalStateException(String.format("Content for parent %s not Container", id));
+        }
+    }
+
+    private Item.ContainerSummary summarize(Container container) {
+        return container.accept(new ContainerVisitor<Item.ContainerSummary>() {
+
+            @Override
+            public Item.ContainerSummary visit(Brand brand) {
+                return new Item.ContainerSummary(
+                    EntityType.from(brand).name(), brand.getTitle(),
+                    brand.getDescription(), null);
+            }
+
+            @Override
+            public Item.ContainerSummary visit(Series series) {
+                return new Item.ContainerSummary(
+                    EntityType.from(series).name(), series.getTitle(),
+                    series.getDescription(), series.getSeriesNumber());
+            }
+
+        });
+    }
+
+    @Override
+    protected void writeSecondaryContainerRef(BrandRef primary, SeriesRef seriesRef) {
+        ChildRefAppends appends = new ChildRefAppends();
+        appends.addSeriesRef(primary, seriesRef);
+        writeChildRefs(appends);
+    }
+
+    @Override
+    protected void writeItemRef(ContainerRef containerRef, ItemRef childRef) {
+        ChildRefAppends appends = new ChildRefAppends();
+        appends.addItemRef(containerRef, childRef);
+        writeChildRefs(appends);
+    }
+
+    private void writeChildRefs(ChildRefAppends appends) {
+        List<Query> mutations = Lists.newArrayList();
+        for (Entry<Long, Container> container : appends.toContainers().entrySet()) {
+            RowMutation row = rowMutation(container.getKey());
+            marshaller.marshallInto(writerFor(row), container.getValue());
+            mutations.add(row.bind(session, writeConsistency));
+        }
+        execute(mutations);
+    }
+
+}
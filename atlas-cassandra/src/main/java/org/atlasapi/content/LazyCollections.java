@@ -0,0 +1,57 @@
+package org.atlasapi.content;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ForwardingList;
+import com.google.common.collect.ForwardingSet;
+
+/**
+ * Collections whose contents are supplied the first time they are used, so
+ * that decoding of content fields can be deferred until the field is read.
+ */
+final class LazyCollections {
+
+    private LazyCollections() {}
+
+    public static <E> Set<E> set(Supplier<? extends Set<E>> supplier) {
+        return new LazySet<E>(Suppliers.memoize(supplier));
+    }
+
+    public static <E> List<E> list(Supplier<? extends List<E>> supplier) {
+        return new LazyList<E>(Suppliers.memoize(supplier));
+    }
+
+    private static final class LazySet<E> extends ForwardingSet<E> {
+
+        private final Supplier<? extends Set<E>> delegate;
+
+        public LazySet(Supplier<? extends Set<E>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected Set<E> delegate() {
+            return delegate.get();
+        }
+
+    }
+
+    private static final class LazyList<E> extends ForwardingList<E> {
+
+        private final Supplier<? extends List<E>> delegate;
+
+        public LazyList(Supplier<? extends List<E>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected List<E> delegate() {
+            return delegate.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.atlasapi.content;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.entity.Serializer;
+import org.atlasapi.serialization.protobuf.ContentProtos;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * <p>
+ * A {@link ContentDigester} which streams the fields of the protocol buffer
+ * form of content into a 128-bit murmur3 hash per {@link ContentColumn}, the
+ * content hash being the hash of the column hashes.
+ * </p>
+ *
+ * <p>
+ * Fields set by the store when content is written, or derived from other
+ * content, aren't hashed so that content being written has the same hash as
+ * its unchanged, persisted previous version. The elements of repeated fields
+ * are hashed in order, since the order of lists such as titles and crew
+ * members is significant.
+ * </p>
+ */
+public final class ProtobufContentHasher implements ContentDigester {
+
+    private static final Set<Integer> STORE_SET_FIELDS = ImmutableSet.of(
+        ContentProtos.Content.ID_FIELD_NUMBER,
+        ContentProtos.Content.FIRST_SEEN_FIELD_NUMBER,
+        ContentProtos.Content.LAST_UPDATED_FIELD_NUMBER,
+        ContentProtos.Content.CHILD_LAST_UPDATED_FIELD_NUMBER,
+        ContentProtos.Content.CONTAINER_SUMMARY_FIELD_NUMBER,
+        ContentProtos.Content.CHILDREN_FIELD_NUMBER,
+        ContentProtos.Content.SECONDARIES_FIELD_NUMBER
+    );
+
+    // child refs are written in a column per ref rather than as a column group
+    private static final Set<Integer> CHILD_REF_FIELDS = ImmutableSet.of(
+        ContentProtos.Content.CHILDREN_FIELD_NUMBER,
+        ContentProtos.Content.SECONDARIES_FIELD_NUMBER
+    );
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * A digester of every field persisted in each column group, including
+     * those set by the store, so that the column hashes change whenever the
+     * columns' serialized form does.
+     */
+    static ProtobufContentHasher persistedColumnDigester() {
+        return new ProtobufContentHasher(CHILD_REF_FIELDS);
+    }
+
+    private final Serializer<Content, ContentProtos.Content> serializer = new ContentSerializer();
+    private final ImmutableListMultimap<ContentColumn, FieldDescriptor> schema;
+
+    public ProtobufContentHasher() {
+        this(STORE_SET_FIELDS);
+    }
+
+    private ProtobufContentHasher(Set<Integer> unhashedFields) {
+        this.schema = schema(unhashedFields);
+    }
+
+    private static ImmutableListMultimap<ContentColumn, FieldDescriptor> schema(Set<Integer> unhashedFields) {
+        ImmutableListMultimap.Builder<ContentColumn, FieldDescriptor> schema
+            = ImmutableListMultimap.builder();
+        for (FieldDescriptor fd : ContentProtos.Content.getDescriptor().getFields()) {
+            if (!unhashedFields.contains(fd.getNumber())
+                    && fd.getOptions().hasExtension(ContentProtos.column)) {
+                ContentProtos.Column column = fd.getOptions().getExtension(ContentProtos.column);
+                schema.put(ProtobufContentMarshaller.COLUMNS.get(column), fd);
+            }
+        }
+        // columns are hashed in name order, which is stable between releases
+        return schema.orderKeysBy(Ordering.usingToString()).build();
+    }
+
+    @Override
+    public String hash(Content content) {
+        return digest(content).getHash();
+    }
+
+    @Override
+    public ContentDigest digest(Content content) {
+        return digest(serializer.serialize(content));
+    }
+
+    /**
+     * Digest content already serialized by a {@link ContentSerializer}.
+     */
+    ContentDigest digest(ContentProtos.Content proto) {
+        Hasher contentHasher = HASH_FUNCTION.newHasher();
+        ImmutableMap.Builder<ContentColumn, String> columnHashes = ImmutableMap.builder();
+        for (Entry<ContentColumn, Collection<FieldDescriptor>> column : schema.asMap().entrySet()) {
+            HashCode columnHash = hashColumn(proto, column.getValue());
+            if (columnHash != null) {
+                contentHasher.putUnencodedChars(column.getKey().name());
+                contentHasher.putBytes(columnHash.asBytes());
+                columnHashes.put(column.getKey(), columnHash.toString());
+            }
+        }
+        return new ContentDigest(contentHasher.hash().toString(), columnHashes.build());
+    }
+
+    private @Nullable HashCode hashColumn(ContentProtos.Content proto, Collection<FieldDescriptor> fields) {
+        Hasher hasher = null;
+        for (FieldDescriptor fd : fields) {
+            if (fd.isRepeated()) {
+                int count = proto.getRepeatedFieldCount(fd);
+                if (count > 0) {
+                    hasher = hasher == null ? HASH_FUNCTION.newHasher() : hasher;
+                    hasher.putInt(fd.getNumber()).putInt(count);
+                    for (int i = 0; i < count; i++) {
+                        putValue(hasher, fd, proto.getRepeatedField(fd, i));
+                    }
+                }
+            } else if (proto.hasField(fd)) {
+                hasher = hasher == null ? HASH_FUNCTION.newHasher() : hasher;
+                hasher.putInt(fd.getNumber());
+                putValue(hasher, fd, proto.getField(fd));
+            }
+        }
+        return hasher == null ? null : hasher.hash();
+    }
+
+    private void putValue(Hasher hasher, FieldDescriptor fd, Object value) {
+        switch (fd.getJavaType()) {
+        case INT:
+            hasher.putInt((Integer) value);
+            break;
+        case LONG:
+            hasher.putLong((Long) value);
+            break;
+        case FLOAT:
+            hasher.putFloat((Float) value);
+            break;
+        case DOUBLE:
+            hasher.putDouble((Double) value);
+            break;
+        case BOOLEAN:
+            hasher.putBoolean((Boolean) value);
+            break;
+        case STRING:
+            String string = (String) value;
+            hasher.putInt(string.length()).putUnencodedChars(string);
+            break;
+        case BYTE_STRING:
+            ByteString bytes = (ByteString) value;
+            hasher.putInt(bytes.size()).putBytes(bytes.toByteArray());
+            break;
+        case ENUM:
+            hasher.putInt(((EnumValueDescriptor) value).getNumber());
+            break;
+        case MESSAGE:
+            Message message = (Message) value;
+            hasher.putInt(message.getSerializedSize());
+            try {
+                message.writeTo(Funnels.asOutputStream(hasher));
+            } catch (IOException e) {
+                // the stream doesn't throw
+                throw Throwables.propagate(e);
+            }
+            break;
+        default:
+            throw new IllegalStateException("unknown field type " + fd.getJavaType());
+        }
+    }
+
+}
@@ -17,16 +17,26 @@ import static org.atlasapi.serialization.protobuf.ContentProtos.Column.SOURCE;
 import static org.atlasapi.serialization.protobuf.ContentProtos.Column.TOPICS;
 import static org.atlasapi.serialization.protobuf.ContentProtos.Column.TYPE;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.atlasapi.entity.Serializer;
 import org.atlasapi.serialization.protobuf.CommonProtos.Reference;
 import org.atlasapi.serialization.protobuf.ContentProtos;
 import org.atlasapi.serialization.protobuf.ContentProtos.Content.Builder;
+import org.atlasapi.util.ProtoBuffers;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.EnumBiMap;
 import com.google.common.collect.ImmutableList;
@@ -37,11 +47,38 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.protobuf.Descriptors.FieldDescriptor;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.netflix.astyanax.ColumnListMutation;
+import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnList;
 
 public class ProtobufContentMarshaller implements ContentMarshaller {
+
+    /**
+     * Receives the columns of content as they're marshalled, so that content
+     * can be written through clients other than Astyanax.
+     */
+    public interface ColumnWriter {
+
+        void putColumn(String name, byte[] value);
+
+        void putColumn(String name, String value);
+
+        void deleteColumn(String name);
+
+    }
+
+    private static final String HASH_COLUMN = ContentColumn.HASH.name();
+    // also prefixes the name of the column holding each column's digest
+    private static final String DIGESTS_COLUMN = ContentColumn.DIGESTS.name();
+    // child ref appends write the child updated time outside of content
+    // writes, so its digest may be stale
+    private static final Set<ContentColumn> ALWAYS_WRITTEN_COLUMNS = ImmutableSet.of(ContentColumn.CHILD_UPDATED);
+    private static final String BROADCASTS_COLUMN = ContentColumn.BROADCASTS.name();
+    private static final String LOCATIONS_COLUMN = ContentColumn.LOCATIONS.name();
+    private static final String PEOPLE_COLUMN = ContentColumn.PEOPLE.name();
+    // columns which are only decoded when their field is first read
+    private static final Set<String> LAZY_COLUMNS = ImmutableSet.of(
+        BROADCASTS_COLUMN, LOCATIONS_COLUMN, PEOPLE_COLUMN);
     
     private final ListMultimap<ContentProtos.Column, FieldDescriptor> schema =
         Multimaps.index(
@@ -66,7 +103,10 @@ public class ProtobufContentMarshaller implements ContentMarshaller {
         .entrySet());
     
     private final Serializer<Content, ContentProtos.Content> serializer = new ContentSerializer();
-    private final EnumBiMap<ContentProtos.Column, ContentColumn> columnLookup = EnumBiMap.create(
+    private final ProtobufContentHasher columnDigester = ProtobufContentHasher.persistedColumnDigester();
+    // child refs are always written with their source so no default is needed
+    private final ContentRefSerializer refSerializer = new ContentRefSerializer(null);
+    static final EnumBiMap<ContentProtos.Column, ContentColumn> COLUMNS = EnumBiMap.create(
         ImmutableMap.<ContentProtos.Column, ContentColumn> builder()
             .put(TYPE, ContentColumn.TYPE)
             .put(SOURCE, ContentColumn.SOURCE)
@@ -88,6 +128,10 @@ public class ProtobufContentMarshaller implements ContentMarshaller {
 
     @Override
     public void marshallInto(ColumnListMutation<String> mutation, Content content) {
+        marshallInto(writerFor(mutation), content);
+    }
+
+    public void marshallInto(ColumnWriter mutation, Content content) {
         ContentProtos.Content proto = serializer.serialize(content);
         for (int i = 0; i < schemaList.size(); i++) {
             Entry<ContentProtos.Column, List<FieldDescriptor>> col = schemaList.get(i);
@@ -95,33 +139,181 @@ public class ProtobufContentMarshaller implements ContentMarshaller {
                 handleChildRefColumn(mutation, proto, Iterables.getOnlyElement(col.getValue()));
                 continue;
             }
-            Builder builder = null;
-            ContentProtos.Content.newBuilder();
-            for (int j = 0; j < col.getValue().size(); j++) {
-                FieldDescriptor fd = col.getValue().get(j);
-                if (fd.isRepeated()) {
-                    if (proto.getRepeatedFieldCount(fd) > 0) {
-                        builder = getBuilder(builder);
-                        for (int k = 0; k < proto.getRepeatedFieldCount(fd); k++) {
-                            builder.addRepeatedField(fd, proto.getRepeatedField(fd, k));
-                        }
-                    }
-                } else if (proto.hasField(fd)) {
-                    builder = getBuilder(builder);
-                    builder.setField(fd, proto.getField(fd));
+            byte[] bytes = marshallColumn(proto, col.getValue());
+            if (bytes != null) {
+                mutation.putColumn(String.valueOf(COLUMNS.get(col.getKey())), bytes);
+            }
+        }
+    }
+
+    @Override
+    public void marshallInto(ColumnListMutation<String> mutation, Content content,
+            @Nullable Content previous) {
+        marshallInto(writerFor(mutation), content, previous);
+    }
+
+    public void marshallInto(ColumnWriter mutation, Content content, @Nullable Content previous) {
+        ContentProtos.Content proto = serializer.serialize(content);
+        Set<ContentColumn> previousColumns = previous != null ? columns(serializer.serialize(previous))
+                                                              : ImmutableSet.<ContentColumn>of();
+        marshall(mutation, proto, columnDigester.digest(proto), null, previousColumns);
+    }
+
+    @Override
+    public void marshallChangedInto(ColumnListMutation<String> mutation, Content content,
+            @Nullable Map<ContentColumn, String> previousDigests) {
+        marshallChangedInto(writerFor(mutation), content, previousDigests);
+    }
+
+    public void marshallChangedInto(ColumnWriter mutation, Content content,
+            @Nullable Map<ContentColumn, String> previousDigests) {
+        ContentProtos.Content proto = serializer.serialize(content);
+        ContentDigest digest = columnDigester.digest(proto);
+        if (previousDigests == null) {
+            marshall(mutation, proto, digest, null, ImmutableSet.<ContentColumn>of());
+        } else {
+            marshall(mutation, proto, digest, digest.changedColumns(previousDigests),
+                previousDigests.keySet());
+        }
+    }
+
+    /**
+     * Each column is written along with its digest, so that the digest held
+     * in a row always matches the column value that won, even when a
+     * concurrent write skipped it.
+     * 
+     * @param changed
+     *            - the columns to write, or {@code null} to write them all.
+     * @param previousColumns
+     *            - columns the row has, which are deleted if they're empty.
+     */
+    private void marshall(ColumnWriter mutation, ContentProtos.Content proto, ContentDigest digest,
+            @Nullable Set<ContentColumn> changed, Set<ContentColumn> previousColumns) {
+        for (int i = 0; i < schemaList.size(); i++) {
+            Entry<ContentProtos.Column, List<FieldDescriptor>> col = schemaList.get(i);
+            if (isChildRefColumn(col.getKey())) {
+                handleChildRefColumn(mutation, proto, Iterables.getOnlyElement(col.getValue()));
+                continue;
+            }
+            ContentColumn column = COLUMNS.get(col.getKey());
+            if (changed != null && !changed.contains(column)
+                    && !ALWAYS_WRITTEN_COLUMNS.contains(column)) {
+                continue;
+            }
+            byte[] bytes = marshallColumn(proto, col.getValue());
+            if (bytes != null) {
+                mutation.putColumn(column.name(), bytes);
+                mutation.putColumn(digestColumn(column), digest.getColumnHashes().get(column));
+            } else if (previousColumns.contains(column)) {
+                mutation.deleteColumn(column.name());
+                mutation.deleteColumn(digestColumn(column));
+            }
+        }
+    }
+
+    private static String digestColumn(ContentColumn column) {
+        return DIGESTS_COLUMN + "_" + column.name();
+    }
+
+    private Set<ContentColumn> columns(ContentProtos.Content proto) {
+        Set<ContentColumn> columns = EnumSet.noneOf(ContentColumn.class);
+        for (int i = 0; i < schemaList.size(); i++) {
+            Entry<ContentProtos.Column, List<FieldDescriptor>> col = schemaList.get(i);
+            if (!isChildRefColumn(col.getKey()) && hasFields(proto, col.getValue())) {
+                columns.add(COLUMNS.get(col.getKey()));
+            }
+        }
+        return columns;
+    }
+
+    private boolean hasFields(ContentProtos.Content proto, List<FieldDescriptor> fields) {
+        for (int j = 0; j < fields.size(); j++) {
+            FieldDescriptor fd = fields.get(j);
+            if (fd.isRepeated() ? proto.getRepeatedFieldCount(fd) > 0 : proto.hasField(fd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ColumnWriter writerFor(final ColumnListMutation<String> mutation) {
+        return new ColumnWriter() {
+
+            @Override
+            public void putColumn(String name, byte[] value) {
+                mutation.putColumn(name, value);
+            }
+
+            @Override
+            public void putColumn(String name, String value) {
+                mutation.putColumn(name, value);
+            }
+
+            @Override
+            public void deleteColumn(String name) {
+                mutation.deleteColumn(name);
+            }
+        };
+    }
+
+    @Override
+    public @Nullable Map<ContentColumn, String> unmarshallDigests(ColumnList<String> columns) {
+        Map<ContentColumn, String> digests = null;
+        for (ContentColumn column : COLUMNS.values()) {
+            Column<String> digest = columns.getColumnByName(digestColumn(column));
+            if (digest != null) {
+                if (digests == null) {
+                    digests = Maps.newEnumMap(ContentColumn.class);
                 }
+                digests.put(column, digest.getStringValue());
             }
-            if (builder != null) {
-                mutation.putColumn(String.valueOf(columnLookup.get(col.getKey())), builder.build().toByteArray());
+        }
+        return digests;
+    }
+
+    /**
+     * Unmarshall the column digests from columns' values, keyed by column
+     * name.
+     */
+    public @Nullable Map<ContentColumn, String> unmarshallDigests(Map<String, ByteBuffer> columns) {
+        Map<ContentColumn, String> digests = null;
+        for (ContentColumn column : COLUMNS.values()) {
+            ByteBuffer digest = columns.get(digestColumn(column));
+            if (digest != null) {
+                if (digests == null) {
+                    digests = Maps.newEnumMap(ContentColumn.class);
+                }
+                digests.put(column, Charsets.UTF_8.decode(digest.duplicate()).toString());
             }
         }
+        return digests;
     }
 
-    private void handleChildRefColumn(ColumnListMutation<String> mutation,
+    private @Nullable byte[] marshallColumn(ContentProtos.Content proto, List<FieldDescriptor> fields) {
+        Builder builder = null;
+        for (int j = 0; j < fields.size(); j++) {
+            FieldDescriptor fd = fields.get(j);
+            if (fd.isRepeated()) {
+                if (proto.getRepeatedFieldCount(fd) > 0) {
+                    builder = getBuilder(builder);
+                    for (int k = 0; k < proto.getRepeatedFieldCount(fd); k++) {
+                        builder.addRepeatedField(fd, proto.getRepeatedField(fd, k));
+                    }
+                }
+            } else if (proto.hasField(fd)) {
+                builder = getBuilder(builder);
+                builder.setField(fd, proto.getField(fd));
+            }
+        }
+        return builder != null ? builder.build().toByteArray() : null;
+    }
+
+    private void handleChildRefColumn(ColumnWriter mutation,
                                       ContentProtos.Content msg,
                                       FieldDescriptor fd) {
-        if (msg.getRepeatedFieldCount(fd) == 1) {
-            Reference cr = (Reference) msg.getRepeatedField(fd, 0);
+        // each ref is appended in a column of its own
+        for (int i = 0; i < msg.getRepeatedFieldCount(fd); i++) {
+            Reference cr = (Reference) msg.getRepeatedField(fd, i);
             ContentProtos.Content col = ContentProtos.Content.newBuilder()
                 .addRepeatedField(fd, cr)
                 .build();
@@ -140,14 +332,118 @@ public class ProtobufContentMarshaller implements ContentMarshaller {
     @Override
     public Content unmarshallCols(ColumnList<String> columns) {
         ContentProtos.Content.Builder builder = ContentProtos.Content.newBuilder();
+        Map<String, ByteBuffer> deferred = null;
         for (int i = 0; i < columns.size(); i++) {
-            try {
-                builder.mergeFrom(columns.getColumnByIndex(i).getByteArrayValue());
-            } catch (InvalidProtocolBufferException e) {
-                throw Throwables.propagate(e);
+            Column<String> column = columns.getColumnByIndex(i);
+            deferred = mergeColumn(builder, deferred, column.getName(), column.getByteBufferValue());
+        }
+        return deserialize(builder, deferred);
+    }
+
+    /**
+     * Unmarshall content from its columns' values, keyed by column name.
+     */
+    public Content unmarshallCols(Map<String, ByteBuffer> columns) {
+        ContentProtos.Content.Builder builder = ContentProtos.Content.newBuilder();
+        Map<String, ByteBuffer> deferred = null;
+        for (Entry<String, ByteBuffer> column : columns.entrySet()) {
+            deferred = mergeColumn(builder, deferred, column.getKey(), column.getValue());
+        }
+        return deserialize(builder, deferred);
+    }
+
+    private @Nullable Map<String, ByteBuffer> mergeColumn(ContentProtos.Content.Builder builder,
+            @Nullable Map<String, ByteBuffer> deferred, String name, ByteBuffer value) {
+        if (HASH_COLUMN.equals(name) || name != null && name.startsWith(DIGESTS_COLUMN)) {
+            return deferred;
+        }
+        if (LAZY_COLUMNS.contains(name)) {
+            if (deferred == null) {
+                deferred = Maps.newHashMapWithExpectedSize(LAZY_COLUMNS.size());
             }
+            deferred.put(name, value);
+            return deferred;
+        }
+        try {
+            builder.mergeFrom(ProtoBuffers.codedInputStream(value));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return deferred;
+    }
+
+    private Content deserialize(ContentProtos.Content.Builder builder,
+            @Nullable Map<String, ByteBuffer> deferred) {
+        Content content = serializer.deserialize(builder.build());
+        if (deferred != null) {
+            setLazyFields(content, deferred);
+        }
+        return content;
+    }
+
+    @Override
+    public ContentRef unmarshallChildRef(Column<String> column) {
+        return unmarshallChildRef(column.getByteBufferValue());
+    }
+
+    /**
+     * Unmarshall the value of a single child ref column of a container.
+     */
+    public ContentRef unmarshallChildRef(ByteBuffer column) {
+        ContentProtos.Content msg = decodeProto(column);
+        if (msg.getChildrenCount() == 1) {
+            return refSerializer.deserialize(msg.getChildren(0));
+        }
+        if (msg.getSecondariesCount() == 1) {
+            return refSerializer.deserialize(msg.getSecondaries(0));
+        }
+        return null;
+    }
+
+    private void setLazyFields(Content content, Map<String, ByteBuffer> deferred) {
+        final ByteBuffer people = deferred.get(PEOPLE_COLUMN);
+        if (people != null) {
+            content.setPeople(LazyCollections.list(new Supplier<List<CrewMember>>() {
+                @Override
+                public List<CrewMember> get() {
+                    return decode(people).getPeople();
+                }
+            }));
+        }
+        if (!(content instanceof Item)) {
+            return;
+        }
+        Item item = (Item) content;
+        final ByteBuffer broadcasts = deferred.get(BROADCASTS_COLUMN);
+        if (broadcasts != null) {
+            item.setBroadcasts(LazyCollections.set(new Supplier<Set<Broadcast>>() {
+                @Override
+                public Set<Broadcast> get() {
+                    return decode(broadcasts).getBroadcasts();
+                }
+            }));
+        }
+        final ByteBuffer locations = deferred.get(LOCATIONS_COLUMN);
+        if (locations != null) {
+            item.setManifestedAs(LazyCollections.set(new Supplier<Set<Encoding>>() {
+                @Override
+                public Set<Encoding> get() {
+                    return decode(locations).getEncodings();
+                }
+            }));
+        }
+    }
+
+    private static ContentDeserializationVisitor decode(ByteBuffer column) {
+        return new ContentDeserializationVisitor(decodeProto(column));
+    }
+
+    private static ContentProtos.Content decodeProto(ByteBuffer column) {
+        try {
+            return ContentProtos.Content.parseFrom(ProtoBuffers.codedInputStream(column));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
         }
-        return serializer.deserialize(builder.build());
     }
     
 }
@@ -0,0 +1,247 @@
+package org.atlasapi.entity;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.atlasapi.media.entity.Publisher;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * <p>
+ * An in-memory Bloom filter per {@link Publisher} of the row keys of an
+ * {@link AliasIndex}, used to skip index reads for aliases which are
+ * definitely not indexed.
+ * </p>
+ *
+ * <p>
+ * Until the filter is first built from the index with
+ * {@link AliasIndex#rebuildFilter()} every alias might be present. Aliases
+ * indexed through this process are added once they are written but those indexed
+ * by other processes aren't, so the filter should only be used where a single
+ * process writes the aliases of a source, and should be rebuilt periodically.
+ * </p>
+ */
+public final class AliasBloomFilter {
+
+    public static final Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int expectedAliases = 1000000;
+        private double falsePositiveRate = 0.01;
+        private MetricRegistry metrics = new MetricRegistry();
+        private String metricPrefix = "alias-bloom-filter";
+
+        private Builder() { }
+
+        /**
+         * @param expectedAliases
+         *            - the number of aliases expected per source.
+         */
+        public Builder withExpectedAliases(int expectedAliases) {
+            checkArgument(expectedAliases > 0, "expectedAliases must be positive");
+            this.expectedAliases = expectedAliases;
+            return this;
+        }
+
+        public Builder withFalsePositiveRate(double falsePositiveRate) {
+            checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1,
+                "falsePositiveRate must be in (0, 1)");
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        public Builder withMetrics(MetricRegistry metrics, String metricPrefix) {
+            this.metrics = checkNotNull(metrics);
+            this.metricPrefix = checkNotNull(metricPrefix);
+            return this;
+        }
+
+        public AliasBloomFilter build() {
+            return new AliasBloomFilter(expectedAliases, falsePositiveRate, metrics, metricPrefix);
+        }
+    }
+
+    /**
+     * A set of filters being built from the index. Aliases added to the
+     * current filters while the rebuild is in progress are added to it too.
+     */
+    public final class Rebuild {
+
+        private final ConcurrentMap<String, BloomFilter<byte[]>> filters = Maps.newConcurrentMap();
+        private final Timer.Context timer = rebuildTime.time();
+
+        private Rebuild() { }
+
+        public void put(String sourceKey, byte[] aliasKey) {
+            AliasBloomFilter.put(filters, sourceKey, aliasKey, expectedAliases, falsePositiveRate);
+        }
+
+        /**
+         * Replace the current filters with those built.
+         */
+        public void complete() {
+            synchronized (AliasBloomFilter.this) {
+                checkState(rebuild == this, "rebuild not in progress");
+                current = filters;
+                rebuild = null;
+            }
+            timer.stop();
+        }
+
+        /**
+         * Abandon the rebuild, keeping the current filters.
+         */
+        public void abandon() {
+            synchronized (AliasBloomFilter.this) {
+                if (rebuild == this) {
+                    rebuild = null;
+                }
+            }
+        }
+
+    }
+
+    private final int expectedAliases;
+    private final double falsePositiveRate;
+    private final Timer rebuildTime;
+    private final Counter skipped;
+    private final Counter falsePositives;
+
+    // null until the filters have been built
+    private volatile ConcurrentMap<String, BloomFilter<byte[]>> current;
+    private volatile Rebuild rebuild;
+
+    private AliasBloomFilter(int expectedAliases, double falsePositiveRate,
+            MetricRegistry metrics, String metricPrefix) {
+        this.expectedAliases = expectedAliases;
+        this.falsePositiveRate = falsePositiveRate;
+        this.rebuildTime = metrics.timer(name(metricPrefix, "rebuild-time"));
+        this.skipped = metrics.counter(name(metricPrefix, "skipped"));
+        this.falsePositives = metrics.counter(name(metricPrefix, "false-positives"));
+        metrics.register(name(metricPrefix, "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                Map<String, BloomFilter<byte[]>> filters = current;
+                return filters == null ? 0L : filters.size() * bytesPerFilter();
+            }
+        });
+        metrics.register(name(metricPrefix, "expected-false-positive-rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return maxExpectedFpp();
+            }
+        });
+    }
+
+    /**
+     * Start rebuilding the filters. Any rebuild already in progress is
+     * abandoned.
+     */
+    public synchronized Rebuild startRebuild() {
+        rebuild = new Rebuild();
+        return rebuild;
+    }
+
+    /**
+     * @return true once the filters have been built from the index.
+     */
+    public boolean isBuilt() {
+        return current != null;
+    }
+
+    /**
+     * @return false if the alias is definitely not indexed for the source,
+     *         true if it might be or the filters haven't yet been built.
+     */
+    public boolean mightContain(Publisher source, byte[] aliasKey) {
+        Map<String, BloomFilter<byte[]>> filters = current;
+        if (filters == null) {
+            return true;
+        }
+        BloomFilter<byte[]> filter = filters.get(source.key());
+        boolean mightContain;
+        if (filter == null) {
+            mightContain = false;
+        } else {
+            synchronized (filter) {
+                mightContain = filter.mightContain(aliasKey);
+            }
+        }
+        if (!mightContain) {
+            skipped.inc();
+        }
+        return mightContain;
+    }
+
+    /**
+     * Record that the alias has been indexed for the source.
+     */
+    public void put(Publisher source, byte[] aliasKey) {
+        // the rebuild is read first so that the alias can't miss filters
+        // which replace the current ones in between.
+        Rebuild inProgress = rebuild;
+        ConcurrentMap<String, BloomFilter<byte[]>> filters = current;
+        if (inProgress != null) {
+            inProgress.put(source.key(), aliasKey);
+        }
+        if (filters != null) {
+            put(filters, source.key(), aliasKey, expectedAliases, falsePositiveRate);
+        }
+    }
+
+    /**
+     * Record that a number of aliases passed by the filter weren't indexed.
+     */
+    public void falsePositives(int count) {
+        falsePositives.inc(count);
+    }
+
+    private static void put(ConcurrentMap<String, BloomFilter<byte[]>> filters, String sourceKey,
+            byte[] aliasKey, int expectedAliases, double falsePositiveRate) {
+        BloomFilter<byte[]> filter = filters.get(sourceKey);
+        if (filter == null) {
+            filter = BloomFilter.create(Funnels.byteArrayFunnel(), expectedAliases, falsePositiveRate);
+            BloomFilter<byte[]> existing = filters.putIfAbsent(sourceKey, filter);
+            filter = existing != null ? existing : filter;
+        }
+        // BloomFilter isn't thread-safe and concurrent puts can lose bits.
+        synchronized (filter) {
+            filter.put(aliasKey);
+        }
+    }
+
+    private long bytesPerFilter() {
+        // the optimal number of bits, as used by BloomFilter.create
+        double bits = -expectedAliases * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        return (long) Math.ceil(bits / Byte.SIZE);
+    }
+
+    private double maxExpectedFpp() {
+        Map<String, BloomFilter<byte[]>> filters = current;
+        double max = 0;
+        if (filters != null) {
+            for (BloomFilter<byte[]> filter : filters.values()) {
+                synchronized (filter) {
+                    max = Math.max(max, filter.expectedFpp());
+                }
+            }
+        }
+        return max;
+    }
+
+}
@@ -2,27 +2,47 @@ package org.atlasapi.entity;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.util.CassandraUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Optional;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.RowSliceQuery;
+import com.netflix.astyanax.serializers.BytesArraySerializer;
+import com.netflix.astyanax.serializers.IntegerSerializer;
 import com.netflix.astyanax.serializers.StringSerializer;
 
 public final class AliasIndex<A extends Identifiable & Sourced & Aliased> {
@@ -34,74 +54,507 @@ public final class AliasIndex<A extends Identifiable & Sourced & Aliased> {
         }
     }
 
+    /**
+     * <p>
+     * The row keys an index is read and written with. The legacy form keys
+     * rows by the serialized alias with a column per source key. The compact
+     * form, held in a separate column family named with
+     * {@link AliasIndex#COMPACT_SUFFIX}, keys rows by
+     * {@link CompactAliasKeys} with a column per source id.
+     * </p>
+     *
+     * <p>
+     * To migrate, run with {@link #DUAL} until every alias has been written or
+     * read, then switch to {@link #COMPACT}.
+     * </p>
+     */
+    public enum KeyFormat {
+        LEGACY(true, false),
+        /**
+         * Writes both forms. Reads the compact form first then the legacy form
+         * for aliases it's missing, backfilling any found into the compact
+         * form.
+         */
+        DUAL(true, true),
+        COMPACT(false, true),
+        ;
+
+        private final boolean legacy;
+        private final boolean compact;
+
+        private KeyFormat(boolean legacy, boolean compact) {
+            this.legacy = legacy;
+            this.compact = compact;
+        }
+    }
+
+    public static final String COMPACT_SUFFIX = "_v2";
+
     public static final <A extends Identifiable & Aliased & Sourced> AliasIndex<A> create(Keyspace keyspace, String name) {
-        return new AliasIndex<A>(keyspace, ColumnFamily.newColumnFamily(name,
-                StringSerializer.get(), StringSerializer.get()));
+        return create(keyspace, name, KeyFormat.LEGACY, Optional.<AliasBloomFilter>absent());
+    }
+
+    /**
+     * Create an index whose {@link #resolveAliasIds(Set, Iterable) resolution
+     * reads} are guarded by the given filter, which must be built with
+     * {@link #rebuildFilter()} before it takes effect.
+     */
+    public static final <A extends Identifiable & Aliased & Sourced> AliasIndex<A> create(Keyspace keyspace,
+            String name, AliasBloomFilter filter) {
+        return create(keyspace, name, KeyFormat.LEGACY, Optional.of(filter));
+    }
+
+    public static final <A extends Identifiable & Aliased & Sourced> AliasIndex<A> create(Keyspace keyspace,
+            String name, KeyFormat format, Optional<AliasBloomFilter> filter) {
+        return new AliasIndex<A>(keyspace,
+            ColumnFamily.newColumnFamily(name, StringSerializer.get(), StringSerializer.get()),
+            ColumnFamily.newColumnFamily(name + COMPACT_SUFFIX, BytesArraySerializer.get(), IntegerSerializer.get()),
+            format, filter);
     }
 
+    private static final Logger log = LoggerFactory.getLogger(AliasIndex.class);
+    private static final int REBUILD_PAGE_SIZE = 1000;
+
     private final Keyspace keyspace;
     private final ColumnFamily<String, String> columnFamily;
-    
+    private final ColumnFamily<byte[], Integer> compactColumnFamily;
+    private final KeyFormat format;
+    private final Optional<AliasBloomFilter> filter;
+
     private final AliasSerializer toSerializedForm;
+    private final CompactAliasKeys compactKeys;
 
-    private AliasIndex(Keyspace keyspace, ColumnFamily<String, String> columnFamily) {
+    private AliasIndex(Keyspace keyspace, ColumnFamily<String, String> columnFamily,
+            ColumnFamily<byte[], Integer> compactColumnFamily, KeyFormat format,
+            Optional<AliasBloomFilter> filter) {
         this.keyspace = checkNotNull(keyspace);
         this.columnFamily = checkNotNull(columnFamily);
+        this.compactColumnFamily = checkNotNull(compactColumnFamily);
+        this.format = checkNotNull(format);
+        this.filter = checkNotNull(filter);
         this.toSerializedForm = new AliasSerializer();
+        this.compactKeys = new CompactAliasKeys();
     }
-    
+
     private static final String serialize(Alias alias) {
         return alias.getNamespace() + ":" + alias.getValue();
     }
-    
-    private Collection<String> serialize(Collection<Alias> aliases) {
-        return Collections2.transform(aliases, toSerializedForm);
-    }
-    
+
+    /**
+     * The aliases aren't added to the filter until the batch has been
+     * executed, when {@link #indexed(Identifiable)} must be called.
+     */
     public MutationBatch mutateAliases(A resource, @Nullable A previous) {
         checkNotNull(resource);
-        String columnKey = resource.getPublisher().key();
+        Publisher source = resource.getPublisher();
         long resourceId = resource.getId().longValue();
 
         MutationBatch batch = keyspace.prepareMutationBatch();
         Collection<Alias> newAliases = newAliases(resource, previous);
-        for(String serializedAlias : serialize(newAliases)) {
-            batch.withRow(columnFamily, serializedAlias)
-                .putColumn(columnKey, resourceId);
+        for (Alias alias : newAliases) {
+            if (format.legacy) {
+                batch.withRow(columnFamily, serialize(alias))
+                    .putColumn(source.key(), resourceId);
+            }
+            if (format.compact) {
+                batch.withRow(compactColumnFamily, compactKeys.key(alias))
+                    .putColumn(CompactAliasKeys.sourceId(source), resourceId);
+            }
         }
         if (previous != null) {
-            Collection<Alias> oldAliases = 
+            Collection<Alias> oldAliases =
                     Sets.difference(previous.getAliases(), resource.getAliases());
-            for (String serializedAlias : serialize(oldAliases)) {
-                batch.withRow(columnFamily, serializedAlias)
-                    .deleteColumn(columnKey);
+            for (Alias alias : oldAliases) {
+                if (format.legacy) {
+                    batch.withRow(columnFamily, serialize(alias))
+                        .deleteColumn(source.key());
+                }
+                if (format.compact) {
+                    batch.withRow(compactColumnFamily, compactKeys.key(alias))
+                        .deleteColumn(CompactAliasKeys.sourceId(source));
+                }
             }
         }
         return batch;
     }
 
+    /**
+     * Add the aliases of a resource to the filter, if there is one, once the
+     * batch from {@link #mutateAliases(Identifiable, Identifiable)} has been
+     * executed. Added before, a rebuild could read the index without them
+     * and replace the filter they were added to.
+     */
+    public void indexed(A resource) {
+        if (filter.isPresent()) {
+            for (Alias alias : resource.getAliases()) {
+                filter.get().put(resource.getPublisher(), filterKey(alias));
+            }
+        }
+    }
+
     private Set<Alias> newAliases(A resource, A previous) {
         return previous != null ? Sets.difference(resource.getAliases(), previous.getAliases())
                                 : resource.getAliases();
     }
-    
+
+    /**
+     * In {@link KeyFormat#DUAL} the legacy index holds every alias so the
+     * filter is keyed by the legacy form until the migration completes.
+     */
+    private byte[] filterKey(Alias alias) {
+        return format.legacy ? serialize(alias).getBytes(Charsets.UTF_8)
+                             : compactKeys.key(alias);
+    }
+
     public Set<Long> readAliases(Publisher source, Iterable<Alias> aliases) throws ConnectionException {
-        ImmutableSet<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
-        String columnName = checkNotNull(source).key();
-        RowSliceQuery<String, String> aliasQuery = keyspace.prepareQuery(columnFamily)
-            .getRowSlice(serialize(uniqueAliases.asList()))
-            .withColumnSlice(columnName);
-        Rows<String,String> rows = aliasQuery.execute().getResult();
-        
-        List<Long> ids = Lists.newArrayListWithCapacity(rows.size());
+        return ImmutableSet.copyOf(readAliasIds(source, aliases).values());
+    }
+
+    /**
+     * Read the ids of the resources from a source indexed against each of the
+     * given aliases in a single row-slice, or two when migrating key format.
+     * The filter isn't consulted so the ids are safe to write with.
+     *
+     * @return a map of the aliases which are indexed to the id they map to.
+     */
+    public Map<Alias, Long> readAliasIds(Publisher source, Iterable<Alias> aliases) throws ConnectionException {
+        return readAliasIds(ImmutableSet.of(checkNotNull(source)), aliases).column(source);
+    }
+
+    /**
+     * Read the ids of the resources from each of the given sources indexed
+     * against each of the given aliases, reading the columns of every source
+     * in a single row-slice, or two when migrating key format. The filter
+     * isn't consulted so the ids are safe to write with.
+     *
+     * @return a table of the ids of the aliases which are indexed, by source.
+     */
+    public Table<Alias, Publisher, Long> readAliasIds(Set<Publisher> sources, Iterable<Alias> aliases)
+            throws ConnectionException {
+        return read(allCandidates(sources, ImmutableSet.copyOf(aliases)));
+    }
+
+    /**
+     * As {@link #readAliasIds(Set, Iterable)} but skipping aliases the filter,
+     * if there is one, says aren't indexed. Only for read-only resolution: an
+     * alias indexed by another process may be missed until the filter is next
+     * rebuilt, so the ids mustn't be used to decide whether a resource exists
+     * when writing it.
+     */
+    public Table<Alias, Publisher, Long> resolveAliasIds(Set<Publisher> sources, Iterable<Alias> aliases)
+            throws ConnectionException {
+        SetMultimap<Alias, Publisher> candidates = filteredCandidates(sources, ImmutableSet.copyOf(aliases));
+        return countFalsePositives(candidates, read(candidates));
+    }
+
+    private Table<Alias, Publisher, Long> read(SetMultimap<Alias, Publisher> candidates)
+            throws ConnectionException {
+        if (candidates.isEmpty()) {
+            return ImmutableTable.of();
+        }
+        if (!format.compact) {
+            return readLegacy(candidates);
+        } else if (!format.legacy) {
+            return readCompact(candidates);
+        }
+        Table<Alias, Publisher, Long> compactIds = readCompact(candidates);
+        SetMultimap<Alias, Publisher> missing = missing(candidates, compactIds);
+        return missing.isEmpty() ? compactIds
+                                 : merge(compactIds, readLegacy(missing));
+    }
+
+    /**
+     * Asynchronous form of {@link #readAliasIds(Publisher, Iterable)}.
+     */
+    public ListenableFuture<Map<Alias, Long>> readAliasIdsAsync(final Publisher source,
+            Iterable<Alias> aliases) throws ConnectionException {
+        final SetMultimap<Alias, Publisher> candidates
+            = allCandidates(ImmutableSet.of(checkNotNull(source)), ImmutableSet.copyOf(aliases));
+        if (candidates.isEmpty()) {
+            return Futures.<Map<Alias, Long>>immediateFuture(ImmutableMap.<Alias, Long>of());
+        }
+        ListenableFuture<Table<Alias, Publisher, Long>> ids;
+        if (!format.compact) {
+            ids = readLegacyAsync(candidates);
+        } else if (!format.legacy) {
+            ids = readCompactAsync(candidates);
+        } else {
+            ids = Futures.transform(readCompactAsync(candidates),
+                new AsyncFunction<Table<Alias, Publisher, Long>, Table<Alias, Publisher, Long>>() {
+                    @Override
+                    public ListenableFuture<Table<Alias, Publisher, Long>> apply(
+                            final Table<Alias, Publisher, Long> compactIds) throws ConnectionException {
+                        SetMultimap<Alias, Publisher> missing = missing(candidates, compactIds);
+                        if (missing.isEmpty()) {
+                            return Futures.immediateFuture(compactIds);
+                        }
+                        return Futures.transform(readLegacyAsync(missing),
+                            new Function<Table<Alias, Publisher, Long>, Table<Alias, Publisher, Long>>() {
+                                @Override
+                                public Table<Alias, Publisher, Long> apply(Table<Alias, Publisher, Long> legacyIds) {
+                                    return merge(compactIds, legacyIds);
+                                }
+                            });
+                    }
+                });
+        }
+        return Futures.transform(ids, new Function<Table<Alias, Publisher, Long>, Map<Alias, Long>>() {
+            @Override
+            public Map<Alias, Long> apply(Table<Alias, Publisher, Long> input) {
+                return input.column(source);
+            }
+        });
+    }
+
+    private SetMultimap<Alias, Publisher> allCandidates(Set<Publisher> sources, Set<Alias> aliases) {
+        ImmutableSetMultimap.Builder<Alias, Publisher> candidates = ImmutableSetMultimap.builder();
+        for (Alias alias : aliases) {
+            candidates.putAll(alias, sources);
+        }
+        return candidates.build();
+    }
+
+    /**
+     * @return the sources for which the filter says each alias might be
+     *         indexed.
+     */
+    private SetMultimap<Alias, Publisher> filteredCandidates(Set<Publisher> sources, Set<Alias> aliases) {
+        if (!filter.isPresent()) {
+            return allCandidates(sources, aliases);
+        }
+        ImmutableSetMultimap.Builder<Alias, Publisher> candidates = ImmutableSetMultimap.builder();
+        for (Alias alias : aliases) {
+            byte[] filterKey = filterKey(alias);
+            for (Publisher source : sources) {
+                if (filter.get().mightContain(source, filterKey)) {
+                    candidates.put(alias, source);
+                }
+            }
+        }
+        return candidates.build();
+    }
+
+    private SetMultimap<Alias, Publisher> missing(SetMultimap<Alias, Publisher> candidates,
+            Table<Alias, Publisher, Long> ids) {
+        ImmutableSetMultimap.Builder<Alias, Publisher> missing = ImmutableSetMultimap.builder();
+        for (Map.Entry<Alias, Publisher> candidate : candidates.entries()) {
+            if (!ids.contains(candidate.getKey(), candidate.getValue())) {
+                missing.put(candidate);
+            }
+        }
+        return missing.build();
+    }
+
+    private Table<Alias, Publisher, Long> countFalsePositives(SetMultimap<Alias, Publisher> candidates,
+            Table<Alias, Publisher, Long> ids) {
+        if (filter.isPresent() && filter.get().isBuilt()) {
+            int falsePositives = missing(candidates, ids).size();
+            if (falsePositives > 0) {
+                filter.get().falsePositives(falsePositives);
+            }
+        }
+        return ids;
+    }
+
+    private Table<Alias, Publisher, Long> readLegacy(SetMultimap<Alias, Publisher> aliasSources)
+            throws ConnectionException {
+        ImmutableListMultimap<String, Alias> keys = Multimaps.index(aliasSources.keySet(), toSerializedForm);
+        Map<String, Publisher> sources = sourcesByKey(aliasSources.values());
+        return toAliasIds(legacyQuery(keys, sources).execute().getResult(), keys, sources);
+    }
+
+    private ListenableFuture<Table<Alias, Publisher, Long>> readLegacyAsync(
+            SetMultimap<Alias, Publisher> aliasSources) throws ConnectionException {
+        final ImmutableListMultimap<String, Alias> keys = Multimaps.index(aliasSources.keySet(), toSerializedForm);
+        final Map<String, Publisher> sources = sourcesByKey(aliasSources.values());
+        ListenableFuture<Rows<String, String>> rows = Futures.transform(
+            legacyQuery(keys, sources).executeAsync(),
+            CassandraUtil.<Rows<String, String>>toResult());
+        return Futures.transform(rows, new Function<Rows<String, String>, Table<Alias, Publisher, Long>>() {
+            @Override
+            public Table<Alias, Publisher, Long> apply(Rows<String, String> input) {
+                return toAliasIds(input, keys, sources);
+            }
+        });
+    }
+
+    private Map<String, Publisher> sourcesByKey(Collection<Publisher> sources) {
+        Map<String, Publisher> byKey = Maps.newHashMap();
+        for (Publisher source : sources) {
+            byKey.put(source.key(), source);
+        }
+        return byKey;
+    }
+
+    private RowSliceQuery<String, String> legacyQuery(ImmutableListMultimap<String, Alias> keys,
+            Map<String, Publisher> sources) {
+        return keyspace.prepareQuery(columnFamily)
+            .getRowSlice(keys.keySet())
+            .withColumnSlice(sources.keySet());
+    }
+
+    private Table<Alias, Publisher, Long> toAliasIds(Rows<String, String> rows,
+            ImmutableListMultimap<String, Alias> keys, Map<String, Publisher> sources) {
+        ImmutableTable.Builder<Alias, Publisher, Long> ids = ImmutableTable.builder();
         for (Row<String, String> row : rows) {
-            Column<String> idCell = row.getColumns().getColumnByName(columnName);
-            if (idCell != null) {
-                ids.add(idCell.getLongValue());
+            for (Column<String> idCell : row.getColumns()) {
+                Publisher source = sources.get(idCell.getName());
+                if (source != null) {
+                    for (Alias alias : keys.get(row.getKey())) {
+                        ids.put(alias, source, idCell.getLongValue());
+                    }
+                }
+            }
+        }
+        return ids.build();
+    }
+
+    private Table<Alias, Publisher, Long> readCompact(SetMultimap<Alias, Publisher> aliasSources)
+            throws ConnectionException {
+        ImmutableListMultimap<ByteBuffer, Alias> keys = compactKeys(aliasSources.keySet());
+        return toCompactAliasIds(compactQuery(keys, aliasSources.values()).execute().getResult(), keys);
+    }
+
+    private ListenableFuture<Table<Alias, Publisher, Long>> readCompactAsync(
+            SetMultimap<Alias, Publisher> aliasSources) throws ConnectionException {
+        final ImmutableListMultimap<ByteBuffer, Alias> keys = compactKeys(aliasSources.keySet());
+        ListenableFuture<Rows<byte[], Integer>> rows = Futures.transform(
+            compactQuery(keys, aliasSources.values()).executeAsync(),
+            CassandraUtil.<Rows<byte[], Integer>>toResult());
+        return Futures.transform(rows, new Function<Rows<byte[], Integer>, Table<Alias, Publisher, Long>>() {
+            @Override
+            public Table<Alias, Publisher, Long> apply(Rows<byte[], Integer> input) {
+                return toCompactAliasIds(input, keys);
+            }
+        });
+    }
+
+    private ImmutableListMultimap<ByteBuffer, Alias> compactKeys(Set<Alias> aliases) {
+        ImmutableListMultimap.Builder<ByteBuffer, Alias> keys = ImmutableListMultimap.builder();
+        for (Alias alias : aliases) {
+            keys.put(ByteBuffer.wrap(compactKeys.key(alias)), alias);
+        }
+        return keys.build();
+    }
+
+    private RowSliceQuery<byte[], Integer> compactQuery(ImmutableListMultimap<ByteBuffer, Alias> keys,
+            Collection<Publisher> sources) {
+        ImmutableSet.Builder<byte[]> rowKeys = ImmutableSet.builder();
+        for (ByteBuffer key : keys.keySet()) {
+            rowKeys.add(key.array());
+        }
+        ImmutableSet.Builder<Integer> sourceIds = ImmutableSet.builder();
+        for (Publisher source : sources) {
+            sourceIds.add(CompactAliasKeys.sourceId(source));
+        }
+        return keyspace.prepareQuery(compactColumnFamily)
+            .getRowSlice(rowKeys.build())
+            .withColumnSlice(sourceIds.build());
+    }
+
+    private Table<Alias, Publisher, Long> toCompactAliasIds(Rows<byte[], Integer> rows,
+            ImmutableListMultimap<ByteBuffer, Alias> keys) {
+        ImmutableTable.Builder<Alias, Publisher, Long> ids = ImmutableTable.builder();
+        for (Row<byte[], Integer> row : rows) {
+            for (Column<Integer> idCell : row.getColumns()) {
+                Publisher source = CompactAliasKeys.source(idCell.getName());
+                if (source != null) {
+                    for (Alias alias : keys.get(ByteBuffer.wrap(row.getKey()))) {
+                        ids.put(alias, source, idCell.getLongValue());
+                    }
+                }
+            }
+        }
+        return ids.build();
+    }
+
+    /**
+     * Merge ids found in the legacy index with those in the compact index,
+     * backfilling the compact index with any it's missing.
+     */
+    private Table<Alias, Publisher, Long> merge(Table<Alias, Publisher, Long> compactIds,
+            Table<Alias, Publisher, Long> legacyIds) {
+        Table<Alias, Publisher, Long> merged = HashBasedTable.create(compactIds);
+        MutationBatch backfill = keyspace.prepareMutationBatch();
+        for (Table.Cell<Alias, Publisher, Long> cell : legacyIds.cellSet()) {
+            if (!merged.contains(cell.getRowKey(), cell.getColumnKey())) {
+                merged.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+                backfill.withRow(compactColumnFamily, compactKeys.key(cell.getRowKey()))
+                    .putColumn(CompactAliasKeys.sourceId(cell.getColumnKey()), cell.getValue());
+            }
+        }
+        if (!backfill.isEmpty()) {
+            backfill(backfill);
+        }
+        return ImmutableTable.copyOf(merged);
+    }
+
+    private void backfill(MutationBatch batch) {
+        try {
+            Futures.addCallback(batch.executeAsync(), new FutureCallback<OperationResult<Void>>() {
+                @Override
+                public void onSuccess(OperationResult<Void> result) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    log.warn("failed to backfill compact aliases", t);
+                }
+            });
+        } catch (ConnectionException e) {
+            log.warn("failed to backfill compact aliases", e);
+        }
+    }
+
+    /**
+     * Rebuild the filter guarding reads, if there is one, from every alias in
+     * the index. Reads are guarded by any previous version of the filter
+     * until the rebuild completes.
+     */
+    public void rebuildFilter() throws ConnectionException {
+        if (!filter.isPresent()) {
+            return;
+        }
+        AliasBloomFilter.Rebuild rebuild = filter.get().startRebuild();
+        try {
+            if (format.legacy) {
+                rebuildFromLegacy(rebuild);
+            } else {
+                rebuildFromCompact(rebuild);
+            }
+            rebuild.complete();
+        } catch (ConnectionException | RuntimeException e) {
+            rebuild.abandon();
+            throw e;
+        }
+    }
+
+    private void rebuildFromLegacy(AliasBloomFilter.Rebuild rebuild) throws ConnectionException {
+        Rows<String, String> rows = keyspace.prepareQuery(columnFamily)
+            .getAllRows()
+            .setRowLimit(REBUILD_PAGE_SIZE)
+            .execute().getResult();
+        for (Row<String, String> row : rows) {
+            byte[] key = row.getKey().getBytes(Charsets.UTF_8);
+            for (Column<String> column : row.getColumns()) {
+                rebuild.put(column.getName(), key);
+            }
+        }
+    }
+
+    private void rebuildFromCompact(AliasBloomFilter.Rebuild rebuild) throws ConnectionException {
+        Rows<byte[], Integer> rows = keyspace.prepareQuery(compactColumnFamily)
+            .getAllRows()
+            .setRowLimit(REBUILD_PAGE_SIZE)
+            .execute().getResult();
+        for (Row<byte[], Integer> row : rows) {
+            for (Column<Integer> column : row.getColumns()) {
+                Publisher source = CompactAliasKeys.source(column.getName());
+                if (source != null) {
+                    rebuild.put(source.key(), row.getKey());
+                }
             }
         }
-        return ImmutableSet.copyOf(ids);
     }
 
-    
 }
@@ -0,0 +1,137 @@
+package org.atlasapi.entity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.Publisher;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * <p>
+ * The compact, versioned binary form of {@link AliasIndex} row keys and source
+ * column names.
+ * </p>
+ *
+ * <p>
+ * A row key is a version byte, an 8 byte id of the alias namespace, then a tag
+ * byte and the encoded value. Values which are canonical non-negative decimal
+ * numbers are written as unsigned varints, other values of up to
+ * {@value #MAX_RAW_VALUE_BYTES} UTF-8 bytes are written as they are and longer
+ * values as their 128-bit hash. Namespace ids are hashes of the namespace,
+ * interned so they're computed once per namespace.
+ * </p>
+ *
+ * <p>
+ * Sources are identified by a 32-bit hash of their key rather than their
+ * ordinal, which isn't stable between releases. The ids of all sources are
+ * checked to be distinct when the class is loaded.
+ * </p>
+ */
+public final class CompactAliasKeys {
+
+    public static final byte VERSION = 1;
+
+    private static final byte VARINT_VALUE = 0;
+    private static final byte RAW_VALUE = 1;
+    private static final byte HASHED_VALUE = 2;
+    private static final int MAX_RAW_VALUE_BYTES = 16;
+    private static final int MAX_INTERNED_NAMESPACES = 10000;
+
+    private static final HashFunction VALUE_HASH = Hashing.murmur3_128();
+    private static final HashFunction SOURCE_HASH = Hashing.murmur3_32();
+
+    private static final ImmutableMap<Publisher, Integer> SOURCE_IDS;
+    private static final ImmutableMap<Integer, Publisher> SOURCES;
+
+    static {
+        ImmutableMap.Builder<Publisher, Integer> ids = ImmutableMap.builder();
+        ImmutableMap.Builder<Integer, Publisher> sources = ImmutableMap.builder();
+        for (Publisher source : Publisher.values()) {
+            int id = SOURCE_HASH.hashString(source.key(), Charsets.UTF_8).asInt();
+            ids.put(source, id);
+            // fails on a duplicate id
+            sources.put(id, source);
+        }
+        SOURCE_IDS = ids.build();
+        SOURCES = sources.build();
+    }
+
+    private final ConcurrentMap<String, byte[]> namespaceIds = Maps.newConcurrentMap();
+
+    /**
+     * @return the id of the source, used as the column name of the compact
+     *         index.
+     */
+    public static int sourceId(Publisher source) {
+        return SOURCE_IDS.get(checkNotNull(source));
+    }
+
+    /**
+     * @return the source with the given id, or {@code null} if there is none.
+     */
+    public static @Nullable Publisher source(int sourceId) {
+        return SOURCES.get(sourceId);
+    }
+
+    public byte[] key(Alias alias) {
+        byte[] namespace = namespaceId(alias.getNamespace());
+        String value = alias.getValue();
+        Long numeric = Longs.tryParse(value);
+        if (numeric != null && numeric >= 0 && value.equals(numeric.toString())) {
+            ByteBuffer key = ByteBuffer.allocate(1 + namespace.length + 1 + varintSize(numeric));
+            key.put(VERSION).put(namespace).put(VARINT_VALUE);
+            putVarint(key, numeric);
+            return key.array();
+        }
+        byte[] raw = value.getBytes(Charsets.UTF_8);
+        if (raw.length <= MAX_RAW_VALUE_BYTES) {
+            return ByteBuffer.allocate(1 + namespace.length + 1 + raw.length)
+                .put(VERSION).put(namespace).put(RAW_VALUE).put(raw)
+                .array();
+        }
+        byte[] hash = VALUE_HASH.hashBytes(raw).asBytes();
+        return ByteBuffer.allocate(1 + namespace.length + 1 + hash.length)
+            .put(VERSION).put(namespace).put(HASHED_VALUE).put(hash)
+            .array();
+    }
+
+    private byte[] namespaceId(String namespace) {
+        byte[] id = namespaceIds.get(namespace);
+        if (id == null) {
+            id = Longs.toByteArray(VALUE_HASH.hashString(namespace, Charsets.UTF_8).asLong());
+            // namespaces are few, but don't let unexpected ones grow the map unbounded
+            if (namespaceIds.size() < MAX_INTERNED_NAMESPACES) {
+                namespaceIds.putIfAbsent(namespace, id);
+            }
+        }
+        return id;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+}
@@ -0,0 +1,295 @@
+package org.atlasapi.entity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Function;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * <p>
+ * An alias index read and written through the native protocol, over the same
+ * tables as {@link AliasIndex}, in any of its {@link AliasIndex.KeyFormat}s.
+ * </p>
+ *
+ * <p>
+ * Each alias is read with its own prepared query so that it's routed to a
+ * replica of its row. Reads aren't guarded by a filter.
+ * </p>
+ */
+public final class DatastaxAliasIndex<A extends Identifiable & Sourced & Aliased> {
+
+    private static final Logger log = LoggerFactory.getLogger(DatastaxAliasIndex.class);
+
+    private static final String KEY = "key";
+    private static final String COLUMN = "column1";
+    private static final String VALUE = "value";
+
+    private final Session session;
+    private final AliasIndex.KeyFormat format;
+    private final AliasIndex.AliasSerializer toSerializedForm = new AliasIndex.AliasSerializer();
+    private final CompactAliasKeys compactKeys = new CompactAliasKeys();
+
+    private final PreparedStatement legacySelect;
+    private final PreparedStatement legacyInsert;
+    private final PreparedStatement legacyDelete;
+    private final PreparedStatement compactSelect;
+    private final PreparedStatement compactInsert;
+    private final PreparedStatement compactDelete;
+
+    public DatastaxAliasIndex(Session session, String table, AliasIndex.KeyFormat format,
+            ConsistencyLevel read, ConsistencyLevel write) {
+        this.session = checkNotNull(session);
+        this.format = checkNotNull(format);
+        String compactTable = table + AliasIndex.COMPACT_SUFFIX;
+        this.legacySelect = prepare(select(table), read);
+        this.legacyInsert = prepare(insert(table), write);
+        this.legacyDelete = prepare(delete(table), write);
+        this.compactSelect = prepare(select(compactTable), read);
+        this.compactInsert = prepare(insert(compactTable), write);
+        this.compactDelete = prepare(delete(compactTable), write);
+    }
+
+    private PreparedStatement prepare(String cql, ConsistencyLevel level) {
+        return session.prepare(cql).setConsistencyLevel(level);
+    }
+
+    private static String select(String table) {
+        return String.format("SELECT %s, %s FROM %s WHERE %s = ?", COLUMN, VALUE, table, KEY);
+    }
+
+    private static String insert(String table) {
+        return String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)", table, KEY, COLUMN, VALUE);
+    }
+
+    private static String delete(String table) {
+        return String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", table, KEY, COLUMN);
+    }
+
+    private boolean writesLegacy() {
+        return format != AliasIndex.KeyFormat.COMPACT;
+    }
+
+    private boolean writesCompact() {
+        return format != AliasIndex.KeyFormat.LEGACY;
+    }
+
+    /**
+     * @return the statements which index the aliases the resource has gained
+     *         and unindex those it has lost since the previous version.
+     */
+    public List<Query> mutateAliases(A resource, @Nullable A previous) {
+        checkNotNull(resource);
+        Publisher source = resource.getPublisher();
+        long resourceId = resource.getId().longValue();
+
+        ImmutableList.Builder<Query> mutations = ImmutableList.builder();
+        Set<Alias> newAliases = previous != null ? Sets.difference(resource.getAliases(), previous.getAliases())
+                                                 : resource.getAliases();
+        for (Alias alias : newAliases) {
+            if (writesLegacy()) {
+                mutations.add(legacyInsert.bind(legacyKey(alias), source.key(), resourceId));
+            }
+            if (writesCompact()) {
+                mutations.add(compactInsert.bind(compactKey(alias), CompactAliasKeys.sourceId(source), resourceId));
+            }
+        }
+        if (previous != null) {
+            for (Alias alias : Sets.difference(previous.getAliases(), resource.getAliases())) {
+                if (writesLegacy()) {
+                    mutations.add(legacyDelete.bind(legacyKey(alias), source.key()));
+                }
+                if (writesCompact()) {
+                    mutations.add(compactDelete.bind(compactKey(alias), CompactAliasKeys.sourceId(source)));
+                }
+            }
+        }
+        return mutations.build();
+    }
+
+    private String legacyKey(Alias alias) {
+        return toSerializedForm.apply(alias);
+    }
+
+    private ByteBuffer compactKey(Alias alias) {
+        return ByteBuffer.wrap(compactKeys.key(alias));
+    }
+
+    /**
+     * Read the ids of the resources from a source indexed against each of the
+     * given aliases.
+     */
+    public ListenableFuture<Map<Alias, Long>> readAliasIds(final Publisher source, Iterable<Alias> aliases) {
+        return Futures.transform(readAliasIds(ImmutableSet.of(checkNotNull(source)), aliases),
+            new Function<Table<Alias, Publisher, Long>, Map<Alias, Long>>() {
+                @Override
+                public Map<Alias, Long> apply(Table<Alias, Publisher, Long> input) {
+                    return input.column(source);
+                }
+            });
+    }
+
+    /**
+     * Read the ids of the resources from each of the given sources indexed
+     * against each of the given aliases, with a query per alias, or two when
+     * migrating key format.
+     */
+    public ListenableFuture<Table<Alias, Publisher, Long>> readAliasIds(final Set<Publisher> sources,
+            Iterable<Alias> aliases) {
+        final Set<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
+        if (uniqueAliases.isEmpty() || sources.isEmpty()) {
+            return Futures.<Table<Alias, Publisher, Long>>immediateFuture(ImmutableTable.<Alias, Publisher, Long>of());
+        }
+        if (!writesCompact()) {
+            return readLegacy(sources, uniqueAliases);
+        }
+        if (!writesLegacy()) {
+            return readCompact(sources, uniqueAliases);
+        }
+        return Futures.transform(readCompact(sources, uniqueAliases),
+            new AsyncFunction<Table<Alias, Publisher, Long>, Table<Alias, Publisher, Long>>() {
+                @Override
+                public ListenableFuture<Table<Alias, Publisher, Long>> apply(
+                        final Table<Alias, Publisher, Long> compactIds) {
+                    Set<Alias> missing = missing(uniqueAliases, sources, compactIds);
+                    if (missing.isEmpty()) {
+                        return Futures.immediateFuture(compactIds);
+                    }
+                    return Futures.transform(readLegacy(sources, missing),
+                        new Function<Table<Alias, Publisher, Long>, Table<Alias, Publisher, Long>>() {
+                            @Override
+                            public Table<Alias, Publisher, Long> apply(Table<Alias, Publisher, Long> legacyIds) {
+                                return merge(compactIds, legacyIds);
+                            }
+                        });
+                }
+            });
+    }
+
+    private Set<Alias> missing(Set<Alias> aliases, Set<Publisher> sources, Table<Alias, Publisher, Long> ids) {
+        ImmutableSet.Builder<Alias> missing = ImmutableSet.builder();
+        for (Alias alias : aliases) {
+            if (!ids.row(alias).keySet().containsAll(sources)) {
+                missing.add(alias);
+            }
+        }
+        return missing.build();
+    }
+
+    private ListenableFuture<Table<Alias, Publisher, Long>> readLegacy(Set<Publisher> sources,
+            final Set<Alias> aliases) {
+        final Map<String, Publisher> sourcesByKey = sourcesByKey(sources);
+        List<ListenableFuture<ResultSet>> rows = Lists.newArrayListWithCapacity(aliases.size());
+        for (Alias alias : aliases) {
+            rows.add(session.executeAsync(legacySelect.bind(legacyKey(alias))));
+        }
+        return Futures.transform(Futures.allAsList(rows),
+            new Function<List<ResultSet>, Table<Alias, Publisher, Long>>() {
+                @Override
+                public Table<Alias, Publisher, Long> apply(List<ResultSet> input) {
+                    ImmutableTable.Builder<Alias, Publisher, Long> ids = ImmutableTable.builder();
+                    int i = 0;
+                    for (Alias alias : aliases) {
+                        for (Row row : input.get(i++)) {
+                            Publisher source = sourcesByKey.get(row.getString(COLUMN));
+                            if (source != null) {
+                                ids.put(alias, source, row.getLong(VALUE));
+                            }
+                        }
+                    }
+                    return ids.build();
+                }
+            });
+    }
+
+    private Map<String, Publisher> sourcesByKey(Set<Publisher> sources) {
+        ImmutableMap.Builder<String, Publisher> byKey = ImmutableMap.builder();
+        for (Publisher source : sources) {
+            byKey.put(source.key(), source);
+        }
+        return byKey.build();
+    }
+
+    private ListenableFuture<Table<Alias, Publisher, Long>> readCompact(final Set<Publisher> sources,
+            final Set<Alias> aliases) {
+        List<ListenableFuture<ResultSet>> rows = Lists.newArrayListWithCapacity(aliases.size());
+        for (Alias alias : aliases) {
+            rows.add(session.executeAsync(compactSelect.bind(compactKey(alias))));
+        }
+        return Futures.transform(Futures.allAsList(rows),
+            new Function<List<ResultSet>, Table<Alias, Publisher, Long>>() {
+                @Override
+                public Table<Alias, Publisher, Long> apply(List<ResultSet> input) {
+                    ImmutableTable.Builder<Alias, Publisher, Long> ids = ImmutableTable.builder();
+                    int i = 0;
+                    for (Alias alias : aliases) {
+                        for (Row row : input.get(i++)) {
+                            Publisher source = CompactAliasKeys.source(row.getInt(COLUMN));
+                            if (source != null && sources.contains(source)) {
+                                ids.put(alias, source, row.getLong(VALUE));
+                            }
+                        }
+                    }
+                    return ids.build();
+                }
+            });
+    }
+
+    /**
+     * Merge ids found in the legacy index with those in the compact index,
+     * backfilling the compact index with any it's missing.
+     */
+    private Table<Alias, Publisher, Long> merge(Table<Alias, Publisher, Long> compactIds,
+            Table<Alias, Publisher, Long> legacyIds) {
+        Table<Alias, Publisher, Long> merged = HashBasedTable.create(compactIds);
+        List<ListenableFuture<ResultSet>> backfills = Lists.newArrayList();
+        for (Table.Cell<Alias, Publisher, Long> cell : legacyIds.cellSet()) {
+            if (!merged.contains(cell.getRowKey(), cell.getColumnKey())) {
+                merged.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+                backfills.add(session.executeAsync(compactInsert.bind(compactKey(cell.getRowKey()),
+                    CompactAliasKeys.sourceId(cell.getColumnKey()), cell.getValue())));
+            }
+        }
+        if (!backfills.isEmpty()) {
+            Futures.addCallback(Futures.allAsList(backfills), new FutureCallback<List<ResultSet>>() {
+                @Override
+                public void onSuccess(List<ResultSet> result) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    log.warn("failed to backfill compact aliases", t);
+                }
+            });
+        }
+        return ImmutableTable.copyOf(merged);
+    }
+
+}
@@ -1,20 +1,28 @@
 package org.atlasapi.equivalence;
 
-import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.timestamp;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
 
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.atlasapi.entity.Id;
 import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.util.FanOut;
 import org.atlasapi.util.GroupLock;
+import org.atlasapi.util.PreparedStatements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
@@ -22,9 +30,14 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.Insert;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -38,6 +51,32 @@ import com.metabroadcast.common.collect.ImmutableOptionalMap;
 import com.metabroadcast.common.collect.OptionalMap;
 import com.metabroadcast.common.queue.MessageSender;
 
+/**
+ * <p>
+ * Stores each graph in a row keyed by its lowest id, with an index of the
+ * graph of each resource.
+ * </p>
+ * 
+ * <p>
+ * Optimistic updates, which may run on many nodes at once, are committed
+ * against a version on each resource's index row. A resource is claimed by
+ * compare-and-set from the even version read to a greater odd one, written
+ * with the time the claim expires, and the update committed by setting the
+ * following even version along with its graph. A claim which hasn't been
+ * committed by its expiry, {@link #CLAIM_TIMEOUT} after it was made, is taken
+ * to be abandoned and may be claimed by another update. All nodes writing the
+ * same graphs must use the same kind of update.
+ * </p>
+ * 
+ * <p>
+ * Claims are fences. Each is at least the current time in microseconds, and
+ * a graph's row is written with the claim on its lowest id as its
+ * timestamp, only once every index row is committed. A graph written late by
+ * an update whose claims were since taken over can't replace the graph
+ * written by the update which took them, since that update's claim, and so
+ * its timestamp, is greater.
+ * </p>
+ */
 public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGraphStore {
 
     private static final String EQUIVALENCE_GRAPHS_TABLE = "equivalence_graph";
@@ -46,6 +85,40 @@ public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGra
     private static final String RESOURCE_ID_KEY = "resource_id";
     private static final String GRAPH_ID_KEY = "graph_id";
     private static final String GRAPH_KEY = "graph";
+    private static final String APPLIED_KEY = "[applied]";
+
+    private static final String SELECT_VERSION = "SELECT version, claim_expiry FROM equivalence_graph_index WHERE resource_id = ?";
+    private static final String CLAIM_NEW = "INSERT INTO equivalence_graph_index (resource_id, version, claim_expiry) VALUES (?, ?, ?) IF NOT EXISTS";
+    private static final String CLAIM_UNVERSIONED = "UPDATE equivalence_graph_index SET version = ?, claim_expiry = ? WHERE resource_id = ? IF version = null";
+    private static final String CLAIM = "UPDATE equivalence_graph_index SET version = ?, claim_expiry = ? WHERE resource_id = ? IF version = ?";
+    private static final String CONFIRM = "UPDATE equivalence_graph_index SET claim_expiry = ? WHERE resource_id = ? IF version = ?";
+    private static final String RELEASE = "UPDATE equivalence_graph_index SET version = ?, claim_expiry = null WHERE resource_id = ? IF version = ?";
+    private static final String COMMIT = "UPDATE equivalence_graph_index SET graph_id = ?, version = ?, claim_expiry = null WHERE resource_id = ? IF version = ?";
+
+    private static final String DEFERRED_TABLE = "equivalence_deferred";
+    private static final String DEFERRAL_TABLE = "equivalence_deferral";
+    private static final String BUCKET_KEY = "bucket";
+    private static final String SUBJECT_ID_KEY = "subject_id";
+    private static final String SOURCES_KEY = "sources";
+    private static final String DEFERRED_KEY = "deferred";
+    private static final String ASSERTION_KEY = "assertion";
+
+    private static final String SELECT_DEFERRAL = "SELECT deferred FROM equivalence_deferral WHERE subject_id = ? AND sources = ?";
+    private static final String SELECT_DEFERRED = "SELECT sources, deferred, assertion FROM equivalence_deferred WHERE bucket = ? LIMIT %d";
+    private static final String REMOVE_DEFERRED = "DELETE FROM equivalence_deferred WHERE bucket = ? AND subject_id = ? AND sources = ? AND deferred = ?";
+    private static final String REMOVE_DEFERRAL = "DELETE FROM equivalence_deferral WHERE subject_id = ? AND sources = ? IF deferred = ?";
+
+    /** The version of a resource without an index row. */
+    private static final long NO_ROW = -1;
+    /** The version of an index row written before rows were versioned. */
+    private static final long UNVERSIONED = 0;
+
+    public static final long CLAIM_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    /** Deferred assertions are queued in a partition per hour they're deferred in. */
+    private static final long DEFERRED_BUCKET = TimeUnit.HOURS.toMillis(1);
+    /** Deferred assertions which aren't applied within this many seconds expire. */
+    public static final int DEFERRED_TTL = (int) TimeUnit.DAYS.toSeconds(7);
     
     private static final GroupLock<Id> lock = GroupLock.natural();
     private static final Logger log = LoggerFactory.getLogger(CassandraEquivalenceGraphStore.class);
@@ -53,62 +126,109 @@ public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGra
     private final EquivalenceGraphSerializer serializer = new EquivalenceGraphSerializer();
     
     private final Session session;
+    private final FanOut fanOut;
     private final ConsistencyLevel read;
     private final ConsistencyLevel write;
+    private final Optional<EquivalenceGraphCache> cache;
+
+    // the oldest bucket of deferred assertions which may not be empty
+    private volatile long oldestDeferredBucket = 0;
 
     public CassandraEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender, Session session, ConsistencyLevel read, ConsistencyLevel write) {
-        super(messageSender);
+        this(messageSender, session, read, write, FanOut.perPartition());
+    }
+
+    public CassandraEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender, Session session, ConsistencyLevel read, ConsistencyLevel write, FanOut fanOut) {
+        this(messageSender, session, read, write, fanOut, Optional.<OptimisticRetry>absent());
+    }
+
+    public CassandraEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender, Session session, ConsistencyLevel read, ConsistencyLevel write, FanOut fanOut, Optional<OptimisticRetry> optimistic) {
+        this(messageSender, session, read, write, fanOut, optimistic, GraphSizePolicy.defaultPolicy());
+    }
+
+    public CassandraEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender, Session session, ConsistencyLevel read, ConsistencyLevel write, FanOut fanOut, Optional<OptimisticRetry> optimistic, GraphSizePolicy sizePolicy) {
+        this(messageSender, session, read, write, fanOut, optimistic, sizePolicy, Optional.<EquivalenceGraphCache>absent());
+    }
+
+    /**
+     * @param cache
+     *            - if present, {@link #resolveIds(Iterable)} reads through it.
+     *            Updates always read the stored graphs.
+     */
+    public CassandraEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender, Session session, ConsistencyLevel read, ConsistencyLevel write, FanOut fanOut, Optional<OptimisticRetry> optimistic, GraphSizePolicy sizePolicy, Optional<EquivalenceGraphCache> cache) {
+        super(messageSender, optimistic, sizePolicy);
         this.session = session;
         this.read = read;
         this.write = write;
+        this.fanOut = fanOut;
+        this.cache = cache;
     }
 
-    
-    private final Function<ResultSet, Map<Long, EquivalenceGraph>> toGraph
-        = new Function<ResultSet, Map<Long, EquivalenceGraph>>() {
+
+    private final Function<ByteBuffer, EquivalenceGraph> deserializer
+        = new Function<ByteBuffer, EquivalenceGraph>() {
+            @Override
+            public EquivalenceGraph apply(ByteBuffer input) {
+                return serializer.deserialize(input);
+            }
+        };
+
+    private final Function<ByteBuffer, CompactEquivalenceGraph> compactDeserializer
+        = new Function<ByteBuffer, CompactEquivalenceGraph>() {
             @Override
-            public Map<Long, EquivalenceGraph> apply(ResultSet rows) {
-                ImmutableMap.Builder<Long, EquivalenceGraph> idGraph = ImmutableMap.builder();
-                for (Row row : rows) {
+            public CompactEquivalenceGraph apply(ByteBuffer input) {
+                return serializer.deserializeCompact(input);
+            }
+        };
+
+    private <G> Function<List<ResultSet>, Map<Long, G>> toGraph(final Function<ByteBuffer, G> deserializer) {
+        return new Function<List<ResultSet>, Map<Long, G>>() {
+            @Override
+            public Map<Long, G> apply(List<ResultSet> rows) {
+                ImmutableMap.Builder<Long, G> idGraph = ImmutableMap.builder();
+                for (Row row : Iterables.concat(rows)) {
                     Long graphId = row.getLong(GRAPH_ID_KEY);
-                    idGraph.put(graphId, serializer.deserialize(row.getBytes(GRAPH_KEY)));
+                    idGraph.put(graphId, deserializer.apply(row.getBytes(GRAPH_KEY)));
                 }
                 return idGraph.build();
             }
-
         };
+    }
 
-    private final AsyncFunction<Map<Id, Long>, OptionalMap<Id, EquivalenceGraph>> toGraphs
-        = new AsyncFunction<Map<Id, Long>, OptionalMap<Id, EquivalenceGraph>>() {
+    private <G> AsyncFunction<Map<Id, Long>, OptionalMap<Id, G>> toGraphs(final Function<ByteBuffer, G> deserializer) {
+        return new AsyncFunction<Map<Id, Long>, OptionalMap<Id, G>>() {
             @Override
-            public ListenableFuture<OptionalMap<Id, EquivalenceGraph>> apply(Map<Id, Long> idIndex) {
-                ResultSetFuture graphRows = resultOf(queryForGraphRows(idIndex));
-                return Futures.transform(Futures.transform(graphRows, toGraph), toIdGraphIndex(idIndex));
+            public ListenableFuture<OptionalMap<Id, G>> apply(Map<Id, Long> idIndex) {
+                ListenableFuture<List<ResultSet>> graphRows = queryForGraphRows(idIndex);
+                return Futures.transform(Futures.transform(graphRows, toGraph(deserializer)), 
+                    CassandraEquivalenceGraphStore.<G>toIdGraphIndex(idIndex));
             }
         };
+    }
 
-    private Function<Map<Long, EquivalenceGraph>, OptionalMap<Id, EquivalenceGraph>> toIdGraphIndex(final Map<Id, Long> idIndex) {
-        return new Function<Map<Long, EquivalenceGraph>, OptionalMap<Id, EquivalenceGraph>>() {
+    private static <G> Function<Map<Long, G>, OptionalMap<Id, G>> toIdGraphIndex(final Map<Id, Long> idIndex) {
+        return new Function<Map<Long, G>, OptionalMap<Id, G>>() {
             @Override
-            public OptionalMap<Id, EquivalenceGraph> apply(Map<Long, EquivalenceGraph> rowGraphIndex){
+            public OptionalMap<Id, G> apply(Map<Long, G> rowGraphIndex){
                 return ImmutableOptionalMap.fromMap(Maps.transformValues(idIndex, Functions.forMap(rowGraphIndex, null)));
             }
         };
     }
     
-    private Query queryForGraphRows(final Map<Id, Long> idIndex) {
-        return select().all()
-                .from(EQUIVALENCE_GRAPHS_TABLE)
-                .where(in(GRAPH_ID_KEY, ImmutableSet.copyOf(idIndex.values()).toArray()))
-                .setConsistencyLevel(read);
+    private ListenableFuture<List<ResultSet>> queryForGraphRows(final Map<Id, Long> idIndex) {
+        return fanOut.select(session, read, EQUIVALENCE_GRAPHS_TABLE, GRAPH_ID_KEY, idIndex.values());
     }
 
-    private final Function<ResultSet, Map<Id, Long>> toGraphIdIndex
-        = new Function<ResultSet, Map<Id, Long>>() {
+    private final Function<List<ResultSet>, Map<Id, Long>> toGraphIdIndex
+        = new Function<List<ResultSet>, Map<Id, Long>>() {
             @Override
-            public ImmutableMap<Id, Long> apply(ResultSet rows) {
+            public ImmutableMap<Id, Long> apply(List<ResultSet> rows) {
                 ImmutableMap.Builder<Id, Long> idIndex = ImmutableMap.builder();
-                for (Row row : rows) {
+                for (Row row : Iterables.concat(rows)) {
+                    if (row.isNull(GRAPH_ID_KEY)) {
+                        // claimed by an optimistic update but not yet in a graph
+                        continue;
+                    }
                     Id resourceId = Id.valueOf(row.getLong(RESOURCE_ID_KEY));
                     long graphId = row.getLong(GRAPH_ID_KEY);
                     idIndex.put(resourceId, graphId);
@@ -117,28 +237,41 @@ public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGra
             }
         };
         
+    private final Function<Iterable<Id>, ListenableFuture<OptionalMap<Id, EquivalenceGraph>>> storedGraphs
+        = new Function<Iterable<Id>, ListenableFuture<OptionalMap<Id, EquivalenceGraph>>>() {
+            @Override
+            public ListenableFuture<OptionalMap<Id, EquivalenceGraph>> apply(Iterable<Id> ids) {
+                return resolveForUpdate(ids);
+            }
+        };
+
     @Override
     public ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolveIds(Iterable<Id> ids) {
+        if (cache.isPresent()) {
+            return cache.get().resolveIds(ids, storedGraphs);
+        }
+        return resolveForUpdate(ids);
+    }
+
+    @Override
+    protected ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolveForUpdate(Iterable<Id> ids) {
         ListenableFuture<Map<Id, Long>> graphIdIndex = resolveToGraphIds(ids);
-        return Futures.transform(graphIdIndex, toGraphs);
+        return Futures.transform(graphIdIndex, toGraphs(deserializer));
     }
 
-    private ListenableFuture<Map<Id,Long>> resolveToGraphIds(Iterable<Id> ids) {
-        return Futures.transform(resultOf(queryForGraphIds(ids)), toGraphIdIndex);
+    @Override
+    protected ListenableFuture<OptionalMap<Id, CompactEquivalenceGraph>> resolveCompact(Iterable<Id> ids) {
+        ListenableFuture<Map<Id, Long>> graphIdIndex = resolveToGraphIds(ids);
+        return Futures.transform(graphIdIndex, toGraphs(compactDeserializer));
     }
 
-    private ResultSetFuture resultOf(Query query) {
-        return session.executeAsync(query);
+    private ListenableFuture<Map<Id,Long>> resolveToGraphIds(Iterable<Id> ids) {
+        return Futures.transform(queryForGraphIds(ids), toGraphIdIndex);
     }
 
-    private Query queryForGraphIds(Iterable<Id> ids) {
-        ImmutableSet<Long> uniqueIds = ImmutableSet.copyOf(Iterables.transform(ids, Id.toLongValue()));
-        Object[] lids = Iterables.toArray(uniqueIds,Long.class);
-        return QueryBuilder
-            .select(RESOURCE_ID_KEY,GRAPH_ID_KEY)
-            .from(EQUIVALENCE_GRAPH_INDEX_TABLE)
-            .where(in(RESOURCE_ID_KEY, lids))
-            .setConsistencyLevel(read);
+    private ListenableFuture<List<ResultSet>> queryForGraphIds(Iterable<Id> ids) {
+        return fanOut.select(session, read, EQUIVALENCE_GRAPH_INDEX_TABLE, RESOURCE_ID_KEY,
+            Iterables.transform(ids, Id.toLongValue()), RESOURCE_ID_KEY, GRAPH_ID_KEY);
     }
 
     @Override
@@ -154,6 +287,336 @@ public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGra
         }
         Query updateBatch = QueryBuilder.batch(updates.toArray(new Statement[updates.size()]));
         session.execute(updateBatch.setConsistencyLevel(write));
+        invalidate(graphs);
+    }
+
+    private void invalidate(ImmutableSet<EquivalenceGraph> graphs) {
+        if (cache.isPresent()) {
+            for (EquivalenceGraph graph : graphs) {
+                cache.get().invalidate(graph.getEquivalenceSet());
+            }
+        }
+    }
+
+    /**
+     * Versions are read at the write consistency level so they're likely to be
+     * current. A stale version only makes the claim fail.
+     */
+    @Override
+    protected Optional<Map<Id, Long>> readVersions(Set<Id> ids) {
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        List<Id> orderedIds = Ordering.natural().sortedCopy(ids);
+        List<ResultSetFuture> reads = Lists.newArrayListWithCapacity(orderedIds.size());
+        for (Id id : orderedIds) {
+            reads.add(statements.executeAsync(SELECT_VERSION, write, id.longValue()));
+        }
+        List<ResultSet> results = Futures.getUnchecked(Futures.allAsList(reads));
+        long now = System.currentTimeMillis();
+        ImmutableMap.Builder<Id, Long> versions = ImmutableMap.builder();
+        for (int i = 0; i < orderedIds.size(); i++) {
+            Row row = results.get(i).one();
+            long version = row == null ? NO_ROW
+                         : row.isNull(0) ? UNVERSIONED
+                         : row.getLong(0);
+            // a claim made without an expiry can't be committed by this store
+            if (isClaim(version) && !row.isNull(1) && row.getLong(1) > now) {
+                return Optional.absent();
+            }
+            versions.put(orderedIds.get(i), version);
+        }
+        return Optional.<Map<Id, Long>>of(versions.build());
+    }
+
+    private static boolean isClaim(long version) {
+        return version > 0 && version % 2 == 1;
+    }
+
+    /**
+     * A claim is odd, greater than the version claimed, including an
+     * abandoned claim, and at least the current time in microseconds.
+     */
+    private static long claimOf(long version) {
+        long claim = Math.max(version + 1, TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+        return claim % 2 == 1 ? claim : claim + 1;
+    }
+
+    @Override
+    protected Optional<Map<Id, Long>> claim(Map<Id, Long> versions) {
+        long expiry = System.currentTimeMillis() + CLAIM_TIMEOUT;
+        Map<Id, Long> claims = Maps.newHashMapWithExpectedSize(versions.size());
+        for (Id id : Ordering.natural().sortedCopy(versions.keySet())) {
+            long version = versions.get(id);
+            long claim = claimOf(version);
+            if (!applied(session.execute(claimStatement(id.longValue(), version, claim, expiry)))) {
+                release(claims);
+                return Optional.absent();
+            }
+            claims.put(id, claim);
+        }
+        return Optional.of(claims);
+    }
+
+    private BoundStatement claimStatement(long id, long version, long claim, long expiry) {
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        if (version == NO_ROW) {
+            return statements.bind(CLAIM_NEW, write, id, claim, expiry);
+        }
+        if (version == UNVERSIONED) {
+            return statements.bind(CLAIM_UNVERSIONED, write, claim, expiry, id);
+        }
+        return statements.bind(CLAIM, write, claim, expiry, id, version);
+    }
+
+    /**
+     * Failures are logged rather than thrown, since releases are made as an
+     * update fails. Claims which can't be released expire.
+     */
+    @Override
+    protected void release(Map<Id, Long> claims) {
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        List<ResultSetFuture> releases = Lists.newArrayListWithCapacity(claims.size());
+        for (Entry<Id, Long> claim : claims.entrySet()) {
+            releases.add(statements.executeAsync(RELEASE, write,
+                claim.getValue() + 1, claim.getKey().longValue(), claim.getValue()));
+        }
+        try {
+            Futures.getUnchecked(Futures.allAsList(releases));
+        } catch (RuntimeException e) {
+            log.warn("Failed to release claims on " + claims.keySet(), e);
+        }
+    }
+
+    /**
+     * <p>
+     * Every claim is first confirmed by compare-and-set, extending its expiry,
+     * so nothing is committed if any claim was taken over: the index is never
+     * left with only some of its rows set to the update's graphs.
+     * </p>
+     * 
+     * <p>
+     * The index rows are then the commit: each is set to its graph, or just
+     * released if it's in none of the graphs. The graphs are written only
+     * once every index row is committed, with the claim on their lowest id as
+     * their timestamp, so they can't replace a graph written under a later
+     * claim. A row can only fail to commit after being confirmed if the
+     * update stalled past the extended expiry. The update is then retried,
+     * rewriting the graphs of the rows it did commit.
+     * </p>
+     */
+    @Override
+    protected boolean commit(ImmutableSet<EquivalenceGraph> graphs, Map<Id, Long> claims) {
+        if (!confirm(claims)) {
+            return false;
+        }
+        Map<Id, Long> graphIds = Maps.newHashMap();
+        for (EquivalenceGraph graph : graphs) {
+            Long graphId = lowestId(graph);
+            for (Id id : graph.getEquivalenceSet()) {
+                graphIds.put(id, graphId);
+            }
+        }
+
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        List<ResultSetFuture> commits = Lists.newArrayListWithCapacity(claims.size());
+        for (Entry<Id, Long> claim : claims.entrySet()) {
+            long id = claim.getKey().longValue();
+            Long graphId = graphIds.get(claim.getKey());
+            commits.add(graphId != null
+                ? statements.executeAsync(COMMIT, write, graphId, claim.getValue() + 1, id, claim.getValue())
+                : statements.executeAsync(RELEASE, write, claim.getValue() + 1, id, claim.getValue()));
+        }
+        int committed = 0;
+        for (ResultSet result : Futures.getUnchecked(Futures.allAsList(commits))) {
+            if (applied(result)) {
+                committed++;
+            }
+        }
+        if (committed < claims.size()) {
+            log.warn("Committed {} of {} claims on {}, claims expired while committing",
+                committed, claims.size(), claims.keySet());
+            return false;
+        }
+
+        List<Statement> graphInserts = Lists.newArrayListWithCapacity(graphs.size());
+        for (EquivalenceGraph graph : graphs) {
+            Long graphId = lowestId(graph);
+            graphInserts.add(graphInsert(graphId, serializer.serialize(graph))
+                .using(timestamp(claims.get(Id.valueOf(graphId)))));
+        }
+        Query graphBatch = QueryBuilder.batch(graphInserts.toArray(new Statement[graphInserts.size()]));
+        session.execute(graphBatch.setConsistencyLevel(write));
+        invalidate(graphs);
+        return true;
+    }
+
+    /**
+     * @return true if every claim is still held, each now expiring
+     *         {@link #CLAIM_TIMEOUT} from now.
+     */
+    private boolean confirm(Map<Id, Long> claims) {
+        long expiry = System.currentTimeMillis() + CLAIM_TIMEOUT;
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        List<ResultSetFuture> confirms = Lists.newArrayListWithCapacity(claims.size());
+        for (Entry<Id, Long> claim : claims.entrySet()) {
+            confirms.add(statements.executeAsync(CONFIRM, write,
+                expiry, claim.getKey().longValue(), claim.getValue()));
+        }
+        boolean held = true;
+        for (ResultSet result : Futures.getUnchecked(Futures.allAsList(confirms))) {
+            held &= applied(result);
+        }
+        return held;
+    }
+
+    private static boolean applied(ResultSet result) {
+        return result.one().getBool(APPLIED_KEY);
+    }
+
+    /**
+     * Deferred assertions are queued by the hour they're deferred in, and
+     * expire after {@link #DEFERRED_TTL}. The latest deferral of each subject
+     * and sources is recorded, so a later deferral replaces an earlier one and
+     * an applied assertion removes its deferral without searching the queue.
+     */
+    @Override
+    protected void defer(EquivalenceAssertion assertion) {
+        long subjectId = assertion.getSubject().getId().longValue();
+        String sources = sourcesKey(assertion.getSources());
+        long deferred = System.currentTimeMillis();
+        Optional<Long> previous = deferral(subjectId, sources);
+
+        List<Statement> statements = Lists.newArrayListWithCapacity(3);
+        statements.add(insertInto(DEFERRED_TABLE)
+            .value(BUCKET_KEY, bucketOf(deferred))
+            .value(SUBJECT_ID_KEY, subjectId)
+            .value(SOURCES_KEY, sources)
+            .value(DEFERRED_KEY, deferred)
+            .value(ASSERTION_KEY, serializer.serialize(assertion))
+            .using(ttl(DEFERRED_TTL)));
+        statements.add(insertInto(DEFERRAL_TABLE)
+            .value(SUBJECT_ID_KEY, subjectId)
+            .value(SOURCES_KEY, sources)
+            .value(DEFERRED_KEY, deferred)
+            .using(ttl(DEFERRED_TTL)));
+        if (previous.isPresent() && previous.get() != deferred) {
+            statements.add(delete().from(DEFERRED_TABLE)
+                .where(eq(BUCKET_KEY, bucketOf(previous.get())))
+                .and(eq(SUBJECT_ID_KEY, subjectId))
+                .and(eq(SOURCES_KEY, sources))
+                .and(eq(DEFERRED_KEY, previous.get())));
+        }
+        Query batch = QueryBuilder.batch(statements.toArray(new Statement[statements.size()]));
+        session.execute(batch.setConsistencyLevel(write));
+    }
+
+    /**
+     * Read the buckets of deferred assertions in order, each a single
+     * partition, from the oldest which may not be empty. Buckets more than an
+     * hour old aren't written to, allowing for clock skew between nodes, so
+     * once found empty they aren't read again.
+     */
+    @Override
+    protected Iterable<DeferredAssertion> deferred(int max) {
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        long now = System.currentTimeMillis();
+        long current = bucketOf(now);
+        long expired = bucketOf(now - TimeUnit.SECONDS.toMillis(DEFERRED_TTL));
+        ImmutableList.Builder<DeferredAssertion> deferred = ImmutableList.builder();
+        int count = 0;
+        boolean drained = true;
+        for (long bucket = Math.max(oldestDeferredBucket, expired); bucket <= current && count < max; bucket += DEFERRED_BUCKET) {
+            ResultSet rows = statements.executeAsync(String.format(SELECT_DEFERRED, max), read, bucket)
+                .getUninterruptibly();
+            boolean empty = true;
+            for (Row row : rows) {
+                if (count == max) {
+                    break;
+                }
+                deferred.add(new DeferredAssertion(
+                    serializer.deserializeAssertion(row.getBytes(ASSERTION_KEY), sources(row.getString(SOURCES_KEY))),
+                    row.getLong(DEFERRED_KEY)));
+                count++;
+                empty = false;
+            }
+            if (drained && empty && bucket < current - DEFERRED_BUCKET) {
+                oldestDeferredBucket = bucket + DEFERRED_BUCKET;
+            } else {
+                drained = false;
+            }
+        }
+        return deferred.build();
+    }
+
+    @Override
+    protected boolean isDeferred(DeferredAssertion deferred) {
+        EquivalenceAssertion assertion = deferred.getAssertion();
+        return deferral(assertion.getSubject().getId().longValue(), sourcesKey(assertion.getSources()))
+            .equals(Optional.of(deferred.getDeferred()));
+    }
+
+    @Override
+    protected void removeDeferred(DeferredAssertion deferred) {
+        EquivalenceAssertion assertion = deferred.getAssertion();
+        removeDeferral(assertion.getSubject().getId().longValue(), sourcesKey(assertion.getSources()),
+            deferred.getDeferred());
+    }
+
+    /**
+     * Only the record of the latest deferral is read, so nothing is written
+     * unless the subject and sources have a deferral.
+     */
+    @Override
+    protected void removeDeferred(EquivalenceAssertion assertion) {
+        long subjectId = assertion.getSubject().getId().longValue();
+        String sources = sourcesKey(assertion.getSources());
+        Optional<Long> deferred = deferral(subjectId, sources);
+        if (deferred.isPresent()) {
+            removeDeferral(subjectId, sources, deferred.get());
+        }
+    }
+
+    /**
+     * Read at the write consistency level, like versions, so a deferral just
+     * made is seen.
+     */
+    private Optional<Long> deferral(long subjectId, String sources) {
+        Row row = PreparedStatements.forSession(session)
+            .executeAsync(SELECT_DEFERRAL, write, subjectId, sources).getUninterruptibly().one();
+        return row == null ? Optional.<Long>absent() : Optional.of(row.getLong(DEFERRED_KEY));
+    }
+
+    /**
+     * Remove the deferred assertion, and the record of it unless a later
+     * deferral has replaced it.
+     */
+    private void removeDeferral(long subjectId, String sources, long deferred) {
+        PreparedStatements statements = PreparedStatements.forSession(session);
+        ResultSetFuture removeDeferred = statements.executeAsync(REMOVE_DEFERRED, write,
+            bucketOf(deferred), subjectId, sources, deferred);
+        ResultSetFuture removeDeferral = statements.executeAsync(REMOVE_DEFERRAL, write,
+            subjectId, sources, deferred);
+        removeDeferred.getUninterruptibly();
+        removeDeferral.getUninterruptibly();
+    }
+
+    private static long bucketOf(long millis) {
+        return millis - millis % DEFERRED_BUCKET;
+    }
+
+    private static String sourcesKey(Set<Publisher> sources) {
+        List<String> keys = Lists.newArrayListWithCapacity(sources.size());
+        for (Publisher source : sources) {
+            keys.add(source.key());
+        }
+        return Joiner.on(',').join(Ordering.natural().sortedCopy(keys));
+    }
+
+    private static Set<Publisher> sources(String sourcesKey) {
+        ImmutableSet.Builder<Publisher> sources = ImmutableSet.builder();
+        for (String key : Splitter.on(',').omitEmptyStrings().split(sourcesKey)) {
+            sources.add(Publisher.fromKey(key).requireValue());
+        }
+        return sources.build();
     }
 
     private Statement indexInsert(Long resourceId, Long graphId) {
@@ -162,7 +625,7 @@ public final class CassandraEquivalenceGraphStore extends AbstractEquivalenceGra
                 .value(GRAPH_ID_KEY, graphId);
     }
 
-    private Statement graphInsert(Long graphId, ByteBuffer serializedGraph) {
+    private Insert graphInsert(Long graphId, ByteBuffer serializedGraph) {
         return insertInto(EQUIVALENCE_GRAPHS_TABLE)
                 .value(GRAPH_ID_KEY, graphId)
                 .value(GRAPH_KEY, serializedGraph);
@@ -1,5 +1,6 @@
 package org.atlasapi.equivalence;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
@@ -10,17 +11,17 @@ import org.atlasapi.entity.ResourceRef;
 import org.atlasapi.entity.ResourceRefSerializer;
 import org.atlasapi.entity.Serializer;
 import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.serialization.protobuf.CommonProtos;
 import org.atlasapi.serialization.protobuf.CommonProtos.Reference;
 import org.atlasapi.serialization.protobuf.EquivProtos;
 import org.atlasapi.serialization.protobuf.EquivProtos.Adjacency;
 import org.atlasapi.serialization.protobuf.EquivProtos.EquivGraph;
+import org.atlasapi.util.ProtoBuffers;
 import org.joda.time.DateTime;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.metabroadcast.common.time.DateTimeZones;
 
 public class EquivalenceGraphSerializer implements Serializer<EquivalenceGraph, ByteBuffer> {
@@ -50,6 +51,30 @@ public class EquivalenceGraphSerializer implements Serializer<EquivalenceGraph,
         return dest;
     }
 
+    /**
+     * Serialize an assertion as the adjacency of its subject, with its
+     * asserted adjacents as efferents. Its sources aren't included.
+     */
+    public ByteBuffer serialize(EquivalenceAssertion assertion) {
+        Adjacency.Builder dest = Adjacency.newBuilder()
+            .setRef(serializer.serialize(assertion.getSubject()))
+            .setCreated(serialize(new DateTime(DateTimeZones.UTC)));
+        for (ResourceRef adjacent : assertion.getAssertedAdjacents()) {
+            dest.addEfferent(serializer.serialize(adjacent));
+        }
+        return ByteBuffer.wrap(dest.build().toByteArray());
+    }
+
+    public EquivalenceAssertion deserializeAssertion(ByteBuffer dest, Set<Publisher> sources) {
+        try {
+            Adjacency adjacency = Adjacency.parseFrom(ProtoBuffers.codedInputStream(dest));
+            return new EquivalenceAssertion(serializer.deserialize(adjacency.getRef()),
+                deserializeRefs(adjacency.getEfferentList()), sources);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private CommonProtos.DateTime.Builder serialize(DateTime dateTime) {
         return CommonProtos.DateTime.newBuilder().setMillis(dateTime.toDateTime(DateTimeZones.UTC).getMillis());
     }
@@ -57,14 +82,40 @@ public class EquivalenceGraphSerializer implements Serializer<EquivalenceGraph,
     @Override
     public EquivalenceGraph deserialize(ByteBuffer dest) {
         try {
-            ByteString bytes = ByteString.copyFrom(dest);
-            EquivGraph buffer = EquivProtos.EquivGraph.parseFrom(bytes);
+            EquivGraph buffer = EquivProtos.EquivGraph.parseFrom(ProtoBuffers.codedInputStream(dest));
             return new EquivalenceGraph(deserialize(buffer.getAdjacencyList()), deserialize(buffer.getUpdated()));
-        } catch (InvalidProtocolBufferException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Deserialize a graph straight to its compact form. Only the reference of
+     * each node is deserialized; adjacents are read as ids.
+     */
+    public CompactEquivalenceGraph deserializeCompact(ByteBuffer dest) {
+        try {
+            EquivGraph buffer = EquivProtos.EquivGraph.parseFrom(ProtoBuffers.codedInputStream(dest));
+            CompactEquivalenceGraph.Builder graph = CompactEquivalenceGraph.builder(deserialize(buffer.getUpdated()));
+            for (Adjacency adjacency : buffer.getAdjacencyList()) {
+                graph.addNode(serializer.deserialize(adjacency.getRef()),
+                    adjacency.getCreated().getMillis(),
+                    ids(adjacency.getEfferentList()), ids(adjacency.getAfferentList()));
+            }
+            return graph.build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long[] ids(List<Reference> refs) {
+        long[] ids = new long[refs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = refs.get(i).getId();
+        }
+        return ids;
+    }
+
     private Map<Id, Adjacents> deserialize(List<Adjacency> src) {
         ImmutableMap.Builder<Id, Adjacents> adjacencyList = ImmutableMap.builder();
         for (Adjacency adjacency : src) {
@@ -2,7 +2,6 @@ package org.atlasapi.schedule;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.batch;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -13,7 +12,6 @@ import static org.atlasapi.util.Column.textColumn;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
@@ -37,6 +35,8 @@ import org.atlasapi.media.channel.Channel;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.serialization.protobuf.ContentProtos;
 import org.atlasapi.util.Column;
+import org.atlasapi.util.PreparedStatements;
+import org.atlasapi.util.ProtoBuffers;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
@@ -44,6 +44,7 @@ import org.joda.time.LocalDate;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
@@ -54,12 +55,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.SetMultimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
 import com.metabroadcast.common.time.Clock;
 
 public final class CassandraEquivalentScheduleStore extends AbstractEquivalentScheduleStore {
@@ -123,13 +122,13 @@ public final class CassandraEquivalentScheduleStore extends AbstractEquivalentSc
         private Equivalent<Item> deserialize(Row row) throws IOException {
             EquivalenceGraph graph = graphSerializer.deserialize(GRAPH.valueFrom(row));
             Long itemCount = CONTENT_COUNT.valueFrom(row);
-            ByteBuffer itemsBytes = CONTENT.valueFrom(row);
-            ByteString sytes = ByteString.copyFrom(itemsBytes);
-            InputStream itemsStream = sytes.newInput();
+            CodedInputStream itemsStream = ProtoBuffers.codedInputStream(CONTENT.valueFrom(row));
             ImmutableSet.Builder<Item> items = ImmutableSet.builder();
             for (int i = 0; i < itemCount; i++) {
-                ContentProtos.Content msg =
-                    ContentProtos.Content.parseDelimitedFrom(itemsStream);
+                int limit = itemsStream.pushLimit(itemsStream.readRawVarint32());
+                ContentProtos.Content msg = ContentProtos.Content.parseFrom(itemsStream);
+                itemsStream.popLimit(limit);
+                itemsStream.resetSizeCounter();
                 Item item = (Item)contentSerializer.deserialize(msg);
                 if (selectedSources.contains(item.getPublisher())) {
                     items.add(item);
@@ -138,8 +137,9 @@ public final class CassandraEquivalentScheduleStore extends AbstractEquivalentSc
             return new Equivalent<Item>(graph, items.build());
         }
 
-        private Broadcast deserialize(ByteBuffer bcastBytes) throws InvalidProtocolBufferException {
-            return broadcastSerializer.deserialize(ContentProtos.Broadcast.parseFrom(ByteString.copyFrom(bcastBytes)));
+        private Broadcast deserialize(ByteBuffer bcastBytes) throws IOException {
+            return broadcastSerializer.deserialize(ContentProtos.Broadcast.parseFrom(
+                    ProtoBuffers.codedInputStream(bcastBytes)));
         }
     }
 
@@ -156,8 +156,12 @@ public final class CassandraEquivalentScheduleStore extends AbstractEquivalentSc
     private static final Column<ByteBuffer> CONTENT = bytesColumn("content");
     private static final Column<Date> SCHEDULE_UPDATE = dateColumn("schedule_update");
     private static final Column<Date> EQUIV_UPDATE = dateColumn("equiv_update");
+
+    private static final String SELECT_DAY = String.format("SELECT * FROM %s WHERE %s = ? AND %s = ? AND %s = ?",
+        EQUIVALENT_SCHEDULE_TABLE, SOURCE.name(), CHANNEL.name(), DAY.name());
     
     private final Session session;
+    private final PreparedStatements statements;
     private final ConsistencyLevel read;
     private final ConsistencyLevel write;
     private final Clock clock;
@@ -171,6 +175,7 @@ public final class CassandraEquivalentScheduleStore extends AbstractEquivalentSc
             ConsistencyLevel write, Clock clock) {
         super(graphStore, contentStore);
         this.session = checkNotNull(session);
+        this.statements = PreparedStatements.forSession(session);
         this.read = checkNotNull(read);
         this.write = checkNotNull(write);
         this.clock = checkNotNull(clock);
@@ -180,27 +185,19 @@ public final class CassandraEquivalentScheduleStore extends AbstractEquivalentSc
     public ListenableFuture<EquivalentSchedule> resolveSchedules(Iterable<Channel> channels,
             final Interval interval, Publisher source, final Set<Publisher> selectedSources) {
         final Set<Channel> chans = ImmutableSet.copyOf(channels);
-        List<Query> selects = selectStatements(source, channels, interval);
-        ListenableFuture<List<ResultSet>> results = Futures.allAsList(Lists.transform(selects, 
-            new Function<Query, ListenableFuture<ResultSet>>(){
-                @Override
-                public ListenableFuture<ResultSet> apply(Query input) {
-                    return session.executeAsync(input.setConsistencyLevel(read));
-                }
-            }
-        ));
+        ListenableFuture<List<ResultSet>> results = Futures.allAsList(selects(source, chans, interval));
         return Futures.transform(results, new ToEquivalentSchedule(chans, interval, selectedSources));
     }
 
-    private List<Query> selectStatements(Publisher src, Iterable<Channel> channels, Interval interval) {
-        ImmutableList.Builder<Query> selects = ImmutableList.builder();
-        Object[] days = daysIn(interval); 
+    // a query per channel-day row, rather than an IN list of days per channel,
+    // so that each can be routed to a replica of its row.
+    private List<ResultSetFuture> selects(Publisher src, Iterable<Channel> channels, Interval interval) {
+        ImmutableList.Builder<ResultSetFuture> selects = ImmutableList.builder();
+        Date[] days = daysIn(interval);
         for (Channel channel : channels) {
-            selects.add(QueryBuilder.select().all()
-                .from(EQUIVALENT_SCHEDULE_TABLE)
-                .where(eq(SOURCE.name(), src.key()))
-                    .and(eq(CHANNEL.name(), channel.getId()))
-                    .and(in(DAY.name(), days)));
+            for (Date day : days) {
+                selects.add(statements.executeAsync(SELECT_DAY, read, src.key(), channel.getId(), day));
+            }
         }
         return selects.build();
     }
@@ -0,0 +1,290 @@
+package org.atlasapi.schedule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.content.Broadcast;
+import org.atlasapi.content.ContentStore;
+import org.atlasapi.content.ItemAndBroadcast;
+import org.atlasapi.entity.util.WriteException;
+import org.atlasapi.media.channel.Channel;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.util.PagedRowReader;
+import org.atlasapi.util.RowMutation;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.base.MorePredicates;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.SystemClock;
+
+/**
+ * A schedule store which reads and writes the same day-long rows as
+ * {@link CassandraScheduleStore} through the native protocol, reading each
+ * day's row with its own paged query and writing each day's row, including
+ * its ids column, as a single prepared unlogged batch.
+ */
+public class DatastaxScheduleStore extends AbstractScheduleStore {
+
+    private static final String UPDATED_COL = "updated";
+    private static final String IDS_COL = "ids";
+
+    private static final String KEY = "key";
+    private static final String COLUMN = "column1";
+    private static final String VALUE = "value";
+    private static final int ROW_PAGE_SIZE = 1000;
+
+    public static final Builder builder(Session session, String name, ContentStore contentStore,
+            MessageSender<ScheduleUpdateMessage> messageSender) {
+        return new Builder(session, name, contentStore, messageSender);
+    }
+
+    public static final class Builder {
+
+        private final Session session;
+        private final String name;
+        private final ContentStore contentStore;
+        private final MessageSender<ScheduleUpdateMessage> messageSender;
+
+        private ConsistencyLevel readCl = ConsistencyLevel.QUORUM;
+        private ConsistencyLevel writeCl = ConsistencyLevel.QUORUM;
+        private Clock clock = new SystemClock();
+
+        public Builder(Session session, String name, ContentStore contentStore,
+                MessageSender<ScheduleUpdateMessage> messageSender) {
+            this.session = checkNotNull(session);
+            this.name = checkNotNull(name);
+            this.contentStore = checkNotNull(contentStore);
+            this.messageSender = checkNotNull(messageSender);
+        }
+
+        public Builder withReadConsistency(ConsistencyLevel readLevel) {
+            this.readCl = checkNotNull(readLevel);
+            return this;
+        }
+
+        public Builder withWriteConsistency(ConsistencyLevel writeLevel) {
+            this.writeCl = checkNotNull(writeLevel);
+            return this;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = checkNotNull(clock);
+            return this;
+        }
+
+        public DatastaxScheduleStore build() {
+            return new DatastaxScheduleStore(session, name, contentStore, messageSender, clock, readCl, writeCl);
+        }
+
+    }
+
+    private final Session session;
+    private final String table;
+    private final Clock clock;
+    private final ConsistencyLevel writeCl;
+    private final PagedRowReader rows;
+
+    private final ItemAndBroadcastSerializer serializer = new ItemAndBroadcastSerializer();
+
+    private DatastaxScheduleStore(Session session, String table, ContentStore contentStore,
+            MessageSender<ScheduleUpdateMessage> messageSender, Clock clock,
+            ConsistencyLevel readCl, ConsistencyLevel writeCl) {
+        super(contentStore, messageSender);
+        this.session = session;
+        this.table = table;
+        this.clock = clock;
+        this.writeCl = writeCl;
+        this.rows = new PagedRowReader(session, table, KEY, COLUMN, VALUE, ROW_PAGE_SIZE, readCl);
+    }
+
+    @Override
+    public ListenableFuture<Schedule> resolve(Iterable<Channel> channels,
+            final Interval interval, Publisher source) {
+        List<Channel> chans = ImmutableList.copyOf(channels);
+        checkNotNull(interval);
+        checkNotNull(source);
+        final Multimap<Channel, String> channelKeys = keys(chans, interval, source);
+        return Futures.transform(scheduleRows(channelKeys.values()),
+            new Function<Map<String, List<ItemAndBroadcast>>, Schedule>() {
+                @Override
+                public Schedule apply(Map<String, List<ItemAndBroadcast>> rows) {
+                    return toSchedule(channelKeys, interval, rows);
+                }
+            });
+    }
+
+    private Multimap<Channel, String> keys(List<Channel> channels, Interval interval, Publisher source) {
+        LinkedHashMultimap<Channel, String> keys = LinkedHashMultimap.create(channels.size(), 2);
+        for (Channel channel : channels) {
+            keys.putAll(channel, rowKeys(channel, interval, source));
+        }
+        return keys;
+    }
+
+    // The rows may have superfluous entries before and/or after the requested
+    // interval so they have to be filtered.
+    private Schedule toSchedule(Multimap<Channel, String> channelKeys, Interval interval,
+            Map<String, List<ItemAndBroadcast>> rows) {
+        ImmutableList.Builder<ChannelSchedule> schedules = ImmutableList.builder();
+        Predicate<ItemAndBroadcast> filter = MorePredicates.transformingPredicate(
+            ItemAndBroadcast.toBroadcast(), Broadcast.intervalFilter(interval));
+        for (Entry<Channel, Collection<String>> channelAndKeys : channelKeys.asMap().entrySet()) {
+            ImmutableSet.Builder<ItemAndBroadcast> entries = ImmutableSet.builder();
+            for (String key : channelAndKeys.getValue()) {
+                entries.addAll(Iterables.filter(rows.get(key), filter));
+            }
+            schedules.add(new ChannelSchedule(channelAndKeys.getKey(), interval, entries.build()));
+        }
+        return new Schedule(schedules.build(), interval);
+    }
+
+    private ListenableFuture<Map<String, List<ItemAndBroadcast>>> scheduleRows(Collection<String> keys) {
+        final List<String> uniqueKeys = ImmutableSet.copyOf(keys).asList();
+        List<ListenableFuture<List<Row>>> resolved = Lists.newArrayListWithCapacity(uniqueKeys.size());
+        for (String key : uniqueKeys) {
+            resolved.add(rows.read(key));
+        }
+        return Futures.transform(Futures.allAsList(resolved),
+            new Function<List<List<Row>>, Map<String, List<ItemAndBroadcast>>>() {
+                @Override
+                public Map<String, List<ItemAndBroadcast>> apply(List<List<Row>> input) {
+                    Map<String, List<ItemAndBroadcast>> entries = Maps.newHashMapWithExpectedSize(input.size());
+                    for (int i = 0; i < input.size(); i++) {
+                        entries.put(uniqueKeys.get(i), deserialize(input.get(i)));
+                    }
+                    return entries;
+                }
+            });
+    }
+
+    private List<ItemAndBroadcast> deserialize(List<Row> row) {
+        Map<String, ByteBuffer> columns = Maps.newHashMap();
+        for (Row column : row) {
+            columns.put(column.getString(COLUMN), column.getBytes(VALUE));
+        }
+        ByteBuffer ids = columns.get(IDS_COL);
+        if (ids == null) {
+            return ImmutableList.of();
+        }
+        List<ItemAndBroadcast> iabs = Lists.newArrayListWithCapacity(columns.size());
+        for (String id : Splitter.on(',').omitEmptyStrings().split(Charsets.UTF_8.decode(ids))) {
+            ByteBuffer entry = columns.get(id);
+            // the ids column may be read without an entry it names
+            if (entry != null) {
+                iabs.add(serializer.deserialize(bytes(entry)));
+            }
+        }
+        return iabs;
+    }
+
+    private byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    protected void doWrite(Publisher source, List<ChannelSchedule> blocks) throws WriteException {
+        List<ListenableFuture<ResultSet>> results = Lists.newArrayList();
+        // the updated time is written as Astyanax serializes dates
+        ByteBuffer updated = ByteBuffer.wrap(Longs.toByteArray(clock.now().getMillis()));
+        for (ChannelSchedule block : blocks) {
+            String key = key(source, block);
+            List<String> ids = Lists.newArrayListWithCapacity(block.getEntries().size());
+            RowMutation row = new RowMutation(table, KEY, COLUMN, VALUE, key);
+            for (ItemAndBroadcast entry : block.getEntries()) {
+                String id = entry.getBroadcast().getSourceId();
+                ids.add(id);
+                row.insert(id, ByteBuffer.wrap(serializer.serialize(entry)));
+            }
+            // the ids column is in the same batch as the entries it names so
+            // it's never read without them
+            ByteBuffer idsValue = Charsets.UTF_8.encode(Joiner.on(',').join(ids));
+            row.insert(IDS_COL, idsValue);
+            row.insert(UPDATED_COL, updated.duplicate());
+            results.add(session.executeAsync(row.bind(session, writeCl)));
+        }
+        int timeout = 1;
+        TimeUnit units = TimeUnit.MINUTES;
+        try {
+            Futures.allAsList(results).get(timeout, units);
+        } catch (Exception e) {
+            throw new WriteException(String.format("failed to write %s blocks in %s %s",
+                blocks.size(), timeout, units), e);
+        }
+    }
+
+    @Override
+    protected List<ChannelSchedule> resolveCurrentScheduleBlocks(Publisher source, Channel channel,
+            Interval interval) throws WriteException {
+        Map<String, List<ItemAndBroadcast>> rows = fetchRows(source, channel, interval);
+        List<ChannelSchedule> channelSchedules = Lists.newArrayList();
+        for (LocalDate date : new ScheduleIntervalDates(interval)) {
+            DateTime start = date.toDateTimeAtStartOfDay(DateTimeZones.UTC);
+            Interval dayInterval = new Interval(start, start.plusDays(1));
+            List<ItemAndBroadcast> entries = rows.get(keyFor(source, channel, date));
+            channelSchedules.add(new ChannelSchedule(channel, dayInterval, entries));
+        }
+        return channelSchedules;
+    }
+
+    private Map<String, List<ItemAndBroadcast>> fetchRows(Publisher source, Channel channel,
+            Interval interval) throws WriteException {
+        List<String> keys = ImmutableList.copyOf(rowKeys(channel, interval, source));
+        int timeout = 1;
+        TimeUnit units = TimeUnit.MINUTES;
+        try {
+            return scheduleRows(keys).get(timeout, units);
+        } catch (Exception e) {
+            String msg = String.format("failed to read %s in %s %s", keys, timeout, units);
+            throw new WriteException(msg, e);
+        }
+    }
+
+    private String key(Publisher source, ChannelSchedule block) {
+        return keyFor(source, block.getChannel(), block.getInterval().getStart().toLocalDate());
+    }
+
+    private String keyFor(Publisher source, Channel channel, LocalDate day) {
+        return String.format("%s-%s-%s", source.key(), channel.getId(), day.toString());
+    }
+
+    private Iterable<String> rowKeys(final Channel channel, Interval interval, final Publisher source) {
+        return Iterables.transform(new ScheduleIntervalDates(interval), new Function<LocalDate, String>() {
+            @Override
+            public String apply(LocalDate input) {
+                return keyFor(source, channel, input);
+            }
+        });
+    }
+
+}
@@ -10,6 +10,7 @@ import javax.annotation.Nullable;
 
 import org.atlasapi.content.CassandraPersistenceException;
 import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.AliasBloomFilter;
 import org.atlasapi.entity.AliasIndex;
 import org.atlasapi.entity.Id;
 import org.atlasapi.entity.util.Resolved;
@@ -69,6 +70,7 @@ public class CassandraTopicStore extends AbstractTopicStore {
         private ConsistencyLevel readCl = ConsistencyLevel.CL_QUORUM;
         private ConsistencyLevel writeCl = ConsistencyLevel.CL_QUORUM;
         private Clock clock = new SystemClock();
+        private AliasIndex.KeyFormat aliasKeyFormat = AliasIndex.KeyFormat.LEGACY;
 
         public Builder(AstyanaxContext<Keyspace> context, String name,
             Equivalence<? super Topic> equivalence, MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
@@ -94,9 +96,14 @@ public class CassandraTopicStore extends AbstractTopicStore {
             return this;
         }
         
+        public Builder withAliasKeyFormat(AliasIndex.KeyFormat aliasKeyFormat) {
+            this.aliasKeyFormat = aliasKeyFormat;
+            return this;
+        }
+        
         public CassandraTopicStore build() {
             return new CassandraTopicStore(context, name, readCl, writeCl, 
-                equivalence, idGenerator, sender, clock);
+                equivalence, idGenerator, sender, clock, aliasKeyFormat);
         }
         
     }
@@ -131,14 +138,16 @@ public class CassandraTopicStore extends AbstractTopicStore {
 
     public CassandraTopicStore(AstyanaxContext<Keyspace> context, String cfName,
         ConsistencyLevel readCl, ConsistencyLevel writeCl, Equivalence<? super Topic> equivalence,
-        IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock) {
+        IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock,
+        AliasIndex.KeyFormat aliasKeyFormat) {
         super(idGenerator, equivalence, sender, clock);
         this.keyspace = checkNotNull(context.getClient());
         this.readConsistency = checkNotNull(readCl);
         this.writeConsistency = checkNotNull(writeCl);
         this.mainCf = ColumnFamily.newColumnFamily(checkNotNull(cfName),
             LongSerializer.get(), StringSerializer.get());
-        this.aliasIndex = AliasIndex.create(keyspace, cfName+"_aliases");
+        this.aliasIndex = AliasIndex.create(keyspace, cfName+"_aliases", 
+            checkNotNull(aliasKeyFormat), Optional.<AliasBloomFilter>absent());
     }
 
     @Override
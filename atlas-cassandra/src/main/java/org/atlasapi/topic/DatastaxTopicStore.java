@@ -0,0 +1,248 @@
+package org.atlasapi.topic;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.content.CassandraPersistenceException;
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.AliasIndex;
+import org.atlasapi.entity.DatastaxAliasIndex;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.util.Resolved;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.ResourceUpdatedMessage;
+import org.atlasapi.util.PreparedStatements;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Equivalence;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.collect.ImmutableOptionalMap;
+import com.metabroadcast.common.collect.OptionalMap;
+import com.metabroadcast.common.ids.IdGenerator;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+
+/**
+ * A topic store which reads and writes the same rows as
+ * {@link CassandraTopicStore} through the native protocol with statements
+ * prepared through the session's {@link PreparedStatements}, a query per topic.
+ */
+public class DatastaxTopicStore extends AbstractTopicStore {
+
+    private static final String KEY = "key";
+    private static final String COLUMN = "column1";
+    private static final String VALUE = "value";
+    private static final String VALUE_COLUMN = "topic";
+
+    public static final Builder builder(Session session, String name,
+            Equivalence<? super Topic> equivalence, MessageSender<ResourceUpdatedMessage> sender,
+            IdGenerator idGenerator) {
+        return new Builder(session, name, equivalence, sender, idGenerator);
+    }
+
+    public static final class Builder {
+
+        private final Session session;
+        private final String name;
+        private final Equivalence<? super Topic> equivalence;
+        private final IdGenerator idGenerator;
+        private final MessageSender<ResourceUpdatedMessage> sender;
+
+        private ConsistencyLevel readCl = ConsistencyLevel.QUORUM;
+        private ConsistencyLevel writeCl = ConsistencyLevel.QUORUM;
+        private Clock clock = new SystemClock();
+        private AliasIndex.KeyFormat aliasKeyFormat = AliasIndex.KeyFormat.LEGACY;
+
+        public Builder(Session session, String name, Equivalence<? super Topic> equivalence,
+                MessageSender<ResourceUpdatedMessage> sender, IdGenerator idGenerator) {
+            this.session = session;
+            this.name = name;
+            this.equivalence = equivalence;
+            this.sender = sender;
+            this.idGenerator = idGenerator;
+        }
+
+        public Builder withReadConsistency(ConsistencyLevel readCl) {
+            this.readCl = readCl;
+            return this;
+        }
+
+        public Builder withWriteConsistency(ConsistencyLevel writeCl) {
+            this.writeCl = writeCl;
+            return this;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder withAliasKeyFormat(AliasIndex.KeyFormat aliasKeyFormat) {
+            this.aliasKeyFormat = aliasKeyFormat;
+            return this;
+        }
+
+        public DatastaxTopicStore build() {
+            return new DatastaxTopicStore(session, name, readCl, writeCl,
+                equivalence, idGenerator, sender, clock, aliasKeyFormat);
+        }
+
+    }
+
+    private final Session session;
+    private final DatastaxAliasIndex<Topic> aliasIndex;
+    private final PreparedStatements statements;
+    private final ConsistencyLevel readCl;
+    private final ConsistencyLevel writeCl;
+    private final String select;
+    private final String insert;
+
+    private final TopicSerializer topicSerializer = new TopicSerializer();
+    private final Function<List<ResultSet>, Resolved<Topic>> toResolved =
+        new Function<List<ResultSet>, Resolved<Topic>>() {
+            @Override
+            public Resolved<Topic> apply(List<ResultSet> rows) {
+                return Resolved.valueOf(toTopics(rows));
+            }
+        };
+
+    public DatastaxTopicStore(Session session, String table, ConsistencyLevel readCl,
+            ConsistencyLevel writeCl, Equivalence<? super Topic> equivalence,
+            IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock,
+            AliasIndex.KeyFormat aliasKeyFormat) {
+        super(idGenerator, equivalence, sender, clock);
+        this.session = checkNotNull(session);
+        checkNotNull(table);
+        this.aliasIndex = new DatastaxAliasIndex<Topic>(session, table + "_aliases",
+            checkNotNull(aliasKeyFormat), readCl, writeCl);
+        this.statements = PreparedStatements.forSession(session);
+        this.readCl = checkNotNull(readCl);
+        this.writeCl = checkNotNull(writeCl);
+        this.select = String.format("SELECT %s FROM %s WHERE %s = ? AND %s = '%s'",
+            VALUE, table, KEY, COLUMN, VALUE_COLUMN);
+        this.insert = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, '%s', ?)",
+            table, KEY, COLUMN, VALUE, VALUE_COLUMN);
+    }
+
+    @Override
+    public ListenableFuture<Resolved<Topic>> resolveIds(Iterable<Id> ids) {
+        return Futures.transform(resolveLongs(Iterables.transform(ids, Id.toLongValue())), toResolved);
+    }
+
+    private ListenableFuture<List<ResultSet>> resolveLongs(Iterable<Long> longIds) {
+        Set<Long> uniqueIds = ImmutableSet.copyOf(longIds);
+        List<ListenableFuture<ResultSet>> rows = Lists.newArrayListWithCapacity(uniqueIds.size());
+        for (Long id : uniqueIds) {
+            rows.add(statements.executeAsync(select, readCl, id));
+        }
+        return Futures.allAsList(rows);
+    }
+
+    private List<Topic> toTopics(List<ResultSet> rows) {
+        ImmutableList.Builder<Topic> topics = ImmutableList.builder();
+        for (ResultSet row : rows) {
+            Topic topic = toTopic(row.one());
+            if (topic != null) {
+                topics.add(topic);
+            }
+        }
+        return topics.build();
+    }
+
+    private @Nullable Topic toTopic(@Nullable Row row) {
+        if (row == null) {
+            return null;
+        }
+        ByteBuffer value = row.getBytes(VALUE);
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        return topicSerializer.deserialize(bytes);
+    }
+
+    @Override
+    public OptionalMap<Alias, Topic> resolveAliases(Iterable<Alias> aliases, Publisher source) {
+        try {
+            Set<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
+            Map<Alias, Long> ids = aliasIndex.readAliasIds(source, uniqueAliases).get(1, TimeUnit.MINUTES);
+            // TODO: move timeout to config
+            List<Topic> topics = toTopics(resolveLongs(ids.values()).get(1, TimeUnit.MINUTES));
+            ImmutableMap.Builder<Alias, Optional<Topic>> aliasMap = ImmutableMap.builder();
+            for (Topic topic : topics) {
+                for (Alias alias : topic.getAliases()) {
+                    if (uniqueAliases.contains(alias)) {
+                        aliasMap.put(alias, Optional.of(topic));
+                    }
+                }
+            }
+            return ImmutableOptionalMap.copyOf(aliasMap.build());
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    protected void doWrite(Topic topic, @Nullable Topic previous) {
+        checkArgument(previous == null || topic.getPublisher().equals(previous.getPublisher()));
+        try {
+            long id = topic.getId().longValue();
+            List<Query> mutations = Lists.newArrayList();
+            mutations.add(statements.bind(insert, writeCl, id, ByteBuffer.wrap(topicSerializer.serialize(topic))));
+            mutations.addAll(aliasIndex.mutateAliases(topic, previous));
+            List<ListenableFuture<ResultSet>> results = Lists.newArrayListWithCapacity(mutations.size());
+            for (Query mutation : mutations) {
+                results.add(session.executeAsync(mutation));
+            }
+            Futures.getUnchecked(Futures.allAsList(results));
+        } catch (Exception e) {
+            throw new CassandraPersistenceException(topic.toString(), e);
+        }
+    }
+
+    @Override
+    @Nullable
+    protected Topic resolvePrevious(@Nullable Id id, Publisher source, Set<Alias> aliases) {
+        Topic previous = null;
+        if (id != null) {
+            previous = resolve(id.longValue());
+        }
+        if (previous == null) {
+            try {
+                Map<Alias, Long> ids = aliasIndex.readAliasIds(source, aliases).get(1, TimeUnit.MINUTES);
+                Long aliasId = Iterables.getFirst(ids.values(), null);
+                if (aliasId != null) {
+                    previous = resolve(aliasId);
+                }
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return previous;
+    }
+
+    private Topic resolve(long longId) {
+        return toTopic(session.execute(statements.bind(select, readCl, longId)).one());
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.atlasapi.util;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * <p>
+ * How a read of many partitions of a table, by partition key, is sent to the
+ * cluster.
+ * </p>
+ *
+ * <p>
+ * {@link #inQuery()} sends one query with an <code>IN</code> list of all the
+ * keys. Its coordinator fans the read out to the replicas of every partition
+ * and holds the whole result before replying.
+ * </p>
+ *
+ * <p>
+ * {@link #perPartition(int)} sends a prepared query per key, each routed to a
+ * replica of its partition, keeping at most a given number in flight. A slow
+ * partition then only delays its own result, and the coordination is spread
+ * across the cluster.
+ * </p>
+ */
+public final class FanOut {
+
+    public enum Mode {
+        IN_QUERY,
+        PER_PARTITION
+    }
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    private static final FanOut IN_QUERY = new FanOut(Mode.IN_QUERY, Integer.MAX_VALUE);
+
+    public static FanOut inQuery() {
+        return IN_QUERY;
+    }
+
+    public static FanOut perPartition() {
+        return perPartition(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public static FanOut perPartition(int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        return new FanOut(Mode.PER_PARTITION, maxInFlight);
+    }
+
+    /**
+     * @return a per-partition fan-out bounded by maxInFlight if perPartition
+     *         is set, otherwise an <code>IN</code> query.
+     */
+    public static FanOut valueOf(boolean perPartition, int maxInFlight) {
+        return perPartition ? perPartition(maxInFlight) : inQuery();
+    }
+
+    private final Mode mode;
+    private final int maxInFlight;
+
+    private FanOut(Mode mode, int maxInFlight) {
+        this.mode = mode;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Select the given columns, or all columns if none are given, of the
+     * partitions of a table with the given keys.
+     *
+     * @return the results, a single one for {@link Mode#IN_QUERY}, otherwise
+     *         one per distinct key in the keys' iteration order.
+     */
+    public ListenableFuture<List<ResultSet>> select(Session session, ConsistencyLevel level,
+            String table, String keyColumn, Iterable<?> keys, String... columns) {
+        ImmutableList<?> uniqueKeys = ImmutableSet.copyOf(keys).asList();
+        if (uniqueKeys.isEmpty()) {
+            return Futures.<List<ResultSet>>immediateFuture(ImmutableList.<ResultSet>of());
+        }
+        if (mode == Mode.IN_QUERY) {
+            return inQuery(session, level, table, keyColumn, uniqueKeys, columns);
+        }
+        PreparedStatement statement = PreparedStatements.forSession(session)
+            .prepare(String.format("SELECT %s FROM %s WHERE %s = ?",
+                columns.length == 0 ? "*" : Joiner.on(", ").join(columns), table, keyColumn));
+        return new PartitionReads(session, statement, level, uniqueKeys).start();
+    }
+
+    private ListenableFuture<List<ResultSet>> inQuery(Session session, ConsistencyLevel level,
+            String table, String keyColumn, List<?> keys, String... columns) {
+        Select.Builder select = columns.length == 0 ? QueryBuilder.select().all()
+                                                    : QueryBuilder.select(columns);
+        Query query = select.from(table)
+            .where(in(keyColumn, keys.toArray()))
+            .setConsistencyLevel(level);
+        return Futures.allAsList(ImmutableList.of(session.executeAsync(query)));
+    }
+
+    private final class PartitionReads {
+
+        private final Session session;
+        private final PreparedStatement statement;
+        private final ConsistencyLevel level;
+        private final List<?> keys;
+        private final List<SettableFuture<ResultSet>> results;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private PartitionReads(Session session, PreparedStatement statement,
+                ConsistencyLevel level, List<?> keys) {
+            this.session = session;
+            this.statement = statement;
+            this.level = level;
+            this.keys = keys;
+            ImmutableList.Builder<SettableFuture<ResultSet>> results = ImmutableList.builder();
+            for (int i = 0; i < keys.size(); i++) {
+                results.add(SettableFuture.<ResultSet>create());
+            }
+            this.results = results.build();
+        }
+
+        public ListenableFuture<List<ResultSet>> start() {
+            for (int i = 0; i < Math.min(maxInFlight, keys.size()); i++) {
+                readNext();
+            }
+            return Futures.allAsList(results);
+        }
+
+        // each completed read starts the next, so no more than maxInFlight
+        // are ever outstanding.
+        private void readNext() {
+            final int i = next.getAndIncrement();
+            if (i >= keys.size() || failed.get()) {
+                return;
+            }
+            Query query = statement.bind(keys.get(i)).setConsistencyLevel(level);
+            Futures.addCallback(session.executeAsync(query), new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    results.get(i).set(result);
+                    readNext();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed.set(true);
+                    results.get(i).setException(t);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.IN_QUERY ? "FanOut[IN]"
+                                     : String.format("FanOut[%s in flight]", maxInFlight);
+    }
+
+}
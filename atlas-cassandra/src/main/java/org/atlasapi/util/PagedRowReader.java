@@ -0,0 +1,90 @@
+package org.atlasapi.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * <p>
+ * Reads every column of a compact storage row, keyed by a partition key with
+ * a text clustering column, in pages of a fixed number of columns. The 1.0
+ * driver doesn't page results, so without this a wide row is read in a single
+ * response.
+ * </p>
+ *
+ * <p>
+ * Each page is a clustering range starting after the last column of the
+ * previous page, requested asynchronously once the previous page arrives.
+ * </p>
+ */
+public final class PagedRowReader {
+
+    private final Session session;
+    private final String column;
+    private final int pageSize;
+    private final PreparedStatement firstPage;
+    private final PreparedStatement nextPage;
+
+    /**
+     * @param key
+     *            - the name of the partition key.
+     * @param column
+     *            - the name of the text clustering column.
+     * @param value
+     *            - the name of the value column.
+     */
+    public PagedRowReader(Session session, String table, String key, String column, String value,
+            int pageSize, ConsistencyLevel consistency) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        this.session = checkNotNull(session);
+        this.column = checkNotNull(column);
+        this.pageSize = pageSize;
+        // the driver doesn't bind limits so the page size is fixed here
+        String select = String.format("SELECT %s, %s FROM %s WHERE %s = ?", column, value, table, key);
+        this.firstPage = session.prepare(select + " LIMIT " + pageSize)
+            .setConsistencyLevel(consistency);
+        this.nextPage = session.prepare(select + String.format(" AND %s > ? LIMIT %s", column, pageSize))
+            .setConsistencyLevel(consistency);
+    }
+
+    /**
+     * @return every column of the row with the given key, in column order,
+     *         or an empty list if there's no such row.
+     */
+    public ListenableFuture<List<Row>> read(Object key) {
+        return readPages(key, firstPage.bind(key), ImmutableList.<Row>builder());
+    }
+
+    private ListenableFuture<List<Row>> readPages(final Object key, Query page,
+            final ImmutableList.Builder<Row> rows) {
+        return Futures.transform(session.executeAsync(page), new AsyncFunction<ResultSet, List<Row>>() {
+            @Override
+            public ListenableFuture<List<Row>> apply(ResultSet input) {
+                int read = 0;
+                Row last = null;
+                for (Row row : input) {
+                    rows.add(row);
+                    last = row;
+                    read++;
+                }
+                if (read < pageSize) {
+                    return Futures.<List<Row>>immediateFuture(rows.build());
+                }
+                return readPages(key, nextPage.bind(key, last.getString(column)), rows);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.atlasapi.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ExecutionException;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * <p>
+ * A registry of the statements prepared on a {@link Session}, so each CQL
+ * string is prepared once however many stores use it.
+ * </p>
+ *
+ * <p>
+ * Statements should have bind markers for all of their values. Since a
+ * {@link PreparedStatement} is shared, the consistency level is set on each
+ * {@link BoundStatement} rather than on the prepared statement.
+ * </p>
+ */
+public final class PreparedStatements {
+
+    private static final LoadingCache<Session, PreparedStatements> registries = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<Session, PreparedStatements>() {
+            @Override
+            public PreparedStatements load(Session session) {
+                return new PreparedStatements(session);
+            }
+        });
+
+    public static PreparedStatements forSession(Session session) {
+        return registries.getUnchecked(checkNotNull(session));
+    }
+
+    private final Session session;
+    private final LoadingCache<String, PreparedStatement> statements;
+
+    private PreparedStatements(final Session session) {
+        this.session = session;
+        this.statements = CacheBuilder.newBuilder()
+            .build(new CacheLoader<String, PreparedStatement>() {
+                @Override
+                public PreparedStatement load(String cql) {
+                    return session.prepare(cql);
+                }
+            });
+    }
+
+    public PreparedStatement prepare(String cql) {
+        try {
+            return statements.get(checkNotNull(cql));
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    public BoundStatement bind(String cql, ConsistencyLevel level, Object... values) {
+        BoundStatement bound = prepare(cql).bind(values);
+        bound.setConsistencyLevel(checkNotNull(level));
+        return bound;
+    }
+
+    public ResultSetFuture executeAsync(String cql, ConsistencyLevel level, Object... values) {
+        return session.executeAsync(bind(cql, level, values));
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.atlasapi.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Helpers for reading protocol buffer messages directly from the
+ * {@link ByteBuffer}s returned by the Cassandra drivers, rather than copying
+ * them into a {@code byte[]} or {@link com.google.protobuf.ByteString} first.
+ */
+public final class ProtoBuffers {
+
+    private ProtoBuffers() {}
+
+    /**
+     * Create a {@link CodedInputStream} reading the remaining bytes of the
+     * buffer. Heap buffers are read in place from their backing array. The
+     * position of the given buffer is not changed.
+     */
+    public static CodedInputStream codedInputStream(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return CodedInputStream.newInstance(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return CodedInputStream.newInstance(new ByteBufferInputStream(buffer.duplicate()));
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.atlasapi.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * The columns written to, and deleted from, one row of a compact storage
+ * table, keyed by a partition key with a text clustering column, bound to a
+ * single prepared unlogged batch.
+ * </p>
+ *
+ * <p>
+ * The 1.0 driver can't batch bound statements, so the batch itself is
+ * prepared, once per number of inserts and deletes, through the session's
+ * {@link PreparedStatements}. The batch writes a single partition, which is
+ * applied atomically and in isolation, so it needn't be logged.
+ * </p>
+ */
+public final class RowMutation {
+
+    private final String table;
+    private final String key;
+    private final String column;
+    private final String value;
+    private final Object rowKey;
+
+    private final List<Object> inserts = Lists.newArrayList();
+    private final List<Object> deletes = Lists.newArrayList();
+
+    /**
+     * @param key
+     *            - the name of the partition key.
+     * @param column
+     *            - the name of the text clustering column.
+     * @param value
+     *            - the name of the value column.
+     * @param rowKey
+     *            - the key of the row mutated.
+     */
+    public RowMutation(String table, String key, String column, String value, Object rowKey) {
+        this.table = checkNotNull(table);
+        this.key = checkNotNull(key);
+        this.column = checkNotNull(column);
+        this.value = checkNotNull(value);
+        this.rowKey = checkNotNull(rowKey);
+    }
+
+    public RowMutation insert(String name, ByteBuffer columnValue) {
+        inserts.add(rowKey);
+        inserts.add(checkNotNull(name));
+        inserts.add(checkNotNull(columnValue));
+        return this;
+    }
+
+    public RowMutation delete(String name) {
+        deletes.add(rowKey);
+        deletes.add(checkNotNull(name));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return inserts.isEmpty() && deletes.isEmpty();
+    }
+
+    public BoundStatement bind(Session session, ConsistencyLevel level) {
+        StringBuilder cql = new StringBuilder("BEGIN UNLOGGED BATCH ");
+        String insert = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?); ",
+            table, key, column, value);
+        for (int i = 0; i < inserts.size() / 3; i++) {
+            cql.append(insert);
+        }
+        String delete = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?; ", table, key, column);
+        for (int i = 0; i < deletes.size() / 2; i++) {
+            cql.append(delete);
+        }
+        cql.append("APPLY BATCH");
+        return PreparedStatements.forSession(session).bind(cql.toString(), level,
+            Iterables.toArray(Iterables.concat(inserts, deletes), Object.class));
+    }
+
+}
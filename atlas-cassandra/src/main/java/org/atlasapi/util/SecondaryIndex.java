@@ -1,15 +1,12 @@
 package org.atlasapi.util;
 
-import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import com.datastax.driver.core.ConsistencyLevel;
-import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
@@ -35,13 +32,14 @@ public class SecondaryIndex {
     private final Session session;
     private final String indexTable;
     private final ConsistencyLevel readConsistency;
+    private final FanOut fanOut;
 
-    private final Function<ResultSet, ImmutableMap<Long, Long>> toMap
-        = new Function<ResultSet, ImmutableMap<Long, Long>>() {
+    private final Function<List<ResultSet>, ImmutableMap<Long, Long>> toMap
+        = new Function<List<ResultSet>, ImmutableMap<Long, Long>>() {
             @Override
-            public ImmutableMap<Long, Long> apply(ResultSet rows) {
+            public ImmutableMap<Long, Long> apply(List<ResultSet> rows) {
                 Builder<Long, Long> index = ImmutableMap.builder();
-                for (Row row : rows) {
+                for (Row row : Iterables.concat(rows)) {
                     index.put(row.getLong(KEY_KEY), row.getLong(VALUE_KEY));
                 }
                 return index.build();
@@ -49,9 +47,14 @@ public class SecondaryIndex {
         };
 
     public SecondaryIndex(Session session, String table, ConsistencyLevel read) {
+        this(session, table, read, FanOut.perPartition());
+    }
+
+    public SecondaryIndex(Session session, String table, ConsistencyLevel read, FanOut fanOut) {
         this.session = checkNotNull(session);
         this.indexTable = checkNotNull(table);
         this.readConsistency = checkNotNull(read);
+        this.fanOut = checkNotNull(fanOut);
     }
 
     public Statement insertStatement(Long key, Long value) {
@@ -69,18 +72,11 @@ public class SecondaryIndex {
     }
 
     public ListenableFuture<ImmutableMap<Long, Long>> lookup(Iterable<Long> keys) {
-        return Futures.transform(session.executeAsync(queryFor(keys, readConsistency)), toMap);
+        return lookup(keys, readConsistency);
     }
 
     public ListenableFuture<ImmutableMap<Long, Long>> lookup(Iterable<Long> keys, ConsistencyLevel level) {
-        return Futures.transform(session.executeAsync(queryFor(keys, level)), toMap);
-    }
-
-    private Query queryFor(Iterable<Long> keys, ConsistencyLevel level) {
-        return select(KEY_KEY, VALUE_KEY)
-                .from(indexTable)
-                .where(in(KEY_KEY, Iterables.toArray(keys, Object.class)))
-                .setConsistencyLevel(level);
+        return Futures.transform(fanOut.select(session, level, indexTable, KEY_KEY, keys, KEY_KEY, VALUE_KEY), toMap);
     }
 
 }
@@ -6,12 +6,14 @@ import static org.hamcrest.Matchers.isA;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -42,6 +44,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.OptionalMap;
 import com.metabroadcast.common.ids.IdGenerator;
@@ -149,7 +152,7 @@ public class CassandraContentStoreIT {
         writeResult = store.writeContent(writeResult.getResource());
         assertFalse(writeResult.written());
         
-        verify(hasher, times(2)).hash(argThat(isA(Content.class)));
+        verify(hasher, times(3)).hash(argThat(isA(Content.class)));
         verify(idGenerator, times(1)).generateRaw();
         verify(clock, times(1)).now();
         
@@ -188,7 +191,7 @@ public class CassandraContentStoreIT {
         writeResult = store.writeContent(writeResult.getResource());
         assertTrue(writeResult.written());
         
-        verify(hasher, times(2)).hash(argThat(isA(Content.class)));
+        verify(hasher, times(3)).hash(argThat(isA(Content.class)));
         verify(idGenerator, times(1)).generateRaw();
         verify(clock, times(2)).now();
         
@@ -199,9 +202,58 @@ public class CassandraContentStoreIT {
         assertThat(item.getFirstSeen(), is(now));
         assertThat(item.getLastUpdated(), is(next));
         assertThat(item.getThisOrChildLastUpdated(), is(next));
-        
+
     }
-    
+
+    @Test
+    public void testPersistedHashIsComparedInsteadOfHashingPrevious() throws Exception {
+        Content content = create(new Item());
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+
+        WriteResult<Content, Content> writeResult = store.writeContent(content);
+        assertTrue(writeResult.written());
+
+        when(hasher.hash(argThat(isA(Content.class))))
+            .thenReturn("one")
+            .thenReturn("two");
+
+        writeResult = store.writeContent(writeResult.getResource());
+        assertTrue(writeResult.written());
+
+        when(hasher.hash(argThat(isA(Content.class)))).thenReturn("one");
+
+        writeResult = store.writeContent(writeResult.getResource());
+        assertFalse(writeResult.written());
+        assertThat(writeResult.getPrevious().get().getId(), is(Id.valueOf(1234L)));
+
+        verify(hasher, times(4)).hash(argThat(isA(Content.class)));
+    }
+
+    @Test
+    public void testUnchangedBrandReturnsChildRefsWithoutBeingRead() throws Exception {
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L);
+        when(hasher.hash(argThat(isA(Content.class)))).thenReturn("same");
+
+        Brand brand = create(new Brand());
+        WriteResult<Brand, Content> brandWriteResult = store.writeContent(brand);
+        Item item = create(new Item());
+        item.setContainer(brandWriteResult.getResource());
+        store.writeContent(item);
+
+        brandWriteResult = store.writeContent(brandWriteResult.getResource());
+        assertFalse(brandWriteResult.written());
+        assertThat(brandWriteResult.getResource().getItemRefs().size(), is(1));
+        assertThat(brandWriteResult.getPrevious().get().getId(), is(Id.valueOf(1234L)));
+
+        // the previous brand's persisted hash is compared, so it isn't hashed
+        verify(hasher, times(3)).hash(argThat(isA(Content.class)));
+    }
+
     @Test
     public void testResolvesExistingContentByAlias() throws Exception {
 
@@ -238,7 +290,47 @@ public class CassandraContentStoreIT {
         
         verify(clock, times(3)).now();
         verify(idGenerator, times(2)).generateRaw();
-        verify(hasher, times(2)).hash(argThat(isA(Content.class)));
+        verify(hasher, times(3)).hash(argThat(isA(Content.class)));
+    }
+
+    @Test
+    public void testAsyncWriteOfItemIntoBrand() throws Exception {
+        
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L);
+        
+        Brand brand = store.writeContentAsync(create(new Brand()))
+                .get(1, TimeUnit.SECONDS).getResource();
+        
+        Item item = create(new Item());
+        item.setContainer(brand);
+        WriteResult<Item, Content> writeResult = store.writeContentAsync(item)
+                .get(1, TimeUnit.SECONDS);
+        assertTrue(writeResult.written());
+        assertThat(writeResult.getResource().getContainerSummary().getTitle(), is("Brand"));
+        
+        verify(sender, times(2)).sendMessage(argThat(isA(ResourceUpdatedMessage.class)));
+        
+        Brand resolvedBrand = (Brand) resolve(1234L);
+        assertThat(Iterables.getOnlyElement(resolvedBrand.getItemRefs()).getId().longValue(), is(1235L));
+        
+    }
+    
+    @Test
+    public void testAsyncWriteOfItemWithMissingBrandFails() throws Exception {
+        Item item = create(new Item());
+        item.setContainerRef(new BrandRef(Id.valueOf(1235), item.getPublisher()));
+        
+        try {
+            store.writeContentAsync(item).get(1, TimeUnit.SECONDS);
+            fail("expected write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WriteException);
+        }
+        
+        verify(idGenerator, never()).generateRaw();
     }
 
     @Test(expected=WriteException.class)
@@ -584,6 +676,39 @@ public class CassandraContentStoreIT {
         
     }
     
+    @Test
+    public void testResolvingByAliasAcrossSources() throws Exception {
+        
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        
+        Brand bbcBrand = create(new Brand());
+        Alias sharedAlias = new Alias("shared", "alias");
+        Alias bbcAlias = new Alias("bbc", "alias");
+        bbcBrand.addAlias(sharedAlias);
+        bbcBrand.addAlias(bbcAlias);
+        
+        Brand c4Brand = create(new Brand());
+        c4Brand.setPublisher(Publisher.C4);
+        c4Brand.addAlias(sharedAlias);
+        
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+        store.writeContent(bbcBrand);
+        
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw()).thenReturn(1235L);
+        store.writeContent(c4Brand);
+        
+        Table<Alias, Publisher, Content> resolved = store.resolveAliases(
+            ImmutableSet.of(sharedAlias, bbcAlias), ImmutableSet.of(Publisher.BBC, Publisher.C4, Publisher.PA));
+        
+        assertThat(resolved.size(), is(3));
+        assertThat(resolved.get(sharedAlias, Publisher.BBC).getId(), is(Id.valueOf(1234L)));
+        assertThat(resolved.get(sharedAlias, Publisher.C4).getId(), is(Id.valueOf(1235L)));
+        assertThat(resolved.get(bbcAlias, Publisher.BBC).getId(), is(Id.valueOf(1234L)));
+        
+    }
+    
     @Test
     public void testResolvingMissingContentReturnsEmptyResolved() throws Exception {
         
@@ -654,6 +779,87 @@ public class CassandraContentStoreIT {
         verify(idGenerator, times(1)).generateRaw();
     }
 
+    @Test
+    public void testWritingContentsInABatch() throws Exception {
+        
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L)
+            .thenReturn(1236L);
+        
+        Brand brand = create(new Brand());
+        brand.addAlias(new Alias("brand", "alias"));
+        store.writeContent(brand);
+        
+        Item item1 = create(new Item());
+        item1.setContainer(brand);
+        Item item2 = create(new Item());
+        item2.setContainer(brand);
+        
+        List<WriteResult<? extends Content, Content>> results
+            = store.writeContents(ImmutableList.of(item1, item2));
+        
+        assertThat(results.size(), is(2));
+        assertTrue(results.get(0).written());
+        assertTrue(results.get(1).written());
+        verify(sender, times(3)).sendMessage(argThat(isA(ResourceUpdatedMessage.class)));
+        
+        Item resolvedItem = (Item) resolve(1235L);
+        assertThat(resolvedItem.getContainerRef().getId().longValue(), is(1234L));
+        assertThat(resolvedItem.getContainerSummary().getTitle(), is("Brand"));
+        
+        Brand resolvedBrand = (Brand) resolve(1234L);
+        assertThat(resolvedBrand.getItemRefs().size(), is(2));
+        
+        when(hasher.hash(argThat(isA(Content.class)))).thenReturn("same");
+        Brand rewrite = create(new Brand());
+        rewrite.addAlias(new Alias("brand", "alias"));
+        results = store.writeContents(ImmutableList.of(rewrite, item1));
+        
+        assertFalse(results.get(0).written());
+        assertThat(results.get(0).getPrevious().get().getId().longValue(), is(1234L));
+        assertFalse(results.get(1).written());
+        verify(idGenerator, times(3)).generateRaw();
+    }
+
+    @Test
+    public void testResolvesChildRefsInPages() throws Exception {
+        
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L)
+            .thenReturn(1236L)
+            .thenReturn(1237L);
+        
+        Brand brand = store.writeContent(create(new Brand())).getResource();
+        
+        Series series = create(new Series());
+        series.setBrand(brand);
+        store.writeContent(series);
+        
+        for (int i = 0; i < 2; i++) {
+            Item item = create(new Item());
+            item.setContainer(brand);
+            store.writeContent(item);
+        }
+        
+        ChildRefPage first = store.resolveChildRefs(Id.valueOf(1234), null, 2)
+                .get(1, TimeUnit.SECONDS);
+        assertThat(Iterables.getOnlyElement(first.getSeriesRefs()).getId().longValue(), is(1235L));
+        assertThat(Iterables.getOnlyElement(first.getItemRefs()).getId().longValue(), is(1236L));
+        assertTrue(first.getNextCursor().isPresent());
+        
+        ChildRefPage second = store.resolveChildRefs(Id.valueOf(1234), first.getNextCursor().get(), 2)
+                .get(1, TimeUnit.SECONDS);
+        assertThat(second.getSeriesRefs(), is(empty()));
+        assertThat(Iterables.getOnlyElement(second.getItemRefs()).getId().longValue(), is(1237L));
+        assertFalse(second.getNextCursor().isPresent());
+        
+    }
+    
     private <T extends Content> T create(T content) {
         content.setPublisher(Publisher.BBC);
         content.setTitle(content.getClass().getSimpleName());
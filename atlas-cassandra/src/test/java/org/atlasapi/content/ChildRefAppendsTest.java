@@ -0,0 +1,61 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.atlasapi.entity.Id;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class ChildRefAppendsTest {
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final BrandRef brand = new BrandRef(Id.valueOf(1), Publisher.BBC);
+
+    @Test
+    public void testGroupsRefsIntoOneContainerPerRow() {
+        ChildRefAppends appends = new ChildRefAppends();
+        ItemRef first = itemRef(3, now);
+        ItemRef second = itemRef(4, now.plusHours(1));
+        SeriesRef series = new SeriesRef(Id.valueOf(2), Publisher.BBC, "series", 1, now);
+        appends.addItemRef(brand, first);
+        appends.addSeriesRef(brand, series);
+        appends.addItemRef(brand, second);
+        appends.addItemRef(new SeriesRef(Id.valueOf(2), Publisher.BBC), first);
+
+        Map<Long, Container> containers = appends.toContainers();
+
+        assertThat(appends.size(), is(4));
+        assertThat(containers.size(), is(2));
+        Brand brandRow = (Brand) containers.get(1L);
+        assertThat(brandRow.getItemRefs(), contains(first, second));
+        assertThat(brandRow.getSeriesRefs(), contains(series));
+        assertThat(brandRow.getThisOrChildLastUpdated(), is(now.plusHours(1)));
+        assertThat(containers.get(2L).getItemRefs(), contains(first));
+    }
+
+    @Test
+    public void testMergingKeepsLatestChildUpdatedTime() {
+        ChildRefAppends appends = new ChildRefAppends();
+        appends.addItemRef(brand, itemRef(3, now.plusHours(2)));
+        ChildRefAppends other = new ChildRefAppends();
+        other.addItemRef(brand, itemRef(4, now));
+
+        appends.addAll(other);
+
+        Container brandRow = appends.toContainers().get(1L);
+        assertThat(brandRow.getItemRefs().size(), is(2));
+        assertThat(brandRow.getThisOrChildLastUpdated(), is(now.plusHours(2)));
+    }
+
+    private ItemRef itemRef(long id, DateTime updated) {
+        return new ItemRef(Id.valueOf(id), Publisher.BBC, "", updated);
+    }
+
+}
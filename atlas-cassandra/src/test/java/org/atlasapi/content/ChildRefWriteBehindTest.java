@@ -0,0 +1,151 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.atlasapi.entity.Id;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class ChildRefWriteBehindTest {
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final BrandRef brand = new BrandRef(Id.valueOf(1), Publisher.BBC);
+
+    private final List<Integer> written = Lists.newArrayList();
+    private final AtomicInteger failuresToCome = new AtomicInteger();
+    private final AtomicInteger callbacksRun = new AtomicInteger();
+
+    private final ChildRefWriteBehind.Writer writer = new ChildRefWriteBehind.Writer() {
+        @Override
+        public void write(ChildRefAppends appends) throws Exception {
+            written.add(appends.size());
+            if (failuresToCome.getAndDecrement() > 0) {
+                throw new Exception("failed");
+            }
+        }
+    };
+
+    private final Runnable callback = new Runnable() {
+        @Override
+        public void run() {
+            callbacksRun.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void testCallbacksRunOnlyOnceRefsAreWritten() {
+        ChildRefWriteBehind writeBehind = new ChildRefWriteBehind(writer, 3);
+
+        writeBehind.whenFlushed(callback);
+        assertThat(callbacksRun.get(), is(1));
+
+        writeBehind.addItemRef(brand, itemRef(2));
+        writeBehind.whenFlushed(callback);
+        assertThat(callbacksRun.get(), is(1));
+
+        writeBehind.run();
+        assertThat(written, is((List<Integer>) Lists.newArrayList(1)));
+        assertThat(callbacksRun.get(), is(2));
+    }
+
+    @Test
+    public void testFailedFlushesAreRetriedWithBackoff() {
+        ChildRefWriteBehind writeBehind = new ChildRefWriteBehind(writer, 5);
+        failuresToCome.set(2);
+
+        writeBehind.addItemRef(brand, itemRef(2));
+        writeBehind.whenFlushed(callback);
+        writeBehind.run();
+        writeBehind.addItemRef(brand, itemRef(3));
+        writeBehind.run();
+        // the second consecutive failure skips the next run
+        writeBehind.run();
+        assertThat(written.size(), is(2));
+        assertThat(callbacksRun.get(), is(0));
+
+        writeBehind.run();
+        assertThat(written, is((List<Integer>) Lists.newArrayList(1, 2, 2)));
+        assertThat(callbacksRun.get(), is(1));
+    }
+
+    @Test
+    public void testRefsAreDroppedAfterMaxAttempts() {
+        ChildRefWriteBehind writeBehind = new ChildRefWriteBehind(writer, 2);
+        failuresToCome.set(Integer.MAX_VALUE);
+
+        writeBehind.addItemRef(brand, itemRef(2));
+        writeBehind.whenFlushed(callback);
+        writeBehind.run();
+        writeBehind.run();
+        assertThat(callbacksRun.get(), is(1));
+
+        writeBehind.run();
+        assertThat(written.size(), is(2));
+    }
+
+    @Test
+    public void testFinalFlushSurfacesFailures() {
+        ChildRefWriteBehind writeBehind = new ChildRefWriteBehind(writer, 5);
+        failuresToCome.set(1);
+
+        writeBehind.addItemRef(brand, itemRef(2));
+        writeBehind.whenFlushed(callback);
+        try {
+            writeBehind.flushFinally();
+            fail("expected final flush to fail");
+        } catch (CassandraPersistenceException e) {
+            assertThat(e.getCause().getMessage(), is("failed"));
+        }
+        assertThat(callbacksRun.get(), is(1));
+
+        writeBehind.flushFinally();
+        assertThat(written.size(), is(1));
+    }
+
+    @Test
+    public void testCallbacksWaitForTheFlushInFlight() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ChildRefWriteBehind writeBehind = new ChildRefWriteBehind(new ChildRefWriteBehind.Writer() {
+            @Override
+            public void write(ChildRefAppends appends) throws Exception {
+                writing.countDown();
+                release.await();
+                writer.write(appends);
+            }
+        }, 3);
+        failuresToCome.set(1);
+
+        writeBehind.addItemRef(brand, itemRef(2));
+        Thread flusher = new Thread(writeBehind);
+        flusher.start();
+        writing.await();
+        // nothing is pending while the refs are being written
+        writeBehind.whenFlushed(callback);
+        assertThat(callbacksRun.get(), is(0));
+
+        release.countDown();
+        flusher.join();
+        // the flush failed so the callback waits for its retry
+        assertThat(callbacksRun.get(), is(0));
+
+        writeBehind.run();
+        assertThat(written, is((List<Integer>) Lists.newArrayList(1, 1)));
+        assertThat(callbacksRun.get(), is(1));
+    }
+
+    private ItemRef itemRef(long id) {
+        return new ItemRef(Id.valueOf(id), Publisher.BBC, "", now);
+    }
+
+}
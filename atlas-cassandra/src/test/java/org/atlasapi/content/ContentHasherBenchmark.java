@@ -0,0 +1,92 @@
+package org.atlasapi.content;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.Id;
+import org.atlasapi.serialization.protobuf.ContentProtos;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.hash.Hashing;
+import com.metabroadcast.common.time.DateTimeZones;
+
+/**
+ * Compares the cost of hashing realistic content with
+ * {@link ProtobufContentHasher} against the hasher currently wired into the
+ * API and hashing the whole serialized form. Run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main ContentHasherBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentHasherBenchmark {
+
+    private final ContentHasher uuidHasher = new ContentHasher() {
+        @Override
+        public String hash(Content content) {
+            return UUID.randomUUID().toString();
+        }
+    };
+    private final ContentHasher serializedHasher = new ContentHasher() {
+
+        private final ContentSerializer serializer = new ContentSerializer();
+
+        @Override
+        public String hash(Content content) {
+            ContentProtos.Content proto = serializer.serialize(content);
+            return Hashing.md5().hashBytes(proto.toByteArray()).toString();
+        }
+    };
+    private final ProtobufContentHasher protobufHasher = new ProtobufContentHasher();
+
+    private Item item;
+
+    @Setup
+    public void setUp() {
+        DateTime start = new DateTime(2014, 6, 1, 18, 0, 0, 0, DateTimeZones.UTC);
+        Broadcast[] broadcasts = new Broadcast[10];
+        for (int i = 0; i < broadcasts.length; i++) {
+            broadcasts[i] = ComplexBroadcastTestDataBuilder.broadcast()
+                .withChannel(Id.valueOf(i % 3))
+                .withStartTime(start.plusDays(i))
+                .withDuration(Duration.standardMinutes(30))
+                .build();
+        }
+        item = ComplexItemTestDataBuilder.complexItem()
+            .withAliases(new Alias("gb:bbc:pid", "b006m86d"), new Alias("gb:bbc:crid", "crid://bbc.co.uk/b006m86d"))
+            .withAliasUrls("http://www.bbc.co.uk/programmes/b006m86d")
+            .withTags("http://www.bbc.co.uk/programmes/tags/drama", "http://www.bbc.co.uk/programmes/tags/comedy")
+            .withBroadcasts(broadcasts)
+            .build();
+    }
+
+    @Benchmark
+    public String uuidHasher() {
+        return uuidHasher.hash(item);
+    }
+
+    @Benchmark
+    public String serializedHasher() {
+        return serializedHasher.hash(item);
+    }
+
+    @Benchmark
+    public String protobufContentHasher() {
+        return protobufHasher.hash(item);
+    }
+
+    @Benchmark
+    public ContentDigest protobufContentDigest() {
+        return protobufHasher.digest(item);
+    }
+
+}
@@ -0,0 +1,364 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isA;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.atlasapi.DatastaxCassandraService;
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.CassandraHelper;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.util.Resolved;
+import org.atlasapi.entity.util.WriteResult;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.ResourceUpdatedMessage;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
+import com.metabroadcast.common.collect.OptionalMap;
+import com.metabroadcast.common.ids.IdGenerator;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.serializers.LongSerializer;
+import com.netflix.astyanax.serializers.StringSerializer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatastaxContentStoreIT {
+
+    private static final AstyanaxContext<Keyspace> context =
+        CassandraHelper.testCassandraContext();
+    private static final DatastaxCassandraService service =
+        new DatastaxCassandraService(ImmutableList.of("127.0.0.1"));
+    private static Session session;
+
+    @Mock private ContentHasher hasher;
+    @Mock private IdGenerator idGenerator;
+    @Mock private MessageSender<ResourceUpdatedMessage> sender;
+    @Mock private Clock clock;
+
+    private DatastaxContentStore store;
+
+    @BeforeClass
+    public static void setup() throws ConnectionException {
+        context.start();
+        tearDown();
+        // the tables are created through thrift, as they are in production,
+        // so that they have the compact storage layout the store expects.
+        CassandraHelper.createKeyspace(context);
+        CassandraHelper.createColumnFamily(context, "Content", LongSerializer.get(), StringSerializer.get());
+        CassandraHelper.createColumnFamily(context, "Content_aliases", StringSerializer.get(), StringSerializer.get(), LongSerializer.get());
+        service.startAsync().awaitRunning();
+        session = service.getSession("atlas_testing");
+    }
+
+    @AfterClass
+    public static void tearDown() throws ConnectionException {
+        try {
+            context.getClient().dropKeyspace();
+        } catch (BadRequestException ire) { }
+    }
+
+    @Before
+    public void before() {
+        store = DatastaxContentStore
+                .builder(session, "Content", hasher, sender, idGenerator)
+                .withReadConsistency(ConsistencyLevel.ONE)
+                .withWriteConsistency(ConsistencyLevel.ONE)
+                .withClock(clock)
+                .build();
+    }
+
+    @After
+    public void clearCf() throws ConnectionException {
+        context.getClient().truncateColumnFamily("Content");
+        context.getClient().truncateColumnFamily("Content_aliases");
+    }
+
+    @Test
+    public void testWriteAndReadTopLevelItem() throws Exception {
+        Content content = create(new Item());
+        content.setTitle("title");
+
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+
+        WriteResult<Content, Content> writeResult = store.writeContent(content);
+        assertTrue(writeResult.written());
+        assertThat(writeResult.getResource().getId().longValue(), is(1234l));
+        assertFalse(writeResult.getPrevious().isPresent());
+
+        verify(sender).sendMessage(argThat(isA(ResourceUpdatedMessage.class)));
+
+        Content item = resolve(content.getId().longValue());
+
+        assertThat(item.getId(), is(writeResult.getResource().getId()));
+        assertThat(item.getTitle(), is(content.getTitle()));
+        assertThat(item.getFirstSeen(), is(now));
+        assertThat(item.getLastUpdated(), is(now));
+        assertThat(item.getThisOrChildLastUpdated(), is(now));
+    }
+
+    @Test
+    public void testContentNotWrittenWhenHashNotChanged() throws Exception {
+        Content content = create(new Item());
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+
+        WriteResult<Content, Content> writeResult = store.writeContent(content);
+        assertTrue(writeResult.written());
+
+        when(hasher.hash(argThat(isA(Content.class)))).thenReturn("same");
+
+        writeResult = store.writeContent(writeResult.getResource());
+        assertFalse(writeResult.written());
+
+        verify(hasher, times(3)).hash(argThat(isA(Content.class)));
+        verify(idGenerator, times(1)).generateRaw();
+    }
+
+    @Test
+    public void testContentWrittenWhenHashChanged() throws Exception {
+        Content content = create(new Item());
+        content.setTitle("title");
+
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        DateTime next = now.plusHours(1);
+        when(clock.now())
+            .thenReturn(now)
+            .thenReturn(next);
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+
+        WriteResult<Content, Content> writeResult = store.writeContent(content);
+        assertTrue(writeResult.written());
+
+        when(hasher.hash(argThat(isA(Content.class))))
+            .thenReturn("different")
+            .thenReturn("differentAgain");
+
+        Content written = writeResult.getResource();
+        written.setTitle("newTitle");
+        writeResult = store.writeContent(written);
+        assertTrue(writeResult.written());
+        assertThat(writeResult.getPrevious().get().getTitle(), is("title"));
+
+        Content item = resolve(content.getId().longValue());
+
+        assertThat(item.getTitle(), is("newTitle"));
+        assertThat(item.getFirstSeen(), is(now));
+        assertThat(item.getLastUpdated(), is(next));
+    }
+
+    @Test
+    public void testColumnsEmptiedSinceThePreviousVersionAreDeleted() throws Exception {
+        Item item = create(new Item());
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        item.addBroadcast(new Broadcast(Id.valueOf(1), now, now.plusHours(1)));
+
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+        when(hasher.hash(argThat(isA(Content.class))))
+            .thenReturn("one")
+            .thenReturn("two");
+
+        Item written = store.writeContent(item).getResource();
+        assertThat(((Item) resolve(1234L)).getBroadcasts().size(), is(1));
+
+        written.setBroadcasts(ImmutableSet.<Broadcast>of());
+        assertTrue(store.writeContent(written).written());
+
+        assertThat(((Item) resolve(1234L)).getBroadcasts(), is(empty()));
+    }
+
+    @Test
+    public void testResolvesOnlyTheProjectedColumns() throws Exception {
+        Item item = create(new Item());
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        item.addBroadcast(new Broadcast(Id.valueOf(1), now, now.plusHours(1)));
+
+        when(clock.now()).thenReturn(now);
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+        store.writeContent(item);
+
+        Item projected = (Item) resolve(1234L, ImmutableSet.of(ContentColumn.DESCRIPTION));
+        assertThat(projected.getId().longValue(), is(1234L));
+        assertThat(projected.getTitle(), is("Item"));
+        assertThat(projected.getBroadcasts(), is(empty()));
+
+        projected = (Item) resolve(1234L, ImmutableSet.of(ContentColumn.BROADCASTS));
+        assertThat(projected.getTitle(), is(nullValue()));
+        assertThat(projected.getBroadcasts().size(), is(1));
+    }
+
+    @Test
+    public void testWritingItemWritesRefIntoParent() throws Exception {
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L);
+
+        Brand brand = create(new Brand());
+        store.writeContent(brand);
+
+        Brand resolvedBrand = (Brand) resolve(1234L);
+        assertThat(resolvedBrand.getItemRefs(), is(empty()));
+
+        Item item = create(new Item());
+        item.setContainer(resolvedBrand);
+        WriteResult<Item, Content> writeResult = store.writeContent(item);
+        assertThat(writeResult.getResource().getContainerSummary().getTitle(), is("Brand"));
+
+        Item resolvedItem = (Item) resolve(1235L);
+        assertThat(resolvedItem.getContainerRef().getId().longValue(), is(1234L));
+
+        resolvedBrand = (Brand) resolve(1234L);
+        assertThat(Iterables.getOnlyElement(resolvedBrand.getItemRefs()).getId().longValue(), is(1235L));
+    }
+
+    @Test
+    public void testResolvesChildRefsInPages() throws Exception {
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L)
+            .thenReturn(1236L)
+            .thenReturn(1237L);
+
+        Brand brand = store.writeContent(create(new Brand())).getResource();
+
+        Series series = create(new Series());
+        series.setBrand(brand);
+        store.writeContent(series);
+
+        for (int i = 0; i < 2; i++) {
+            Item item = create(new Item());
+            item.setContainer(brand);
+            store.writeContent(item);
+        }
+
+        ChildRefPage first = store.resolveChildRefs(Id.valueOf(1234), null, 2)
+                .get(1, TimeUnit.SECONDS);
+        assertThat(Iterables.getOnlyElement(first.getSeriesRefs()).getId().longValue(), is(1235L));
+        assertThat(Iterables.getOnlyElement(first.getItemRefs()).getId().longValue(), is(1236L));
+        assertTrue(first.getNextCursor().isPresent());
+
+        ChildRefPage second = store.resolveChildRefs(Id.valueOf(1234), first.getNextCursor().get(), 2)
+                .get(1, TimeUnit.SECONDS);
+        assertThat(second.getSeriesRefs(), is(empty()));
+        assertThat(Iterables.getOnlyElement(second.getItemRefs()).getId().longValue(), is(1237L));
+        assertFalse(second.getNextCursor().isPresent());
+    }
+
+    @Test
+    public void testResolvingByAlias() throws Exception {
+
+        Alias bbcBrandAlias = new Alias("brand", "alias");
+        Alias bbcSeriesAlias = new Alias("series", "alias");
+
+        Brand brand = create(new Brand());
+        brand.addAlias(bbcBrandAlias);
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw()).thenReturn(1234L);
+        store.writeContent(brand);
+
+        OptionalMap<Alias, Content> resolved = store.resolveAliases(
+                ImmutableSet.of(bbcBrandAlias, bbcSeriesAlias), Publisher.BBC);
+
+        assertThat(resolved.size(), is(1));
+        assertThat(resolved.get(bbcBrandAlias).get().getId(), is(Id.valueOf(1234L)));
+        assertThat(resolved.get(bbcSeriesAlias), is(Optional.<Content>absent()));
+    }
+
+    @Test
+    public void testResolvingByAliasAcrossSources() throws Exception {
+
+        Brand bbcBrand = create(new Brand());
+        Alias sharedAlias = new Alias("shared", "alias");
+        Alias bbcAlias = new Alias("bbc", "alias");
+        bbcBrand.addAlias(sharedAlias);
+        bbcBrand.addAlias(bbcAlias);
+
+        Brand c4Brand = create(new Brand());
+        c4Brand.setPublisher(Publisher.C4);
+        c4Brand.addAlias(sharedAlias);
+
+        when(clock.now()).thenReturn(new DateTime(DateTimeZones.UTC));
+        when(idGenerator.generateRaw())
+            .thenReturn(1234L)
+            .thenReturn(1235L);
+        store.writeContent(bbcBrand);
+        store.writeContent(c4Brand);
+
+        Table<Alias, Publisher, Content> resolved = store.resolveAliases(
+            ImmutableSet.of(sharedAlias, bbcAlias), ImmutableSet.of(Publisher.BBC, Publisher.C4, Publisher.PA));
+
+        assertThat(resolved.size(), is(3));
+        assertThat(resolved.get(sharedAlias, Publisher.BBC).getId(), is(Id.valueOf(1234L)));
+        assertThat(resolved.get(sharedAlias, Publisher.C4).getId(), is(Id.valueOf(1235L)));
+        assertThat(resolved.get(bbcAlias, Publisher.BBC).getId(), is(Id.valueOf(1234L)));
+    }
+
+    @Test
+    public void testResolvingMissingContentReturnsEmptyResolved() throws Exception {
+
+        Resolved<Content> resolved = store.resolveIds(ImmutableSet.of(Id.valueOf(4321)))
+                .get(1, TimeUnit.SECONDS);
+
+        assertTrue(resolved.getResources().isEmpty());
+    }
+
+    private <T extends Content> T create(T content) {
+        content.setPublisher(Publisher.BBC);
+        content.setTitle(content.getClass().getSimpleName());
+        return content;
+    }
+
+    private Content resolve(Long id) throws InterruptedException, ExecutionException, TimeoutException {
+        Resolved<Content> resolved = store.resolveIds(ImmutableList.of(Id.valueOf(id))).get(1, TimeUnit.SECONDS);
+        return Iterables.getOnlyElement(resolved.getResources());
+    }
+
+    private Content resolve(Long id, Set<ContentColumn> columns)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        Resolved<Content> resolved = store.resolveIds(ImmutableList.of(Id.valueOf(id)), columns)
+                .get(1, TimeUnit.SECONDS);
+        return Iterables.getOnlyElement(resolved.getResources());
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.Id;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class ProtobufContentHasherTest {
+
+    private final ProtobufContentHasher hasher = new ProtobufContentHasher();
+
+    @Test
+    public void testFieldsSetByTheStoreDontChangeTheHash() {
+        ComplexItemTestDataBuilder builder = ComplexItemTestDataBuilder.complexItem();
+        Item written = builder.build();
+        Item writing = builder.build();
+        writing.setId((Id) null);
+        written.setId(Id.valueOf(1234));
+        DateTime now = new DateTime(DateTimeZones.UTC);
+        written.setFirstSeen(now);
+        written.setLastUpdated(now);
+        written.setThisOrChildLastUpdated(now);
+
+        assertThat(hasher.hash(writing), is(hasher.hash(written)));
+    }
+
+    @Test
+    public void testChangedColumnsAreIdentified() {
+        Item item = ComplexItemTestDataBuilder.complexItem().build();
+        ContentDigest before = hasher.digest(item);
+
+        item.setDescription("a different description");
+        ContentDigest after = hasher.digest(item);
+
+        assertThat(after.getHash(), is(not(before.getHash())));
+        assertThat(after.changedColumns(before), contains(ContentColumn.DESCRIPTION));
+        assertThat(hasher.digest(item).changedColumns(after), is(empty()));
+    }
+
+    @Test
+    public void testRepeatedFieldOrderChangesTheHash() {
+        Alias first = new Alias("namespace", "first");
+        Alias second = new Alias("namespace", "second");
+        Item item = ComplexItemTestDataBuilder.complexItem().build();
+
+        item.setAliases(ImmutableSet.of(first, second));
+        String hash = hasher.hash(item);
+        item.setAliases(ImmutableSet.of(second, first));
+
+        assertThat(hasher.hash(item), is(not(hash)));
+    }
+
+}
@@ -3,19 +3,31 @@ package org.atlasapi.content;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.nio.ByteBuffer;
+
 import org.atlasapi.entity.Id;
 import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.metabroadcast.common.media.MimeType;
+import com.metabroadcast.common.time.DateTimeZones;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnList;
@@ -61,10 +73,120 @@ public class ProtobufContentMarshallerTest {
 
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUnmarshallsBroadcastsLocationsAndPeopleLazily() {
+
+        Item content = new Item();
+        content.setId(Id.valueOf(1234));
+        content.setPublisher(Publisher.BBC);
+        content.setTitle("title");
+        DateTime start = new DateTime(DateTimeZones.UTC);
+        content.setBroadcasts(ImmutableSet.of(new Broadcast(Id.valueOf(1), start, start.plusHours(1))));
+        Encoding encoding = new Encoding();
+        encoding.setVideoCoding(MimeType.VIDEO_H264);
+        content.setManifestedAs(ImmutableSet.of(encoding));
+        content.setPeople(ImmutableList.of(CrewMember.crewMember("id", "Jim", "director", Publisher.BBC)));
+        
+        ColumnListMutation<String> mutation = mock(ColumnListMutation.class);
+        marshaller.marshallInto(mutation, content);
+        
+        final ArgumentCaptor<String> col = ArgumentCaptor.forClass(String.class);
+        final ArgumentCaptor<byte[]> val = ArgumentCaptor.forClass(byte[].class);
+        verify(mutation, times(7)).putColumn(col.capture(), val.capture());
+        assertThat(col.getAllValues(), hasItems("BROADCASTS", "LOCATIONS", "PEOPLE"));
+        
+        ColumnList<String> cols = mock(ColumnList.class);
+        when(cols.size()).thenReturn(7);
+        when(cols.getColumnByIndex(anyInt())).then(new Answer<Column<String>>() {
+            @Override
+            public Column<String> answer(InvocationOnMock invocation) throws Throwable {
+                int idx = (Integer)invocation.getArguments()[0];
+                return column(col.getAllValues().get(idx), val.getAllValues().get(idx));
+            }
+        });
+        
+        Item unmarshalled = (Item) marshaller.unmarshallCols(cols);
+        
+        assertThat(unmarshalled.getTitle(), is(content.getTitle()));
+        assertThat(unmarshalled.getBroadcasts().size(), is(1));
+        Broadcast broadcast = Iterables.getOnlyElement(unmarshalled.getBroadcasts());
+        assertThat(broadcast.getTransmissionTime(), is(start));
+        assertThat(Iterables.getOnlyElement(unmarshalled.getManifestedAs()).getVideoCoding(), 
+            is(MimeType.VIDEO_H264));
+        assertThat(Iterables.getOnlyElement(unmarshalled.getPeople()).name(), is("Jim"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMarshallsOnlyChangedColumns() {
+
+        Content content = new Episode();
+        content.setId(Id.valueOf(1234));
+        content.setPublisher(Publisher.BBC);
+        content.setTitle("title");
+
+        ColumnListMutation<String> mutation = mock(ColumnListMutation.class);
+        marshaller.marshallChangedInto(mutation, content, null);
+
+        ArgumentCaptor<String> digestCol = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> digestVal = ArgumentCaptor.forClass(String.class);
+        verify(mutation, times(4)).putColumn(digestCol.capture(), digestVal.capture());
+        verify(mutation, times(4)).putColumn(anyString(), any(byte[].class));
+
+        ColumnList<String> cols = mock(ColumnList.class);
+        for (int i = 0; i < digestCol.getAllValues().size(); i++) {
+            Column<String> digestColumn = mock(Column.class);
+            when(digestColumn.getStringValue()).thenReturn(digestVal.getAllValues().get(i));
+            when(cols.getColumnByName(digestCol.getAllValues().get(i))).thenReturn(digestColumn);
+        }
+
+        content.setTitle("changed title");
+        ColumnListMutation<String> changed = mock(ColumnListMutation.class);
+        marshaller.marshallChangedInto(changed, content, marshaller.unmarshallDigests(cols));
+
+        verify(changed).putColumn(eq("DESCRIPTION"), any(byte[].class));
+        verify(changed).putColumn(eq("DIGESTS_DESCRIPTION"), anyString());
+        verify(changed, never()).putColumn(eq("SOURCE"), any(byte[].class));
+        verify(changed, never()).putColumn(eq("DIGESTS_SOURCE"), anyString());
+        verify(changed, never()).putColumn(eq("TYPE"), any(byte[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeletesColumnsEmptiedSinceThePreviousVersion() {
+
+        Content previous = new Episode();
+        previous.setId(Id.valueOf(1234));
+        previous.setPublisher(Publisher.BBC);
+        previous.setTitle("title");
+        previous.setKeyPhrases(ImmutableSet.of(new KeyPhrase("phrase")));
+
+        Content content = new Episode();
+        content.setId(Id.valueOf(1234));
+        content.setPublisher(Publisher.BBC);
+        content.setTitle("title");
+
+        ColumnListMutation<String> mutation = mock(ColumnListMutation.class);
+        marshaller.marshallInto(mutation, content, previous);
+
+        verify(mutation, times(4)).putColumn(anyString(), any(byte[].class));
+        verify(mutation).deleteColumn("KEYPHRASES");
+        verify(mutation).deleteColumn("DIGESTS_KEYPHRASES");
+        verify(mutation, never()).deleteColumn("CLIPS");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Column<String> column(String name, byte[] bytes) {
+        Column<String> mock = column(bytes);
+        when(mock.getName()).thenReturn(name);
+        return mock;
+    }
+
     @SuppressWarnings("unchecked")
     private Column<String> column(byte[] bytes) {
         Column<String> mock = mock(Column.class);
-        when(mock.getByteArrayValue()).thenReturn(bytes);
+        when(mock.getByteBufferValue()).thenReturn(ByteBuffer.wrap(bytes));
         return mock;
     }
 
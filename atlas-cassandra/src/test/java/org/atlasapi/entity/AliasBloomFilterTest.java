@@ -0,0 +1,63 @@
+package org.atlasapi.entity;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.atlasapi.media.entity.Publisher;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+
+public class AliasBloomFilterTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final AliasBloomFilter filter = AliasBloomFilter.builder()
+            .withExpectedAliases(1000)
+            .withMetrics(metrics, "test")
+            .build();
+
+    @Test
+    public void testEverythingMightBePresentUntilBuilt() {
+        filter.put(Publisher.BBC, key("uri:one"));
+
+        assertFalse(filter.isBuilt());
+        assertTrue(filter.mightContain(Publisher.BBC, key("uri:two")));
+        assertTrue(filter.mightContain(Publisher.C4, key("uri:one")));
+    }
+
+    @Test
+    public void testSkipsAliasesNotInRebuiltFilter() {
+        AliasBloomFilter.Rebuild rebuild = filter.startRebuild();
+        rebuild.put(Publisher.BBC.key(), key("uri:one"));
+        rebuild.complete();
+
+        assertTrue(filter.isBuilt());
+        assertTrue(filter.mightContain(Publisher.BBC, key("uri:one")));
+        assertFalse(filter.mightContain(Publisher.BBC, key("uri:two")));
+        assertFalse(filter.mightContain(Publisher.C4, key("uri:one")));
+        assertThat(metrics.getCounters().get("test.skipped").getCount(), is(2L));
+        assertThat(metrics.getTimers().get("test.rebuild-time").getCount(), is(1L));
+        assertThat((Long) metrics.getGauges().get("test.bytes").getValue(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void testAliasesWrittenDuringRebuildAreKept() {
+        filter.startRebuild().complete();
+        AliasBloomFilter.Rebuild rebuild = filter.startRebuild();
+
+        filter.put(Publisher.BBC, key("uri:one"));
+        assertTrue(filter.mightContain(Publisher.BBC, key("uri:one")));
+
+        rebuild.complete();
+        assertTrue(filter.mightContain(Publisher.BBC, key("uri:one")));
+    }
+
+    private byte[] key(String serializedAlias) {
+        return serializedAlias.getBytes(Charsets.UTF_8);
+    }
+
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableSet;
 import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
 import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.serializers.StringSerializer;
@@ -99,4 +100,49 @@ public class AliasIndexTest {
         assertThat(index.readAliases(Publisher.BBC, ImmutableSet.of(alias3)).isEmpty(), is(false));
     }
 
+    @Test
+    public void testOnlyResolutionTrustsTheFilter() throws Exception {
+        AliasIndex<Content> filtered = AliasIndex.create(context.getClient(), CF_NAME,
+            AliasBloomFilter.builder().build());
+        filtered.rebuildFilter();
+
+        Alias alias = new Alias("namespace1", "value1");
+        Episode ep = new Episode();
+        ep.setId(1234);
+        ep.setPublisher(Publisher.BBC);
+        ep.setAliases(ImmutableSet.of(alias));
+
+        // indexed by another writer so missing from the filter
+        index.mutateAliases(ep, null).execute();
+
+        assertThat(filtered.resolveAliasIds(ImmutableSet.of(Publisher.BBC), ImmutableSet.of(alias)).isEmpty(), is(true));
+        assertThat(filtered.readAliasIds(Publisher.BBC, ImmutableSet.of(alias)).get(alias), is(1234L));
+        assertThat(filtered.readAliasIdsAsync(Publisher.BBC, ImmutableSet.of(alias)).get().get(alias), is(1234L));
+        
+        filtered.rebuildFilter();
+        
+        assertThat(filtered.resolveAliasIds(ImmutableSet.of(Publisher.BBC), ImmutableSet.of(alias)).get(alias, Publisher.BBC), is(1234L));
+    }
+
+    @Test
+    public void testAliasesAreFilteredUntilIndexed() throws Exception {
+        AliasIndex<Content> filtered = AliasIndex.create(context.getClient(), CF_NAME,
+            AliasBloomFilter.builder().build());
+        filtered.rebuildFilter();
+
+        Alias alias = new Alias("namespace1", "value2");
+        Episode ep = new Episode();
+        ep.setId(1235);
+        ep.setPublisher(Publisher.BBC);
+        ep.setAliases(ImmutableSet.of(alias));
+
+        MutationBatch batch = filtered.mutateAliases(ep, null);
+        assertThat(filtered.resolveAliasIds(ImmutableSet.of(Publisher.BBC), ImmutableSet.of(alias)).isEmpty(), is(true));
+
+        batch.execute();
+        filtered.indexed(ep);
+
+        assertThat(filtered.resolveAliasIds(ImmutableSet.of(Publisher.BBC), ImmutableSet.of(alias)).get(alias, Publisher.BBC), is(1235L));
+    }
+
 }
@@ -0,0 +1,62 @@
+package org.atlasapi.entity;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import org.atlasapi.media.entity.Publisher;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class CompactAliasKeysTest {
+
+    private final CompactAliasKeys keys = new CompactAliasKeys();
+
+    @Test
+    public void testKeysAreVersionedAndStable() {
+        byte[] key = keys.key(new Alias("gb:bbc:pid", "b006m86d"));
+
+        assertThat(key[0], is(CompactAliasKeys.VERSION));
+        assertArrayEquals(key, new CompactAliasKeys().key(new Alias("gb:bbc:pid", "b006m86d")));
+    }
+
+    @Test
+    public void testNumericValuesAreEncodedAsVarints() {
+        assertThat(keys.key(new Alias("ns", "0")).length, is(11));
+        assertThat(keys.key(new Alias("ns", "127")).length, is(11));
+        assertThat(keys.key(new Alias("ns", "128")).length, is(12));
+        assertThat(keys.key(new Alias("ns", String.valueOf(Long.MAX_VALUE))).length, is(19));
+    }
+
+    @Test
+    public void testNonCanonicalNumbersAreKeptDistinct() {
+        byte[] canonical = keys.key(new Alias("ns", "7"));
+
+        assertThat(keys.key(new Alias("ns", "007")), is(not(canonical)));
+        assertThat(keys.key(new Alias("ns", "+7")), is(not(canonical)));
+        assertThat(keys.key(new Alias("ns", "-7")), is(not(canonical)));
+    }
+
+    @Test
+    public void testLongValuesAreHashed() {
+        String longValue = "http://www.bbc.co.uk/programmes/" + Strings.repeat("b", 100);
+
+        assertThat(keys.key(new Alias("uri", longValue)).length, is(26));
+        assertThat(keys.key(new Alias("uri", longValue)), is(not(keys.key(new Alias("uri", longValue + "c")))));
+    }
+
+    @Test
+    public void testNamespaceDistinguishesKeys() {
+        assertThat(keys.key(new Alias("ns1", "value")), is(not(keys.key(new Alias("ns2", "value")))));
+    }
+
+    @Test
+    public void testSourceIdsRoundTrip() {
+        for (Publisher source : Publisher.values()) {
+            assertThat(CompactAliasKeys.source(CompactAliasKeys.sourceId(source)), is(source));
+        }
+    }
+
+}
@@ -2,9 +2,12 @@ package org.atlasapi.equivalence;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Map;
 import java.util.Set;
 
 import org.atlasapi.DatastaxCassandraService;
@@ -13,7 +16,9 @@ import org.atlasapi.content.Item;
 import org.atlasapi.entity.Id;
 import org.atlasapi.entity.ResourceRef;
 import org.atlasapi.entity.util.ResolveException;
+import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.util.FanOut;
 import org.joda.time.DateTime;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -21,8 +26,10 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -37,6 +44,8 @@ public class CassandraEquivalenceGraphStoreIT {
     private static DatastaxCassandraService service
         = new DatastaxCassandraService(ImmutableList.of("localhost"));
     private static CassandraEquivalenceGraphStore store;
+    private static CassandraEquivalenceGraphStore optimisticStore;
+    private static CassandraEquivalenceGraphStore deferringStore;
     private static Session session;
     
     private static MessageSender<EquivalenceGraphUpdateMessage> messageSender = new MessageSender<EquivalenceGraphUpdateMessage>() {
@@ -65,14 +74,23 @@ public class CassandraEquivalenceGraphStoreIT {
         session.execute("CREATE KEYSPACE atlas_testing WITH replication = {'class': 'SimpleStrategy', 'replication_factor':1};");
         session = service.getSession("atlas_testing");
         session.execute(
-            "CREATE TABLE equivalence_graph_index (resource_id bigint, graph_id bigint, PRIMARY KEY (resource_id));"
+            "CREATE TABLE equivalence_graph_index (resource_id bigint, graph_id bigint, version bigint, claim_expiry bigint, PRIMARY KEY (resource_id));"
         );
         session.execute("CREATE TABLE equivalence_graph ("
             + "graph_id bigint, "
             + "graph blob, "
             + "PRIMARY KEY (graph_id)"
         + ");");
+        session.execute("CREATE TABLE equivalence_deferred (bucket bigint, subject_id bigint, sources text, "
+            + "deferred bigint, assertion blob, PRIMARY KEY (bucket, subject_id, sources, deferred));");
+        session.execute("CREATE TABLE equivalence_deferral (subject_id bigint, sources text, deferred bigint, "
+            + "PRIMARY KEY (subject_id, sources));");
         store = new CassandraEquivalenceGraphStore(messageSender, session , ConsistencyLevel.ONE, ConsistencyLevel.ONE);
+        optimisticStore = new CassandraEquivalenceGraphStore(messageSender, session, ConsistencyLevel.ONE,
+            ConsistencyLevel.ONE, FanOut.perPartition(), Optional.of(OptimisticRetry.of(2, 1)));
+        deferringStore = new CassandraEquivalenceGraphStore(messageSender, session, ConsistencyLevel.ONE,
+            ConsistencyLevel.ONE, FanOut.perPartition(), Optional.<OptimisticRetry>absent(),
+            GraphSizePolicy.builder().withDefaultLimit(2).deferringOversize(3).build());
     }
     
     @AfterClass
@@ -87,6 +105,8 @@ public class CassandraEquivalenceGraphStoreIT {
     public void truncate() {
         session.execute("TRUNCATE equivalence_graph_index");
         session.execute("TRUNCATE equivalence_graph");
+        session.execute("TRUNCATE equivalence_deferred");
+        session.execute("TRUNCATE equivalence_deferral");
     }
     
     private static final Item bbcItem = new Item(Id.valueOf(1), Publisher.BBC);
@@ -145,4 +165,93 @@ public class CassandraEquivalenceGraphStoreIT {
         assertTrue(graph.getAdjacents(Id.valueOf(2)).getAfferent().contains(subject));
     }
     
+    @Test
+    public void testOptimisticUpdateFailsWhileAResourceIsClaimed() throws Exception {
+        long expiry = System.currentTimeMillis() + CassandraEquivalenceGraphStore.CLAIM_TIMEOUT;
+        claim(paItem.getId(), expiry);
+
+        try {
+            optimisticStore.updateEquivalences(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()),
+                ImmutableSet.of(Publisher.BBC, Publisher.PA));
+            fail("expected the update to conflict with the claim");
+        } catch (WriteException e) {
+            OptionalMap<Id, EquivalenceGraph> graphs = Futures.get(
+                store.resolveIds(ImmutableList.of(bbcItem.getId())), ResolveException.class);
+            assertFalse(graphs.get(bbcItem.getId()).isPresent());
+        }
+    }
+
+    @Test
+    public void testOptimisticUpdateTakesOverAnExpiredClaim() throws Exception {
+        claim(paItem.getId(), System.currentTimeMillis() - 1);
+
+        optimisticStore.updateEquivalences(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()),
+            ImmutableSet.of(Publisher.BBC, Publisher.PA));
+
+        OptionalMap<Id, EquivalenceGraph> graphs = Futures.get(
+            store.resolveIds(ImmutableList.of(paItem.getId())), ResolveException.class);
+        assertThat(graphs.get(paItem.getId()).get().getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId())));
+        Row index = session.execute(
+            "SELECT version, claim_expiry FROM equivalence_graph_index WHERE resource_id = " + paItem.getId().longValue()).one();
+        assertTrue(index.getLong(0) % 2 == 0);
+        assertTrue(index.isNull(1));
+    }
+
+    @Test
+    public void testCommitChangesNothingWhenAClaimWasTakenOver() throws Exception {
+        store.updateEquivalences(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()),
+            ImmutableSet.of(Publisher.BBC, Publisher.PA));
+        Set<Id> ids = ImmutableSet.of(bbcItem.getId(), paItem.getId());
+        Map<Id, Long> claims = optimisticStore.claim(optimisticStore.readVersions(ids).get()).get();
+        session.execute(String.format("UPDATE equivalence_graph_index SET version = %s WHERE resource_id = %s",
+            claims.get(paItem.getId()) + 2, paItem.getId().longValue()));
+
+        // would split bbc from pa if only bbc's claim were committed
+        assertFalse(optimisticStore.commit(ImmutableSet.of(EquivalenceGraph.valueOf(bbcItem.toRef()),
+            EquivalenceGraph.valueOf(paItem.toRef())), claims));
+
+        OptionalMap<Id, EquivalenceGraph> graphs = Futures.get(store.resolveIds(ids), ResolveException.class);
+        assertThat(graphs.get(bbcItem.getId()).get().getEquivalenceSet(), is(ids));
+        assertThat(graphs.get(paItem.getId()).get().getEquivalenceSet(), is(ids));
+    }
+
+    @Test
+    public void testDeferringAndRecomputingAnOversizeAssertion() throws Exception {
+        Set<Publisher> sources = ImmutableSet.of(Publisher.BBC, Publisher.PA, Publisher.ITV);
+        deferringStore.updateEquivalences(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()), sources);
+        deferringStore.updateEquivalences(itvItem.toRef(), ImmutableSet.<ResourceRef>of(bbcItem.toRef()), sources);
+        // deferred again, replacing the first deferral
+        deferringStore.updateEquivalences(itvItem.toRef(), ImmutableSet.<ResourceRef>of(bbcItem.toRef()), sources);
+
+        assertThat(session.execute("SELECT * FROM equivalence_deferred").all().size(), is(1));
+
+        assertThat(deferringStore.recomputeDeferred(10), is(1));
+        assertThat(deferringStore.recomputeDeferred(10), is(0));
+        OptionalMap<Id, EquivalenceGraph> graphs = Futures.get(
+            store.resolveIds(ImmutableList.of(itvItem.getId())), ResolveException.class);
+        assertThat(graphs.get(itvItem.getId()).get().getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId(), itvItem.getId())));
+        assertTrue(session.execute("SELECT * FROM equivalence_deferral").all().isEmpty());
+    }
+
+    @Test
+    public void testAppliedAssertionRemovesItsDeferral() throws Exception {
+        Set<Publisher> sources = ImmutableSet.of(Publisher.BBC, Publisher.PA, Publisher.ITV);
+        deferringStore.updateEquivalences(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()), sources);
+        deferringStore.updateEquivalences(itvItem.toRef(), ImmutableSet.<ResourceRef>of(bbcItem.toRef()), sources);
+
+        deferringStore.updateEquivalences(itvItem.toRef(), ImmutableSet.<ResourceRef>of(), sources);
+
+        assertThat(deferringStore.recomputeDeferred(10), is(0));
+        assertTrue(session.execute("SELECT * FROM equivalence_deferred").all().isEmpty());
+        assertTrue(session.execute("SELECT * FROM equivalence_deferral").all().isEmpty());
+    }
+
+    private void claim(Id id, long expiry) {
+        session.execute(String.format(
+            "INSERT INTO equivalence_graph_index (resource_id, version, claim_expiry) VALUES (%s, 3, %s)",
+            id.longValue(), expiry));
+    }
+
 }
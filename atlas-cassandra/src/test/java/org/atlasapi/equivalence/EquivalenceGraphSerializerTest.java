@@ -0,0 +1,67 @@
+package org.atlasapi.equivalence;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.atlasapi.content.BrandRef;
+import org.atlasapi.content.ItemRef;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class EquivalenceGraphSerializerTest {
+
+    private final EquivalenceGraphSerializer serializer = new EquivalenceGraphSerializer();
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final ItemRef bbc = new ItemRef(Id.valueOf(1), Publisher.BBC, "", now);
+    private final BrandRef pa = new BrandRef(Id.valueOf(2), Publisher.PA);
+    private final ItemRef itv = new ItemRef(Id.valueOf(3), Publisher.ITV, "", now);
+
+    @Test
+    public void testDeSerializingAssertion() {
+        Set<Publisher> sources = ImmutableSet.of(Publisher.BBC, Publisher.PA, Publisher.ITV);
+        EquivalenceAssertion assertion = new EquivalenceAssertion(bbc,
+            ImmutableSet.<ResourceRef>of(pa, itv), sources);
+
+        EquivalenceAssertion deserialized
+            = serializer.deserializeAssertion(serializer.serialize(assertion), sources);
+
+        assertThat(deserialized, is(assertion));
+        assertTrue(deserialized.getSubject() instanceof ItemRef);
+        assertTrue(Iterables.get(deserialized.getAssertedAdjacents(), 0) instanceof BrandRef);
+    }
+
+    @Test
+    public void testDeSerializingAssertionWithoutAdjacents() {
+        Set<Publisher> sources = ImmutableSet.of(Publisher.BBC);
+        EquivalenceAssertion assertion = new EquivalenceAssertion(bbc,
+            ImmutableSet.<ResourceRef>of(), sources);
+
+        assertThat(serializer.deserializeAssertion(serializer.serialize(assertion), sources),
+            is(assertion));
+    }
+
+    @Test
+    public void testDeserializedAssertionHasTheSourcesItsStoredWith() {
+        EquivalenceAssertion assertion = new EquivalenceAssertion(bbc,
+            ImmutableSet.<ResourceRef>of(pa), ImmutableSet.of(Publisher.BBC, Publisher.PA));
+        Set<Publisher> stored = ImmutableSet.of(Publisher.BBC);
+
+        EquivalenceAssertion deserialized
+            = serializer.deserializeAssertion(serializer.serialize(assertion), stored);
+
+        assertThat(deserialized.getSources(), is(stored));
+        assertThat(deserialized.getAssertedAdjacents(), is(assertion.getAssertedAdjacents()));
+    }
+
+}
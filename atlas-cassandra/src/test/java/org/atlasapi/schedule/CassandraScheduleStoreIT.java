@@ -8,7 +8,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.argThat;
-import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -311,7 +311,7 @@ public class CassandraScheduleStoreIT {
         List<WriteResult<? extends Content, Content>> results
             = store.writeSchedule(hiers, channel, writtenInterval);
 
-        verify(hasher, never()).hash(argThat(is(any(Content.class))));
+        verify(hasher, times(1)).hash(argThat(is(any(Content.class))));
         assertThat(results.size(), is(1));
 
         Schedule schedule = future(store.resolve(ImmutableList.of(channel), writtenInterval, source));
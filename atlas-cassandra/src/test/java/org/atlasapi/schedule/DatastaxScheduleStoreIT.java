@@ -0,0 +1,248 @@
+package org.atlasapi.schedule;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isA;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.DatastaxCassandraService;
+import org.atlasapi.content.Broadcast;
+import org.atlasapi.content.Content;
+import org.atlasapi.content.ContentHasher;
+import org.atlasapi.content.DatastaxContentStore;
+import org.atlasapi.content.Item;
+import org.atlasapi.content.ItemAndBroadcast;
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.CassandraHelper;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.util.Resolved;
+import org.atlasapi.entity.util.WriteResult;
+import org.atlasapi.media.channel.Channel;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.ResourceUpdatedMessage;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.ids.SequenceGenerator;
+import com.metabroadcast.common.queue.MessageSender;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.metabroadcast.common.time.TimeMachine;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.serializers.LongSerializer;
+import com.netflix.astyanax.serializers.StringSerializer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatastaxScheduleStoreIT {
+
+    private static final String SCHEDULE_CF_NAME = "schedule";
+    private static final String CONTENT_CF_NAME = "content";
+    private static final String CONTENT_ALIASES_CF_NAME = "content_aliases";
+
+    private static final AstyanaxContext<Keyspace> context =
+            CassandraHelper.testCassandraContext();
+    private static final DatastaxCassandraService service =
+            new DatastaxCassandraService(ImmutableList.of("127.0.0.1"));
+    private static Session session;
+
+    @Mock private ContentHasher hasher;
+    @Mock private MessageSender<ResourceUpdatedMessage> contentUpdateSender;
+    @Mock private MessageSender<ScheduleUpdateMessage> scheduleUpdateSender;
+
+    private final Clock clock = new TimeMachine();
+
+    private DatastaxContentStore contentStore;
+    private DatastaxScheduleStore store;
+
+    private final Publisher source = Publisher.METABROADCAST;
+    private final Channel channel = Channel.builder().build();
+
+    @BeforeClass
+    public static void setup() throws ConnectionException {
+        context.start();
+        tearDown();
+        CassandraHelper.createKeyspace(context);
+        CassandraHelper.createColumnFamily(context, SCHEDULE_CF_NAME, StringSerializer.get(), StringSerializer.get());
+        CassandraHelper.createColumnFamily(context, CONTENT_CF_NAME, LongSerializer.get(), StringSerializer.get());
+        CassandraHelper.createColumnFamily(context, CONTENT_ALIASES_CF_NAME, StringSerializer.get(), StringSerializer.get(), LongSerializer.get());
+        service.startAsync().awaitRunning();
+        session = service.getSession("atlas_testing");
+    }
+
+    @AfterClass
+    public static void tearDown() throws ConnectionException {
+        try {
+            context.getClient().dropKeyspace();
+        } catch (BadRequestException ire) { }
+    }
+
+    @Before
+    public void setUp() {
+        channel.setCanonicalUri("channel");
+        channel.setId(1234L);
+        contentStore = DatastaxContentStore
+                .builder(session, CONTENT_CF_NAME, hasher, contentUpdateSender, new SequenceGenerator())
+                .withReadConsistency(ConsistencyLevel.ONE)
+                .withWriteConsistency(ConsistencyLevel.ONE)
+                .withClock(clock)
+                .build();
+        store = DatastaxScheduleStore
+                .builder(session, SCHEDULE_CF_NAME, contentStore, scheduleUpdateSender)
+                .withReadConsistency(ConsistencyLevel.ONE)
+                .withWriteConsistency(ConsistencyLevel.ONE)
+                .withClock(clock)
+                .build();
+    }
+
+    @After
+    public void clearCf() throws ConnectionException {
+        context.getClient().truncateColumnFamily(SCHEDULE_CF_NAME);
+        context.getClient().truncateColumnFamily(CONTENT_CF_NAME);
+        context.getClient().truncateColumnFamily(CONTENT_ALIASES_CF_NAME);
+    }
+
+    @Test
+    public void testWritingAndResolvingANewSchedule() throws Exception {
+
+        DateTime start = new DateTime(2013,05,31,14,0,0,0,DateTimeZones.LONDON);
+        DateTime middle = new DateTime(2013,05,31,23,0,0,0,DateTimeZones.LONDON);
+        DateTime end = new DateTime(2013,06,01,14,0,0,0,DateTimeZones.LONDON);
+
+        ImmutableList<ScheduleHierarchy> hiers = ImmutableList.<ScheduleHierarchy>of(
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("one", start, middle)),
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("two", middle, end))
+        );
+
+        Interval writtenInterval = new Interval(start, end);
+        List<WriteResult<? extends Content, Content>> results = store.writeSchedule(hiers, channel, writtenInterval);
+
+        assertThat(results.size(), is(2));
+
+        Interval requestedInterval = new Interval(
+            new DateTime(2013,05,31,10,0,0,0,DateTimeZones.UTC),
+            new DateTime(2013,05,31,22,30,0,0,DateTimeZones.UTC)
+        );
+        Schedule schedule = future(store.resolve(ImmutableList.of(channel), requestedInterval, source));
+        ChannelSchedule channelSchedule = Iterables.getOnlyElement(schedule.channelSchedules());
+
+        assertThat(channelSchedule.getChannel(), is(channel));
+        assertThat(channelSchedule.getInterval(), is(requestedInterval));
+        assertThat(channelSchedule.getEntries().size(), is(2));
+        assertThat(channelSchedule.getEntries().get(0).getItem().getId().longValue(), is(2L));
+        assertThat(channelSchedule.getEntries().get(1).getItem().getId().longValue(), is(1L));
+    }
+
+    @Test
+    public void testReWritingASchedule() throws Exception {
+
+        DateTime start = new DateTime(2013,05,31,14,0,0,0,DateTimeZones.LONDON);
+        DateTime middle = new DateTime(2013,05,31,23,0,0,0,DateTimeZones.LONDON);
+        DateTime end = new DateTime(2013,06,01,14,0,0,0,DateTimeZones.LONDON);
+
+        ImmutableList<ScheduleHierarchy> hiers = ImmutableList.<ScheduleHierarchy>of(
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("one", start, middle)),
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("two", middle, end))
+        );
+
+        Interval writtenInterval = new Interval(start, end);
+        List<WriteResult<? extends Content, Content>> results = store.writeSchedule(hiers, channel, writtenInterval);
+        assertThat(results.size(), is(2));
+
+        DateTime newMiddle = new DateTime(2013,05,31,23,30,0,0,DateTimeZones.LONDON);
+
+        //items 1 and 2 change
+        when(hasher.hash(argThat(isA(Content.class))))
+            .thenReturn("differentOne")
+            .thenReturn("oneDifferent")
+            .thenReturn("differentTwo")
+            .thenReturn("twoDifferent");
+
+        hiers = ImmutableList.<ScheduleHierarchy>of(
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("one", start, newMiddle)),
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("three", newMiddle, end))
+        );
+
+        results = store.writeSchedule(hiers, channel, writtenInterval);
+        assertThat(results.size(), is(2));
+        assertTrue(Iterables.all(results, WriteResult.<Content,Content>writtenFilter()));
+
+        Interval requestedInterval = new Interval(
+            new DateTime(2013,05,31,10,0,0,0,DateTimeZones.UTC),
+            new DateTime(2013,05,31,22,40,0,0,DateTimeZones.UTC)
+        );
+        Schedule schedule = future(store.resolve(ImmutableList.of(channel), requestedInterval, source));
+        ChannelSchedule channelSchedule = Iterables.getOnlyElement(schedule.channelSchedules());
+
+        assertThat(channelSchedule.getEntries().size(), is(2));
+        assertThat(channelSchedule.getEntries().get(0).getItem().getId().longValue(), is(2L));
+        assertThat(channelSchedule.getEntries().get(1).getItem().getId().longValue(), is(3L));
+
+        Resolved<Content> resolved = future(contentStore.resolveIds(ImmutableList.of(Id.valueOf(1))));
+        Item two = (Item) resolved.getResources().first().get();
+        assertFalse(Iterables.getOnlyElement(two.getBroadcasts()).isActivelyPublished());
+    }
+
+    @Test
+    public void testResolvingSkipsEntriesMissingFromTheRow() throws Exception {
+
+        DateTime start = new DateTime(2013,05,31,14,0,0,0,DateTimeZones.LONDON);
+        DateTime middle = new DateTime(2013,05,31,18,0,0,0,DateTimeZones.LONDON);
+        DateTime end = new DateTime(2013,05,31,22,0,0,0,DateTimeZones.LONDON);
+
+        ImmutableList<ScheduleHierarchy> hiers = ImmutableList.<ScheduleHierarchy>of(
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("one", start, middle)),
+            ScheduleHierarchy.itemOnly(itemAndBroadcast("two", middle, end))
+        );
+
+        Interval writtenInterval = new Interval(start, end);
+        store.writeSchedule(hiers, channel, writtenInterval);
+
+        String key = String.format("%s-%s-%s", source.key(), channel.getId(), "2013-05-31");
+        session.execute(session.prepare(String.format(
+            "DELETE FROM %s WHERE key = ? AND column1 = ?", SCHEDULE_CF_NAME)).bind(key, "one"));
+
+        Schedule schedule = future(store.resolve(ImmutableList.of(channel), writtenInterval, source));
+        ChannelSchedule channelSchedule = Iterables.getOnlyElement(schedule.channelSchedules());
+
+        assertThat(channelSchedule.getEntries().size(), is(1));
+        assertThat(channelSchedule.getEntries().get(0).getBroadcast().getSourceId(), is("two"));
+    }
+
+    private <T> T future(ListenableFuture<T> resolve) throws Exception {
+        return Futures.get(resolve, 1, TimeUnit.SECONDS, Exception.class);
+    }
+
+    private ItemAndBroadcast itemAndBroadcast(String alias, DateTime start, DateTime end) {
+        Item item = new Item();
+        item.addAlias(new Alias("uri", alias));
+        item.setPublisher(source);
+        Broadcast broadcast = new Broadcast(channel, start, end);
+        broadcast.withId(alias);
+        item.addBroadcast(broadcast);
+        return new ItemAndBroadcast(item, broadcast);
+    }
+
+}
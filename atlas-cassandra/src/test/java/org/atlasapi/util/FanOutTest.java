@@ -0,0 +1,170 @@
+package org.atlasapi.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class FanOutTest {
+
+    private final Session session = mock(Session.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+
+    // the keys of the reads sent, in order, and their pending results
+    private final List<Object> sent = Lists.newArrayList();
+    private final List<SettableFuture<ResultSet>> pending = Lists.newArrayList();
+
+    @Before
+    public void setUp() {
+        when(session.prepare(anyString())).thenReturn(statement);
+        when(statement.bind(any())).thenAnswer(new Answer<BoundStatement>() {
+            @Override
+            public BoundStatement answer(InvocationOnMock invocation) {
+                Object key = invocation.getArguments()[0];
+                BoundStatement bound = mock(BoundStatement.class, key.toString());
+                when(bound.setConsistencyLevel(any(ConsistencyLevel.class))).thenReturn(bound);
+                return bound;
+            }
+        });
+        when(session.executeAsync(any(Query.class))).thenAnswer(new Answer<ResultSetFuture>() {
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) {
+                sent.add(invocation.getArguments()[0].toString());
+                SettableFuture<ResultSet> result = SettableFuture.create();
+                pending.add(result);
+                return resultSetFuture(result);
+            }
+        });
+    }
+
+    @Test
+    public void testPerPartitionKeepsAtMostMaxInFlight() throws Exception {
+        ListenableFuture<List<ResultSet>> results = FanOut.perPartition(2)
+            .select(session, ConsistencyLevel.ONE, "t", "k", ImmutableList.of(1L, 2L, 3L, 4L, 5L));
+
+        assertThat(sent, is((List<Object>) ImmutableList.<Object>of("1", "2")));
+
+        complete(1);
+        assertThat(sent, is((List<Object>) ImmutableList.<Object>of("1", "2", "3")));
+
+        complete(0);
+        complete(2);
+        assertThat(sent.size(), is(5));
+        assertFalse(results.isDone());
+
+        complete(3);
+        complete(4);
+        List<ResultSet> resultSets = results.get();
+        assertThat(resultSets.size(), is(5));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(resultSets.get(i) == pending.get(i).get());
+        }
+    }
+
+    @Test
+    public void testPerPartitionReadsEachDistinctKeyOnce() throws Exception {
+        ListenableFuture<List<ResultSet>> results = FanOut.perPartition(10)
+            .select(session, ConsistencyLevel.ONE, "t", "k", ImmutableList.of(1L, 2L, 1L, 2L));
+
+        assertThat(sent, is((List<Object>) ImmutableList.<Object>of("1", "2")));
+        complete(0);
+        complete(1);
+        assertThat(results.get().size(), is(2));
+    }
+
+    @Test
+    public void testPerPartitionStopsReadingAfterAFailure() throws Exception {
+        ListenableFuture<List<ResultSet>> results = FanOut.perPartition(1)
+            .select(session, ConsistencyLevel.ONE, "t", "k", ImmutableList.of(1L, 2L, 3L));
+
+        pending.get(0).setException(new RuntimeException("failed"));
+
+        assertThat(sent.size(), is(1));
+        try {
+            results.get();
+            fail("expected the read to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("failed"));
+        }
+    }
+
+    @Test
+    public void testInQuerySendsASingleQuery() throws Exception {
+        ListenableFuture<List<ResultSet>> results = FanOut.inQuery()
+            .select(session, ConsistencyLevel.ONE, "t", "k", ImmutableList.of(1L, 2L, 3L));
+
+        assertThat(sent.size(), is(1));
+        complete(0);
+        assertThat(results.get().size(), is(1));
+    }
+
+    @Test
+    public void testNoKeysSendsNothing() throws Exception {
+        ListenableFuture<List<ResultSet>> results = FanOut.perPartition()
+            .select(session, ConsistencyLevel.ONE, "t", "k", ImmutableList.of());
+
+        assertThat(sent.size(), is(0));
+        assertTrue(results.get().isEmpty());
+    }
+
+    private void complete(int read) {
+        pending.get(read).set(mock(ResultSet.class));
+    }
+
+    private static ResultSetFuture resultSetFuture(final SettableFuture<ResultSet> result) {
+        ResultSetFuture future = mock(ResultSetFuture.class);
+        try {
+            when(future.get()).thenAnswer(new Answer<ResultSet>() {
+                @Override
+                public ResultSet answer(InvocationOnMock invocation) throws Exception {
+                    return result.get();
+                }
+            });
+            when(future.isDone()).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) {
+                    return result.isDone();
+                }
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                result.addListener((Runnable) invocation.getArguments()[0],
+                    (Executor) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(future).addListener(any(Runnable.class), any(Executor.class));
+        return future;
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.atlasapi.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+
+public class PreparedStatementsTest {
+
+    private static final String SELECT = "SELECT * FROM t WHERE k = ?";
+    private static final String DELETE = "DELETE FROM t WHERE k = ?";
+
+    @Test
+    public void testEachStatementIsPreparedOncePerSession() {
+        Session session = mock(Session.class);
+        when(session.prepare(SELECT)).thenReturn(mock(PreparedStatement.class));
+        when(session.prepare(DELETE)).thenReturn(mock(PreparedStatement.class));
+
+        PreparedStatement select = PreparedStatements.forSession(session).prepare(SELECT);
+        assertThat(PreparedStatements.forSession(session).prepare(SELECT), is(sameInstance(select)));
+        assertThat(PreparedStatements.forSession(session).prepare(DELETE), is(not(sameInstance(select))));
+
+        verify(session, times(1)).prepare(SELECT);
+        verify(session, times(1)).prepare(DELETE);
+    }
+
+    @Test
+    public void testSessionsDontShareStatements() {
+        Session one = mock(Session.class);
+        Session two = mock(Session.class);
+        when(one.prepare(SELECT)).thenReturn(mock(PreparedStatement.class));
+        when(two.prepare(SELECT)).thenReturn(mock(PreparedStatement.class));
+
+        assertThat(PreparedStatements.forSession(one), is(sameInstance(PreparedStatements.forSession(one))));
+        assertThat(PreparedStatements.forSession(one), is(not(sameInstance(PreparedStatements.forSession(two)))));
+
+        PreparedStatement fromOne = PreparedStatements.forSession(one).prepare(SELECT);
+        PreparedStatement fromTwo = PreparedStatements.forSession(two).prepare(SELECT);
+        assertThat(fromOne, is(not(sameInstance(fromTwo))));
+
+        verify(one, times(1)).prepare(SELECT);
+        verify(two, times(1)).prepare(SELECT);
+    }
+
+    @Test
+    public void testConsistencyIsSetOnTheBoundStatement() {
+        Session session = mock(Session.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        BoundStatement bound = mock(BoundStatement.class);
+        when(session.prepare(SELECT)).thenReturn(statement);
+        when(statement.bind(1L)).thenReturn(bound);
+
+        PreparedStatements.forSession(session).bind(SELECT, ConsistencyLevel.ONE, 1L);
+
+        verify(bound).setConsistencyLevel(ConsistencyLevel.ONE);
+        verify(statement, times(0)).setConsistencyLevel(ConsistencyLevel.ONE);
+    }
+
+}
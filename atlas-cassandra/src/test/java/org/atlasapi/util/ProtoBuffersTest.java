@@ -0,0 +1,44 @@
+package org.atlasapi.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.atlasapi.serialization.protobuf.CommonProtos.Reference;
+import org.junit.Test;
+
+public class ProtoBuffersTest {
+
+    private final Reference reference = Reference.newBuilder().setId(1234L).build();
+    
+    @Test
+    public void testParsesRemainingBytesOfHeapBufferSlice() throws Exception {
+        byte[] bytes = reference.toByteArray();
+        ByteBuffer padded = ByteBuffer.allocate(bytes.length + 4);
+        padded.position(2);
+        padded.put(bytes);
+        padded.position(2);
+        padded.limit(2 + bytes.length);
+        ByteBuffer slice = padded.slice();
+        
+        Reference parsed = Reference.parseFrom(ProtoBuffers.codedInputStream(slice));
+        
+        assertThat(parsed, is(reference));
+        assertThat(slice.position(), is(0));
+    }
+
+    @Test
+    public void testParsesDirectBuffer() throws Exception {
+        byte[] bytes = reference.toByteArray();
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        
+        Reference parsed = Reference.parseFrom(ProtoBuffers.codedInputStream(direct));
+        
+        assertThat(parsed, is(reference));
+        assertThat(direct.remaining(), is(bytes.length));
+    }
+    
+}
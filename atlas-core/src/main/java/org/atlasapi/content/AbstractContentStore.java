@@ -3,8 +3,12 @@ package org.atlasapi.content;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -21,7 +25,20 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.metabroadcast.common.ids.IdGenerator;
 import com.metabroadcast.common.queue.MessageSender;
 import com.metabroadcast.common.time.Clock;
@@ -33,10 +50,157 @@ public abstract class AbstractContentStore implements ContentStore {
     
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
+    /**
+     * The previous version of some content along with the {@link ContentHasher}
+     * hash persisted with it, so the previous version needn't be hashed again.
+     * A previous version whose persisted hash matches that of the content being
+     * written may hold only its identification and child refs.
+     */
+    protected static final class PreviousVersion {
+
+        private final Content content;
+        private final String hash;
+        private final Map<ContentColumn, String> digests;
+
+        public PreviousVersion(Content content, @Nullable String hash) {
+            this(content, hash, null);
+        }
+
+        public PreviousVersion(Content content, @Nullable String hash,
+                @Nullable Map<ContentColumn, String> digests) {
+            this.content = checkNotNull(content);
+            this.hash = hash;
+            this.digests = digests;
+        }
+
+        public Content getContent() {
+            return content;
+        }
+
+        /**
+         * @return the persisted hash or {@code null} if none was persisted with
+         *         the previous version.
+         */
+        @Nullable
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the digests of the previous version's columns, persisted
+         *         with them, or {@code null} if none were read.
+         */
+        @Nullable
+        public Map<ContentColumn, String> getDigests() {
+            return digests;
+        }
+
+    }
+
+    /**
+     * Collects the reads and mutations required to write one or more pieces of
+     * content. Implementations may defer the mutations until
+     * {@link #execute()} so that they can be persisted together.
+     */
+    protected interface WriteBatch {
+
+        /**
+         * Called before the given contents are visited, each of which will
+         * have its previous version resolved with the hash at the same index.
+         */
+        void prefetchPrevious(List<Content> contents, List<String> hashes);
+
+        /**
+         * @see AbstractContentStore#resolvePrevious(Id, Publisher, Set, String)
+         */
+        @Nullable PreviousVersion resolvePrevious(Content content, String hash);
+
+        @Nullable ContainerSummary summarize(ContainerRef primary);
+
+        void writeContent(Content content, @Nullable Content previous, @Nullable String hash,
+                @Nullable Map<ContentColumn, String> previousDigests);
+
+        void writeSecondaryContainerRef(BrandRef primary, SeriesRef seriesRef);
+
+        void writeItemRef(ContainerRef containerRef, ItemRef childRef);
+
+        void execute();
+
+        /**
+         * Persist the mutations of the batch without blocking.
+         */
+        ListenableFuture<Void> executeAsync();
+
+    }
+
+    private final class UnbatchedWrites implements WriteBatch {
+
+        @Override
+        public void prefetchPrevious(List<Content> contents, List<String> hashes) {
+            // previous versions are resolved as they are visited
+        }
+
+        @Override
+        public PreviousVersion resolvePrevious(Content content, String hash) {
+            return AbstractContentStore.this.resolvePrevious(content.getId(),
+                    content.getPublisher(), content.getAliases(), hash);
+        }
+
+        @Override
+        public ContainerSummary summarize(ContainerRef primary) {
+            return AbstractContentStore.this.summarize(primary);
+        }
+
+        @Override
+        public void writeContent(Content content, Content previous, String hash,
+                Map<ContentColumn, String> previousDigests) {
+            doWriteContent(content, previous, hash, previousDigests);
+        }
+
+        @Override
+        public void writeSecondaryContainerRef(BrandRef primary, SeriesRef seriesRef) {
+            AbstractContentStore.this.writeSecondaryContainerRef(primary, seriesRef);
+        }
+
+        @Override
+        public void writeItemRef(ContainerRef containerRef, ItemRef childRef) {
+            AbstractContentStore.this.writeItemRef(containerRef, childRef);
+        }
+
+        @Override
+        public void execute() {
+            // writes are performed immediately
+        }
+
+        @Override
+        public ListenableFuture<Void> executeAsync() {
+            return Futures.immediateFuture(null);
+        }
+
+    }
+
     private final class ContentWritingVisitor implements ContentVisitor<WriteResult<? extends Content,Content>> {
 
+        private final WriteBatch writes;
+        private final String hash;
+        private String previousHash;
+        private Map<ContentColumn, String> previousDigests;
+        private final long summaryGeneration;
+
+        public ContentWritingVisitor(WriteBatch writes, String hash, long summaryGeneration) {
+            this.writes = checkNotNull(writes);
+            this.hash = hash;
+            this.summaryGeneration = summaryGeneration;
+        }
+
+        /**
+         * The previous version is only hashed if no hash was persisted with
+         * it.
+         */
         private boolean hashChanged(Content writing, Content previous) {
-            return !hasher.hash(writing).equals(hasher.hash(previous));
+            String previousHash = this.previousHash != null ? this.previousHash 
+                                                            : hasher.hash(previous);
+            return hash == null || !hash.equals(previousHash);
         }
         
         private void updateTimes(Content content) {
@@ -53,6 +217,42 @@ public abstract class AbstractContentStore implements ContentStore {
             writing.setFirstSeen(previous.getFirstSeen());
             updateTimes(writing);
         }
+
+        private Content getPreviousContent(Content c) {
+            PreviousVersion previous = writes.resolvePrevious(c, hash);
+            if (previous == null) {
+                return NO_PREVIOUS;
+            }
+            previousHash = previous.getHash();
+            previousDigests = previous.getDigests();
+            return previous.getContent();
+        }
+
+        private void write(Content content, Content previous) {
+            ensureId(content);
+            writes.writeContent(content, previous, hash, previousDigests);
+        }
+
+        private ContainerSummary getSummary(ContainerRef primary) {
+            ContainerSummary summary = cachedSummary(primary);
+            if (summary != null) {
+                return summary;
+            }
+            summary = writes.summarize(primary);
+            if (summary != null) {
+                if (summaryCache.isPresent()) {
+                    summaryCache.get().put(primary.getId(), summary, summaryGeneration);
+                }
+                return summary;
+            }
+            throw new RuntimeWriteException(new MissingResourceException(primary.getId()));
+        }
+
+        private void invalidateSummary(Container container) {
+            if (summaryCache.isPresent()) {
+                summaryCache.get().invalidate(container.getId());
+            }
+        }
         
         @Override
         public WriteResult<Brand,Content> visit(Brand brand) {
@@ -67,6 +267,7 @@ public abstract class AbstractContentStore implements ContentStore {
 
             updateTimes(brand);
             write(brand, NO_PREVIOUS);
+            invalidateSummary(brand);
             
             return WriteResult.<Brand,Content>written(brand).build();
             
@@ -77,6 +278,7 @@ public abstract class AbstractContentStore implements ContentStore {
             if (hashChanged(brand, previous)) {
                 updateWithPevious(brand, previous);
                 write(brand, previous);
+                invalidateSummary(brand);
                 written = true;
             } 
             if (previous instanceof Container) {
@@ -103,6 +305,7 @@ public abstract class AbstractContentStore implements ContentStore {
             updateTimes(series);
             writeRefAndSummarizePrimary(series);
             write(series, NO_PREVIOUS);
+            invalidateSummary(series);
             return WriteResult.<Series,Content>written(series).build();
         }
 
@@ -112,6 +315,7 @@ public abstract class AbstractContentStore implements ContentStore {
                 updateWithPevious(series, previous);
                 writeRefAndSummarizePrimary(series);
                 write(series, previous);
+                invalidateSummary(series);
                 written = true;
             }
             if (previous instanceof Container) {
@@ -128,7 +332,7 @@ public abstract class AbstractContentStore implements ContentStore {
                 //TODO set summary on series
                 ContainerSummary summarize = getSummary(primary);
                 ensureId(series);
-                writeSecondaryContainerRef(primary, series.toRef());
+                writes.writeSecondaryContainerRef(primary, series.toRef());
             }
         }
         
@@ -164,7 +368,7 @@ public abstract class AbstractContentStore implements ContentStore {
                 ContainerRef containerRef = item.getContainerRef();
                 item.setContainerSummary(getSummary(containerRef));
                 ensureId(item);
-                writeItemRef(containerRef, item.toRef());
+                writes.writeItemRef(containerRef, item.toRef());
             }
         }
 
@@ -208,11 +412,11 @@ public abstract class AbstractContentStore implements ContentStore {
                 ContainerSummary summary = getSummary(secondaryContainer);
                 ensureId(episode);
                 childRef = episode.toRef();
-                writeItemRef(secondaryContainer, childRef);
+                writes.writeItemRef(secondaryContainer, childRef);
             }
             ensureId(episode);
             childRef = childRef == null ? episode.toRef() : childRef;
-            writeItemRef(primaryContainer, childRef);
+            writes.writeItemRef(primaryContainer, childRef);
         }
 
         @Override
@@ -274,15 +478,32 @@ public abstract class AbstractContentStore implements ContentStore {
     private final IdGenerator idGenerator;
     private final MessageSender<ResourceUpdatedMessage> sender;
     private final Clock clock;
+    private final Optional<ContentHashCache> hashCache;
+    private final Optional<ContainerSummaryCache> summaryCache;
+    private final Function<Content, String> hashFunction = new Function<Content, String>() {
+        @Override
+        public String apply(Content input) {
+            return hash(input);
+        }
+    };
 
-    private final ContentWritingVisitor writingVisitor;
-    
     public AbstractContentStore(ContentHasher hasher, IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, Clock clock) {
+        this(hasher, idGenerator, sender, clock, Optional.<ContentHashCache>absent());
+    }
+
+    public AbstractContentStore(ContentHasher hasher, IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, 
+            Clock clock, Optional<ContentHashCache> hashCache) {
+        this(hasher, idGenerator, sender, clock, hashCache, Optional.<ContainerSummaryCache>absent());
+    }
+
+    public AbstractContentStore(ContentHasher hasher, IdGenerator idGenerator, MessageSender<ResourceUpdatedMessage> sender, 
+            Clock clock, Optional<ContentHashCache> hashCache, Optional<ContainerSummaryCache> summaryCache) {
         this.hasher = checkNotNull(hasher);
         this.idGenerator = checkNotNull(idGenerator);
         this.clock = checkNotNull(clock);
         this.sender = checkNotNull(sender);
-        this.writingVisitor = new ContentWritingVisitor();
+        this.hashCache = checkNotNull(hashCache);
+        this.summaryCache = checkNotNull(summaryCache);
     }
 
     @Override
@@ -291,9 +512,15 @@ public abstract class AbstractContentStore implements ContentStore {
         checkNotNull(content, "write null content");
         checkNotNull(content.getPublisher(), "write unsourced content");
         try {
-            WriteResult<C,Content> result = (WriteResult<C, Content>)content.accept(writingVisitor);
+            final WriteResult<C,Content> result = (WriteResult<C, Content>) Iterables.getOnlyElement(
+                    write(ImmutableList.<Content>of(content), new UnbatchedWrites(), summaryGeneration()));
             if (result.written()) {
-                sendResourceUpdatedMessage(result);
+                whenPersisted(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendResourceUpdatedMessage(result);
+                    }
+                });
             }
             return result;
         } catch (RuntimeWriteException rwe) {
@@ -301,6 +528,310 @@ public abstract class AbstractContentStore implements ContentStore {
         }
     }
 
+    /**
+     * Reads required to write the content are made via
+     * {@link #startAsyncBatch(Content, String)} and the mutations are persisted with
+     * {@link WriteBatch#executeAsync()}, so the calling thread is only blocked
+     * if the implementation doesn't support asynchronous reads. The content is
+     * visited, and the update message sent, on the {@link #asyncExecutor()}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <C extends Content> ListenableFuture<WriteResult<C, Content>> writeContentAsync(final C content) {
+        checkNotNull(content, "write null content");
+        checkNotNull(content.getPublisher(), "write unsourced content");
+        final ImmutableList<Content> toWrite = ImmutableList.<Content>of(content);
+        final List<String> hashes = Collections.singletonList(hash(content));
+        if (hashCache.isPresent() && !(content instanceof Container)) {
+            // the cache is checked here, once, so no reads are needed if it hits
+            Id cachedId = hashCache.get().unchangedId(content, hashes.get(0));
+            if (cachedId != null) {
+                return Futures.immediateFuture(
+                    (WriteResult<C, Content>) unchanged(content, cachedId).result);
+            }
+            hashCache.get().invalidate(content);
+        }
+        // taken before the batch prefetches any container summaries
+        final long summaryGeneration = summaryGeneration();
+        ListenableFuture<WriteResult<C, Content>> written = Futures.transform(startAsyncBatch(content, hashes.get(0)),
+            new AsyncFunction<WriteBatch, WriteResult<C, Content>>() {
+                @Override
+                public ListenableFuture<WriteResult<C, Content>> apply(WriteBatch batch) {
+                    WriteResult<C, Content> result = (WriteResult<C, Content>) 
+                        Iterables.getOnlyElement(visit(toWrite, hashes, batch, false, summaryGeneration));
+                    return Futures.transform(batch.executeAsync(), 
+                        Functions.constant(result));
+                }
+            }, asyncExecutor());
+        written = Futures.withFallback(written, new FutureFallback<WriteResult<C, Content>>() {
+            @Override
+            public ListenableFuture<WriteResult<C, Content>> create(Throwable t) {
+                invalidateCaches(toWrite);
+                if (t instanceof RuntimeWriteException) {
+                    return Futures.immediateFailedFuture(((RuntimeWriteException) t).getCause());
+                }
+                return Futures.immediateFailedFuture(t);
+            }
+        }, asyncExecutor());
+        Futures.addCallback(written, new FutureCallback<WriteResult<C, Content>>() {
+            @Override
+            public void onSuccess(WriteResult<C, Content> result) {
+                if (result.written()) {
+                    sendResourceUpdatedMessage(result);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // failures are reported through the returned future
+            }
+        }, asyncExecutor());
+        return written;
+    }
+
+    /**
+     * Writes a number of pieces of content together. Previous versions are
+     * resolved and mutations are persisted in as few operations as the
+     * implementation allows, via {@link #startBatch(List)}. Content is visited
+     * in iteration order so later content may refer to content earlier in the
+     * batch.
+     * 
+     * @return one {@link WriteResult} per piece of content, in iteration order.
+     */
+    @Override
+    public final List<WriteResult<? extends Content, Content>> writeContents(
+            Iterable<? extends Content> contents) throws WriteException {
+        ImmutableList<Content> toWrite = ImmutableList.<Content>copyOf(contents);
+        for (Content content : toWrite) {
+            checkNotNull(content.getPublisher(), "write unsourced content");
+        }
+        if (toWrite.isEmpty()) {
+            return ImmutableList.of();
+        }
+        try {
+            long summaryGeneration = summaryGeneration();
+            ImmutableList<WriteResult<? extends Content, Content>> written
+                = write(toWrite, startBatch(toWrite), summaryGeneration);
+            for (WriteResult<? extends Content, Content> result : written) {
+                if (result.written()) {
+                    sendResourceUpdatedMessage(result);
+                }
+            }
+            return written;
+        } catch (RuntimeWriteException rwe) {
+            throw rwe.getCause();
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final Content content;
+        private final String hash;
+        private WriteResult<? extends Content, Content> result;
+
+        public PendingWrite(Content content, @Nullable String hash) {
+            this.content = content;
+            this.hash = hash;
+        }
+
+    }
+
+    /**
+     * Content is first checked for changes against the {@link ContentHashCache}
+     * if configured. Content whose cached hash differs or is unknown has its
+     * previous version resolved and is visited for writing.
+     */
+    private ImmutableList<WriteResult<? extends Content, Content>> write(List<Content> toWrite, WriteBatch batch,
+            long summaryGeneration) {
+        try {
+            ImmutableList<WriteResult<? extends Content, Content>> results
+                = visit(toWrite, Lists.transform(toWrite, hashFunction), batch, true,
+                    summaryGeneration);
+            batch.execute();
+            return results;
+        } catch (RuntimeException e) {
+            invalidateCaches(toWrite);
+            throw e;
+        }
+    }
+
+    /**
+     * @param checkHashCache
+     *            - false if the {@link ContentHashCache} has already been
+     *            checked for the content, so that it isn't counted twice.
+     * @param summaryGeneration
+     *            - the {@link ContainerSummaryCache#generation()} taken before
+     *            any container summaries were read for the write.
+     */
+    private ImmutableList<WriteResult<? extends Content, Content>> visit(List<Content> toWrite,
+            List<String> hashes, WriteBatch batch, boolean checkHashCache, long summaryGeneration) {
+        try {
+            List<PendingWrite> pending = Lists.newArrayListWithCapacity(toWrite.size());
+            List<Content> toVisit = Lists.newArrayListWithCapacity(toWrite.size());
+            List<String> visitHashes = Lists.newArrayListWithCapacity(toWrite.size());
+            Set<Id> batchIds = Sets.newHashSet();
+            for (int i = 0; i < toWrite.size(); i++) {
+                Content content = toWrite.get(i);
+                PendingWrite write = prepare(content, hashes.get(i), batchIds, checkHashCache);
+                if (write.result == null) {
+                    toVisit.add(content);
+                    visitHashes.add(write.hash);
+                }
+                pending.add(write);
+            }
+            batch.prefetchPrevious(toVisit, visitHashes);
+            ImmutableList.Builder<WriteResult<? extends Content, Content>> results
+                = ImmutableList.builder();
+            for (PendingWrite write : pending) {
+                if (write.result == null) {
+                    write.result = write.content.accept(
+                        new ContentWritingVisitor(batch, write.hash, summaryGeneration));
+                    cacheHash(write);
+                }
+                results.add(write.result);
+            }
+            return results.build();
+        } catch (RuntimeException e) {
+            invalidateCaches(toWrite);
+            throw e;
+        }
+    }
+
+    private void invalidateCaches(List<Content> contents) {
+        for (Content content : contents) {
+            if (hashCache.isPresent()) {
+                hashCache.get().invalidate(content);
+            }
+            if (summaryCache.isPresent() && content instanceof Container
+                    && content.getId() != null) {
+                summaryCache.get().invalidate(content.getId());
+            }
+        }
+    }
+
+    private long summaryGeneration() {
+        return summaryCache.isPresent() ? summaryCache.get().generation() : 0;
+    }
+
+    private @Nullable ContainerSummary cachedSummary(ContainerRef container) {
+        return summaryCache.isPresent() ? summaryCache.get().get(container.getId()) : null;
+    }
+
+    /**
+     * @return true if the summary of the container is held by the
+     *         {@link ContainerSummaryCache}, so needn't be read when writing
+     *         its children.
+     */
+    protected boolean isSummaryCached(ContainerRef container) {
+        return summaryCache.isPresent() && summaryCache.get().contains(container.getId());
+    }
+
+    /**
+     * Containers are always visited since the child refs of their previous
+     * version are carried into the result. Content is also visited if it has
+     * the same id as content earlier in the batch. Content found unchanged by
+     * the {@link ContentHashCache} has no previous version in its result,
+     * since none is read.
+     */
+    private PendingWrite prepare(Content content, @Nullable String hash, Set<Id> batchIds,
+            boolean checkHashCache) {
+        if (content instanceof Container || !hashCache.isPresent() || !checkHashCache) {
+            return new PendingWrite(content, hash);
+        }
+        Id cachedId = hashCache.get().unchangedId(content, hash);
+        if (cachedId != null && batchIds.add(cachedId)) {
+            return unchanged(content, cachedId);
+        }
+        hashCache.get().invalidate(content);
+        if (content.getId() != null) {
+            batchIds.add(content.getId());
+        }
+        return new PendingWrite(content, hash);
+    }
+
+    /**
+     * Content is always hashed before it is written, so the hash is persisted
+     * with it and previous versions can be compared by their persisted hash.
+     */
+    private String hash(Content content) {
+        return hasher.hash(content);
+    }
+
+    private PendingWrite unchanged(Content content, Id id) {
+        content.setId(id);
+        PendingWrite unchanged = new PendingWrite(content, null);
+        unchanged.result = WriteResult.<Content,Content>unwritten(content).build();
+        return unchanged;
+    }
+
+    private void cacheHash(PendingWrite write) {
+        // containers are never checked against the cache
+        if (!hashCache.isPresent() || write.hash == null || write.content instanceof Container) {
+            return;
+        }
+        Id id = write.result.getResource().getId();
+        if (id == null && write.result.getPrevious().isPresent()) {
+            id = write.result.getPrevious().get().getId();
+        }
+        if (id != null) {
+            hashCache.get().put(write.result.getResource(), id, write.hash);
+        }
+    }
+
+    /**
+     * Run once all the writes made outside of a {@link WriteBatch} so far have
+     * been persisted. By default those writes are persisted as they are made,
+     * so this runs immediately. Implementations which defer them must run it
+     * once they are persisted.
+     */
+    protected void whenPersisted(Runnable persisted) {
+        persisted.run();
+    }
+
+    /**
+     * Start a {@link WriteBatch} for writing the given contents. By default
+     * every read and write is performed immediately, one piece of content at a
+     * time.
+     * 
+     * @param contents
+     *            - the content which will be written through the batch.
+     */
+    protected WriteBatch startBatch(List<Content> contents) {
+        return new UnbatchedWrites();
+    }
+
+    /**
+     * Start a {@link WriteBatch} for writing the given content, whose future
+     * completes once the batch can answer all the reads needed to visit the
+     * content without blocking. By default this is {@link #startBatch(List)}
+     * run on the calling thread. Failures are reported through the future
+     * rather than thrown.
+     * 
+     * @param content
+     *            - the content which will be written through the batch.
+     * @param hash
+     *            - the hash of the content, with which its previous version
+     *            will be resolved.
+     */
+    protected ListenableFuture<WriteBatch> startAsyncBatch(Content content, @Nullable String hash) {
+        try {
+            return Futures.immediateFuture(startBatch(ImmutableList.of(content)));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * The executor on which {@link #writeContentAsync(Content)} visits the
+     * content once its batch is started, and sends the update message. By
+     * default this is the thread completing the batch's reads, so stores whose
+     * reads complete on a client's I/O threads should override it, keeping the
+     * visit's work and any blocking reads off them.
+     */
+    protected Executor asyncExecutor() {
+        return MoreExecutors.sameThreadExecutor();
+    }
+
     private <C extends Content> void sendResourceUpdatedMessage(WriteResult<C, Content> result) {
         ResourceUpdatedMessage message = createEntityUpdatedMessage(result);
         try {
@@ -317,16 +848,15 @@ public abstract class AbstractContentStore implements ContentStore {
                 result.getResource().toRef());
     }
 
-    private Content getPreviousContent(Content c) {
-        return resolvePrevious(c.getId(), c.getPublisher(),  c.getAliases());
-    }
-
-    protected abstract @Nullable Content resolvePrevious(@Nullable Id id, Publisher source, Set<Alias> aliases);
-
-    private void write(Content content, Content previous) {
-        ensureId(content);
-        doWriteContent(content, previous);
-    }
+    /**
+     * @param hash
+     *            - the hash of the content being written. A previous version
+     *            with the same persisted hash won't be overwritten, so only
+     *            its identification and, for {@link Container}s, its child
+     *            refs need be read.
+     */
+    protected abstract @Nullable PreviousVersion resolvePrevious(@Nullable Id id, Publisher source,
+            Set<Alias> aliases, @Nullable String hash);
 
     private void ensureId(Content content) {
         if(content.getId() == null) {
@@ -334,16 +864,16 @@ public abstract class AbstractContentStore implements ContentStore {
         }
     }
     
-    protected abstract void doWriteContent(Content content, Content previous);
+    /**
+     * Persist the content along with its hash.
+     * 
+     * @param previousDigests
+     *            - the column digests persisted with the previous version, so
+     *            that only changed columns need be written, or {@code null}.
+     */
+    protected abstract void doWriteContent(Content content, Content previous, @Nullable String hash,
+            @Nullable Map<ContentColumn, String> previousDigests);
 
-    private final ContainerSummary getSummary(ContainerRef primary) {
-        ContainerSummary summary = summarize(primary);
-        if (summary != null) {
-            return summary;
-        }
-        throw new RuntimeWriteException(new MissingResourceException(primary.getId()));
-    }
-    
     protected abstract ContainerSummary summarize(ContainerRef primary);
 
     /**
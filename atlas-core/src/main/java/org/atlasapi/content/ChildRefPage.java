@@ -0,0 +1,85 @@
+package org.atlasapi.content;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.Ints;
+
+/**
+ * A page of the child refs of a {@link Container}: {@link ItemRef}s and, for
+ * {@link Brand}s, {@link SeriesRef}s. Refs are in the order they are stored,
+ * which need not be the order of {@link Container#getItemRefs()}.
+ */
+public final class ChildRefPage {
+
+    private static final ChildRefPage EMPTY = new ChildRefPage(
+        ImmutableList.<ItemRef>of(), ImmutableList.<SeriesRef>of(), null);
+
+    public static ChildRefPage empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Page through the child refs of an already resolved container, for
+     * resolvers which can't page child refs in storage. The cursor is the
+     * offset of the page.
+     */
+    public static ChildRefPage fromContainer(@Nullable Content content,
+            @Nullable String cursor, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        if (!(content instanceof Container)) {
+            return empty();
+        }
+        Container container = (Container) content;
+        List<SeriesRef> seriesRefs = container instanceof Brand ? ((Brand) container).getSeriesRefs()
+                                                                : ImmutableList.<SeriesRef>of();
+        List<ContentRef> refs = ImmutableList.<ContentRef>builder()
+            .addAll(container.getItemRefs())
+            .addAll(seriesRefs)
+            .build();
+        Integer offset = cursor == null ? Integer.valueOf(0) : Ints.tryParse(cursor);
+        checkArgument(offset != null && offset >= 0, "invalid cursor %s", cursor);
+        if (offset >= refs.size()) {
+            return empty();
+        }
+        int end = Math.min(refs.size(), offset + limit);
+        List<ContentRef> page = refs.subList(offset, end);
+        return new ChildRefPage(Iterables.filter(page, ItemRef.class),
+            Iterables.filter(page, SeriesRef.class),
+            end < refs.size() ? String.valueOf(end) : null);
+    }
+
+    private final ImmutableList<ItemRef> itemRefs;
+    private final ImmutableList<SeriesRef> seriesRefs;
+    private final Optional<String> nextCursor;
+
+    public ChildRefPage(Iterable<? extends ItemRef> itemRefs, Iterable<SeriesRef> seriesRefs,
+            @Nullable String nextCursor) {
+        this.itemRefs = ImmutableList.copyOf(itemRefs);
+        this.seriesRefs = ImmutableList.copyOf(seriesRefs);
+        this.nextCursor = Optional.fromNullable(nextCursor);
+    }
+
+    public ImmutableList<ItemRef> getItemRefs() {
+        return itemRefs;
+    }
+
+    public ImmutableList<SeriesRef> getSeriesRefs() {
+        return seriesRefs;
+    }
+
+    /**
+     * @return the cursor with which to resolve the next page, absent if this is
+     *         the last page.
+     */
+    public Optional<String> getNextCursor() {
+        return nextCursor;
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.atlasapi.content;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.content.Item.ContainerSummary;
+import org.atlasapi.entity.Id;
+import org.atlasapi.util.CacheMetrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ * A short-lived cache of the {@link ContainerSummary}s of {@link Container}s,
+ * keyed by container id, so that writing many items or episodes of the same
+ * brand or series doesn't read the container's summary for every write.
+ * </p>
+ *
+ * <p>
+ * Entries are invalidated when the container is written through the same
+ * {@link AbstractContentStore}. Writes made by other processes are only seen
+ * once entries expire, so the expiry should be kept short. A summary read
+ * before an invalidation isn't cached after it, see {@link #generation()}.
+ * </p>
+ */
+public final class ContainerSummaryCache {
+
+    public static final Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private long maximumSize = 10000;
+        private long expiry = 30;
+        private TimeUnit expiryUnit = TimeUnit.SECONDS;
+        private MetricRegistry metrics = new MetricRegistry();
+        private String metricPrefix = "container-summary-cache";
+
+        private Builder() { }
+
+        public Builder withMaximumSize(long maximumSize) {
+            checkArgument(maximumSize > 0, "maximumSize must be positive");
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        public Builder withExpireAfterWrite(long expiry, TimeUnit unit) {
+            this.expiry = expiry;
+            this.expiryUnit = checkNotNull(unit);
+            return this;
+        }
+
+        public Builder withMetrics(MetricRegistry metrics, String metricPrefix) {
+            this.metrics = checkNotNull(metrics);
+            this.metricPrefix = checkNotNull(metricPrefix);
+            return this;
+        }
+
+        public ContainerSummaryCache build() {
+            return new ContainerSummaryCache(maximumSize, expiry, expiryUnit, metrics, metricPrefix);
+        }
+    }
+
+    private final Cache<Id, ContainerSummary> cache;
+    // incremented by every invalidation, so summaries read before one aren't cached after it
+    private final AtomicLong invalidations = new AtomicLong();
+    private final CacheMetrics cacheMetrics;
+
+    private ContainerSummaryCache(long maximumSize, long expiry, TimeUnit expiryUnit,
+            MetricRegistry metrics, String metricPrefix) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expiry, expiryUnit)
+            .build();
+        this.cacheMetrics = CacheMetrics.register(metrics, metricPrefix, cache);
+    }
+
+    /**
+     * @return the cached summary of the container or {@code null} if there is
+     *         none.
+     */
+    @Nullable
+    public ContainerSummary get(Id containerId) {
+        ContainerSummary summary = cache.getIfPresent(containerId);
+        if (summary != null) {
+            cacheMetrics.hit();
+        } else {
+            cacheMetrics.miss();
+        }
+        return summary;
+    }
+
+    /**
+     * @return true if the summary of the container is cached. Unlike
+     *         {@link #get(Id)} this isn't recorded as a hit or miss.
+     */
+    public boolean contains(Id containerId) {
+        return cache.getIfPresent(containerId) != null;
+    }
+
+    /**
+     * @return the generation of the cache, which must be taken before reading
+     *         a summary that is to be {@link #put(Id, ContainerSummary, long)}.
+     */
+    public long generation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Cache the summary of a container, unless there has been an invalidation
+     * since it was read.
+     * 
+     * @param generation
+     *            - the {@link #generation()} taken before the summary was
+     *            read.
+     */
+    public void put(Id containerId, ContainerSummary summary, long generation) {
+        checkNotNull(containerId);
+        checkNotNull(summary);
+        if (invalidations.get() != generation) {
+            return;
+        }
+        cache.put(containerId, summary);
+        // an invalidation between the check and the put may have missed it
+        if (invalidations.get() != generation) {
+            cache.invalidate(containerId);
+        }
+    }
+
+    public void invalidate(Id containerId) {
+        invalidations.incrementAndGet();
+        cache.invalidate(containerId);
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.atlasapi.content;
+
+
+public enum ContentColumn {
+    TYPE,
+    SOURCE,
+    IDENTIFICATION,
+    DESCRIPTION,
+    BROADCASTS,
+    LOCATIONS,
+    CHILDREN,
+    CHILD_UPDATED,
+    SECONDARY,
+    PEOPLE,
+    CLIPS,
+    KEYPHRASES,
+    LINKS,
+    TOPICS,
+    GROUPS,
+    SEGMENTS,
+    /**
+     * The {@link ContentHasher} hash of the content when written, stored as a
+     * plain string rather than a protocol buffer message.
+     */
+    HASH,
+    /**
+     * Prefixes the name of the column holding the digest of each of the other
+     * columns of the content, written along with the column so that only the
+     * columns which change need be written.
+     */
+    DIGESTS
+}
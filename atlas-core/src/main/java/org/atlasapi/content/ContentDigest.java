@@ -0,0 +1,90 @@
+package org.atlasapi.content;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+/**
+ * The hash of a piece of content together with the hash of each
+ * {@link ContentColumn} group of its fields, so that the columns which
+ * changed between two versions can be found. Columns with no fields set have
+ * no hash.
+ */
+public final class ContentDigest {
+
+    private final String hash;
+    private final ImmutableMap<ContentColumn, String> columnHashes;
+
+    public ContentDigest(String hash, Map<ContentColumn, String> columnHashes) {
+        this.hash = checkNotNull(hash);
+        this.columnHashes = ImmutableMap.copyOf(columnHashes);
+    }
+
+    /**
+     * @return the hash of the whole content, as returned by
+     *         {@link ContentHasher#hash(Content)}.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public Map<ContentColumn, String> getColumnHashes() {
+        return columnHashes;
+    }
+
+    /**
+     * @return the columns whose hash differs from that in the other digest,
+     *         including those with fields set in only one of them.
+     */
+    public Set<ContentColumn> changedColumns(ContentDigest other) {
+        return changedColumns(other.columnHashes);
+    }
+
+    /**
+     * @return the columns whose hash differs from that given for them, such as
+     *         those persisted with a previous version, including those with
+     *         fields set in only one version.
+     */
+    public Set<ContentColumn> changedColumns(Map<ContentColumn, String> otherColumnHashes) {
+        Set<ContentColumn> changed = Sets.newEnumSet(
+            Sets.union(columnHashes.keySet(), otherColumnHashes.keySet()), ContentColumn.class);
+        for (Map.Entry<ContentColumn, String> column : columnHashes.entrySet()) {
+            if (column.getValue().equals(otherColumnHashes.get(column.getKey()))) {
+                changed.remove(column.getKey());
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof ContentDigest) {
+            ContentDigest other = (ContentDigest) that;
+            return hash.equals(other.hash)
+                && columnHashes.equals(other.columnHashes);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("hash", hash)
+            .add("columns", columnHashes)
+            .toString();
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.atlasapi.content;
+
+/**
+ * A {@link ContentHasher} which can also hash each {@link ContentColumn} of
+ * the content separately.
+ */
+public interface ContentDigester extends ContentHasher {
+
+    ContentDigest digest(Content content);
+
+}
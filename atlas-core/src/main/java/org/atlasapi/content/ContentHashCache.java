@@ -0,0 +1,231 @@
+package org.atlasapi.content;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.Id;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.util.CacheMetrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p>
+ * A bounded, size-weighted near-cache of the {@link ContentHasher} hash and
+ * {@link Id} of the last version of each piece of content written through a
+ * {@link AbstractContentStore}. Entries are keyed by id and by source-scoped
+ * alias so content can be found whether or not it is identified.
+ * </p>
+ *
+ * <p>
+ * When incoming content hashes the same as its cached entry the write can be
+ * skipped without resolving the previous version from the store. The cache only
+ * reflects writes made by this process so should only be enabled where a
+ * single process writes the content of a source.
+ * </p>
+ */
+public final class ContentHashCache {
+
+    public static final Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private long maximumBytes = 64L * 1024 * 1024;
+        private long expiry = 1;
+        private TimeUnit expiryUnit = TimeUnit.HOURS;
+        private MetricRegistry metrics = new MetricRegistry();
+        private String metricPrefix = "content-hash-cache";
+
+        private Builder() { }
+
+        public Builder withMaximumBytes(long maximumBytes) {
+            checkArgument(maximumBytes > 0, "maximumBytes must be positive");
+            this.maximumBytes = maximumBytes;
+            return this;
+        }
+
+        public Builder withExpireAfterWrite(long expiry, TimeUnit unit) {
+            this.expiry = expiry;
+            this.expiryUnit = checkNotNull(unit);
+            return this;
+        }
+
+        public Builder withMetrics(MetricRegistry metrics, String metricPrefix) {
+            this.metrics = checkNotNull(metrics);
+            this.metricPrefix = checkNotNull(metricPrefix);
+            return this;
+        }
+
+        public ContentHashCache build() {
+            return new ContentHashCache(maximumBytes, expiry, expiryUnit, metrics, metricPrefix);
+        }
+    }
+
+    private static final class Key {
+
+        private final Publisher source;
+        private final Object key;
+
+        public Key(@Nullable Publisher source, Object key) {
+            this.source = source;
+            this.key = checkNotNull(key);
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (this == that) {
+                return true;
+            }
+            if (that instanceof Key) {
+                Key other = (Key) that;
+                return key.equals(other.key)
+                    && Objects.equal(source, other.source);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(source, key);
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final Id id;
+        private final String hash;
+
+        public Entry(Id id, String hash) {
+            this.id = checkNotNull(id);
+            this.hash = checkNotNull(hash);
+        }
+
+    }
+
+    // rough per-entry cost of the cache segment entry, key, value and Id objects.
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static final Weigher<Key, Entry> WEIGHER = new Weigher<Key, Entry>() {
+        @Override
+        public int weigh(Key key, Entry entry) {
+            return weight(key, entry);
+        }
+    };
+
+    private static int weight(Key key, Entry entry) {
+        int weight = ENTRY_OVERHEAD_BYTES + entry.hash.length() * 2;
+        if (key.key instanceof Alias) {
+            Alias alias = (Alias) key.key;
+            weight += (alias.getNamespace().length() + alias.getValue().length()) * 2;
+        }
+        return weight;
+    }
+
+    private final Cache<Key, Entry> cache;
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final CacheMetrics cacheMetrics;
+
+    private ContentHashCache(long maximumBytes, long expiry, TimeUnit expiryUnit,
+            MetricRegistry metrics, String metricPrefix) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .weigher(WEIGHER)
+            .expireAfterWrite(expiry, expiryUnit)
+            .removalListener(new RemovalListener<Key, Entry>() {
+                @Override
+                public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                    bytesHeld.addAndGet(-weight(notification.getKey(), notification.getValue()));
+                }
+            })
+            .build();
+        this.cacheMetrics = CacheMetrics.register(metrics, metricPrefix, cache);
+        metrics.register(name(metricPrefix, "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return bytesHeld.get();
+            }
+        });
+    }
+
+    /**
+     * Find the id of the previously written version of the content if that
+     * version had the same hash.
+     *
+     * @param content
+     *            - the incoming content.
+     * @param hash
+     *            - the hash of the incoming content.
+     * @return the id of the unchanged previous version or {@code null} if the
+     *         content is unknown or has changed.
+     */
+    @Nullable
+    public Id unchangedId(Content content, String hash) {
+        for (Key key : keys(content, content.getId())) {
+            Entry entry = cache.getIfPresent(key);
+            if (entry != null) {
+                if (entry.hash.equals(hash)) {
+                    cacheMetrics.hit();
+                    return entry.id;
+                }
+                break;
+            }
+        }
+        cacheMetrics.miss();
+        return null;
+    }
+
+    /**
+     * Record the hash of content which has just been written, or found to be
+     * unchanged, as the previous version of content with its id and aliases.
+     */
+    public void put(Content content, Id id, String hash) {
+        Entry entry = new Entry(id, hash);
+        for (Key key : keys(content, id)) {
+            // any replaced entry's weight is deducted by the removal listener
+            cache.put(key, entry);
+            bytesHeld.addAndGet(weight(key, entry));
+        }
+    }
+
+    /**
+     * Remove any entries for the content's id and aliases.
+     */
+    public void invalidate(Content content) {
+        cache.invalidateAll(keys(content, content.getId()));
+    }
+
+    public long bytesHeld() {
+        return bytesHeld.get();
+    }
+
+    private List<Key> keys(Content content, @Nullable Id id) {
+        ImmutableList.Builder<Key> keys = ImmutableList.builder();
+        if (id != null) {
+            keys.add(new Key(null, id));
+        }
+        for (Alias alias : content.getAliases()) {
+            keys.add(new Key(content.getPublisher(), alias));
+        }
+        return keys.build();
+    }
+
+}
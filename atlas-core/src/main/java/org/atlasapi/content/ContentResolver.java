@@ -1,13 +1,57 @@
 package org.atlasapi.content;
 
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
 import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.Id;
 import org.atlasapi.entity.IdResolver;
+import org.atlasapi.entity.util.Resolved;
 import org.atlasapi.media.entity.Publisher;
 
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.OptionalMap;
 
 public interface ContentResolver extends IdResolver<Content> {
 
     OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source);
+
+    /**
+     * Resolve the content indexed against each of the given aliases for each
+     * of the given sources, without a query per source.
+     * 
+     * @return a table of the content resolved, by alias and source.
+     */
+    Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources);
+
+    /**
+     * Resolve content, reading only the given columns where possible. The
+     * type, source and identification of the content are always resolved;
+     * fields outside the requested columns may not be populated.
+     * Implementations which can't project columns resolve content in full.
+     * 
+     * @param ids
+     *            - the ids of the content to resolve.
+     * @param columns
+     *            - the columns required by the caller.
+     */
+    ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns);
+
+    /**
+     * Resolve a page of the child refs of a container, without resolving the
+     * container or all of its child refs.
+     * 
+     * @param containerId
+     *            - the id of the container.
+     * @param cursor
+     *            - the next cursor of the previous page, or {@code null} for
+     *            the first page.
+     * @param limit
+     *            - the maximum number of refs in the page.
+     * @return a page of refs, empty if there is no such container.
+     */
+    ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, @Nullable String cursor, int limit);
     
 }
@@ -1,10 +1,25 @@
 package org.atlasapi.content;
 
+import java.util.List;
+
 import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.entity.util.WriteResult;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 public interface ContentWriter {
 
     <C extends Content> WriteResult<C, Content> writeContent(C content) throws WriteException;
+
+    /**
+     * Write content without blocking the calling thread on the underlying
+     * store.
+     * 
+     * @return a future of the {@link WriteResult}, which fails with a
+     *         {@link WriteException} if the content can't be written.
+     */
+    <C extends Content> ListenableFuture<WriteResult<C, Content>> writeContentAsync(C content);
+
+    List<WriteResult<? extends Content, Content>> writeContents(Iterable<? extends Content> contents) throws WriteException;
     
 }
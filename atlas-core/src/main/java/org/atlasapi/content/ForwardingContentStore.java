@@ -1,5 +1,8 @@
 package org.atlasapi.content;
 
+import java.util.List;
+import java.util.Set;
+
 import org.atlasapi.entity.Alias;
 import org.atlasapi.entity.Id;
 import org.atlasapi.entity.util.Resolved;
@@ -7,6 +10,7 @@ import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.entity.util.WriteResult;
 import org.atlasapi.media.entity.Publisher;
 
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.OptionalMap;
 
@@ -22,14 +26,40 @@ public abstract class ForwardingContentStore implements ContentStore {
         return delegate().resolveIds(ids);
     }
 
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns) {
+        return delegate().resolveIds(ids, columns);
+    }
+
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, String cursor, int limit) {
+        return delegate().resolveChildRefs(containerId, cursor, limit);
+    }
+
     @Override
     public OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source) {
         return delegate().resolveAliases(aliases, source);
     }
 
+    @Override
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources) {
+        return delegate().resolveAliases(aliases, sources);
+    }
+
     @Override
     public <C extends Content> WriteResult<C, Content> writeContent(C content) throws WriteException {
         return delegate().writeContent(content);
     }
 
+    @Override
+    public <C extends Content> ListenableFuture<WriteResult<C, Content>> writeContentAsync(C content) {
+        return delegate().writeContentAsync(content);
+    }
+
+    @Override
+    public List<WriteResult<? extends Content, Content>> writeContents(
+            Iterable<? extends Content> contents) throws WriteException {
+        return delegate().writeContents(contents);
+    }
+
 }
@@ -1,10 +1,14 @@
 package org.atlasapi.content;
 
+import java.util.Set;
+
 import org.atlasapi.entity.Alias;
 import org.atlasapi.entity.Id;
 import org.atlasapi.entity.util.Resolved;
 import org.atlasapi.media.entity.Publisher;
 
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.ImmutableOptionalMap;
@@ -26,9 +30,24 @@ public class NullContentResolver implements ContentResolver {
         return Futures.immediateFuture(Resolved.<Content>empty());
     }
 
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns) {
+        return resolveIds(ids);
+    }
+
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, String cursor, int limit) {
+        return Futures.immediateFuture(ChildRefPage.empty());
+    }
+
     @Override
     public OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source) {
         return ImmutableOptionalMap.of();
     }
 
+    @Override
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources) {
+        return ImmutableTable.of();
+    }
+
 }
@@ -3,16 +3,17 @@ package org.atlasapi.equivalence;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.in;
-import static com.google.common.base.Predicates.not;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 import org.atlasapi.entity.Id;
-import org.atlasapi.entity.Identifiable;
 import org.atlasapi.entity.Identifiables;
 import org.atlasapi.entity.ResourceRef;
 import org.atlasapi.entity.Sourceds;
@@ -24,13 +25,13 @@ import org.atlasapi.util.GroupLock;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 
+import com.codahale.metrics.Timer;
 import com.google.common.base.Function;
-import com.google.common.base.Functions;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -39,6 +40,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.collect.ImmutableOptionalMap;
 import com.metabroadcast.common.collect.MoreSets;
 import com.metabroadcast.common.collect.OptionalMap;
 import com.metabroadcast.common.queue.MessageSender;
@@ -51,40 +53,366 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
     private static final int TIMEOUT = 1;
     private static final TimeUnit TIMEOUT_UNITS = TimeUnit.MINUTES;
     
-    private static final int maxSetSize = 150;
-    
     private final MessageSender<EquivalenceGraphUpdateMessage> messageSender;
+    private final Optional<OptimisticRetry> optimistic;
+    private final GraphSizePolicy sizePolicy;
     
     public AbstractEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender) {
+        this(messageSender, Optional.<OptimisticRetry>absent());
+    }
+    
+    public AbstractEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender,
+            Optional<OptimisticRetry> optimistic) {
+        this(messageSender, optimistic, GraphSizePolicy.defaultPolicy());
+    }
+    
+    /**
+     * @param optimistic
+     *            - if present, updates don't take the {@link #lock()} but are
+     *            committed against the versions of the resources they read,
+     *            and retried as given if another update changed them first.
+     *            The store must implement {@link #readVersions(Set)},
+     *            {@link #claim(Map)}, {@link #commit(ImmutableSet, Map)} and
+     *            {@link #release(Map)}.
+     * @param sizePolicy
+     *            - the limits on the size of transitive sets. If it defers
+     *            oversize updates the store must implement
+     *            {@link #defer(EquivalenceAssertion)},
+     *            {@link #deferred(int)},
+     *            {@link #isDeferred(DeferredAssertion)},
+     *            {@link #removeDeferred(DeferredAssertion)} and
+     *            {@link #removeDeferred(EquivalenceAssertion)}.
+     */
+    public AbstractEquivalenceGraphStore(MessageSender<EquivalenceGraphUpdateMessage> messageSender,
+            Optional<OptimisticRetry> optimistic, GraphSizePolicy sizePolicy) {
         this.messageSender = checkNotNull(messageSender);
+        this.optimistic = checkNotNull(optimistic);
+        this.sizePolicy = checkNotNull(sizePolicy);
     }
     
     @Override
     public final Optional<EquivalenceGraphUpdate> updateEquivalences(ResourceRef subject,
             Set<ResourceRef> assertedAdjacents, Set<Publisher> sources) throws WriteException {
+        Timer.Context time = sizePolicy.timeUpdate();
+        try {
+            EquivalenceAssertion assertion = new EquivalenceAssertion(subject, assertedAdjacents, sources);
+            return update(assertion, sizePolicy.limitFor(subject.getPublisher()), sizePolicy.defersOversize());
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Apply assertions which were deferred for being oversize, allowing
+     * transitive sets up to the {@link GraphSizePolicy#deferredLimit()}. Those
+     * still too large are dropped. An assertion which fails to apply is left
+     * deferred, to be retried, and one superseded since it was read is
+     * skipped.
+     * 
+     * @param max
+     *            - the most assertions to apply
+     * @return the number of deferred assertions applied or dropped.
+     */
+    public final int recomputeDeferred(int max) throws WriteException {
+        int recomputed = 0;
+        for (DeferredAssertion deferred : deferred(max)) {
+            if (recompute(deferred)) {
+                recomputed++;
+            }
+        }
+        return recomputed;
+    }
+
+    /**
+     * Apply a deferred assertion, provided it's still deferred once the
+     * transitive sets are locked or claimed. An assertion of the same subject
+     * and sources removes the deferral before it's applied, so one applied
+     * since the deferral was read supersedes it, rather than being reverted by
+     * it. The deferral is removed only once applied or dropped.
+     * 
+     * @return true if the assertion was applied or dropped.
+     */
+    private boolean recompute(DeferredAssertion deferred) throws WriteException {
+        EquivalenceAssertion assertion = deferred.getAssertion();
+        try {
+            Optional<EquivalenceGraphUpdate> updated = apply(assertion, sizePolicy.deferredLimit(), deferred);
+            if (updated.isPresent()) {
+                sendUpdateMessage(assertion.getSubject(), updated);
+            }
+        } catch (OversizeTransitiveSetException otse) {
+            oversize(assertion, otse.size, false);
+        } catch (SupersededDeferralException sde) {
+            log().debug("{}: deferred assertion superseded", assertion.getSubject());
+            return false;
+        } catch (InterruptedException e) {
+            log().error(String.format("deferred %s: %s", assertion.getSubject(),
+                assertion.getAssertedAdjacents()), e);
+            return false;
+        } catch (StoreException e) {
+            Throwables.propagateIfPossible(e, WriteException.class);
+            throw new WriteException(e);
+        }
+        removeDeferred(deferred);
+        return true;
+    }
 
-        ImmutableSet<Id> newAdjacents
-            = ImmutableSet.copyOf(Iterables.transform(assertedAdjacents, Identifiables.toId()));
-        Set<Id> subjectAndAdjacents = MoreSets.add(newAdjacents, subject.getId());
-        Set<Id> transitiveSetsIds = null;
+    @Override
+    public final ImmutableList<EquivalenceGraphUpdate> updateEquivalences(
+            List<EquivalenceAssertion> assertions) throws WriteException {
+        Timer.Context time = sizePolicy.timeBatchUpdate();
         try {
-            synchronized (lock()) {
-                while((transitiveSetsIds = tryLockAllIds(subjectAndAdjacents)) == null) {
-                    lock().unlock(subjectAndAdjacents);
-                    lock().wait();
+            ImmutableList.Builder<EquivalenceGraphUpdate> updates = ImmutableList.builder();
+            for (AssertionGroups.Group group : groups(assertions)) {
+                Optional<EquivalenceGraphUpdate> updated = update(group);
+                if (updated.isPresent()) {
+                    updates.add(updated.get());
+                }
+            }
+            return updates.build();
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Group assertions by the overlap of their transitive sets, resolved in a
+     * single read. An assertion whose transitive set is already oversize is
+     * handled here rather than grouped, so it doesn't enlarge its group,
+     * unless an earlier assertion in the batch overlaps it. That could change
+     * its set, so it's checked as the group is applied, in batch order.
+     */
+    private List<AssertionGroups.Group> groups(List<EquivalenceAssertion> assertions)
+            throws WriteException {
+        Set<Id> subjectsAndAdjacents = Sets.newHashSet();
+        for (EquivalenceAssertion assertion : assertions) {
+            subjectsAndAdjacents.addAll(subjectAndAdjacents(assertion));
+        }
+        OptionalMap<Id, CompactEquivalenceGraph> existing = get(resolveCompact(subjectsAndAdjacents));
+
+        List<EquivalenceAssertion> grouped = Lists.newArrayListWithCapacity(assertions.size());
+        List<Set<Id>> transitiveIds = Lists.newArrayListWithCapacity(assertions.size());
+        Set<Id> groupedIds = Sets.newHashSet();
+        for (EquivalenceAssertion assertion : assertions) {
+            Set<Id> ids = Sets.newHashSet(subjectAndAdjacents(assertion));
+            for (Id id : subjectAndAdjacents(assertion)) {
+                Optional<CompactEquivalenceGraph> graph = existing.get(id);
+                if (graph.isPresent()) {
+                    ids.addAll(graph.get().getEquivalenceSet());
                 }
             }
+            if (ids.size() > limitFor(assertion) && Collections.disjoint(ids, groupedIds)) {
+                oversize(assertion, ids.size(), sizePolicy.defersOversize());
+            } else {
+                grouped.add(assertion);
+                transitiveIds.add(ids);
+                groupedIds.addAll(ids);
+            }
+        }
+        return AssertionGroups.overlapping(grouped, transitiveIds);
+    }
+
+    private Optional<EquivalenceGraphUpdate> update(AssertionGroups.Group group) throws WriteException {
+        ResourceRef firstSubject = group.getAssertions().get(0).getSubject();
+        List<EquivalenceAssertion> assertions = group.getAssertions();
+        try {
+            if (sizePolicy.defersOversize()) {
+                // before applying, so a deferral being recomputed is superseded
+                for (EquivalenceAssertion assertion : assertions) {
+                    removeDeferred(assertion);
+                }
+            }
+            GroupUpdate updated = optimistic.isPresent() ? updateOptimistically(group)
+                                                         : updateLocked(group);
+            // in batch order, so a deferral is removed only by a later assertion
+            Set<Map.Entry<Id, Set<Publisher>>> deferred = Sets.newHashSet();
+            for (int i = 0; i < assertions.size(); i++) {
+                EquivalenceAssertion assertion = assertions.get(i);
+                Map.Entry<Id, Set<Publisher>> subjectAndSources
+                    = Maps.immutableEntry(assertion.getSubject().getId(), assertion.getSources());
+                Optional<Integer> oversize = updated.oversize.get(i);
+                if (oversize.isPresent()) {
+                    oversize(assertion, oversize.get(), sizePolicy.defersOversize());
+                    deferred.add(subjectAndSources);
+                } else if (sizePolicy.defersOversize() && deferred.remove(subjectAndSources)) {
+                    removeDeferred(assertion);
+                }
+            }
+            for (Integer size : updated.transitiveSetSizes) {
+                sizePolicy.recordTransitiveSetSize(size);
+            }
+            if (updated.update.isPresent()) {
+                sendUpdateMessage(firstSubject, updated.update);
+            }
+            return updated.update;
+        } catch (InterruptedException e) {
+            log().error(String.format("%s assertions from %s", assertions.size(), firstSubject), e);
+            return Optional.absent();
+        } catch (StoreException e) {
+            Throwables.propagateIfPossible(e, WriteException.class);
+            throw new WriteException(e);
+        }
+    }
+
+    private GroupUpdate updateLocked(AssertionGroups.Group group)
+            throws StoreException, InterruptedException {
+        Set<Id> locked = lockTransitiveIds(group.getIds(), Integer.MAX_VALUE);
+        try {
+            GroupUpdate updated = applyGroup(group.getAssertions(), locked);
+            if (updated.update.isPresent()) {
+                store(updated.update.get().getAllGraphs());
+            }
+            return updated;
+        } finally {
+            lock().unlock(locked);
+        }
+    }
+
+    private GroupUpdate updateOptimistically(AssertionGroups.Group group)
+            throws StoreException, InterruptedException {
+        OptimisticRetry retry = optimistic.get();
+        for (int attempt = 1; ; attempt++) {
+            Set<Id> transitiveIds = transitiveIds(group.getIds(), Integer.MAX_VALUE);
+            Optional<Map<Id, Long>> versions = readVersions(transitiveIds);
+            if (versions.isPresent()) {
+                GroupUpdate updated = applyGroup(group.getAssertions(), transitiveIds);
+                if (!updated.update.isPresent()) {
+                    return updated;
+                }
+                if (claimAndCommit(updated.update.get().getAllGraphs(), versions.get(), null)) {
+                    return updated;
+                }
+            }
+            if (attempt >= retry.getMaxAttempts()) {
+                throw new WriteException(String.format("%s assertions from %s: %s conflicting attempts",
+                    group.getAssertions().size(), group.getAssertions().get(0).getSubject().getId(), attempt));
+            }
+            log().debug("{}: conflicting update, attempt {}", group.getIds(), attempt);
+            retry.backOff(attempt);
+        }
+    }
+
+    /**
+     * Apply a group of assertions in turn to the graphs of the given ids,
+     * which are resolved once, rather than resolving and storing the graphs
+     * for each assertion. The result is one update of all the graphs changed.
+     */
+    private GroupUpdate applyGroup(List<EquivalenceAssertion> assertions, Set<Id> ids)
+            throws StoreException {
+        Map<Id, EquivalenceGraph> graphs = Maps.newHashMap();
+        for (Optional<EquivalenceGraph> graph : get(resolveForUpdate(ids)).values()) {
+            if (graph.isPresent()) {
+                for (Id id : graph.get().getEquivalenceSet()) {
+                    graphs.put(id, graph.get());
+                }
+            }
+        }
+        Map<Id, EquivalenceGraph> existing = ImmutableMap.copyOf(graphs);
+
+        GroupUpdate result = new GroupUpdate();
+        ResourceRef firstChanged = null;
+        Set<Id> changed = Sets.newHashSet();
+        for (EquivalenceAssertion assertion : assertions) {
+            ResourceRef subject = assertion.getSubject();
+            EquivalenceGraph subjGraph = graphOf(subject, graphs);
+            Adjacents subAdjs = subjGraph.getAdjacents(subject);
+            checkState(subAdjs != null, "adjacents of %s not in graph %s", subject, subjGraph.getId());
+
+            Map<ResourceRef, EquivalenceGraph> adjacentGraphs = Maps.newHashMap();
+            Set<Id> transitiveIds = Sets.newHashSet(subjGraph.getEquivalenceSet());
+            for (ResourceRef adjacent : assertion.getAssertedAdjacents()) {
+                EquivalenceGraph adjacentGraph = graphOf(adjacent, graphs);
+                adjacentGraphs.put(adjacent, adjacentGraph);
+                transitiveIds.addAll(adjacentGraph.getEquivalenceSet());
+            }
+            // earlier assertions in the group may have grown or split the set.
+            // checked first, as a single update checks it before any change
+            if (transitiveIds.size() > limitFor(assertion)) {
+                result.oversize.add(Optional.of(transitiveIds.size()));
+                continue;
+            }
+            if (!changeInAdjacents(subAdjs, assertion.getAssertedAdjacents(), assertion.getSources())) {
+                result.oversize.add(Optional.<Integer>absent());
+                continue;
+            }
+
+            Map<Id, Adjacents> updatedAdjacents = updateAdjacencies(subject,
+                subjGraph.getAdjacencyList().values(), adjacentGraphs, assertion.getSources());
+            EquivalenceGraphUpdate update
+                = computeUpdate(subject, subjGraph, adjacentGraphs, updatedAdjacents);
+            for (EquivalenceGraph graph : update.getAllGraphs()) {
+                for (Id id : graph.getEquivalenceSet()) {
+                    graphs.put(id, graph);
+                }
+                changed.addAll(graph.getEquivalenceSet());
+            }
+            firstChanged = firstChanged != null ? firstChanged : subject;
+            result.oversize.add(Optional.<Integer>absent());
+            result.transitiveSetSizes.add(transitiveIds.size());
+        }
+        if (firstChanged != null) {
+            result.update = Optional.of(combinedUpdate(firstChanged, existing, graphs, changed));
+        }
+        return result;
+    }
+
+    /**
+     * @return an update of the graphs of the changed ids, in which graphs
+     *         which existed before but not after are deleted.
+     */
+    private EquivalenceGraphUpdate combinedUpdate(ResourceRef subject, Map<Id, EquivalenceGraph> before,
+            Map<Id, EquivalenceGraph> after, Set<Id> changed) {
+        Map<Id, EquivalenceGraph> updatedGraphs = Maps.newHashMap();
+        for (Id id : changed) {
+            EquivalenceGraph graph = after.get(id);
+            updatedGraphs.put(graph.getId(), graph);
+        }
+        ImmutableSet.Builder<Id> deleted = ImmutableSet.builder();
+        for (Id id : changed) {
+            // resources without a graph had one of their own
+            Id previousGraph = before.containsKey(id) ? before.get(id).getId() : id;
+            if (!updatedGraphs.containsKey(previousGraph)) {
+                deleted.add(previousGraph);
+            }
+        }
+        EquivalenceGraph updatedGraph = after.get(subject.getId());
+        return new EquivalenceGraphUpdate(updatedGraph,
+            Maps.filterKeys(updatedGraphs, Predicates.not(Predicates.equalTo(updatedGraph.getId()))).values(),
+            deleted.build());
+    }
+
+    private EquivalenceGraph graphOf(ResourceRef ref, Map<Id, EquivalenceGraph> graphs) {
+        EquivalenceGraph graph = graphs.get(ref.getId());
+        return graph != null ? graph : EquivalenceGraph.valueOf(ref);
+    }
+
+    private int limitFor(EquivalenceAssertion assertion) {
+        return sizePolicy.limitFor(assertion.getSubject().getPublisher());
+    }
 
-            Optional<EquivalenceGraphUpdate> updated
-                = updateGraphs(subject, ImmutableSet.<ResourceRef>copyOf(assertedAdjacents), sources);
+    private Set<Id> subjectAndAdjacents(EquivalenceAssertion assertion) {
+        return MoreSets.add(ImmutableSet.copyOf(Iterables.transform(assertion.getAssertedAdjacents(),
+            Identifiables.toId())), assertion.getSubject().getId());
+    }
+
+    private Optional<EquivalenceGraphUpdate> update(EquivalenceAssertion assertion, int maxSetSize,
+            boolean deferOversize) throws WriteException {
+        ResourceRef subject = assertion.getSubject();
+        ImmutableSet<Id> newAdjacents = ImmutableSet.copyOf(
+            Iterables.transform(assertion.getAssertedAdjacents(), Identifiables.toId()));
+        try {
+            if (deferOversize) {
+                // a deferred assertion applied later would undo this one.
+                // removed first, so one being recomputed is superseded
+                removeDeferred(assertion);
+            }
+            Optional<EquivalenceGraphUpdate> updated = apply(assertion, maxSetSize, null);
             if (updated.isPresent()) {
                 sendUpdateMessage(subject, updated);
             }
             return updated;
             
         } catch(OversizeTransitiveSetException otse) {
-            log().info(String.format("Oversize set: %s + %s: %s", 
-                subject, newAdjacents, otse.getMessage()));
+            oversize(assertion, otse.size, deferOversize);
             return Optional.absent();
         } catch(InterruptedException e) {
             log().error(String.format("%s: %s", subject, newAdjacents), e);
@@ -92,16 +420,137 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
         } catch (StoreException e) {
             Throwables.propagateIfPossible(e, WriteException.class);
             throw new WriteException(e);
+        }
+        
+    }
+
+    /**
+     * @param recomputing
+     *            - the deferral of the assertion if it's being recomputed,
+     *            which must still be deferred once the transitive sets are
+     *            locked or claimed.
+     */
+    private Optional<EquivalenceGraphUpdate> apply(EquivalenceAssertion assertion, int maxSetSize,
+            @Nullable DeferredAssertion recomputing) throws StoreException, InterruptedException {
+        ResourceRef subject = assertion.getSubject();
+        ImmutableSet<ResourceRef> adjacents = assertion.getAssertedAdjacents();
+        Set<Publisher> sources = assertion.getSources();
+        Set<Id> subjectAndAdjacents = subjectAndAdjacents(assertion);
+        return optimistic.isPresent()
+            ? updateOptimistically(subject, adjacents, subjectAndAdjacents, sources, maxSetSize, recomputing)
+            : updateLocked(subject, adjacents, subjectAndAdjacents, sources, maxSetSize, recomputing);
+    }
+
+    private void checkStillDeferred(@Nullable DeferredAssertion recomputing) throws WriteException {
+        if (recomputing != null && !isDeferred(recomputing)) {
+            throw new SupersededDeferralException();
+        }
+    }
+
+    private void oversize(EquivalenceAssertion assertion, int size, boolean deferOversize)
+            throws WriteException {
+        Iterable<Id> adjacents = Iterables.transform(assertion.getAssertedAdjacents(), Identifiables.toId());
+        sizePolicy.recordTransitiveSetSize(size);
+        if (deferOversize) {
+            defer(assertion);
+            sizePolicy.recordDeferred();
+            log().info(String.format("Deferred oversize set: %s + %s: %s",
+                assertion.getSubject(), adjacents, size));
+        } else {
+            sizePolicy.recordDropped();
+            log().info(String.format("Oversize set: %s + %s: %s", 
+                assertion.getSubject(), adjacents, size));
+        }
+    }
+
+    private Optional<EquivalenceGraphUpdate> updateLocked(ResourceRef subject,
+            ImmutableSet<ResourceRef> assertedAdjacents, Set<Id> subjectAndAdjacents,
+            Set<Publisher> sources, int maxSetSize, @Nullable DeferredAssertion recomputing)
+            throws StoreException, InterruptedException {
+        Set<Id> locked = lockTransitiveIds(subjectAndAdjacents, maxSetSize);
+        try {
+            checkStillDeferred(recomputing);
+            sizePolicy.recordTransitiveSetSize(locked.size());
+
+            Optional<EquivalenceGraphUpdate> updated = updateGraphs(subject, assertedAdjacents, sources);
+            if (updated.isPresent()) {
+                store(updated.get().getAllGraphs());
+            }
+            return updated;
         } finally {
-            synchronized (lock()) {
-                lock().unlock(subjectAndAdjacents);
-                if (transitiveSetsIds != null) {
-                    lock().unlock(transitiveSetsIds);
+            lock().unlock(locked);
+        }
+    }
+
+    /**
+     * Read the versions of the transitive sets, then compute the update from
+     * graphs read after them, so any change to the graphs since changes a
+     * version. The update is committed only if every resource can be claimed
+     * at the version read, otherwise it's retried from scratch.
+     */
+    private Optional<EquivalenceGraphUpdate> updateOptimistically(ResourceRef subject,
+            ImmutableSet<ResourceRef> assertedAdjacents, Set<Id> subjectAndAdjacents,
+            Set<Publisher> sources, int maxSetSize, @Nullable DeferredAssertion recomputing)
+            throws StoreException, InterruptedException {
+        OptimisticRetry retry = optimistic.get();
+        for (int attempt = 1; ; attempt++) {
+            Set<Id> transitiveIds = transitiveIds(subjectAndAdjacents, maxSetSize);
+            Optional<Map<Id, Long>> versions = readVersions(transitiveIds);
+            if (versions.isPresent()) {
+                Optional<EquivalenceGraphUpdate> updated = updateGraphs(subject, assertedAdjacents, sources);
+                if (!updated.isPresent()) {
+                    return updated;
+                }
+                if (claimAndCommit(updated.get().getAllGraphs(), versions.get(), recomputing)) {
+                    sizePolicy.recordTransitiveSetSize(transitiveIds.size());
+                    return updated;
                 }
-                lock().notifyAll();
             }
+            if (attempt >= retry.getMaxAttempts()) {
+                throw new WriteException(String.format("%s: %s conflicting attempts",
+                    subject.getId(), attempt));
+            }
+            log().debug("{}: conflicting update, attempt {}", subject.getId(), attempt);
+            retry.backOff(attempt);
         }
-        
+    }
+
+    /**
+     * Claim the resources at the versions read and commit the graphs. The
+     * claims are released if the update isn't committed, however it fails.
+     * 
+     * @param recomputing
+     *            - the deferral being recomputed, if any, checked once claimed.
+     * @return true if the update was committed, false if it conflicted with
+     *         another.
+     */
+    private boolean claimAndCommit(ImmutableSet<EquivalenceGraph> graphs, Map<Id, Long> versions,
+            @Nullable DeferredAssertion recomputing) throws StoreException {
+        if (!versions.keySet().containsAll(idsOf(graphs))) {
+            return false;
+        }
+        Optional<Map<Id, Long>> claims = claim(versions);
+        if (!claims.isPresent()) {
+            return false;
+        }
+        boolean committed = false;
+        try {
+            checkStillDeferred(recomputing);
+            committed = commit(graphs, claims.get());
+            return committed;
+        } finally {
+            if (!committed) {
+                release(claims.get());
+            }
+        }
+    }
+
+    private Set<Id> idsOf(ImmutableSet<EquivalenceGraph> graphs) {
+        ImmutableSet.Builder<Id> ids = ImmutableSet.builder();
+        for (EquivalenceGraph graph : graphs) {
+            ids.addAll(graph.getEquivalenceSet());
+        }
+        return ids.build();
     }
 
     private void sendUpdateMessage(ResourceRef subject, Optional<EquivalenceGraphUpdate> updated)  {
@@ -118,30 +567,100 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
     
     protected abstract GroupLock<Id> lock();
 
-    private Set<Id> tryLockAllIds(Set<Id> adjacentsIds) throws InterruptedException, StoreException {
-        if (!lock().tryLock(adjacentsIds)) {
-            return null;
+    /**
+     * Lock the transitive sets of the given ids.
+     * 
+     * @return the ids locked, which the caller must unlock.
+     */
+    private Set<Id> lockTransitiveIds(Set<Id> ids, int maxSetSize)
+            throws StoreException, InterruptedException {
+        Set<Id> toLock = ids;
+        while (true) {
+            lock().lock(toLock);
+            Set<Id> locked = toLock;
+            boolean complete = false;
+            try {
+                toLock = unlockedTransitiveIds(ids, locked, maxSetSize);
+                complete = toLock.isEmpty();
+            } finally {
+                if (!complete) {
+                    lock().unlock(locked);
+                }
+            }
+            if (complete) {
+                return locked;
+            }
         }
+    }
+
+    /**
+     * Resolve the transitive sets of the subject and its adjacents, whose ids
+     * are locked, and find whether every id in them is locked too. Locks are
+     * acquired in order, blocking, so rather than trying to lock the rest of
+     * the transitive ids whilst holding some, the caller releases its locks and
+     * locks all the ids returned, until the transitive sets are fully locked.
+     * 
+     * @return all the ids to lock if any in the transitive sets aren't locked,
+     *         otherwise an empty set.
+     */
+    private Set<Id> unlockedTransitiveIds(Set<Id> adjacentsIds, Set<Id> locked, int maxSetSize)
+            throws StoreException {
+        Set<Id> allIds = transitiveIds(adjacentsIds, maxSetSize);
+        return Iterables.all(allIds, in(locked)) ? ImmutableSet.<Id>of() : allIds;
+    }
+
+    private Set<Id> transitiveIds(Set<Id> adjacentsIds, int maxSetSize) throws StoreException {
         Iterable<Id> transitiveIds = transitiveIdsToLock(adjacentsIds);
         Set<Id> allIds = ImmutableSet.copyOf(Iterables.concat(transitiveIds, adjacentsIds));
         if (allIds.size() > maxSetSize) {
             throw new OversizeTransitiveSetException(allIds.size());
         }
-        Iterable<Id> idsToLock = Iterables.filter(allIds, not(in(adjacentsIds)));
-        return lock().tryLock(ImmutableSet.copyOf(idsToLock)) ? allIds : null;
+        return allIds;
     }
 
     private Iterable<Id> transitiveIdsToLock(Set<Id> adjacentsIds) throws StoreException {
-        return Iterables.concat(Iterables.transform(get(resolveIds(adjacentsIds)).values(),
-            new Function<Optional<EquivalenceGraph>, Set<Id>>() {
+        return Iterables.concat(Iterables.transform(get(resolveCompact(adjacentsIds)).values(),
+            new Function<Optional<CompactEquivalenceGraph>, Set<Id>>() {
                 @Override
-                public Set<Id> apply(Optional<EquivalenceGraph> input) {
-                    return input.isPresent() ? input.get().getAdjacencyList().keySet() : ImmutableSet.<Id>of();
+                public Set<Id> apply(Optional<CompactEquivalenceGraph> input) {
+                    return input.isPresent() ? input.get().getEquivalenceSet() : ImmutableSet.<Id>of();
                 }
             }
         ));
     }
 
+    /**
+     * Resolve the graphs of the given ids to be updated. Stores whose
+     * {@link #resolveIds(Iterable)} may return stale graphs, from a cache,
+     * must override this to read the stored graphs.
+     */
+    protected ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolveForUpdate(Iterable<Id> ids) {
+        return resolveIds(ids);
+    }
+
+    /**
+     * Resolve the graphs of the given ids in their compact form. Stores which
+     * can read the compact form without building {@link EquivalenceGraph}s
+     * first should override this.
+     */
+    protected ListenableFuture<OptionalMap<Id, CompactEquivalenceGraph>> resolveCompact(Iterable<Id> ids) {
+        return Futures.transform(resolveForUpdate(ids), toCompact);
+    }
+
+    private static final Function<OptionalMap<Id, EquivalenceGraph>, OptionalMap<Id, CompactEquivalenceGraph>> toCompact
+        = new Function<OptionalMap<Id, EquivalenceGraph>, OptionalMap<Id, CompactEquivalenceGraph>>() {
+            @Override
+            public OptionalMap<Id, CompactEquivalenceGraph> apply(OptionalMap<Id, EquivalenceGraph> input) {
+                Map<Id, CompactEquivalenceGraph> compact = Maps.newHashMapWithExpectedSize(input.size());
+                for (Map.Entry<Id, Optional<EquivalenceGraph>> graph : input.entrySet()) {
+                    compact.put(graph.getKey(), graph.getValue().isPresent()
+                                                ? CompactEquivalenceGraph.valueOf(graph.getValue().get())
+                                                : null);
+                }
+                return ImmutableOptionalMap.fromMap(compact);
+            }
+        };
+
     private Optional<EquivalenceGraphUpdate> updateGraphs(ResourceRef subject, 
             ImmutableSet<ResourceRef> assertedAdjacents, Set<Publisher> sources) throws StoreException {
         
@@ -160,17 +679,15 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
         Map<Id, Adjacents> updatedAdjacents = updateAdjacencies(subject,
                 subjGraph.getAdjacencyList().values(), assertedAdjacentGraphs, sources);
         
-        EquivalenceGraphUpdate update =
-                computeUpdate(subject, assertedAdjacentGraphs, updatedAdjacents);
-        
-        store(update.getAllGraphs());
-        
-        return Optional.of(update);
+        return Optional.of(computeUpdate(subject, subjGraph, assertedAdjacentGraphs, updatedAdjacents));
     }
 
-    private EquivalenceGraphUpdate computeUpdate(ResourceRef subject,
+    private EquivalenceGraphUpdate computeUpdate(ResourceRef subject, EquivalenceGraph subjGraph,
             Map<ResourceRef, EquivalenceGraph> assertedAdjacentGraphs, Map<Id, Adjacents> updatedAdjacents) {
-        Map<Id, EquivalenceGraph> updatedGraphs = computeUpdatedGraphs(updatedAdjacents);
+        Iterable<EquivalenceGraph> existingGraphs
+            = Iterables.concat(ImmutableSet.of(subjGraph), assertedAdjacentGraphs.values());
+        Map<Id, EquivalenceGraph> updatedGraphs
+            = GraphComponents.afterUpdate(subject, existingGraphs, updatedAdjacents);
         EquivalenceGraph updatedGraph = graphFor(subject, updatedGraphs);
         return new EquivalenceGraphUpdate(updatedGraph,
             Collections2.filter(updatedGraphs.values(), Predicates.not(Predicates.equalTo(updatedGraph))), 
@@ -188,36 +705,6 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
         throw new IllegalStateException("Couldn't find updated graph for " + subject);
     }
 
-    private Map<Id, EquivalenceGraph> computeUpdatedGraphs(Map<Id, Adjacents> updatedAdjacents) {
-        Function<Identifiable, Adjacents> toAdjs = 
-                Functions.compose(Functions.forMap(updatedAdjacents), Identifiables.toId());
-        Set<Id> seen = Sets.newHashSetWithExpectedSize(updatedAdjacents.size());
-        
-        Map<Id, EquivalenceGraph> updated = Maps.newHashMap();
-        for (Adjacents adj : updatedAdjacents.values()) {
-            if (!seen.contains(adj.getId())) {
-                EquivalenceGraph graph = EquivalenceGraph.valueOf(transitiveSet(adj, toAdjs));
-                updated.put(graph.getId(), graph);
-                seen.addAll(graph.getEquivalenceSet());
-            }
-        }
-        return updated;
-    }
-
-    private Set<Adjacents> transitiveSet(Adjacents adj, Function<Identifiable, Adjacents> toAdjs) {
-        Set<Adjacents> set = Sets.newHashSet();
-        Predicate<Adjacents> notSeen = Predicates.not(Predicates.in(set));
-        
-        Queue<Adjacents> work = Lists.newLinkedList();
-        work.add(adj);
-        while(!work.isEmpty()) {
-            Adjacents curr = work.poll();
-            set.add(curr);
-            work.addAll(Collections2.filter(Collections2.transform(curr.getAdjacent(), toAdjs),notSeen));
-        }
-        return set;
-    }
-
     private Map<Id, Adjacents> updateAdjacencies(ResourceRef subject,
             Iterable<Adjacents> subjAdjacencies, Map<ResourceRef, EquivalenceGraph> adjacentGraphs,
             Set<Publisher> sources) throws StoreException {
@@ -266,7 +753,7 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
 
     private Map<ResourceRef, EquivalenceGraph> resolveRefs(Set<ResourceRef> adjacents)
             throws WriteException {
-        OptionalMap<Id, EquivalenceGraph> existing = get(resolveIds(Iterables.transform(adjacents, Identifiables.toId())));
+        OptionalMap<Id, EquivalenceGraph> existing = get(resolveForUpdate(Iterables.transform(adjacents, Identifiables.toId())));
         Map<ResourceRef, EquivalenceGraph> graphs = Maps.newHashMapWithExpectedSize(adjacents.size());
         for (ResourceRef adj : adjacents) {
             graphs.put(adj, existing.get(adj.getId()).or(EquivalenceGraph.valueOf(adj)));
@@ -287,7 +774,7 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
     }
     
     private Optional<EquivalenceGraph> existingGraph(ResourceRef subject) throws StoreException {
-        return get(resolveIds(ImmutableSet.of(subject.getId()))).get(subject.getId());
+        return get(resolveForUpdate(ImmutableSet.of(subject.getId()))).get(subject.getId());
     }
 
     private <F> F get(ListenableFuture<F> resolved) throws WriteException {
@@ -300,9 +787,106 @@ public abstract class AbstractEquivalenceGraphStore implements EquivalenceGraphS
     }
     
     protected abstract void doStore(ImmutableSet<EquivalenceGraph> graphs);
+
+    /**
+     * Read the current versions of resources for an optimistic update. The
+     * versions are only interpreted by the store.
+     * 
+     * @return a version for each of the ids, or absent if any of them is
+     *         claimed by another update.
+     */
+    protected Optional<Map<Id, Long>> readVersions(Set<Id> ids) throws StoreException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support optimistic updates");
+    }
+
+    /**
+     * Claim every resource at the version read, so no other update can claim
+     * or commit them. If any has changed or been claimed since it was read,
+     * those already claimed are released.
+     * 
+     * @return the claim on each resource, or absent if not all of them could
+     *         be claimed.
+     */
+    protected Optional<Map<Id, Long>> claim(Map<Id, Long> versions) throws StoreException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support optimistic updates");
+    }
+
+    /**
+     * Store the graphs and release the claims on the resources, provided each
+     * is still claimed by this update. The claims are a fence: graphs stored
+     * under claims which have since been taken over mustn't replace those of
+     * the update which took them.
+     * 
+     * @return true if the update was committed, false if a claim was lost.
+     */
+    protected boolean commit(ImmutableSet<EquivalenceGraph> graphs, Map<Id, Long> claims) throws StoreException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support optimistic updates");
+    }
+
+    /**
+     * Release the claims on resources without changing their graphs. Claims
+     * which are no longer held, because they were committed or taken over,
+     * are left alone.
+     */
+    protected void release(Map<Id, Long> claims) throws StoreException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support optimistic updates");
+    }
+
+    /**
+     * Store an oversize assertion, without updating any graph, replacing any
+     * deferred assertion of the same subject and sources.
+     */
+    protected void defer(EquivalenceAssertion assertion) throws WriteException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support deferred updates");
+    }
+
+    /**
+     * @return up to the given number of deferred assertions, oldest first.
+     */
+    protected Iterable<DeferredAssertion> deferred(int max) throws WriteException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support deferred updates");
+    }
+
+    /**
+     * @return true if the deferral is still stored, not removed or replaced by
+     *         a later deferral since it was read.
+     */
+    protected boolean isDeferred(DeferredAssertion deferred) throws WriteException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support deferred updates");
+    }
+
+    /**
+     * Remove a deferred assertion once it's been applied, unless it's since
+     * been replaced by a later deferral.
+     */
+    protected void removeDeferred(DeferredAssertion deferred) throws WriteException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support deferred updates");
+    }
+
+    /**
+     * Remove any deferred assertion of the subject and sources of the given
+     * assertion, which has been applied since. This is called for every
+     * assertion applied, so should be cheap when there's none.
+     */
+    protected void removeDeferred(EquivalenceAssertion assertion) throws WriteException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support deferred updates");
+    }
     
     protected abstract Logger log();
     
+    private static final class GroupUpdate {
+
+        private Optional<EquivalenceGraphUpdate> update = Optional.absent();
+        // for each assertion of the group in order, the size of its
+        // transitive set if it was oversize, absent if it was applied
+        private final List<Optional<Integer>> oversize = Lists.newArrayList();
+        private final List<Integer> transitiveSetSizes = Lists.newArrayList();
+
+    }
+
+    private static class SupersededDeferralException extends RuntimeException {
+    }
+
     private static class OversizeTransitiveSetException extends RuntimeException {
         
         private int size;
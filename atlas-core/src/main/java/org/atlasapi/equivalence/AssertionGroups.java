@@ -0,0 +1,110 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.atlasapi.entity.Id;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Partitions a batch of assertions into groups whose transitive sets overlap,
+ * so each group can be locked, resolved and stored together while groups
+ * which share no resources are independent. Assertions keep their order in
+ * the batch within a group, since later assertions of a subject override
+ * earlier ones.
+ */
+final class AssertionGroups {
+
+    static final class Group {
+
+        private final ImmutableList<EquivalenceAssertion> assertions;
+        private final ImmutableSet<Id> ids;
+
+        private Group(Iterable<EquivalenceAssertion> assertions, Iterable<Id> ids) {
+            this.assertions = ImmutableList.copyOf(assertions);
+            this.ids = ImmutableSet.copyOf(ids);
+        }
+
+        ImmutableList<EquivalenceAssertion> getAssertions() {
+            return assertions;
+        }
+
+        /**
+         * @return the union of the transitive sets of the assertions.
+         */
+        ImmutableSet<Id> getIds() {
+            return ids;
+        }
+
+    }
+
+    private AssertionGroups() {
+    }
+
+    /**
+     * @param assertions
+     *            - the assertions, in the order they're to be applied
+     * @param transitiveIds
+     *            - the transitive set of each assertion, in the same order
+     */
+    static List<Group> overlapping(List<EquivalenceAssertion> assertions,
+            List<? extends Set<Id>> transitiveIds) {
+        checkArgument(assertions.size() == transitiveIds.size(),
+            "%s assertions but %s transitive sets", assertions.size(), transitiveIds.size());
+        int[] parent = new int[assertions.size()];
+        Map<Id, Integer> firstAsserting = Maps.newHashMap();
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+            for (Id id : transitiveIds.get(i)) {
+                Integer other = firstAsserting.get(id);
+                if (other == null) {
+                    firstAsserting.put(id, i);
+                } else {
+                    union(parent, i, other);
+                }
+            }
+        }
+
+        Map<Integer, List<EquivalenceAssertion>> groupAssertions = Maps.newLinkedHashMap();
+        Map<Integer, Set<Id>> groupIds = Maps.newHashMap();
+        for (int i = 0; i < parent.length; i++) {
+            int root = root(parent, i);
+            if (!groupAssertions.containsKey(root)) {
+                groupAssertions.put(root, Lists.<EquivalenceAssertion>newArrayList());
+                groupIds.put(root, Sets.<Id>newHashSet());
+            }
+            groupAssertions.get(root).add(assertions.get(i));
+            groupIds.get(root).addAll(transitiveIds.get(i));
+        }
+
+        ImmutableList.Builder<Group> groups = ImmutableList.builder();
+        for (Map.Entry<Integer, List<EquivalenceAssertion>> group : groupAssertions.entrySet()) {
+            groups.add(new Group(group.getValue(), groupIds.get(group.getKey())));
+        }
+        return groups.build();
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = root(parent, a);
+        int rootB = root(parent, b);
+        // the earliest assertion is the root, so groups come out in batch order
+        parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+}
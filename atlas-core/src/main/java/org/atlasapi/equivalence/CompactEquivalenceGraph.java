@@ -0,0 +1,278 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.Identifiable;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import com.metabroadcast.common.time.DateTimeZones;
+
+/**
+ * <p>
+ * A compact form of an {@link EquivalenceGraph} keyed by primitive ids.
+ * </p>
+ *
+ * <p>
+ * The nodes of the graph are held in arrays ordered by id: the
+ * {@link ResourceRef} and source ordinal of each node, when its adjacents were
+ * created, and sorted arrays of the ids of its efferent and afferent adjacents.
+ * Every adjacent of a node is a node of the same graph so adjacents are held
+ * only as ids, sharing the refs of their nodes.
+ * </p>
+ */
+public final class CompactEquivalenceGraph implements Identifiable {
+
+    private static final Publisher[] SOURCES = Publisher.values();
+
+    public static CompactEquivalenceGraph valueOf(EquivalenceGraph graph) {
+        Builder builder = builder(graph.getUpdated());
+        for (Adjacents adjs : graph.getAdjacencyList().values()) {
+            builder.addNode(adjs.getRef(), adjs.getCreated().getMillis(),
+                ids(adjs.getEfferent()), ids(adjs.getAfferent()));
+        }
+        return builder.build();
+    }
+
+    private static long[] ids(ImmutableSet<ResourceRef> refs) {
+        long[] ids = new long[refs.size()];
+        int i = 0;
+        for (ResourceRef ref : refs) {
+            ids[i++] = ref.getId().longValue();
+        }
+        return ids;
+    }
+
+    public static Builder builder(DateTime updated) {
+        return new Builder(updated);
+    }
+
+    public static final class Builder {
+
+        private final DateTime updated;
+        private final List<Node> nodes = Lists.newArrayList();
+
+        private Builder(DateTime updated) {
+            this.updated = checkNotNull(updated);
+        }
+
+        /**
+         * Add a node with the ids of its efferent and afferent adjacents, which
+         * need not be sorted. The arrays are owned by the graph once added.
+         */
+        public Builder addNode(ResourceRef ref, long createdMillis, long[] efferent, long[] afferent) {
+            nodes.add(new Node(checkNotNull(ref), createdMillis, checkNotNull(efferent), checkNotNull(afferent)));
+            return this;
+        }
+
+        public CompactEquivalenceGraph build() {
+            checkArgument(!nodes.isEmpty(), "graph must have at least one node");
+            Node[] sorted = nodes.toArray(new Node[nodes.size()]);
+            Arrays.sort(sorted);
+            long[] ids = new long[sorted.length];
+            ResourceRef[] refs = new ResourceRef[sorted.length];
+            short[] sources = new short[sorted.length];
+            long[] created = new long[sorted.length];
+            long[][] efferent = new long[sorted.length][];
+            long[][] afferent = new long[sorted.length][];
+            for (int i = 0; i < sorted.length; i++) {
+                Node node = sorted[i];
+                checkArgument(i == 0 || ids[i - 1] != node.id, "duplicate node %s", node.id);
+                ids[i] = node.id;
+                refs[i] = node.ref;
+                sources[i] = (short) node.ref.getPublisher().ordinal();
+                created[i] = node.created;
+                efferent[i] = node.efferent;
+                afferent[i] = node.afferent;
+                Arrays.sort(efferent[i]);
+                Arrays.sort(afferent[i]);
+            }
+            return new CompactEquivalenceGraph(updated.getMillis(), ids, refs, sources,
+                created, efferent, afferent);
+        }
+
+    }
+
+    private static final class Node implements Comparable<Node> {
+
+        private final long id;
+        private final ResourceRef ref;
+        private final long created;
+        private final long[] efferent;
+        private final long[] afferent;
+
+        private Node(ResourceRef ref, long created, long[] efferent, long[] afferent) {
+            this.id = ref.getId().longValue();
+            this.ref = ref;
+            this.created = created;
+            this.efferent = efferent;
+            this.afferent = afferent;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Longs.compare(id, other.id);
+        }
+
+    }
+
+    private final long updated;
+    private final long[] ids;
+    private final ResourceRef[] refs;
+    private final short[] sources;
+    private final long[] created;
+    private final long[][] efferent;
+    private final long[][] afferent;
+
+    private CompactEquivalenceGraph(long updated, long[] ids, ResourceRef[] refs, short[] sources,
+            long[] created, long[][] efferent, long[][] afferent) {
+        this.updated = updated;
+        this.ids = ids;
+        this.refs = refs;
+        this.sources = sources;
+        this.created = created;
+        this.efferent = efferent;
+        this.afferent = afferent;
+    }
+
+    @Override
+    public Id getId() {
+        return Id.valueOf(ids[0]);
+    }
+
+    public DateTime getUpdated() {
+        return new DateTime(updated, DateTimeZones.UTC);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the index of the node with the given id, or a negative number
+     *         if there is no such node.
+     */
+    public int indexOf(long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    public boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    public long id(int node) {
+        return ids[node];
+    }
+
+    public ResourceRef ref(int node) {
+        return refs[node];
+    }
+
+    public Publisher source(int node) {
+        return SOURCES[sources[node]];
+    }
+
+    public long created(int node) {
+        return created[node];
+    }
+
+    /**
+     * @return a sorted copy of the ids of a node's efferent adjacents.
+     */
+    public long[] efferent(int node) {
+        return efferent[node].clone();
+    }
+
+    /**
+     * @return a sorted copy of the ids of a node's afferent adjacents.
+     */
+    public long[] afferent(int node) {
+        return afferent[node].clone();
+    }
+
+    public boolean hasEfferent(int node, long id) {
+        return Arrays.binarySearch(efferent[node], id) >= 0;
+    }
+
+    public boolean hasAfferent(int node, long id) {
+        return Arrays.binarySearch(afferent[node], id) >= 0;
+    }
+
+    public ImmutableSet<Id> getEquivalenceSet() {
+        ImmutableSet.Builder<Id> set = ImmutableSet.builder();
+        for (long id : ids) {
+            set.add(Id.valueOf(id));
+        }
+        return set.build();
+    }
+
+    public Adjacents getAdjacents(int node) {
+        // adjacents' ids are sorted, so their refs are already in id order
+        return Adjacents.sorted(refs[node], new DateTime(created[node], DateTimeZones.UTC),
+            refs(efferent[node]), refs(afferent[node]));
+    }
+
+    private ImmutableSet<ResourceRef> refs(long[] adjacents) {
+        ImmutableSet.Builder<ResourceRef> adjacentRefs = ImmutableSet.builder();
+        for (long adjacent : adjacents) {
+            int node = indexOf(adjacent);
+            checkArgument(node >= 0, "adjacent %s not in graph %s", adjacent, ids[0]);
+            adjacentRefs.add(refs[node]);
+        }
+        return adjacentRefs.build();
+    }
+
+    public EquivalenceGraph toEquivalenceGraph() {
+        ImmutableMap.Builder<Id, Adjacents> adjacencyList = ImmutableMap.builder();
+        for (int i = 0; i < ids.length; i++) {
+            adjacencyList.put(Id.valueOf(ids[i]), getAdjacents(i));
+        }
+        return new EquivalenceGraph(adjacencyList.build(), getUpdated());
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof CompactEquivalenceGraph) {
+            CompactEquivalenceGraph other = (CompactEquivalenceGraph) that;
+            return updated == other.updated
+                && Arrays.equals(ids, other.ids)
+                && Arrays.equals(refs, other.refs)
+                && Arrays.deepEquals(efferent, other.efferent)
+                && Arrays.deepEquals(afferent, other.afferent);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Longs.hashCode(updated);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(ids[i]).append('/').append(source(i).key())
+                .append(" -> ").append(Arrays.toString(efferent[i]));
+        }
+        return builder.append('}').toString();
+    }
+
+}
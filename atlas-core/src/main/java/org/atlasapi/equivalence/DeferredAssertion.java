@@ -0,0 +1,59 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Objects;
+
+/**
+ * An oversize assertion deferred by a store, with the time it was deferred,
+ * which identifies the deferral among any others of the same subject and
+ * sources.
+ */
+public final class DeferredAssertion {
+
+    private final EquivalenceAssertion assertion;
+    private final long deferred;
+
+    public DeferredAssertion(EquivalenceAssertion assertion, long deferred) {
+        this.assertion = checkNotNull(assertion);
+        this.deferred = deferred;
+    }
+
+    public EquivalenceAssertion getAssertion() {
+        return assertion;
+    }
+
+    /**
+     * @return when the assertion was deferred, in milliseconds.
+     */
+    public long getDeferred() {
+        return deferred;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof DeferredAssertion) {
+            DeferredAssertion other = (DeferredAssertion) that;
+            return assertion.equals(other.assertion)
+                && deferred == other.deferred;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(assertion, deferred);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("assertion", assertion)
+            .add("deferred", deferred)
+            .toString();
+    }
+
+}
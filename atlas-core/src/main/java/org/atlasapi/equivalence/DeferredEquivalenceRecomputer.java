@@ -0,0 +1,55 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.entity.util.WriteException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+/**
+ * Periodically applies the oversize assertions deferred by a store, a batch
+ * at a time, until there are none left.
+ */
+public class DeferredEquivalenceRecomputer extends AbstractScheduledService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AbstractEquivalenceGraphStore store;
+    private final int batchSize;
+    private final long interval;
+    private final TimeUnit intervalUnit;
+
+    public DeferredEquivalenceRecomputer(AbstractEquivalenceGraphStore store, int batchSize,
+            long interval, TimeUnit intervalUnit) {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        this.store = checkNotNull(store);
+        this.batchSize = batchSize;
+        this.interval = interval;
+        this.intervalUnit = checkNotNull(intervalUnit);
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            int recomputed;
+            do {
+                recomputed = store.recomputeDeferred(batchSize);
+                log.info("Recomputed {} deferred equivalence assertions", recomputed);
+            } while (recomputed == batchSize && isRunning());
+        } catch (WriteException e) {
+            // thrown out of here the service would fail and stop recomputing
+            log.error("Failed recomputing deferred equivalence assertions", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(interval, interval, intervalUnit);
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.media.entity.Publisher;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An assertion that a subject is equivalent to a set of resources, for a set
+ * of sources, as given to
+ * {@link EquivalenceGraphStore#updateEquivalences(ResourceRef, Set, Set)}.
+ */
+public final class EquivalenceAssertion {
+
+    private final ResourceRef subject;
+    private final ImmutableSet<ResourceRef> assertedAdjacents;
+    private final ImmutableSet<Publisher> sources;
+
+    public EquivalenceAssertion(ResourceRef subject, Set<ResourceRef> assertedAdjacents,
+            Set<Publisher> sources) {
+        this.subject = checkNotNull(subject);
+        this.assertedAdjacents = ImmutableSet.copyOf(assertedAdjacents);
+        this.sources = ImmutableSet.copyOf(sources);
+    }
+
+    public ResourceRef getSubject() {
+        return subject;
+    }
+
+    public ImmutableSet<ResourceRef> getAssertedAdjacents() {
+        return assertedAdjacents;
+    }
+
+    public ImmutableSet<Publisher> getSources() {
+        return sources;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof EquivalenceAssertion) {
+            EquivalenceAssertion other = (EquivalenceAssertion) that;
+            return subject.equals(other.subject)
+                && assertedAdjacents.equals(other.assertedAdjacents)
+                && sources.equals(other.sources);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(subject, assertedAdjacents, sources);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("subject", subject)
+            .add("adjacents", assertedAdjacents)
+            .add("sources", sources)
+            .toString();
+    }
+
+}
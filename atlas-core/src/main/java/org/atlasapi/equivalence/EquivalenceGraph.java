@@ -50,18 +50,36 @@ public final class EquivalenceGraph implements Identifiable {
             return new Adjacents(subject, now, adjacents, adjacents);
         }
         
+        /**
+         * Create adjacents from efferent and afferent sets which already
+         * iterate in id order, so they needn't be sorted again.
+         */
+        static Adjacents sorted(ResourceRef subject, DateTime created,
+                ImmutableSet<ResourceRef> efferent, ImmutableSet<ResourceRef> afferent) {
+            return new Adjacents(subject, created, efferent, afferent, false);
+        }
+        
         private final ResourceRef subject;
         private final DateTime created;
         private final ImmutableSet<ResourceRef> efferent;
         private final ImmutableSet<ResourceRef> afferent;
         
         public Adjacents(ResourceRef subject, DateTime created, Set<ResourceRef> efferent, Set<ResourceRef> afferent) {
+            this(subject, created, efferent, afferent, true);
+        }
+
+        private Adjacents(ResourceRef subject, DateTime created, Set<ResourceRef> efferent,
+                Set<ResourceRef> afferent, boolean sort) {
             this.subject = checkNotNull(subject);
             this.created = checkNotNull(created);
             checkArgument(efferent.contains(subject));
             checkArgument(afferent.contains(subject));
-            this.efferent = ImmutableSet.copyOf(Identifiables.orderById().immutableSortedCopy(efferent));
-            this.afferent = ImmutableSet.copyOf(Identifiables.orderById().immutableSortedCopy(afferent));
+            this.efferent = sort ? orderedById(efferent) : ImmutableSet.copyOf(efferent);
+            this.afferent = sort ? orderedById(afferent) : ImmutableSet.copyOf(afferent);
+        }
+
+        private static ImmutableSet<ResourceRef> orderedById(Set<ResourceRef> refs) {
+            return ImmutableSet.copyOf(Identifiables.orderById().immutableSortedCopy(refs));
         }
         
         @Override
@@ -120,7 +138,7 @@ public final class EquivalenceGraph implements Identifiable {
         
         public Adjacents copyWithoutAfferent(ResourceRef ref) {
             return new Adjacents(subject, created, efferent, 
-                    Sets.filter(afferent, Predicates.not(Predicates.equalTo(ref))));
+                    Sets.filter(afferent, Predicates.not(Predicates.equalTo(ref))), false);
         }
         
         @Override
@@ -0,0 +1,205 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.atlasapi.entity.Id;
+import org.atlasapi.util.CacheMetrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.metabroadcast.common.collect.ImmutableOptionalMap;
+import com.metabroadcast.common.collect.OptionalMap;
+
+/**
+ * <p>
+ * A bounded read-through cache of {@link EquivalenceGraph}s, keyed by graph
+ * id, with an index from the ids of resources to the ids of their graphs, so a
+ * resource of a cached graph is resolved without reading the store's index or
+ * graph. The cache is bounded by the total number of resources in the graphs
+ * it holds.
+ * </p>
+ *
+ * <p>
+ * Graphs aren't updated in the cache, only invalidated, both by writes of this
+ * process and by the {@link EquivalenceGraphUpdateMessage}s of every process.
+ * Until a message from another process is received its graphs may be stale,
+ * so the cache must not be read by equivalence updates.
+ * </p>
+ */
+public final class EquivalenceGraphCache {
+
+    public static final Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private long maximumResources = 200000;
+        private long expiry = 10;
+        private TimeUnit expiryUnit = TimeUnit.MINUTES;
+        private MetricRegistry metrics = new MetricRegistry();
+        private String metricPrefix = "equivalence-graph-cache";
+
+        private Builder() { }
+
+        public Builder withMaximumResources(long maximumResources) {
+            checkArgument(maximumResources > 0, "maximumResources must be positive");
+            this.maximumResources = maximumResources;
+            return this;
+        }
+
+        public Builder withExpireAfterWrite(long expiry, TimeUnit unit) {
+            this.expiry = expiry;
+            this.expiryUnit = checkNotNull(unit);
+            return this;
+        }
+
+        public Builder withMetrics(MetricRegistry metrics, String metricPrefix) {
+            this.metrics = checkNotNull(metrics);
+            this.metricPrefix = checkNotNull(metricPrefix);
+            return this;
+        }
+
+        public EquivalenceGraphCache build() {
+            return new EquivalenceGraphCache(maximumResources, expiry, expiryUnit, metrics, metricPrefix);
+        }
+    }
+
+    private static final Weigher<Id, EquivalenceGraph> WEIGHER = new Weigher<Id, EquivalenceGraph>() {
+        @Override
+        public int weigh(Id graphId, EquivalenceGraph graph) {
+            return graph.getAdjacencyList().size();
+        }
+    };
+
+    private final Cache<Id, EquivalenceGraph> graphs;
+    private final Cache<Id, Id> graphIds;
+    // incremented by every invalidation, so graphs read before one aren't cached after it
+    private final AtomicLong invalidations = new AtomicLong();
+    private final CacheMetrics cacheMetrics;
+
+    private EquivalenceGraphCache(long maximumResources, long expiry, TimeUnit expiryUnit,
+            MetricRegistry metrics, String metricPrefix) {
+        this.graphs = CacheBuilder.newBuilder()
+            .maximumWeight(maximumResources)
+            .weigher(WEIGHER)
+            .expireAfterWrite(expiry, expiryUnit)
+            .build();
+        this.graphIds = CacheBuilder.newBuilder()
+            .maximumSize(maximumResources)
+            .expireAfterWrite(expiry, expiryUnit)
+            .build();
+        this.cacheMetrics = CacheMetrics.register(metrics, metricPrefix, graphs);
+    }
+
+    /**
+     * Resolve the graphs of resources from the cache, reading those which
+     * aren't cached with the given function and caching them.
+     *
+     * @param ids
+     *            - the ids of the resources
+     * @param store
+     *            - resolves graphs from the store
+     */
+    public ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolveIds(Iterable<Id> ids,
+            Function<Iterable<Id>, ListenableFuture<OptionalMap<Id, EquivalenceGraph>>> store) {
+        final Map<Id, EquivalenceGraph> cached = Maps.newHashMap();
+        Set<Id> missing = Sets.newLinkedHashSet();
+        for (Id id : ids) {
+            EquivalenceGraph graph = getIfPresent(id);
+            if (graph != null) {
+                cached.put(id, graph);
+            } else {
+                missing.add(id);
+            }
+        }
+        cacheMetrics.hits(cached.size());
+        cacheMetrics.misses(missing.size());
+        if (missing.isEmpty()) {
+            return Futures.<OptionalMap<Id, EquivalenceGraph>>immediateFuture(
+                ImmutableOptionalMap.fromMap(cached));
+        }
+        final long invalidationsBefore = invalidations.get();
+        return Futures.transform(store.apply(missing),
+            new Function<OptionalMap<Id, EquivalenceGraph>, OptionalMap<Id, EquivalenceGraph>>() {
+                @Override
+                public OptionalMap<Id, EquivalenceGraph> apply(OptionalMap<Id, EquivalenceGraph> resolved) {
+                    Map<Id, EquivalenceGraph> graphs = Maps.newHashMap(cached);
+                    for (Map.Entry<Id, Optional<EquivalenceGraph>> graph : resolved.entrySet()) {
+                        if (graph.getValue().isPresent()) {
+                            graphs.put(graph.getKey(), graph.getValue().get());
+                            put(graph.getValue().get(), invalidationsBefore);
+                        }
+                    }
+                    return ImmutableOptionalMap.fromMap(graphs);
+                }
+            });
+    }
+
+    private EquivalenceGraph getIfPresent(Id id) {
+        Id graphId = graphIds.getIfPresent(id);
+        if (graphId == null) {
+            return null;
+        }
+        EquivalenceGraph graph = graphs.getIfPresent(graphId);
+        // the graph id may since have been reused for a graph without the resource
+        return graph != null && graph.getEquivalenceSet().contains(id) ? graph : null;
+    }
+
+    private void put(EquivalenceGraph graph, long invalidationsBefore) {
+        if (invalidations.get() != invalidationsBefore) {
+            return;
+        }
+        graphs.put(graph.getId(), graph);
+        for (Id id : graph.getEquivalenceSet()) {
+            graphIds.put(id, graph.getId());
+        }
+        // an invalidation between the check and the put may have missed it
+        if (invalidations.get() != invalidationsBefore) {
+            graphs.invalidate(graph.getId());
+        }
+    }
+
+    /**
+     * Remove the graphs of the given resources, and any graphs with their
+     * ids.
+     */
+    public void invalidate(Iterable<Id> ids) {
+        invalidations.incrementAndGet();
+        for (Id id : ids) {
+            Id graphId = graphIds.getIfPresent(id);
+            if (graphId != null) {
+                graphs.invalidate(graphId);
+            }
+            graphs.invalidate(id);
+            graphIds.invalidate(id);
+        }
+    }
+
+    /**
+     * Remove all the graphs changed by an update.
+     */
+    public void invalidate(EquivalenceGraphUpdate update) {
+        ImmutableSet.Builder<Id> ids = ImmutableSet.<Id>builder().addAll(update.getDeleted());
+        for (EquivalenceGraph graph : update.getAllGraphs()) {
+            ids.addAll(graph.getEquivalenceSet());
+        }
+        invalidate(ids.build());
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.atlasapi.equivalence;
 
+import java.util.List;
 import java.util.Set;
 
 import org.atlasapi.entity.Id;
@@ -8,6 +9,7 @@ import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.media.entity.Publisher;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.OptionalMap;
 
@@ -62,6 +64,29 @@ public interface EquivalenceGraphStore {
     Optional<EquivalenceGraphUpdate> updateEquivalences(ResourceRef subject,
             Set<ResourceRef> assertedAdjacents, Set<Publisher> sources) throws WriteException;
 
+    /**
+     * <p>
+     * Record a batch of assertions, with the same effect as recording each in
+     * turn with {@link #updateEquivalences(ResourceRef, Set, Set)}.
+     * </p>
+     * 
+     * <p>
+     * Assertions whose transitive sets overlap are resolved and stored
+     * together, and result in a single {@link EquivalenceGraphUpdate} covering
+     * all the graphs they change.
+     * </p>
+     * 
+     * @param assertions
+     *            - the assertions to record, in order.
+     * @return - an {@link EquivalenceGraphUpdate} for each group of overlapping
+     *         assertions which resulted in an update.
+     * @throws WriteException
+     *             - if there is an exception recording the update of
+     *             equivalences. Groups recorded before it remain recorded.
+     */
+    ImmutableList<EquivalenceGraphUpdate> updateEquivalences(List<EquivalenceAssertion> assertions)
+            throws WriteException;
+
     ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolveIds(Iterable<Id> ids);
 
 }
@@ -0,0 +1,172 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * Finds the graphs which result from updating the adjacents of a subject,
+ * given the graphs before the update, without recomputing the transitive set
+ * of every node.
+ * </p>
+ *
+ * <p>
+ * An update only adds and removes edges of the subject, and every graph it
+ * touches contains the subject or one of its asserted adjacents, so they all
+ * merge into one. That can only split where an edge of the subject was
+ * removed: each node which lost its edge is searched from until the
+ * subject's side is reached. If it isn't, the nodes searched form a graph of
+ * their own. The work is proportional to the parts split off, not the graph.
+ * </p>
+ */
+final class GraphComponents {
+
+    private GraphComponents() {
+    }
+
+    /**
+     * @param subject
+     *            - the node whose adjacents were updated
+     * @param before
+     *            - the graphs of the subject and its asserted adjacents before
+     *            the update
+     * @param updated
+     *            - the adjacents of every node of those graphs after the
+     *            update
+     * @return the graphs after the update, by id.
+     */
+    static Map<Id, EquivalenceGraph> afterUpdate(ResourceRef subject,
+            Iterable<EquivalenceGraph> before, Map<Id, Adjacents> updated) {
+        Map<Id, Adjacents> previous = Maps.newHashMapWithExpectedSize(updated.size());
+        for (EquivalenceGraph graph : before) {
+            previous.putAll(graph.getAdjacencyList());
+        }
+        checkState(previous.keySet().equals(updated.keySet()),
+            "updated nodes %s not those of graphs %s", updated.keySet(), previous.keySet());
+
+        Set<Id> detached = detached(subject.getId(), previous, updated);
+        if (detached.isEmpty()) {
+            return index(EquivalenceGraph.valueOf(ImmutableSet.copyOf(updated.values())));
+        }
+
+        Set<Id> connected = Sets.newHashSet(subject.getId());
+        Set<Id> splitOff = Sets.newHashSet();
+        List<Set<Id>> components = Lists.newArrayList();
+        for (Id id : detached) {
+            if (connected.contains(id) || splitOff.contains(id)) {
+                continue;
+            }
+            Set<Id> reached = Sets.newHashSet();
+            if (reaches(id, connected, updated, reached)) {
+                connected.addAll(reached);
+            } else {
+                splitOff.addAll(reached);
+                components.add(reached);
+            }
+        }
+
+        ImmutableMap.Builder<Id, EquivalenceGraph> graphs = ImmutableMap.builder();
+        put(graphs, Maps.filterKeys(updated, Predicates.not(Predicates.in(splitOff))).values());
+        for (Set<Id> component : components) {
+            put(graphs, Maps.filterKeys(updated, Predicates.in(component)).values());
+        }
+        return graphs.build();
+    }
+
+    /**
+     * The nodes which shared an edge with the subject before the update but
+     * don't after it. Only the subject and nodes adjacent to it change.
+     */
+    private static Set<Id> detached(Id subject, Map<Id, Adjacents> previous,
+            Map<Id, Adjacents> updated) {
+        Adjacents subjectBefore = previous.get(subject);
+        Adjacents subjectAfter = updated.get(subject);
+        checkState(subjectBefore != null && subjectAfter != null, "subject %s not in graphs", subject);
+        Set<Id> detached = Sets.newLinkedHashSet();
+        for (ResourceRef adjacent : subjectBefore.getAdjacent()) {
+            Adjacents adjacentAfter = updated.get(adjacent.getId());
+            if (adjacentAfter != null && !adjacent(subjectAfter, adjacentAfter)) {
+                detached.add(adjacent.getId());
+            }
+        }
+        for (Map.Entry<Id, Adjacents> node : updated.entrySet()) {
+            Adjacents nodeBefore = previous.get(node.getKey());
+            if (node.getValue() != nodeBefore
+                && adjacent(subjectBefore, nodeBefore)
+                && !adjacent(subjectAfter, node.getValue())) {
+                detached.add(node.getKey());
+            }
+        }
+        detached.remove(subject);
+        return detached;
+    }
+
+    // by id, as the same resource may be referred to by refs of different types
+    private static boolean adjacent(Adjacents a, Adjacents b) {
+        return hasAdjacent(a, b.getId()) || hasAdjacent(b, a.getId());
+    }
+
+    private static boolean hasAdjacent(Adjacents adjacents, Id id) {
+        for (ResourceRef adjacent : adjacents.getAdjacent()) {
+            if (adjacent.getId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search the updated graph from a node until a node known to be connected
+     * to the subject is found, recording every node reached.
+     *
+     * @return true if the node is connected to the subject, false if it isn't,
+     *         in which case the nodes reached are its whole graph.
+     */
+    private static boolean reaches(Id start, Set<Id> connected, Map<Id, Adjacents> updated,
+            Set<Id> reached) {
+        Queue<Id> work = new ArrayDeque<Id>();
+        work.add(start);
+        reached.add(start);
+        while (!work.isEmpty()) {
+            Adjacents current = updated.get(work.poll());
+            for (ResourceRef adjacent : current.getAdjacent()) {
+                Id id = adjacent.getId();
+                if (connected.contains(id)) {
+                    return true;
+                }
+                checkState(updated.containsKey(id), "adjacent %s of %s not in graphs", id, current.getId());
+                if (reached.add(id)) {
+                    work.add(id);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void put(ImmutableMap.Builder<Id, EquivalenceGraph> graphs,
+            Iterable<Adjacents> component) {
+        EquivalenceGraph graph = EquivalenceGraph.valueOf(ImmutableSet.copyOf(component));
+        graphs.put(graph.getId(), graph);
+    }
+
+    private static Map<Id, EquivalenceGraph> index(EquivalenceGraph graph) {
+        return ImmutableMap.of(graph.getId(), graph);
+    }
+
+}
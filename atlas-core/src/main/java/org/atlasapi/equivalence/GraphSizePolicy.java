@@ -0,0 +1,175 @@
+package org.atlasapi.equivalence;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import org.atlasapi.media.entity.Publisher;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * How large the transitive set of an equivalence update may be, by the source
+ * of its subject, and what happens to updates which exceed it.
+ * </p>
+ *
+ * <p>
+ * By default an oversize update is dropped. If oversize updates are deferred
+ * the assertion is stored as it is, without updating any graph, to be applied
+ * later with a larger limit, away from the latency of the update path.
+ * </p>
+ *
+ * <p>
+ * Update times, the sizes of the transitive sets updated and the numbers of
+ * oversize updates dropped and deferred are recorded in the metric registry.
+ * </p>
+ */
+public final class GraphSizePolicy {
+
+    public static final int DEFAULT_LIMIT = 150;
+
+    public static GraphSizePolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int defaultLimit = DEFAULT_LIMIT;
+        private final Map<Publisher, Integer> limits = Maps.newHashMap();
+        private Optional<Integer> deferredLimit = Optional.absent();
+        private MetricRegistry metrics = new MetricRegistry();
+        private String metricPrefix = "equivalence-graph-store";
+
+        private Builder() {
+        }
+
+        public Builder withDefaultLimit(int limit) {
+            checkArgument(limit > 0, "limit must be positive");
+            this.defaultLimit = limit;
+            return this;
+        }
+
+        public Builder withLimit(Publisher source, int limit) {
+            checkArgument(limit > 0, "limit must be positive");
+            this.limits.put(checkNotNull(source), limit);
+            return this;
+        }
+
+        /**
+         * Set limits for sources from a specification of the form
+         * {@code <source key>:<limit>,...}, for example
+         * {@code pressassociation.com:300,bbc.co.uk:100}.
+         */
+        public Builder withLimits(String spec) {
+            Map<String, String> sourceLimits = Splitter.on(',').omitEmptyStrings().trimResults()
+                .withKeyValueSeparator(':').split(checkNotNull(spec));
+            for (Map.Entry<String, String> sourceLimit : sourceLimits.entrySet()) {
+                withLimit(Publisher.fromKey(sourceLimit.getKey().trim()).requireValue(),
+                    Integer.parseInt(sourceLimit.getValue().trim()));
+            }
+            return this;
+        }
+
+        /**
+         * Defer oversize updates rather than dropping them, to be applied
+         * later if their transitive set is within the given limit.
+         */
+        public Builder deferringOversize(int deferredLimit) {
+            checkArgument(deferredLimit > 0, "deferred limit must be positive");
+            this.deferredLimit = Optional.of(deferredLimit);
+            return this;
+        }
+
+        public Builder withMetrics(MetricRegistry metrics, String metricPrefix) {
+            this.metrics = checkNotNull(metrics);
+            this.metricPrefix = checkNotNull(metricPrefix);
+            return this;
+        }
+
+        public GraphSizePolicy build() {
+            return new GraphSizePolicy(defaultLimit, limits, deferredLimit, metrics, metricPrefix);
+        }
+
+    }
+
+    private final int defaultLimit;
+    private final ImmutableMap<Publisher, Integer> limits;
+    private final Optional<Integer> deferredLimit;
+
+    private final Timer updates;
+    private final Timer batchUpdates;
+    private final Histogram transitiveSetSizes;
+    private final Counter dropped;
+    private final Counter deferred;
+
+    private GraphSizePolicy(int defaultLimit, Map<Publisher, Integer> limits,
+            Optional<Integer> deferredLimit, MetricRegistry metrics, String metricPrefix) {
+        this.defaultLimit = defaultLimit;
+        this.limits = ImmutableMap.copyOf(limits);
+        this.deferredLimit = deferredLimit;
+        this.updates = metrics.timer(name(metricPrefix, "updates"));
+        this.batchUpdates = metrics.timer(name(metricPrefix, "batch-updates"));
+        this.transitiveSetSizes = metrics.histogram(name(metricPrefix, "transitive-set-size"));
+        this.dropped = metrics.counter(name(metricPrefix, "oversize", "dropped"));
+        this.deferred = metrics.counter(name(metricPrefix, "oversize", "deferred"));
+    }
+
+    public int limitFor(Publisher source) {
+        Integer limit = limits.get(source);
+        return limit != null ? limit : defaultLimit;
+    }
+
+    public boolean defersOversize() {
+        return deferredLimit.isPresent();
+    }
+
+    /**
+     * @return the limit deferred updates are applied with.
+     * @throws IllegalStateException
+     *             if oversize updates aren't deferred.
+     */
+    public int deferredLimit() {
+        return deferredLimit.get();
+    }
+
+    Timer.Context timeUpdate() {
+        return updates.time();
+    }
+
+    Timer.Context timeBatchUpdate() {
+        return batchUpdates.time();
+    }
+
+    void recordTransitiveSetSize(int size) {
+        transitiveSetSizes.update(size);
+    }
+
+    void recordDropped() {
+        dropped.inc();
+    }
+
+    void recordDeferred() {
+        deferred.inc();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GraphSizePolicy[%s, %s, deferred: %s]",
+            defaultLimit, limits, deferredLimit);
+    }
+
+}
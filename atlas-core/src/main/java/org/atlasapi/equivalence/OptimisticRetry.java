@@ -0,0 +1,59 @@
+package org.atlasapi.equivalence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Random;
+
+/**
+ * How an optimistic equivalence update is retried when it conflicts with
+ * another: up to a number of attempts, backing off for a random time up to an
+ * interval which doubles with each attempt, to a maximum.
+ */
+public final class OptimisticRetry {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 20;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 2000;
+
+    public static OptimisticRetry defaultRetry() {
+        return of(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    public static OptimisticRetry of(int maxAttempts, long initialBackoffMillis) {
+        return new OptimisticRetry(maxAttempts, initialBackoffMillis, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    private final Random random = new Random();
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private OptimisticRetry(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        checkArgument(initialBackoffMillis > 0, "initialBackoffMillis must be positive");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sleep before the attempt following the given one. The random backoff
+     * spreads out updates which conflicted so they don't conflict again.
+     */
+    public void backOff(int attempt) throws InterruptedException {
+        long interval = initialBackoffMillis << Math.min(attempt - 1, 20);
+        long bound = Math.min(interval, maxBackoffMillis);
+        Thread.sleep((long) (random.nextDouble() * bound) + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OptimisticRetry[%s attempts, %sms backoff]",
+            maxAttempts, initialBackoffMillis);
+    }
+
+}
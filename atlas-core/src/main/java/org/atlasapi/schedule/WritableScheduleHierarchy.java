@@ -150,8 +150,8 @@ class WritableScheduleHierarchy {
                     }
                 }
             }
-            results.add(contentStore.writeContent(item));
         }
+        results.addAll(contentStore.writeContents(items));
     }
 
 }
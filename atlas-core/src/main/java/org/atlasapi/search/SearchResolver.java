@@ -1,12 +1,19 @@
 package org.atlasapi.search;
 
 import java.util.List;
+import java.util.Set;
 
+import org.atlasapi.annotation.Annotation;
 import org.atlasapi.application.ApplicationSources;
 import org.atlasapi.content.Identified;
 
 public interface SearchResolver {
 
-    List<Identified> search(SearchQuery query, ApplicationSources sources);
+    /**
+     * @param annotations
+     *            - the annotations with which results will be output, so that
+     *            only the data required for them need be resolved.
+     */
+    List<Identified> search(SearchQuery query, ApplicationSources sources, Set<Annotation> annotations);
     
 }
@@ -0,0 +1,60 @@
+package org.atlasapi.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+
+/**
+ * The hits, misses, hit rate and number of entries of a {@link Cache},
+ * registered in a {@link MetricRegistry} under a prefix.
+ */
+public final class CacheMetrics {
+
+    public static CacheMetrics register(MetricRegistry metrics, String prefix, final Cache<?, ?> cache) {
+        checkNotNull(cache);
+        CacheMetrics cacheMetrics = new CacheMetrics(metrics, prefix);
+        metrics.register(name(prefix, "entries"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+        return cacheMetrics;
+    }
+
+    private final Counter hits;
+    private final Counter misses;
+
+    private CacheMetrics(MetricRegistry metrics, String prefix) {
+        this.hits = metrics.counter(name(prefix, "hits"));
+        this.misses = metrics.counter(name(prefix, "misses"));
+        metrics.register(name(prefix, "hit-rate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    public void hit() {
+        hits.inc();
+    }
+
+    public void hits(long n) {
+        hits.inc(n);
+    }
+
+    public void miss() {
+        misses.inc();
+    }
+
+    public void misses(long n) {
+        misses.inc(n);
+    }
+
+}
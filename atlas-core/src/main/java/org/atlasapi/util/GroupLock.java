@@ -1,11 +1,14 @@
 package org.atlasapi.util;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 
 /**
  * <p>
@@ -19,6 +22,13 @@ import com.google.common.collect.Sets;
  * twice it will block until interrupted.
  * </p>
  * 
+ * <p>
+ * Each locked value has its own lock, held in a concurrent map only while the
+ * value is locked, so threads locking different values don't contend. Threads
+ * waiting on a value queue in arrival order and an unlock hands the value
+ * straight to the first of them, waking only threads waiting on that value.
+ * </p>
+ * 
  * @param <T>
  *            - the type on which the lock acts.
  */
@@ -44,7 +54,23 @@ public final class GroupLock<T> {
         return new GroupLock<U>(Ordering.from(comparator));
     }
 
-    private final Set<T> locked = Sets.newHashSet();
+    /**
+     * The lock on a single value. Once retired it's been removed from the map
+     * and mustn't be used; a new one is created on the next lock.
+     */
+    private static final class ValueLock {
+
+        private final Queue<Thread> waiters = new ArrayDeque<Thread>();
+        private Thread owner;
+        private boolean retired;
+
+        private ValueLock(Thread owner) {
+            this.owner = owner;
+        }
+
+    }
+
+    private final ConcurrentMap<T, ValueLock> locked = Maps.newConcurrentMap();
     private final Ordering<? super T> ordering;
 
     private GroupLock(Ordering<? super T> ordering) {
@@ -68,18 +94,51 @@ public final class GroupLock<T> {
      *             thread was interrupted whilst waiting for the lock.
      */
     public void lock(T id) throws InterruptedException {
-        synchronized (locked) {
-            while (locked.contains(id)) {
-                locked.wait();
+        Thread current = Thread.currentThread();
+        while (true) {
+            ValueLock valueLock = locked.putIfAbsent(id, new ValueLock(current));
+            if (valueLock == null) {
+                return;
+            }
+            synchronized (valueLock) {
+                if (!valueLock.retired) {
+                    await(id, valueLock, current);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void await(T id, ValueLock valueLock, Thread current) throws InterruptedException {
+        valueLock.waiters.add(current);
+        try {
+            while (valueLock.owner != current) {
+                valueLock.wait();
+            }
+        } catch (InterruptedException e) {
+            if (!valueLock.waiters.remove(current)) {
+                // the value was handed over as this thread was interrupted
+                release(id, valueLock);
             }
-            locked.add(id);
+            throw e;
+        }
+    }
+
+    private void release(T id, ValueLock valueLock) {
+        Thread next = valueLock.waiters.poll();
+        if (next == null) {
+            valueLock.retired = true;
+            locked.remove(id, valueLock);
+        } else {
+            valueLock.owner = next;
+            valueLock.notifyAll();
         }
     }
 
     /**
      * <p>
-     * Release the lock held on {@code id}. Any threads also attempting to lock
-     * this value will be awoken.
+     * Release the lock held on {@code id}. If other threads are waiting to
+     * lock this value it is handed to the one which has waited longest.
      * </p>
      * 
      * <p>
@@ -91,9 +150,13 @@ public final class GroupLock<T> {
      * @throws InterruptedException
      */
     public void unlock(T id) {
-        synchronized (locked) {
-            if (locked.remove(id)) {
-                locked.notifyAll();
+        ValueLock valueLock = locked.get(id);
+        if (valueLock == null) {
+            return;
+        }
+        synchronized (valueLock) {
+            if (!valueLock.retired) {
+                release(id, valueLock);
             }
         }
     }
@@ -108,12 +171,16 @@ public final class GroupLock<T> {
      *             thread was interrupted whilst waiting for the lock.
      */
     public boolean tryLock(T id) throws InterruptedException {
-        synchronized (locked) {
-            if (!locked.contains(id)) {
-                lock(id);
+        while (true) {
+            ValueLock valueLock = locked.putIfAbsent(id, new ValueLock(Thread.currentThread()));
+            if (valueLock == null) {
                 return true;
             }
-            return false;
+            synchronized (valueLock) {
+                if (!valueLock.retired) {
+                    return false;
+                }
+            }
         }
     }
 
@@ -127,7 +194,8 @@ public final class GroupLock<T> {
      * E.g. if {@code lock(Arrays.asList("A","B","C"))} is called by Thread 1
      * whilst {@code "C"} is already locked by Thread 2 then Thread 1 blocks,
      * holding locks on {@code "A"} and {@code "B"}, until it can lock
-     * {@code "C"}.
+     * {@code "C"}. If interrupted whilst waiting the locks already acquired
+     * are released.
      * </p>
      * 
      * @param ids
@@ -136,8 +204,14 @@ public final class GroupLock<T> {
      *             thread was interrupted whilst waiting for the lock.
      */
     public void lock(Set<T> ids) throws InterruptedException {
-        for (T id : ordering.sortedCopy(ids)) {
-            lock(id);
+        List<T> orderedIds = ordering.sortedCopy(ids);
+        for (T id : orderedIds) {
+            try {
+                lock(id);
+            } catch (InterruptedException e) {
+                unlockTill(orderedIds, id);
+                throw e;
+            }
         }
     }
 
@@ -163,16 +237,14 @@ public final class GroupLock<T> {
      *             thread was interrupted whilst waiting for the lock.
      */
     public boolean tryLock(Set<T> ids) throws InterruptedException {
-        synchronized (locked) {
-            List<T> orderedIds = ordering.sortedCopy(ids);
-            for (T id : orderedIds) {
-                if (!tryLock(id)) {
-                    unlockTill(orderedIds, id);
-                    return false;
-                }
+        List<T> orderedIds = ordering.sortedCopy(ids);
+        for (T id : orderedIds) {
+            if (!tryLock(id)) {
+                unlockTill(orderedIds, id);
+                return false;
             }
-            return true;
         }
+        return true;
     }
 
     private void unlockTill(List<T> orderedIds, T limit) {
@@ -0,0 +1,56 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.atlasapi.content.Item.ContainerSummary;
+import org.atlasapi.entity.Id;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ContainerSummaryCacheTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ContainerSummaryCache cache = ContainerSummaryCache.builder()
+            .withMetrics(metrics, "test")
+            .build();
+
+    @Test
+    public void testReturnsCachedSummaryAndCountsHitsAndMisses() {
+        ContainerSummary summary = new ContainerSummary("brand", "title", "description", null);
+        cache.put(Id.valueOf(1), summary, cache.generation());
+
+        assertThat(cache.get(Id.valueOf(1)), is(summary));
+        assertNull(cache.get(Id.valueOf(2)));
+        assertThat(metrics.getCounters().get("test.hits").getCount(), is(1L));
+        assertThat(metrics.getCounters().get("test.misses").getCount(), is(1L));
+    }
+
+    @Test
+    public void testInvalidationRemovesSummary() {
+        cache.put(Id.valueOf(1), new ContainerSummary("series", "title", "description", 1),
+            cache.generation());
+        assertTrue(cache.contains(Id.valueOf(1)));
+
+        cache.invalidate(Id.valueOf(1));
+
+        assertFalse(cache.contains(Id.valueOf(1)));
+        assertNull(cache.get(Id.valueOf(1)));
+    }
+
+    @Test
+    public void testDoesntCacheASummaryReadBeforeAnInvalidation() {
+        long generation = cache.generation();
+
+        cache.invalidate(Id.valueOf(1));
+        cache.put(Id.valueOf(1), new ContainerSummary("brand", "title", "description", null),
+            generation);
+
+        assertFalse(cache.contains(Id.valueOf(1)));
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.atlasapi.content;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNull;
+
+import org.atlasapi.entity.Alias;
+import org.atlasapi.entity.Id;
+import org.atlasapi.media.entity.Publisher;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ContentHashCacheTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ContentHashCache cache = ContentHashCache.builder()
+            .withMetrics(metrics, "test")
+            .build();
+
+    @Test
+    public void testFindsUnchangedContentByIdAndAlias() {
+        Item written = item(Id.valueOf(1), new Alias("uri", "one"));
+        cache.put(written, written.getId(), "hash");
+
+        assertThat(cache.unchangedId(item(Id.valueOf(1)), "hash"), is(Id.valueOf(1)));
+        assertThat(cache.unchangedId(item(null, new Alias("uri", "one")), "hash"), is(Id.valueOf(1)));
+        assertThat(metrics.getCounters().get("test.hits").getCount(), is(2L));
+        assertThat(cache.bytesHeld(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void testMissesChangedOrUnknownContent() {
+        Item written = item(Id.valueOf(1), new Alias("uri", "one"));
+        cache.put(written, written.getId(), "hash");
+
+        assertNull(cache.unchangedId(item(Id.valueOf(1)), "changed"));
+        assertNull(cache.unchangedId(item(null, new Alias("uri", "two")), "hash"));
+        Item otherSource = item(null, new Alias("uri", "one"));
+        otherSource.setPublisher(Publisher.C4);
+        assertNull(cache.unchangedId(otherSource, "hash"));
+        assertThat(metrics.getCounters().get("test.misses").getCount(), is(3L));
+    }
+
+    @Test
+    public void testInvalidationRemovesAllKeysAndReleasesBytes() {
+        Item written = item(Id.valueOf(1), new Alias("uri", "one"));
+        cache.put(written, written.getId(), "hash");
+
+        cache.invalidate(written);
+
+        assertNull(cache.unchangedId(item(Id.valueOf(1)), "hash"));
+        assertNull(cache.unchangedId(item(null, new Alias("uri", "one")), "hash"));
+        assertThat(cache.bytesHeld(), is(0L));
+    }
+
+    private Item item(Id id, Alias... aliases) {
+        Item item = new Item();
+        item.setId(id);
+        item.setPublisher(Publisher.BBC);
+        for (Alias alias : aliases) {
+            item.addAlias(alias);
+        }
+        return item;
+    }
+
+}
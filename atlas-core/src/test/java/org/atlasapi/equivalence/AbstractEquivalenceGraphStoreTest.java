@@ -11,8 +11,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
@@ -28,6 +31,7 @@ import org.atlasapi.entity.Identifiables;
 import org.atlasapi.entity.ResourceRef;
 import org.atlasapi.entity.Sourced;
 import org.atlasapi.entity.Sourceds;
+import org.atlasapi.entity.util.StoreException;
 import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
 import org.atlasapi.media.entity.Publisher;
@@ -47,6 +51,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -54,6 +59,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.ImmutableOptionalMap;
@@ -69,14 +75,24 @@ public class AbstractEquivalenceGraphStoreTest {
     private final Item c4Item = new Item(Id.valueOf(4), Publisher.C4);
     private final Item fiveItem = new Item(Id.valueOf(5), Publisher.FIVE);
     
-    private final class InMemoryEquivalenceGraphStore extends AbstractEquivalenceGraphStore {
+    private class InMemoryEquivalenceGraphStore extends AbstractEquivalenceGraphStore {
         
         private final Logger log = LoggerFactory.getLogger(getClass());
         private final ConcurrentMap<Id, EquivalenceGraph> store = Maps.newConcurrentMap();
         private final Function<Id, EquivalenceGraph> storeFn = Functions.forMap(store, null);
         private final GroupLock<Id> lock = GroupLock.natural();
+        private final Table<Id, Set<Publisher>, DeferredAssertion> deferrals = HashBasedTable.create();
+        private long lastDeferral = 0;
         
         public InMemoryEquivalenceGraphStore() {
+            this(Optional.<OptimisticRetry>absent());
+        }
+
+        public InMemoryEquivalenceGraphStore(Optional<OptimisticRetry> optimistic) {
+            this(optimistic, GraphSizePolicy.defaultPolicy());
+        }
+
+        public InMemoryEquivalenceGraphStore(Optional<OptimisticRetry> optimistic, GraphSizePolicy sizePolicy) {
             super(new MessageSender<EquivalenceGraphUpdateMessage>() {
                 @Override
                 public void sendMessage(EquivalenceGraphUpdateMessage message)  {
@@ -87,7 +103,7 @@ public class AbstractEquivalenceGraphStoreTest {
                 public void close() throws Exception {
                     
                 }
-            });
+            }, optimistic, sizePolicy);
         }
         
         @Override
@@ -111,6 +127,36 @@ public class AbstractEquivalenceGraphStoreTest {
                 }
             }
         }
+
+        @Override
+        protected void defer(EquivalenceAssertion assertion) {
+            deferrals.put(assertion.getSubject().getId(), assertion.getSources(),
+                new DeferredAssertion(assertion, ++lastDeferral));
+        }
+
+        @Override
+        protected Iterable<DeferredAssertion> deferred(int max) {
+            return ImmutableList.copyOf(Iterables.limit(deferrals.values(), max));
+        }
+
+        @Override
+        protected boolean isDeferred(DeferredAssertion deferred) {
+            EquivalenceAssertion assertion = deferred.getAssertion();
+            return deferred.equals(deferrals.get(assertion.getSubject().getId(), assertion.getSources()));
+        }
+
+        @Override
+        protected void removeDeferred(DeferredAssertion deferred) {
+            if (isDeferred(deferred)) {
+                EquivalenceAssertion assertion = deferred.getAssertion();
+                deferrals.remove(assertion.getSubject().getId(), assertion.getSources());
+            }
+        }
+
+        @Override
+        protected void removeDeferred(EquivalenceAssertion assertion) {
+            deferrals.remove(assertion.getSubject().getId(), assertion.getSources());
+        }
         
         @Override
         protected Logger log() {
@@ -123,6 +169,61 @@ public class AbstractEquivalenceGraphStoreTest {
         }
     }
     
+    /**
+     * Versions each resource by the number of commits to it. Commits can be
+     * made to conflict, or to fail, a number of times.
+     */
+    private final class OptimisticInMemoryEquivalenceGraphStore extends InMemoryEquivalenceGraphStore {
+
+        private final Map<Id, Long> versions = Maps.newHashMap();
+        private final List<Map<Id, Long>> released = Lists.newArrayList();
+        private int commits = 0;
+        private int conflicts = 0;
+        private int failures = 0;
+
+        public OptimisticInMemoryEquivalenceGraphStore(int maxAttempts) {
+            super(Optional.of(OptimisticRetry.of(maxAttempts, 1)));
+        }
+
+        @Override
+        protected Optional<Map<Id, Long>> readVersions(Set<Id> ids) {
+            Map<Id, Long> read = Maps.newHashMap();
+            for (Id id : ids) {
+                read.put(id, Optional.fromNullable(versions.get(id)).or(0L));
+            }
+            return Optional.of(read);
+        }
+
+        @Override
+        protected Optional<Map<Id, Long>> claim(Map<Id, Long> versions) {
+            return Optional.of(versions);
+        }
+
+        @Override
+        protected boolean commit(ImmutableSet<EquivalenceGraph> graphs, Map<Id, Long> claims)
+                throws StoreException {
+            commits++;
+            if (failures > 0) {
+                failures--;
+                throw new WriteException("commit failed");
+            }
+            if (conflicts > 0) {
+                conflicts--;
+                return false;
+            }
+            doStore(graphs);
+            for (Entry<Id, Long> claim : claims.entrySet()) {
+                versions.put(claim.getKey(), claim.getValue() + 1);
+            }
+            return true;
+        }
+
+        @Override
+        protected void release(Map<Id, Long> claims) {
+            released.add(claims);
+        }
+    }
+
     private final InMemoryEquivalenceGraphStore store = new InMemoryEquivalenceGraphStore();
     
     @Before
@@ -397,6 +498,89 @@ public class AbstractEquivalenceGraphStoreTest {
         
     }
     
+    @Test
+    public void testBatchOfAssertionsResultsInOneUpdatePerOverlappingGroup() throws WriteException {
+        ImmutableList<EquivalenceGraphUpdate> updates = store.updateEquivalences(ImmutableList.of(
+            assertion(bbcItem, paItem),
+            assertion(itvItem, fiveItem),
+            assertion(paItem, c4Item)
+        ));
+        
+        assertThat(updates.size(), is(2));
+        assertEquals(graphOf(bbcItem), updates.get(0).getUpdated());
+        assertEquals(graphOf(itvItem), updates.get(1).getUpdated());
+        
+        assertEfferentAdjacents(bbcItem, paItem);
+        assertEfferentAdjacents(paItem, c4Item);
+        assertEfferentAdjacents(itvItem, fiveItem);
+        assertThat(graphOf(c4Item), adjacencyList(hasKey(bbcItem.getId())));
+        assertThat(graphOf(bbcItem), adjacencyList(not(hasKey(itvItem.getId()))));
+    }
+    
+    @Test
+    public void testBatchUpdateDeletesAllGraphsMergedByTheGroup() throws WriteException {
+        makeEquivalent(paItem, c4Item);
+        
+        ImmutableList<EquivalenceGraphUpdate> updates = store.updateEquivalences(ImmutableList.of(
+            assertion(bbcItem, itvItem),
+            assertion(itvItem, paItem)
+        ));
+        
+        assertThat(updates.size(), is(1));
+        assertEquals(graphOf(bbcItem), updates.get(0).getUpdated());
+        assertTrue(updates.get(0).getCreated().isEmpty());
+        assertEquals(ImmutableSet.of(paItem.getId(), itvItem.getId()), updates.get(0).getDeleted());
+        assertThat(graphOf(c4Item), adjacencyList(hasKey(bbcItem.getId())));
+    }
+    
+    @Test
+    public void testBatchMatchesApplyingAssertionsOneAtATime() throws WriteException {
+        GraphSizePolicy policy = GraphSizePolicy.builder().withDefaultLimit(3).build();
+        InMemoryEquivalenceGraphStore batched = new InMemoryEquivalenceGraphStore(
+            Optional.<OptimisticRetry>absent(), policy);
+        InMemoryEquivalenceGraphStore single = new InMemoryEquivalenceGraphStore(
+            Optional.<OptimisticRetry>absent(), policy);
+        batched.updateEquivalences(ImmutableList.of(assertion(bbcItem, paItem, itvItem)));
+        single.updateEquivalences(ImmutableList.of(assertion(bbcItem, paItem, itvItem)));
+
+        ImmutableList<EquivalenceAssertion> batch = ImmutableList.of(
+            // splits itv off
+            new EquivalenceAssertion(bbcItem.toRef(), ImmutableSet.<ResourceRef>of(paItem.toRef()),
+                sources(bbcItem, paItem, itvItem)),
+            // oversize before the split but not after it
+            assertion(itvItem, c4Item),
+            assertion(fiveItem, bbcItem),
+            // oversize once five has joined
+            assertion(c4Item, fiveItem)
+        );
+        batched.updateEquivalences(batch);
+        for (EquivalenceAssertion assertion : batch) {
+            single.updateEquivalences(assertion.getSubject(), assertion.getAssertedAdjacents(),
+                assertion.getSources());
+        }
+
+        for (Item item : ImmutableList.of(bbcItem, paItem, itvItem, c4Item, fiveItem)) {
+            assertEquals(single.store.get(item.getId()).getAdjacencyList(),
+                batched.store.get(item.getId()).getAdjacencyList());
+        }
+        assertThat(batched.store.get(itvItem.getId()).getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(itvItem.getId(), c4Item.getId())));
+        assertThat(batched.store.get(fiveItem.getId()).getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId(), fiveItem.getId())));
+    }
+    
+    private EquivalenceAssertion assertion(Item subj, Item... equivs) {
+        Iterable<Item> items = Iterables.concat(ImmutableList.of(subj), ImmutableList.copyOf(equivs));
+        ImmutableSet<Publisher> sources = FluentIterable.from(items)
+                .transform(Sourceds.toPublisher())
+                .toSet();
+        ImmutableSet.Builder<ResourceRef> adjacents = ImmutableSet.builder();
+        for (Item equiv : equivs) {
+            adjacents.add(equiv.toRef());
+        }
+        return new EquivalenceAssertion(subj.toRef(), adjacents.build(), sources);
+    }
+    
     private Optional<EquivalenceGraphUpdate> makeEquivalent(Item subj, Item...equivs) throws WriteException {
         Iterable<Item> items = Iterables.concat(ImmutableList.of(subj), ImmutableList.copyOf(equivs));
         ImmutableSet<Publisher> sources = FluentIterable.from(items)
@@ -406,6 +590,11 @@ public class AbstractEquivalenceGraphStoreTest {
     }
 
     private Optional<EquivalenceGraphUpdate> makeEquivalent(Item subj, Set<Publisher> sources, Item...equivs) throws WriteException {
+        return makeEquivalent(store, subj, sources, equivs);
+    }
+
+    private Optional<EquivalenceGraphUpdate> makeEquivalent(AbstractEquivalenceGraphStore store,
+            Item subj, Set<Publisher> sources, Item...equivs) throws WriteException {
         ImmutableList<Item> es = ImmutableList.copyOf(equivs);
         return store.updateEquivalences(subj.toRef(), ImmutableSet.copyOf(Iterables.transform(es,new Function<Item,ResourceRef>(){
             @Override
@@ -501,6 +690,149 @@ public class AbstractEquivalenceGraphStoreTest {
         
     }
 
+    @Test
+    public void testConflictingOptimisticCommitIsReleasedAndRetried() throws WriteException {
+        OptimisticInMemoryEquivalenceGraphStore optimistic = new OptimisticInMemoryEquivalenceGraphStore(3);
+        optimistic.conflicts = 1;
+
+        assertTrue(makeEquivalent(optimistic, bbcItem, sources(bbcItem, paItem), paItem).isPresent());
+
+        assertThat(optimistic.commits, is(2));
+        assertThat(optimistic.released.size(), is(1));
+        assertThat(optimistic.released.get(0).keySet(), is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId())));
+        assertThat(optimistic.store.get(bbcItem.getId()).getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId())));
+        assertThat(optimistic.versions.get(bbcItem.getId()), is(1L));
+    }
+
+    @Test
+    public void testOptimisticUpdateFailsWhenRetriesAreExhausted() {
+        OptimisticInMemoryEquivalenceGraphStore optimistic = new OptimisticInMemoryEquivalenceGraphStore(3);
+        optimistic.conflicts = Integer.MAX_VALUE;
+
+        try {
+            makeEquivalent(optimistic, bbcItem, sources(bbcItem, paItem), paItem);
+            fail("expected the update to fail after 3 attempts");
+        } catch (WriteException e) {
+            assertThat(optimistic.commits, is(3));
+            assertThat(optimistic.released.size(), is(3));
+            assertTrue(optimistic.store.isEmpty());
+        }
+    }
+
+    @Test
+    public void testClaimsAreReleasedWhenCommitFails() {
+        OptimisticInMemoryEquivalenceGraphStore optimistic = new OptimisticInMemoryEquivalenceGraphStore(3);
+        optimistic.failures = 1;
+
+        try {
+            makeEquivalent(optimistic, bbcItem, sources(bbcItem, paItem), paItem);
+            fail("expected the failed commit to fail the update");
+        } catch (WriteException e) {
+            assertThat(optimistic.commits, is(1));
+            assertThat(optimistic.released.size(), is(1));
+            assertTrue(optimistic.store.isEmpty());
+        }
+    }
+
+    @Test
+    public void testOversizeAssertionIsDeferredAndRecomputed() throws WriteException {
+        InMemoryEquivalenceGraphStore deferring = deferringStore();
+        makeEquivalent(deferring, bbcItem, sources(bbcItem, paItem), paItem);
+
+        assertFalse(makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem), bbcItem).isPresent());
+        assertFalse(deferring.store.containsKey(itvItem.getId()));
+        assertThat(deferring.deferrals.size(), is(1));
+
+        assertThat(deferring.recomputeDeferred(10), is(1));
+        assertThat(deferring.store.get(itvItem.getId()).getEquivalenceSet(),
+            is((Set<Id>) ImmutableSet.of(bbcItem.getId(), paItem.getId(), itvItem.getId())));
+        assertTrue(deferring.deferrals.isEmpty());
+    }
+
+    @Test
+    public void testDeferredAssertionStillOversizeIsDropped() throws WriteException {
+        InMemoryEquivalenceGraphStore deferring = deferringStore();
+        makeEquivalent(deferring, bbcItem, sources(bbcItem, paItem), paItem);
+        makeEquivalent(deferring, itvItem, sources(itvItem, c4Item), c4Item);
+        EquivalenceGraph itvGraph = deferring.store.get(itvItem.getId());
+
+        makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem), bbcItem);
+        assertThat(deferring.deferrals.size(), is(1));
+
+        assertThat(deferring.recomputeDeferred(10), is(1));
+        assertTrue(deferring.store.get(itvItem.getId()) == itvGraph);
+        assertTrue(deferring.deferrals.isEmpty());
+    }
+
+    @Test
+    public void testAppliedAssertionRemovesDeferralOfItsSubjectAndSources() throws WriteException {
+        InMemoryEquivalenceGraphStore deferring = deferringStore();
+        makeEquivalent(deferring, bbcItem, sources(bbcItem, paItem), paItem);
+        makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem), bbcItem);
+        assertThat(deferring.deferrals.size(), is(1));
+
+        makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem));
+
+        assertTrue(deferring.deferrals.isEmpty());
+        assertThat(deferring.recomputeDeferred(10), is(0));
+        assertFalse(deferring.store.get(bbcItem.getId()).getEquivalenceSet().contains(itvItem.getId()));
+    }
+
+    @Test
+    public void testDeferralReplacedWhileRecomputingSupersedesIt() throws WriteException {
+        final EquivalenceAssertion later = new EquivalenceAssertion(itvItem.toRef(),
+            ImmutableSet.<ResourceRef>of(c4Item.toRef()), sources(itvItem, bbcItem));
+        InMemoryEquivalenceGraphStore deferring = new InMemoryEquivalenceGraphStore(
+                Optional.<OptimisticRetry>absent(), deferringPolicy()) {
+            @Override
+            protected Iterable<DeferredAssertion> deferred(int max) {
+                Iterable<DeferredAssertion> deferred = super.deferred(max);
+                defer(later);
+                return deferred;
+            }
+        };
+        makeEquivalent(deferring, bbcItem, sources(bbcItem, paItem), paItem);
+        makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem), bbcItem);
+
+        assertThat(deferring.recomputeDeferred(10), is(0));
+
+        assertFalse(deferring.store.get(bbcItem.getId()).getEquivalenceSet().contains(itvItem.getId()));
+        assertThat(Iterables.getOnlyElement(deferring.deferrals.values()).getAssertion(), is(later));
+    }
+
+    @Test
+    public void testAssertionAppliedWhileRecomputingIsNotReverted() throws WriteException {
+        InMemoryEquivalenceGraphStore deferring = new InMemoryEquivalenceGraphStore(
+                Optional.<OptimisticRetry>absent(), deferringPolicy()) {
+            @Override
+            protected Iterable<DeferredAssertion> deferred(int max) {
+                Iterable<DeferredAssertion> deferred = super.deferred(max);
+                try {
+                    makeEquivalent(this, itvItem, sources(itvItem, bbcItem));
+                } catch (WriteException e) {
+                    throw new AssertionError(e);
+                }
+                return deferred;
+            }
+        };
+        makeEquivalent(deferring, bbcItem, sources(bbcItem, paItem), paItem);
+        makeEquivalent(deferring, itvItem, sources(itvItem, bbcItem), bbcItem);
+
+        assertThat(deferring.recomputeDeferred(10), is(0));
+
+        assertFalse(deferring.store.get(bbcItem.getId()).getEquivalenceSet().contains(itvItem.getId()));
+        assertTrue(deferring.deferrals.isEmpty());
+    }
+
+    private InMemoryEquivalenceGraphStore deferringStore() {
+        return new InMemoryEquivalenceGraphStore(Optional.<OptimisticRetry>absent(), deferringPolicy());
+    }
+
+    private GraphSizePolicy deferringPolicy() {
+        return GraphSizePolicy.builder().withDefaultLimit(2).deferringOversize(3).build();
+    }
+
 //    private void print(Item... items) {
 //        OptionalMap<Id, EquivalenceGraph> graphs = allGraphs(items[0], items);
 //        for (EquivalenceGraph g : Optional.presentInstances(graphs.values())) {
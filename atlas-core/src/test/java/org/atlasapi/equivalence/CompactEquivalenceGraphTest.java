@@ -0,0 +1,55 @@
+package org.atlasapi.equivalence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.atlasapi.content.ItemRef;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class CompactEquivalenceGraphTest {
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final ItemRef bbc = new ItemRef(Id.valueOf(3), Publisher.BBC, "", now);
+    private final ItemRef pa = new ItemRef(Id.valueOf(1), Publisher.PA, "", now);
+    private final ItemRef itv = new ItemRef(Id.valueOf(2), Publisher.ITV, "", now);
+
+    private final EquivalenceGraph graph = EquivalenceGraph.valueOf(ImmutableSet.of(
+        new Adjacents(bbc, now, ImmutableSet.<ResourceRef>of(bbc, pa, itv), ImmutableSet.<ResourceRef>of(bbc)),
+        new Adjacents(pa, now, ImmutableSet.<ResourceRef>of(pa), ImmutableSet.<ResourceRef>of(pa, bbc)),
+        new Adjacents(itv, now, ImmutableSet.<ResourceRef>of(itv), ImmutableSet.<ResourceRef>of(itv, bbc))
+    ));
+
+    @Test
+    public void testConvertsToAndFromEquivalenceGraph() {
+        CompactEquivalenceGraph compact = CompactEquivalenceGraph.valueOf(graph);
+
+        assertEquals(graph.getId(), compact.getId());
+        assertEquals(graph.getEquivalenceSet(), compact.getEquivalenceSet());
+        assertEquals(graph, compact.toEquivalenceGraph());
+    }
+
+    @Test
+    public void testNodesAndAdjacentsAreOrderedById() {
+        CompactEquivalenceGraph compact = CompactEquivalenceGraph.valueOf(graph);
+
+        assertEquals(1L, compact.id(0));
+        assertEquals(Publisher.PA, compact.source(0));
+        int bbcNode = compact.indexOf(3L);
+        assertEquals(Publisher.BBC, compact.source(bbcNode));
+        assertEquals(3, compact.efferent(bbcNode).length);
+        assertEquals(1L, compact.efferent(bbcNode)[0]);
+        assertTrue(compact.hasEfferent(bbcNode, 2L));
+        assertFalse(compact.hasAfferent(bbcNode, 2L));
+        assertFalse(compact.contains(4L));
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.atlasapi.equivalence;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Map;
+
+import org.atlasapi.content.ItemRef;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.metabroadcast.common.collect.ImmutableOptionalMap;
+import com.metabroadcast.common.collect.OptionalMap;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class EquivalenceGraphCacheTest {
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final ItemRef bbc = new ItemRef(Id.valueOf(1), Publisher.BBC, "", now);
+    private final ItemRef pa = new ItemRef(Id.valueOf(2), Publisher.PA, "", now);
+
+    private final EquivalenceGraph graph = EquivalenceGraph.valueOf(ImmutableSet.of(
+        new Adjacents(bbc, now, ImmutableSet.<ResourceRef>of(bbc, pa), ImmutableSet.<ResourceRef>of(bbc)),
+        new Adjacents(pa, now, ImmutableSet.<ResourceRef>of(pa), ImmutableSet.<ResourceRef>of(pa, bbc))
+    ));
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final EquivalenceGraphCache cache = EquivalenceGraphCache.builder()
+            .withMetrics(metrics, "test")
+            .build();
+
+    private final List<Iterable<Id>> reads = Lists.newArrayList();
+    private final Map<Id, EquivalenceGraph> stored = Maps.newHashMap();
+    private SettableFuture<OptionalMap<Id, EquivalenceGraph>> pendingRead;
+
+    private final Function<Iterable<Id>, ListenableFuture<OptionalMap<Id, EquivalenceGraph>>> store
+        = new Function<Iterable<Id>, ListenableFuture<OptionalMap<Id, EquivalenceGraph>>>() {
+            @Override
+            public ListenableFuture<OptionalMap<Id, EquivalenceGraph>> apply(Iterable<Id> ids) {
+                reads.add(ImmutableList.copyOf(ids));
+                if (pendingRead != null) {
+                    return pendingRead;
+                }
+                return Futures.<OptionalMap<Id, EquivalenceGraph>>immediateFuture(
+                    ImmutableOptionalMap.fromMap(Maps.filterKeys(stored, Predicates.in(ImmutableSet.copyOf(ids)))));
+            }
+        };
+
+    @Test
+    public void testResolvesAnyResourceOfACachedGraphWithoutReadingTheStore() {
+        store(graph);
+
+        resolve(bbc.getId());
+        assertThat(resolve(pa.getId()).get(pa.getId()).get(), is(graph));
+
+        assertThat(reads.size(), is(1));
+        assertThat(metrics.getCounters().get("test.hits").getCount(), is(1L));
+        assertThat(metrics.getCounters().get("test.misses").getCount(), is(1L));
+    }
+
+    @Test
+    public void testInvalidatingAnUpdateRemovesItsGraphs() {
+        store(graph);
+        resolve(bbc.getId());
+
+        cache.invalidate(new EquivalenceGraphUpdate(graph, ImmutableSet.<EquivalenceGraph>of(),
+            ImmutableSet.<Id>of()));
+        resolve(pa.getId());
+
+        assertThat(reads.size(), is(2));
+    }
+
+    @Test
+    public void testDoesntCacheAGraphReadBeforeAnInvalidation() {
+        pendingRead = SettableFuture.create();
+        ListenableFuture<OptionalMap<Id, EquivalenceGraph>> resolved
+            = cache.resolveIds(ImmutableList.of(bbc.getId()), store);
+
+        cache.invalidate(graph.getEquivalenceSet());
+        pendingRead.set(ImmutableOptionalMap.fromMap(ImmutableMap.of(bbc.getId(), graph)));
+        assertThat(Futures.getUnchecked(resolved).get(bbc.getId()).get(), is(graph));
+
+        pendingRead = null;
+        resolve(bbc.getId());
+        assertThat(reads.size(), is(2));
+    }
+
+    private void store(EquivalenceGraph graph) {
+        for (Id id : graph.getEquivalenceSet()) {
+            stored.put(id, graph);
+        }
+    }
+
+    private OptionalMap<Id, EquivalenceGraph> resolve(Id id) {
+        return Futures.getUnchecked(cache.resolveIds(ImmutableList.of(id), store));
+    }
+
+}
@@ -0,0 +1,253 @@
+package org.atlasapi.equivalence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+
+import org.atlasapi.content.ItemRef;
+import org.atlasapi.entity.Id;
+import org.atlasapi.entity.ResourceRef;
+import org.atlasapi.equivalence.EquivalenceGraph.Adjacents;
+import org.atlasapi.media.entity.Publisher;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.metabroadcast.common.time.DateTimeZones;
+
+public class GraphComponentsTest {
+
+    private final DateTime now = new DateTime(DateTimeZones.UTC);
+    private final ItemRef bbc = new ItemRef(Id.valueOf(1), Publisher.BBC, "", now);
+    private final ItemRef pa = new ItemRef(Id.valueOf(2), Publisher.PA, "", now);
+    private final ItemRef itv = new ItemRef(Id.valueOf(3), Publisher.ITV, "", now);
+    private final ItemRef c4 = new ItemRef(Id.valueOf(4), Publisher.C4, "", now);
+    private final ItemRef five = new ItemRef(Id.valueOf(5), Publisher.FIVE, "", now);
+
+    // bbc -> pa -> itv
+    private final Adjacents bbcAdjs = new Adjacents(bbc, now,
+        ImmutableSet.<ResourceRef>of(bbc, pa), ImmutableSet.<ResourceRef>of(bbc));
+    private final Adjacents paAdjs = new Adjacents(pa, now,
+        ImmutableSet.<ResourceRef>of(pa, itv), ImmutableSet.<ResourceRef>of(pa, bbc));
+    private final Adjacents itvAdjs = new Adjacents(itv, now,
+        ImmutableSet.<ResourceRef>of(itv), ImmutableSet.<ResourceRef>of(itv, pa));
+
+    private final EquivalenceGraph graph
+        = EquivalenceGraph.valueOf(ImmutableSet.of(bbcAdjs, paAdjs, itvAdjs));
+
+    @Test
+    public void testRemovingEdgeOfSubjectSplitsOffDetachedPart() {
+        Map<Id, Adjacents> updated = ImmutableMap.of(
+            bbc.getId(), bbcAdjs.copyWithEfferents(ImmutableSet.<ResourceRef>of(bbc)),
+            pa.getId(), paAdjs.copyWithoutAfferent(bbc),
+            itv.getId(), itvAdjs
+        );
+
+        Map<Id, EquivalenceGraph> graphs
+            = GraphComponents.afterUpdate(bbc, ImmutableList.of(graph), updated);
+
+        assertEquals(2, graphs.size());
+        assertEquals(ImmutableSet.of(bbc.getId()), graphs.get(bbc.getId()).getEquivalenceSet());
+        assertEquals(ImmutableSet.of(pa.getId(), itv.getId()), graphs.get(pa.getId()).getEquivalenceSet());
+    }
+
+    @Test
+    public void testRemovingEdgeOfSubjectStillConnectedKeepsOneGraph() {
+        // pa -> itv removed, but itv -> bbc added, so bbc is still connected
+        Map<Id, Adjacents> updated = ImmutableMap.of(
+            bbc.getId(), bbcAdjs.copyWithAfferent(itv),
+            pa.getId(), paAdjs.copyWithEfferents(ImmutableSet.<ResourceRef>of(pa)),
+            itv.getId(), new Adjacents(itv, now, ImmutableSet.<ResourceRef>of(itv, bbc), ImmutableSet.<ResourceRef>of(itv))
+        );
+
+        Map<Id, EquivalenceGraph> graphs
+            = GraphComponents.afterUpdate(pa, ImmutableList.of(graph), updated);
+
+        assertEquals(1, graphs.size());
+        assertEquals(graph.getEquivalenceSet(), graphs.get(bbc.getId()).getEquivalenceSet());
+    }
+
+    @Test
+    public void testAssertingAdjacentsInSeveralGraphsMergesThem() {
+        Multimap<ItemRef, ItemRef> edges = HashMultimap.create();
+        edges.put(pa, itv);
+        edges.put(c4, five);
+        Map<Id, Adjacents> adjacents = adjacents(ImmutableList.of(bbc, pa, itv, c4, five), edges);
+        List<EquivalenceGraph> before = graphs(adjacents);
+        assertEquals(3, before.size());
+
+        Map<Id, Adjacents> updated = update(bbc, ImmutableSet.of(pa, c4), adjacents);
+        Map<Id, EquivalenceGraph> graphs = GraphComponents.afterUpdate(bbc, before, updated);
+
+        assertEquals(1, graphs.size());
+        assertEquals(adjacents.keySet(), graphs.get(bbc.getId()).getEquivalenceSet());
+        assertEquals(updated, graphs.get(bbc.getId()).getAdjacencyList());
+    }
+
+    @Test
+    public void testRemovingEveryEdgeOfAHubSplitsIntoSeveralGraphs() {
+        // bbc -> pa, bbc -> itv -> five, c4 -> bbc
+        Multimap<ItemRef, ItemRef> edges = HashMultimap.create();
+        edges.putAll(bbc, ImmutableList.of(pa, itv));
+        edges.put(itv, five);
+        edges.put(c4, bbc);
+        Map<Id, Adjacents> adjacents = adjacents(ImmutableList.of(bbc, pa, itv, c4, five), edges);
+        List<EquivalenceGraph> before = graphs(adjacents);
+        assertEquals(1, before.size());
+
+        Map<Id, Adjacents> updated = update(bbc, ImmutableSet.<ItemRef>of(), adjacents);
+        Map<Id, EquivalenceGraph> graphs = GraphComponents.afterUpdate(bbc, before, updated);
+
+        // bbc keeps c4, whose edge it didn't assert
+        assertEquals(3, graphs.size());
+        assertEquals(ImmutableSet.of(bbc.getId(), c4.getId()), graphs.get(bbc.getId()).getEquivalenceSet());
+        assertEquals(ImmutableSet.of(pa.getId()), graphs.get(pa.getId()).getEquivalenceSet());
+        assertEquals(ImmutableSet.of(itv.getId(), five.getId()), graphs.get(itv.getId()).getEquivalenceSet());
+    }
+
+    @Test
+    public void testRandomUpdatesMatchSearchingTheWholeGraph() {
+        Random random = new Random(20140609L);
+        for (int round = 0; round < 1000; round++) {
+            List<ItemRef> refs = Lists.newArrayList();
+            int nodes = 2 + random.nextInt(15);
+            for (int i = 1; i <= nodes; i++) {
+                refs.add(new ItemRef(Id.valueOf(i), Publisher.BBC, "", now));
+            }
+            Multimap<ItemRef, ItemRef> edges = HashMultimap.create();
+            for (ItemRef from : refs) {
+                for (ItemRef to : refs) {
+                    if (from != to && random.nextInt(nodes) < 1) {
+                        edges.put(from, to);
+                    }
+                }
+            }
+            Map<Id, Adjacents> adjacents = adjacents(refs, edges);
+
+            ItemRef subject = refs.get(random.nextInt(nodes));
+            Set<ItemRef> asserted = Sets.newHashSet();
+            for (ItemRef ref : refs) {
+                if (ref != subject && random.nextInt(nodes) < 2) {
+                    asserted.add(ref);
+                }
+            }
+            List<EquivalenceGraph> before = Lists.newArrayList();
+            Map<Id, Adjacents> touched = Maps.newHashMap();
+            for (EquivalenceGraph graph : graphs(adjacents)) {
+                if (graph.getAdjacencyList().containsKey(subject.getId())
+                    || !Sets.intersection(graph.getEquivalenceSet(), ids(asserted)).isEmpty()) {
+                    before.add(graph);
+                    touched.putAll(graph.getAdjacencyList());
+                }
+            }
+
+            Map<Id, Adjacents> updated = update(subject, asserted, touched);
+            Map<Id, EquivalenceGraph> graphs = GraphComponents.afterUpdate(subject, before, updated);
+
+            String message = String.format("round %s: %s asserts %s of %s", round, subject.getId(), ids(asserted), edges);
+            Set<Set<Id>> components = Sets.newHashSet();
+            for (Map.Entry<Id, EquivalenceGraph> graph : graphs.entrySet()) {
+                assertEquals(message, graph.getKey(), graph.getValue().getId());
+                assertEquals(message, Maps.filterKeys(updated, Predicates.in(graph.getValue().getEquivalenceSet())),
+                    graph.getValue().getAdjacencyList());
+                components.add(graph.getValue().getEquivalenceSet());
+            }
+            assertEquals(message, components(updated), components);
+        }
+    }
+
+    /**
+     * Update the subject's efferents to the asserted adjacents, and their
+     * afferents to match, reusing the adjacents of nodes which don't change.
+     */
+    private Map<Id, Adjacents> update(ItemRef subject, Set<ItemRef> asserted, Map<Id, Adjacents> adjacents) {
+        Map<Id, Adjacents> updated = Maps.newHashMap();
+        for (Adjacents node : adjacents.values()) {
+            boolean wasEfferent = node.hasAfferentAdjacent(subject);
+            boolean isEfferent = asserted.contains(node.getRef());
+            if (node.getId().equals(subject.getId())) {
+                node = node.copyWithEfferents(ImmutableSet.<ResourceRef>builder()
+                    .add(subject).addAll(asserted).build());
+            } else if (wasEfferent && !isEfferent) {
+                node = node.copyWithoutAfferent(subject);
+            } else if (!wasEfferent && isEfferent) {
+                node = node.copyWithAfferent(subject);
+            }
+            updated.put(node.getId(), node);
+        }
+        return updated;
+    }
+
+    private Map<Id, Adjacents> adjacents(List<ItemRef> refs, Multimap<ItemRef, ItemRef> edges) {
+        Map<Id, Adjacents> adjacents = Maps.newHashMap();
+        for (ItemRef ref : refs) {
+            Set<ResourceRef> efferent = Sets.<ResourceRef>newHashSet(ref);
+            efferent.addAll(edges.get(ref));
+            Set<ResourceRef> afferent = Sets.<ResourceRef>newHashSet(ref);
+            for (Map.Entry<ItemRef, ItemRef> edge : edges.entries()) {
+                if (edge.getValue() == ref) {
+                    afferent.add(edge.getKey());
+                }
+            }
+            adjacents.put(ref.getId(), new Adjacents(ref, now, efferent, afferent));
+        }
+        return adjacents;
+    }
+
+    private List<EquivalenceGraph> graphs(Map<Id, Adjacents> adjacents) {
+        List<EquivalenceGraph> graphs = Lists.newArrayList();
+        for (Set<Id> component : components(adjacents)) {
+            graphs.add(EquivalenceGraph.valueOf(ImmutableSet.copyOf(
+                Maps.filterKeys(adjacents, Predicates.in(component)).values())));
+        }
+        return graphs;
+    }
+
+    /**
+     * The reference: the connected components found by searching from every
+     * node.
+     */
+    private static Set<Set<Id>> components(Map<Id, Adjacents> adjacents) {
+        Set<Set<Id>> components = Sets.newHashSet();
+        Set<Id> seen = Sets.newHashSet();
+        for (Id start : adjacents.keySet()) {
+            if (!seen.add(start)) {
+                continue;
+            }
+            Set<Id> component = Sets.newHashSet(start);
+            Queue<Id> work = new ArrayDeque<Id>(ImmutableList.of(start));
+            while (!work.isEmpty()) {
+                for (ResourceRef adjacent : adjacents.get(work.poll()).getAdjacent()) {
+                    if (seen.add(adjacent.getId())) {
+                        component.add(adjacent.getId());
+                        work.add(adjacent.getId());
+                    }
+                }
+            }
+            components.add(component);
+        }
+        return components;
+    }
+
+    private static Set<Id> ids(Set<ItemRef> refs) {
+        Set<Id> ids = Sets.newHashSet();
+        for (ItemRef ref : refs) {
+            ids.add(ref.getId());
+        }
+        return ids;
+    }
+
+}
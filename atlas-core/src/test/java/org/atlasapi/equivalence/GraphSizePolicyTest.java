@@ -0,0 +1,57 @@
+package org.atlasapi.equivalence;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.atlasapi.media.entity.Publisher;
+import org.junit.Test;
+
+public class GraphSizePolicyTest {
+
+    @Test
+    public void testParsesALimitForEachSource() {
+        String spec = String.format(" %s:300, %s : 100 ,", Publisher.PA.key(), Publisher.BBC.key());
+        GraphSizePolicy policy = GraphSizePolicy.builder()
+            .withDefaultLimit(50)
+            .withLimits(spec)
+            .build();
+
+        assertThat(policy.limitFor(Publisher.PA), is(300));
+        assertThat(policy.limitFor(Publisher.BBC), is(100));
+        assertThat(policy.limitFor(Publisher.ITV), is(50));
+    }
+
+    @Test
+    public void testEmptyLimitsLeaveTheDefault() {
+        GraphSizePolicy policy = GraphSizePolicy.builder().withLimits("").build();
+
+        assertThat(policy.limitFor(Publisher.PA), is(GraphSizePolicy.DEFAULT_LIMIT));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsASourceWithoutALimit() {
+        GraphSizePolicy.builder().withLimits(Publisher.PA.key());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsALimitWhichIsntANumber() {
+        GraphSizePolicy.builder().withLimits(Publisher.PA.key() + ":many");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectsANonPositiveLimit() {
+        GraphSizePolicy.builder().withLimits(Publisher.PA.key() + ":0");
+    }
+
+    @Test
+    public void testDefersOversizeOnlyWhenAsked() {
+        assertFalse(GraphSizePolicy.defaultPolicy().defersOversize());
+
+        GraphSizePolicy deferring = GraphSizePolicy.builder().deferringOversize(500).build();
+        assertTrue(deferring.defersOversize());
+        assertThat(deferring.deferredLimit(), is(500));
+    }
+
+}
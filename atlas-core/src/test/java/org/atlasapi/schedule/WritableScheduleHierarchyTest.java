@@ -57,16 +57,33 @@ public class WritableScheduleHierarchyTest {
             .then(new Answer<WriteResult<Content, Content>>() {
                 @Override
                 public WriteResult<Content, Content> answer(InvocationOnMock invocation) throws Throwable {
-                    Content written = (Content) invocation.getArguments()[0];
-                    Content copy = (Content) written.copy();
-                    if (copy.getId() == null) {
-                        copy.setId(copy.hashCode());
+                    return writtenCopy((Content) invocation.getArguments()[0]);
+                }
+            });
+        when(store.writeContents(Mockito.<Iterable<? extends Content>>any()))
+            .then(new Answer<List<WriteResult<? extends Content, Content>>>() {
+                @Override
+                public List<WriteResult<? extends Content, Content>> answer(InvocationOnMock invocation) throws Throwable {
+                    @SuppressWarnings("unchecked")
+                    Iterable<Content> written = (Iterable<Content>) invocation.getArguments()[0];
+                    ImmutableList.Builder<WriteResult<? extends Content, Content>> results
+                        = ImmutableList.builder();
+                    for (Content content : written) {
+                        results.add(writtenCopy(content));
                     }
-                    return WriteResult.<Content,Content>written(copy).withPrevious(written).build();
+                    return results.build();
                 }
             });
     }
     
+    private static WriteResult<Content, Content> writtenCopy(Content written) {
+        Content copy = (Content) written.copy();
+        if (copy.getId() == null) {
+            copy.setId(copy.hashCode());
+        }
+        return WriteResult.<Content,Content>written(copy).withPrevious(written).build();
+    }
+    
     @After
     public void reset() {
 //        Mockito.reset(store);
@@ -82,7 +99,7 @@ public class WritableScheduleHierarchyTest {
         List<WriteResult<? extends Content, Content>> results
             = WritableScheduleHierarchy.from(ImmutableList.of(niab)).writeTo(store);
         
-        verify(store).writeContent(niab.getItemAndBroadcast().getItem());
+        assertEquals(ImmutableList.of(niab.getItemAndBroadcast().getItem()), writtenItems());
         
         Content written = Iterables.getOnlyElement(results).getResource();
         assertEquals(written.getId().longValue(), (long)written.hashCode());
@@ -103,10 +120,7 @@ public class WritableScheduleHierarchyTest {
         List<WriteResult<? extends Content, Content>> results
             = WritableScheduleHierarchy.from(ImmutableList.of(iab1, iab2)).writeTo(store);
         
-        ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
-        verify(store, times(1)).writeContent(contentCaptor.capture());
-        
-        Item written = (Item) contentCaptor.getValue();
+        Item written = (Item) Iterables.getOnlyElement(writtenItems());
         
         assertEquals(Iterables.getOnlyElement(results).getResource().getId(), written.getId());
         assertThat(written.getBroadcasts(), hasItems(b1, b2));
@@ -129,10 +143,7 @@ public class WritableScheduleHierarchyTest {
         List<WriteResult<? extends Content, Content>> results
             = WritableScheduleHierarchy.from(ImmutableList.of(iab1, iab2)).writeTo(store);
         
-        ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
-        verify(store, times(1)).writeContent(contentCaptor.capture());
-        
-        Item written = (Item) contentCaptor.getValue();
+        Item written = (Item) Iterables.getOnlyElement(writtenItems());
         
         assertEquals(Iterables.getOnlyElement(results).getResource().getId(), written.getId());
         assertThat(written.getBroadcasts(), hasItems(b1, b2));
@@ -157,10 +168,7 @@ public class WritableScheduleHierarchyTest {
         List<WriteResult<? extends Content, Content>> results
             = WritableScheduleHierarchy.from(ImmutableList.of(iab1, iab2)).writeTo(store);
         
-        ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
-        verify(store, times(1)).writeContent(contentCaptor.capture());
-        
-        Item written = (Item) contentCaptor.getValue();
+        Item written = (Item) Iterables.getOnlyElement(writtenItems());
         
         assertEquals(Iterables.getOnlyElement(results).getResource().getId(), written.getId());
         assertThat(written.getBroadcasts(), hasItems(b1,b2));
@@ -180,10 +188,12 @@ public class WritableScheduleHierarchyTest {
         
         ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
         
-        verify(store, times(3)).writeContent(contentCaptor.capture());
+        verify(store, times(1)).writeContent(contentCaptor.capture());
         
         assertThat((Brand)contentCaptor.getAllValues().get(0), is(brand));
-        for (Content content : contentCaptor.getAllValues().subList(1, 2)) {
+        List<Content> items = writtenItems();
+        assertThat(items.size(), is(2));
+        for (Content content : items) {
             assertThat(((Item)content).getContainerRef(), is((ContainerRef)brand.toRef()));
         }
         
@@ -204,13 +214,15 @@ public class WritableScheduleHierarchyTest {
         
         ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
         
-        verify(store, times(4)).writeContent(contentCaptor.capture());
+        verify(store, times(2)).writeContent(contentCaptor.capture());
         
         assertThat((Brand)contentCaptor.getAllValues().get(0), is(brand));
         Series writtenSeries = (Series) contentCaptor.getAllValues().get(1);
         assertThat(writtenSeries, is(series));
         assertThat(writtenSeries.getBrandRef(), is(brand.toRef()));
-        for (Content content : contentCaptor.getAllValues().subList(2, 3)) {
+        List<Content> items = writtenItems();
+        assertThat(items.size(), is(2));
+        for (Content content : items) {
             assertThat(((Item)content).getContainerRef(), is((ContainerRef)brand.toRef()));
             assertThat(((Episode)content).getSeriesRef(), is(series.toRef()));
         }
@@ -227,9 +239,8 @@ public class WritableScheduleHierarchyTest {
         
         hierarchy.writeTo(store);
 
-        ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
-        verify(store, times(2)).writeContent(contentCaptor.capture());
-        assertNotNull(((Episode)contentCaptor.getAllValues().get(1)).getSeriesRef());
+        verify(store, times(1)).writeContent(series);
+        assertNotNull(((Episode)Iterables.getOnlyElement(writtenItems())).getSeriesRef());
     }
     
     @Test
@@ -242,9 +253,15 @@ public class WritableScheduleHierarchyTest {
         
         hierarchy.writeTo(store);
         
-        ArgumentCaptor<Content> contentCaptor = ArgumentCaptor.forClass(Content.class);
-        verify(store, times(2)).writeContent(contentCaptor.capture());
-        assertNull(((Episode)contentCaptor.getAllValues().get(1)).getSeriesRef());
+        verify(store, times(1)).writeContent(series);
+        assertNull(((Episode)Iterables.getOnlyElement(writtenItems())).getSeriesRef());
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<Content> writtenItems() throws WriteException {
+        ArgumentCaptor<Iterable> itemsCaptor = ArgumentCaptor.forClass(Iterable.class);
+        verify(store).writeContents(itemsCaptor.capture());
+        return ImmutableList.copyOf((Iterable<Content>) itemsCaptor.getValue());
     }
     
     private ItemAndBroadcast andBroadcast(Item item, Broadcast broadcast) {
@@ -0,0 +1,101 @@
+package org.atlasapi.util;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+/**
+ * Compares {@link GroupLock} against a lock guarding every value with one
+ * monitor, as it used to, when many threads lock small overlapping groups of
+ * values, as equivalence updates do. Run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main GroupLockBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+public class GroupLockBenchmark {
+
+    /**
+     * The previous implementation: a set of locked values guarded by its
+     * monitor, waking every waiting thread on every unlock.
+     */
+    private static final class MonitorGroupLock<T extends Comparable<? super T>> {
+
+        private final Set<T> locked = Sets.newHashSet();
+
+        public void lock(Set<T> ids) throws InterruptedException {
+            for (T id : Ordering.natural().sortedCopy(ids)) {
+                synchronized (locked) {
+                    while (locked.contains(id)) {
+                        locked.wait();
+                    }
+                    locked.add(id);
+                }
+            }
+        }
+
+        public void unlock(Set<T> ids) {
+            synchronized (locked) {
+                locked.removeAll(ids);
+                locked.notifyAll();
+            }
+        }
+
+    }
+
+    private static final int GROUP_SIZE = 4;
+
+    /** The number of distinct values groups are drawn from. */
+    @Param({"64", "4096"})
+    public int values;
+
+    private GroupLock<Long> groupLock;
+    private MonitorGroupLock<Long> monitorLock;
+
+    @Setup
+    public void setUp() {
+        groupLock = GroupLock.natural();
+        monitorLock = new MonitorGroupLock<Long>();
+    }
+
+    private Set<Long> group() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ImmutableSet.Builder<Long> group = ImmutableSet.builder();
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            group.add((long) random.nextInt(values));
+        }
+        return group.build();
+    }
+
+    @Benchmark
+    public Set<Long> groupLock() throws InterruptedException {
+        Set<Long> group = group();
+        groupLock.lock(group);
+        groupLock.unlock(group);
+        return group;
+    }
+
+    @Benchmark
+    public Set<Long> monitorLock() throws InterruptedException {
+        Set<Long> group = group();
+        monitorLock.lock(group);
+        monitorLock.unlock(group);
+        return group;
+    }
+
+}
@@ -4,15 +4,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 
 public class GroupLockTest {
@@ -162,4 +168,158 @@ public class GroupLockTest {
         assertTrue(lock.tryLock(ImmutableSet.of("A","B","C")));
     }
 
+    @Test
+    public void testHandsTheValueToWaitersInArrivalOrder() throws InterruptedException {
+
+        final GroupLock<String> lock = GroupLock.<String>natural();
+        final List<Integer> acquired = Lists.newCopyOnWriteArrayList();
+        lock.lock("A");
+
+        List<Thread> waiters = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            final int waiter = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        lock.lock("A");
+                        acquired.add(waiter);
+                        lock.unlock("A");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.start();
+            // each waiter is queued before the next arrives
+            awaitWaiting(thread);
+            waiters.add(thread);
+        }
+
+        lock.unlock("A");
+        for (Thread waiter : waiters) {
+            waiter.join(1000);
+        }
+        assertEquals(ImmutableList.of(0, 1, 2), acquired);
+    }
+
+    @Test
+    public void testInterruptedWaiterDoesntHoldTheValue() throws InterruptedException {
+
+        final GroupLock<String> lock = GroupLock.<String>natural();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        lock.lock("B");
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lock(ImmutableSet.of("A", "B"));
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        waiter.start();
+        awaitWaiting(waiter);
+        waiter.interrupt();
+        waiter.join(1000);
+
+        assertTrue(interrupted.get());
+        // the value already locked in the group is released
+        assertTrue(lock.tryLock("A"));
+        lock.unlock("B");
+        assertTrue(lock.tryLock("B"));
+    }
+
+    @Test
+    public void testValueHandedToAnInterruptedWaiterIsReleased() throws InterruptedException {
+
+        final GroupLock<String> lock = GroupLock.<String>natural();
+
+        // the waiter is interrupted as the value is handed to it, so it
+        // either locks the value or is interrupted; either way it ends up
+        // not holding the value.
+        for (int i = 0; i < 100; i++) {
+            lock.lock("A");
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        lock.lock("A");
+                        lock.unlock("A");
+                    } catch (InterruptedException e) {
+                    }
+                }
+            });
+            waiter.start();
+            awaitWaiting(waiter);
+            lock.unlock("A");
+            waiter.interrupt();
+            waiter.join(1000);
+
+            assertTrue(lock.tryLock("A"));
+            lock.unlock("A");
+        }
+    }
+
+    @Test
+    public void testValueIsLockedExclusivelyAsItsLockIsRetiredAndReplaced() throws Exception {
+
+        final GroupLock<String> lock = GroupLock.<String>natural();
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicInteger locks = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        int threads = 8;
+        final int iterations = 2000;
+
+        // each unlock without waiters retires the value's lock, racing other
+        // threads which found it in the map and have to lock a new one
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = Lists.newArrayList();
+        for (int t = 0; t < threads; t++) {
+            final boolean trying = t % 2 == 0;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        if (trying) {
+                            if (!lock.tryLock("A")) {
+                                continue;
+                            }
+                        } else {
+                            lock.lock("A");
+                        }
+                        if (holders.incrementAndGet() > 1) {
+                            overlapped.set(true);
+                        }
+                        locks.incrementAndGet();
+                        holders.decrementAndGet();
+                        lock.unlock("A");
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertFalse(overlapped.get());
+        assertTrue(locks.get() >= threads / 2 * iterations);
+        assertTrue(lock.tryLock("A"));
+    }
+
+    private void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue("thread didn't wait", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
 }
@@ -1,29 +1,110 @@
 package org.atlasapi.messaging;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.atlasapi.entity.util.WriteException;
+import org.atlasapi.equivalence.EquivalenceAssertion;
 import org.atlasapi.equivalence.EquivalenceGraphStore;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 import com.metabroadcast.common.queue.Worker;
 
-
+/**
+ * <p>
+ * Records the assertions of messages processed concurrently by a consumer's
+ * threads in batches, with
+ * {@link EquivalenceGraphStore#updateEquivalences(List)}.
+ * </p>
+ *
+ * <p>
+ * Each thread queues its assertion then takes the lock. The thread holding it
+ * records every assertion queued, up to the maximum batch size, so those
+ * queued whilst one batch is recorded are recorded together by the next. A
+ * thread returns once its own assertion has been recorded, or throws if its
+ * batch failed, so a message is never acknowledged before its assertion is
+ * recorded.
+ * </p>
+ */
 public class ContentEquivalenceUpdatingWorker implements Worker<EquivalenceAssertionMessage> {
 
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
     private final EquivalenceGraphStore graphStore;
+    private final int maxBatchSize;
+
+    private final Queue<QueuedAssertion> queued = Queues.newConcurrentLinkedQueue();
+    private final Lock recording = new ReentrantLock();
 
     public ContentEquivalenceUpdatingWorker(EquivalenceGraphStore graphStore) {
+        this(graphStore, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public ContentEquivalenceUpdatingWorker(EquivalenceGraphStore graphStore, int maxBatchSize) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
         this.graphStore = checkNotNull(graphStore);
+        this.maxBatchSize = maxBatchSize;
     }
-    
+
     @Override
     public void process(EquivalenceAssertionMessage message) {
+        QueuedAssertion assertion = new QueuedAssertion(new EquivalenceAssertion(message.getSubject(),
+            message.getAssertedAdjacents(), message.getPublishers()));
+        queued.add(assertion);
+        recording.lock();
+        try {
+            // a batch recorded by another thread may have included it
+            while (!assertion.recorded) {
+                recordQueued();
+            }
+        } finally {
+            recording.unlock();
+        }
+        if (assertion.failure != null) {
+            throw new RuntimeException(assertion.failure);
+        }
+    }
+
+    private void recordQueued() {
+        List<QueuedAssertion> batch = Lists.newArrayList();
+        List<EquivalenceAssertion> assertions = Lists.newArrayList();
+        QueuedAssertion next;
+        while (batch.size() < maxBatchSize && (next = queued.poll()) != null) {
+            batch.add(next);
+            assertions.add(next.assertion);
+        }
+        Exception failure = null;
         try {
-            graphStore.updateEquivalences(message.getSubject(), message.getAssertedAdjacents(), 
-                    message.getPublishers());
-        } catch (WriteException e) {
-            throw new RuntimeException(e);
+            graphStore.updateEquivalences(assertions);
+        } catch (WriteException | RuntimeException e) {
+            failure = e;
+        }
+        for (QueuedAssertion assertion : batch) {
+            assertion.failure = failure;
+            assertion.recorded = true;
+        }
+    }
+
+    /**
+     * An assertion waiting to be recorded. Its fields are only accessed whilst
+     * holding the lock, or after by the thread which queued it.
+     */
+    private static final class QueuedAssertion {
+
+        private final EquivalenceAssertion assertion;
+        private boolean recorded;
+        private Exception failure;
+
+        private QueuedAssertion(EquivalenceAssertion assertion) {
+            this.assertion = assertion;
         }
+
     }
 
 }
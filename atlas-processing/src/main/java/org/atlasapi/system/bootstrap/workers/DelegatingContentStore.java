@@ -1,6 +1,11 @@
 package org.atlasapi.system.bootstrap.workers;
 
+import java.util.List;
+import java.util.Set;
+
+import org.atlasapi.content.ChildRefPage;
 import org.atlasapi.content.Content;
+import org.atlasapi.content.ContentColumn;
 import org.atlasapi.content.ContentResolver;
 import org.atlasapi.content.ContentStore;
 import org.atlasapi.content.ContentWriter;
@@ -11,6 +16,7 @@ import org.atlasapi.entity.util.WriteException;
 import org.atlasapi.entity.util.WriteResult;
 import org.atlasapi.media.entity.Publisher;
 
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.collect.OptionalMap;
 
@@ -30,14 +36,44 @@ public final class DelegatingContentStore implements ContentStore {
         return resolver.resolveAliases(aliases, source);
     }
 
+    @Override
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases,
+            Set<Publisher> sources) {
+        return resolver.resolveAliases(aliases, sources);
+    }
+
     @Override
     public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids) {
         return resolver.resolveIds(ids);
     }
 
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids,
+            Set<ContentColumn> columns) {
+        return resolver.resolveIds(ids, columns);
+    }
+
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, String cursor,
+            int limit) {
+        return resolver.resolveChildRefs(containerId, cursor, limit);
+    }
+
     @Override
     public <C extends Content> WriteResult<C, Content> writeContent(C content)
             throws WriteException {
         return writer.writeContent(content);
     }
+
+    @Override
+    public <C extends Content> ListenableFuture<WriteResult<C, Content>> writeContentAsync(
+            C content) {
+        return writer.writeContentAsync(content);
+    }
+
+    @Override
+    public List<WriteResult<? extends Content, Content>> writeContents(
+            Iterable<? extends Content> contents) throws WriteException {
+        return writer.writeContents(contents);
+    }
 }
\ No newline at end of file
@@ -3,8 +3,11 @@ package org.atlasapi.system.legacy;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import org.atlasapi.content.ChildRefPage;
 import org.atlasapi.content.Content;
+import org.atlasapi.content.ContentColumn;
 import org.atlasapi.content.ContentResolver;
 import org.atlasapi.entity.Alias;
 import org.atlasapi.entity.Id;
@@ -21,12 +24,15 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSetMultimap.Builder;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Table;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.metabroadcast.common.base.MorePredicates;
@@ -57,6 +63,24 @@ public class LegacyContentResolver implements ContentResolver {
         return Futures.immediateFuture(Resolved.valueOf(transformed));
     }
 
+    @Override
+    public ListenableFuture<Resolved<Content>> resolveIds(Iterable<Id> ids, Set<ContentColumn> columns) {
+        // legacy content is always transformed in full
+        return resolveIds(ids);
+    }
+
+    @Override
+    public ListenableFuture<ChildRefPage> resolveChildRefs(Id containerId, final String cursor, final int limit) {
+        return Futures.transform(resolveIds(ImmutableSet.of(containerId)), 
+            new Function<Resolved<Content>, ChildRefPage>() {
+                @Override
+                public ChildRefPage apply(Resolved<Content> input) {
+                    Content container = Iterables.getFirst(input.getResources(), null);
+                    return ChildRefPage.fromContainer(container, cursor, limit);
+                }
+            });
+    }
+
     private Iterable<org.atlasapi.media.entity.Content> filterContent(ResolvedContent resolved) {
         Class<org.atlasapi.media.entity.Content> cls = org.atlasapi.media.entity.Content.class;
         return Iterables.filter(resolved.getAllResolvedResults(), cls);
@@ -65,6 +89,31 @@ public class LegacyContentResolver implements ContentResolver {
     @Override
     public OptionalMap<Alias, Content> resolveAliases(Iterable<Alias> aliases, Publisher source) {
         ImmutableSet<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
+        Map<Alias, Content> aliasToContent = Maps.newHashMap();
+        for (Content c : resolveAliasContent(uniqueAliases, ImmutableSet.of(source))) {
+            for (Alias alias : c.getAliases()) {
+                aliasToContent.put(alias, c);
+            }
+        }
+        Predicate<Alias> aliasFilter = Predicates.in(uniqueAliases);
+        return ImmutableOptionalMap.fromMap(Maps.filterKeys(aliasToContent, aliasFilter));
+    }
+
+    @Override
+    public Table<Alias, Publisher, Content> resolveAliases(Iterable<Alias> aliases, Set<Publisher> sources) {
+        ImmutableSet<Alias> uniqueAliases = ImmutableSet.copyOf(aliases);
+        Table<Alias, Publisher, Content> aliasToContent = HashBasedTable.create();
+        for (Content c : resolveAliasContent(uniqueAliases, sources)) {
+            for (Alias alias : c.getAliases()) {
+                if (uniqueAliases.contains(alias)) {
+                    aliasToContent.put(alias, c.getPublisher(), c);
+                }
+            }
+        }
+        return ImmutableTable.copyOf(aliasToContent);
+    }
+
+    private Iterable<Content> resolveAliasContent(Set<Alias> uniqueAliases, Set<Publisher> sources) {
         Multimap<String, String> aliasMap = index(uniqueAliases);
         Iterable<Iterable<LookupEntry>> entries = Iterables.transform(aliasMap.asMap().entrySet(),
             new Function<Entry<String, Collection<String>>,Iterable<LookupEntry>>(){
@@ -76,19 +125,11 @@ public class LegacyContentResolver implements ContentResolver {
             });
         Iterable<LookupEntry> allEntries = Iterables.concat(entries);
         Iterable<LookupRef> refs = Iterables.transform(allEntries, LookupEntry.TO_SELF);
-        Predicate<LookupRef> filter = MorePredicates.transformingPredicate(LookupRef.TO_SOURCE, Predicates.equalTo(source));
+        Predicate<LookupRef> filter = MorePredicates.transformingPredicate(LookupRef.TO_SOURCE, Predicates.in(sources));
         Iterable<LookupRef> filtered = Iterables.filter(refs, filter);
         ResolvedContent resolved = contentResolver.findByLookupRefs(filtered);
         Iterable<org.atlasapi.media.entity.Content> content = filterContent(resolved);
-        Iterable<Content> transformed = transformer.transform(content);
-        Map<Alias, Content> aliasToContent = Maps.newHashMap();
-        for (Content c : transformed) {
-            for (Alias alias : c.getAliases()) {
-                aliasToContent.put(alias, c);
-            }
-        }
-        Predicate<Alias> aliasFilter = Predicates.in(uniqueAliases);
-        return ImmutableOptionalMap.fromMap(Maps.filterKeys(aliasToContent, aliasFilter));
+        return transformer.transform(content);
     }
 
     private Multimap<String, String> index(Iterable<Alias> aliases) {